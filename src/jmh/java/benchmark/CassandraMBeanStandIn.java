@@ -0,0 +1,123 @@
+package benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Stands in for the Cassandra metric MBeans in this JVM, so collection can be benchmarked without a running node.
+ * Every numeric attribute the catalog reads (Value, Count, 95thPercentile) returns a fresh random value,
+ * kept under the default thresholds so the benchmarks do not measure the threshold warnings being logged.
+ */
+public class CassandraMBeanStandIn implements DynamicMBean {
+
+	private static final String[] ATTRIBUTES = { "Value", "Count", "95thPercentile" };
+
+	// One MBean per name the catalog reads, with a few scopes for the wildcard names.
+	private static final String[] OBJECT_NAMES = {
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=LiveSSTableCount,scope=standard1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=LiveSSTableCount,scope=counter1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=AllMemtablesLiveDataSize,scope=standard1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=AllMemtablesLiveDataSize,scope=counter1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=PendingFlushes,scope=standard1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=PendingFlushes,scope=counter1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:type=ClientRequest,scope=Read,name=Latency",
+			"org.apache.cassandra.metrics:type=ClientRequest,scope=Write,name=Latency",
+			"org.apache.cassandra.metrics:type=Compaction,name=PendingTasks",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=PendingTasks",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=ReadStage,name=PendingTasks",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=CurrentlyBlockedTasks",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=ReadStage,name=CurrentlyBlockedTasks",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=internal,scope=CompactionExecutor,name=CurrentlyBlockedTasks",
+			"org.apache.cassandra.metrics:type=DroppedMessage,scope=MUTATION,name=Dropped",
+			"org.apache.cassandra.metrics:type=DroppedMessage,scope=READ,name=Dropped",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=BytesFlushed,scope=standard1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:keyspace=${keyspace},name=BytesFlushed,scope=counter1,type=ColumnFamily",
+			"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=CompletedTasks",
+			"org.apache.cassandra.metrics:type=Compaction,name=TotalCompactionsCompleted"
+	};
+
+
+	/**
+	 * Register the stand-in MBeans for the given keyspace, unless they already are.
+	 *
+	 * @param server The MBean server, usually the platform server.
+	 * @param keyspace The keyspace to substitute into the names.
+	 * @throws JMException
+	 */
+	public static void register(MBeanServer server, String keyspace) throws JMException {
+		for (String objectName : OBJECT_NAMES) {
+			ObjectName name = new ObjectName(objectName.replace("${keyspace}", keyspace));
+
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new CassandraMBeanStandIn(), name);
+			}
+		}
+	}
+
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		for (String name : ATTRIBUTES) {
+			if (name.equals(attribute)) {
+				return "95thPercentile".equals(attribute) ? ThreadLocalRandom.current().nextDouble(100)
+						: (Object) ThreadLocalRandom.current().nextLong(1, 5);
+			}
+		}
+
+		throw new AttributeNotFoundException(attribute);
+	}
+
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// Left out, as a real MBean server does.
+			}
+		}
+
+		return list;
+	}
+
+
+	@Override
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ATTRIBUTES.length];
+
+		for (int i = 0; i < ATTRIBUTES.length; i++) {
+			String type = "95thPercentile".equals(ATTRIBUTES[i]) ? "double" : "long";
+			attributes[i] = new MBeanAttributeInfo(ATTRIBUTES[i], type, ATTRIBUTES[i], true, false, false);
+		}
+
+		return new MBeanInfo(getClass().getName(), "Cassandra metric stand-in", attributes, null, null, null);
+	}
+
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import general.Chart;
+import general.LoadPropertiesFile;
+import general.MetricSeries;
+
+/**
+ * Writing the chart report of a run of 10k, 100k and 1M samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ChartBenchmark {
+
+	private static final String CHART_NAME = "Benchmark";
+
+	@Param({ "10000", "100000", "1000000" })
+	public int samples;
+
+	private MetricSeries series;
+
+
+	@Setup
+	public void setUp() {
+		series = SeriesBenchmark.createSeries(samples);
+	}
+
+
+	@TearDown
+	public void tearDown() throws IOException {
+		// Chart names the report after the day it was started, so remove whatever the benchmark wrote.
+		File[] reports = new File(LoadPropertiesFile.getProperty("graphDir")).listFiles((dir, name) -> name.startsWith(CHART_NAME + "_"));
+
+		if (reports != null) {
+			for (File report : reports) {
+				Files.deleteIfExists(report.toPath());
+			}
+		}
+	}
+
+
+	@Benchmark
+	public MetricSeries createChartHTML() throws IOException {
+		Chart.createChartHTML(series, CHART_NAME);
+
+		return series;
+	}
+
+}
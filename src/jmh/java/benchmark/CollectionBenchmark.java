@@ -0,0 +1,85 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import general.MetricCatalog;
+import general.MetricSeries;
+import jmx.JmxListener;
+import jmx.SamplingPlan;
+
+/**
+ * One collection tick against the in-process stand-in MBeans: read every catalog metric, check the thresholds and append the sample.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionBenchmark {
+
+	@Param({ "1", "4" })
+	public int fetchThreads;
+
+	private MBeanServer server;
+	private ExecutorService executorService;
+	private SamplingPlan plan;
+	private MetricSeries series;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		server = ManagementFactory.getPlatformMBeanServer();
+		CassandraMBeanStandIn.register(server, "keyspace1");
+
+		executorService = fetchThreads > 1 ? Executors.newFixedThreadPool(fetchThreads) : null;
+		plan = new SamplingPlan(MetricCatalog.getDefault(), "keyspace1", executorService);
+		plan.compile(server);
+	}
+
+
+	@Setup(Level.Iteration)
+	public void newSeries() {
+		// A fresh series each iteration, so the heap does not fill up with samples.
+		series = new MetricSeries(MetricCatalog.getDefault().getMetrics());
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
+	}
+
+
+	@Benchmark
+	public MetricSeries sample() throws Exception {
+		double[] values = plan.sample(server);
+
+		JmxListener.checkThresholds(values);
+		series.append(System.currentTimeMillis(), values);
+
+		return series;
+	}
+
+}
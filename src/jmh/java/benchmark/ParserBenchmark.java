@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cassandra.StressOutputParser;
+import general.MetricSeries;
+import general.Miscellaneous;
+
+/**
+ * Parsing the lines read from the external processes: the values printed by jmxterm and the cassandra-stress interval rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+	// The output of one jmxterm sample (get -s prints the bare value), as read by RunExternalJmxTerm.
+	private static final String[] JMXTERM_LINES = { "7", "4", "31415926", "27182818", "812.43", "356.1", "3", "0", "12", "0", "0", "0" };
+
+	// One cassandra-stress interval, from logs/cassandra-stress_2018-10-04_07:15:52.log. The total ops are filled in per interval.
+	private static final String[] STRESS_LINES = {
+			"READ,           2123,     572,     572,     572,    43.6,    37.2,    95.5,   141.3,   202.8,   204.3,    3.7,  0.05346,      0,      1,      41,      41,       0,     191",
+			"WRITE,          2253,     575,     575,     575,     0.2,     0.2,     0.3,     0.4,     1.3,     8.4,    3.7,  0.05346,      0,      1,      41,      41,       0,     191",
+			"total,    %10d,    1146,    1146,    1146,    21.8,     0.4,    80.2,   119.3,   202.5,   204.3,    3.7,  0.05346,      0,      1,      41,      41,       0,     191",
+			"Running with 25 threadCount"
+	};
+
+	// Enough distinct intervals that the parser never sees a repeat of the previous one.
+	private static final int INTERVALS = 1024;
+
+	private String[][] stressIntervals;
+	private MetricSeries stressSeries;
+	private StressOutputParser stressOutputParser;
+	private long timestamp;
+
+
+	@Setup
+	public void setUp() {
+		stressIntervals = new String[INTERVALS][];
+		for (int i = 0; i < INTERVALS; i++) {
+			stressIntervals[i] = STRESS_LINES.clone();
+			stressIntervals[i][2] = String.format(STRESS_LINES[2], 4376 + i);
+		}
+
+		stressSeries = new MetricSeries(StressOutputParser.getColumns());
+		stressOutputParser = new StressOutputParser(stressSeries);
+	}
+
+
+	@Benchmark
+	public double jmxtermSample() {
+		double sum = 0;
+
+		for (String line : JMXTERM_LINES) {
+			sum += Miscellaneous.convertStringValue(line, "metric", "10/04/18 07:15:52");
+		}
+
+		return sum;
+	}
+
+
+	@Benchmark
+	public boolean stressInterval() {
+		timestamp++;
+
+		boolean parsed = false;
+		for (String line : stressIntervals[(int) (timestamp % INTERVALS)]) {
+			parsed |= stressOutputParser.parseLine(line, timestamp);
+		}
+
+		// Let the series drop what has been parsed, as the flusher does with retainSamples=false.
+		if (timestamp % INTERVALS == 0) {
+			stressSeries.releaseBefore(stressSeries.size());
+		}
+
+		return parsed;
+	}
+
+}
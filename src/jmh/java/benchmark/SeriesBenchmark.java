@@ -0,0 +1,103 @@
+package benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import general.MetricCatalog;
+import general.MetricSeries;
+import general.Miscellaneous;
+
+/**
+ * Building, copying and validating a series of 10k, 100k and 1M samples of the catalog metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SeriesBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int samples;
+
+	private double[][] values;
+	private MetricSeries series;
+
+
+	@Setup
+	public void setUp() {
+		series = createSeries(samples);
+
+		values = new double[1024][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = sampleValues(series.getColumnCount());
+		}
+	}
+
+
+	/**
+	 * Create a series of the given length with positive values, so validation has nothing to log.
+	 *
+	 * @param samples The number of samples.
+	 * @return MetricSeries The series.
+	 */
+	static MetricSeries createSeries(int samples) {
+		MetricSeries series = new MetricSeries(MetricCatalog.getDefault().getMetrics());
+		long timestamp = 1538650552000L;
+
+		for (int row = 0; row < samples; row++) {
+			series.append(timestamp + row * 1000L, sampleValues(series.getColumnCount()));
+		}
+
+		return series;
+	}
+
+
+	private static double[] sampleValues(int columns) {
+		double[] sample = new double[columns];
+
+		for (int column = 0; column < columns; column++) {
+			sample[column] = 1 + ThreadLocalRandom.current().nextInt(1000);
+		}
+
+		return sample;
+	}
+
+
+	@Benchmark
+	public MetricSeries append() {
+		MetricSeries appended = new MetricSeries(series.getColumns());
+
+		for (int row = 0; row < samples; row++) {
+			appended.append(row, values[row & (values.length - 1)]);
+		}
+
+		return appended;
+	}
+
+
+	@Benchmark
+	public MetricSeries copy() {
+		return series.copy();
+	}
+
+
+	@Benchmark
+	public MetricSeries validate() {
+		return Miscellaneous.validateMetricSeries(series);
+	}
+
+}
@@ -1,22 +1,37 @@
 package cassandra;
 
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.HdrHistogram.Histogram;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.exceptions.AuthenticationException;
-import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.Cluster.Builder;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
+import general.EventRing;
 import general.LoadPropertiesFile;
-import general.Miscellaneous;
+import general.MetricDefinition;
+import general.MetricSeries;
+import jmx.HistogramSampler;
 
 public class DbFunctions {
 
@@ -25,12 +40,14 @@ public class DbFunctions {
 
 	private static final Logger logger = LogManager.getLogger(Class.class.getName());
 
-	private static final Integer NODE_PORT = Integer.parseInt(LoadPropertiesFile.getProperty("nodePort"));
+	private static final Integer NODE_PORT = LoadPropertiesFile.getInteger("nodePort");
 	private static final String NODE_IP = LoadPropertiesFile.getProperty("nodeIp");
 	private static final String NODE_USERNAME = LoadPropertiesFile.getProperty("nodeUsername");
 	private static final String NODE_PASSWORD = LoadPropertiesFile.getProperty("nodePassword");
+	private static final Long RESULTS_BUCKET = LoadPropertiesFile.getLong("resultsBucket");
+	private static final Integer RESULTS_TTL = LoadPropertiesFile.getInteger("resultsTtl");
 
-	private static final Integer MAXIMUM_BATCH_ENTRIES = Integer.parseInt(LoadPropertiesFile.getProperty("maximumBatchEntries"));
+	private static final Integer READ_FETCH_SIZE = LoadPropertiesFile.getInteger("readFetchSize");
 
 	private static Cluster cluster;
 	private static Session session;
@@ -48,7 +65,9 @@ public class DbFunctions {
 
 		try {
 
-			Builder b = Cluster.builder().addContactPoint(NODE_IP);
+			// Route each write straight to a replica of its partition.
+			Builder b = Cluster.builder().addContactPoint(NODE_IP)
+					.withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()));
 
 			if ((NODE_USERNAME != null && !NODE_USERNAME.isEmpty()) &&
 					(NODE_PASSWORD != null && !NODE_PASSWORD.isEmpty())) {
@@ -112,6 +131,34 @@ public class DbFunctions {
 	}
 
 
+	/**
+	 * Get the nodes of the cluster from system.local and system.peers.
+	 *
+	 * @return List<String> The host of each node, starting with the node connected to.
+	 */
+	public static List<String> getClusterNodes() {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.getClusterNodes...");
+
+		List<String> nodes = new ArrayList<>();
+		nodes.add(NODE_IP);
+
+		for (Row row : session.execute("select peer, rpc_address from system.peers")) {
+			// A node listening on every interface reports 0.0.0.0, so fall back on its peer address.
+			InetAddress address = row.getInet("rpc_address");
+			if (address == null || address.isAnyLocalAddress()) {
+				address = row.getInet("peer");
+			}
+
+			nodes.add(address.getHostAddress());
+		}
+
+		logger.info("Found " + nodes.size() + " nodes: " + nodes);
+
+		return nodes;
+	}
+
+
 	/**
 	 * Create a keyspace with the given name.
 	 *
@@ -144,106 +191,544 @@ public class DbFunctions {
 	 *
 	 * @param keyspaceName The name of the keyspace to create.
 	 * @param tableName The name of the table to create.
+	 * @param metrics The metrics stored in the table, one column each.
 	 */
-	public static void createTestTable(String keyspaceName, String tableName) {
+	public static void createTestTable(String keyspaceName, String tableName, List<MetricDefinition> metrics) {
+		createTestTable(keyspaceName, tableName, metrics, false);
+	}
+
+
+	/**
+	 * Create a test table with the given name in the given keyspace.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the table to create.
+	 * @param metrics The metrics stored in the table, one column each.
+	 * @param byNode Should the table hold the samples of several nodes, keyed by node and timestamp?
+	 */
+	public static void createTestTable(String keyspaceName, String tableName, List<MetricDefinition> metrics, boolean byNode) {
 		logger.info("================================================================================");
 		logger.info("  Starting DbFunctions.createTestTable '" + keyspaceName + "." + tableName + "'...");
 
 		String table = keyspaceName + "." + tableName;
 
-		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (")
-				.append(" timestamp timestamp PRIMARY KEY,")
-				.append(" liveSSTableCount int,")
-				.append(" allMemtablesLiveDataSize int,")
-				.append(" readLatency95thPercentile double,")
-				.append(" writeLatency95thPercentile double);");
+		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (");
+		if (byNode) {
+			sb.append(" node text, timestamp timestamp");
+		} else {
+			sb.append(" timestamp timestamp PRIMARY KEY");
+		}
+
+		for (MetricDefinition metric : metrics) {
+			sb.append(", ").append(metric.getId()).append(" ").append(getColumnType(metric));
+		}
+		if (byNode) {
+			sb.append(", PRIMARY KEY (node, timestamp)");
+		}
+		sb.append(");");
 
 		String query = sb.toString();
 		session.execute(query);
+
+		addMissingColumns(keyspaceName, tableName, metrics);
 	}
 
 
 	/**
-	 * Write the given map results to the given test table in the given keyspace.
+	 * Create a run results table with the given name in the given keyspace. Each partition holds the samples of one node
+	 * of one run within one resultsBucket of time, in time order, so a partition stays bounded however long the run and a
+	 * run is read back partition by partition rather than by scanning the table. The table is compacted by time window,
+	 * one window per bucket, and with resultsTtl set rows expire that many seconds after they are written.
 	 *
-	 * @param keyspaceName The name of the keyspace to create.
+	 * @param keyspaceName The name of the keyspace.
 	 * @param tableName The name of the table to create.
-	 * @param passedMap The map of data to write.
+	 * @param metrics The metrics stored in the table, one column each.
 	 */
-	public static void writeMapResultsToTable(String keyspaceName, String tableName, SortedMap<String, String> passedMap) {
+	public static void createRunResultsTable(String keyspaceName, String tableName, List<MetricDefinition> metrics) {
 		logger.info("================================================================================");
-		logger.info("  Starting DbFunctions.writeMapResultsToTable '" + keyspaceName + "." + tableName + "'...");
+		logger.info("  Starting DbFunctions.createRunResultsTable '" + keyspaceName + "." + tableName + "'...");
 
 		String table = keyspaceName + "." + tableName;
-		String lineSeparator = System.getProperty("line.separator");
 
-		// The APPLY BATCH method will not work if we exceed 2147483647 characters, or batch_size_warn_threshold_in_kb apparently. ;)
-		// Break the inserts into 400 line batches or so to start.
-		int originalMapSize = passedMap.size();
-		int numberOfLoops = (originalMapSize + MAXIMUM_BATCH_ENTRIES - 1) / MAXIMUM_BATCH_ENTRIES;
+		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (")
+				.append(" run_id timeuuid, node text, bucket timestamp, timestamp timestamp");
+		for (MetricDefinition metric : metrics) {
+			sb.append(", ").append(metric.getId()).append(" ").append(getColumnType(metric));
+		}
+		sb.append(", PRIMARY KEY ((run_id, node, bucket), timestamp))")
+				.append(" WITH CLUSTERING ORDER BY (timestamp ASC)")
+				.append(" AND compaction = { 'class' : 'TimeWindowCompactionStrategy', 'compaction_window_unit' : 'MINUTES',")
+				.append(" 'compaction_window_size' : ").append(Math.max(1, (RESULTS_BUCKET + 59999) / 60000)).append(" }")
+				.append(" AND default_time_to_live = ").append(RESULTS_TTL).append(";");
 
-		int entryCounterStart = 0;
-		int entryCounterEnd = MAXIMUM_BATCH_ENTRIES;
-		for (int loop = 1; loop <= numberOfLoops; loop++) {
+		String query = sb.toString();
+		session.execute(query);
 
-			TreeMap<String, String> subMap = (TreeMap<String, String>) Miscellaneous.getRangeOfSortedMapEntries(entryCounterStart, entryCounterEnd, passedMap);
+		// A table of the same name left by an earlier version, keyed by timestamp or by node, cannot take the rows of a run.
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+		if (tableMetadata != null && !isRunKeyed(tableMetadata)) {
+			throw new IllegalStateException("Table '" + table + "' is not partitioned by run_id, node and bucket, as it was created by an "
+					+ "earlier version; name another table for it in the configuration.");
+		}
 
-			StringBuilder sb = new StringBuilder("BEGIN UNLOGGED BATCH" + lineSeparator);
+		addMissingColumns(keyspaceName, tableName, metrics);
+		updateTimeToLive(keyspaceName, tableName);
+	}
 
-			for (Map.Entry<String, String> entry : subMap.entrySet()) {
 
-                String metricKey = entry.getKey();
-                String metricValues = entry.getValue();
-                String insertValues = "('" + metricKey + "', " + metricValues  + ");" + lineSeparator;
+	private static boolean isRunKeyed(TableMetadata tableMetadata) {
+		List<ColumnMetadata> partitionKey = tableMetadata.getPartitionKey();
 
-                String insertString = " INSERT INTO " + table +
-                                " (timestamp, liveSSTableCount, allMemtablesLiveDataSize, readLatency95thPercentile, writeLatency95thPercentile)" +
-                                "  VALUES " + insertValues;
-                sb.append(insertString);
+		return partitionKey.size() == 3 && partitionKey.get(0).getName().equals("run_id")
+				&& partitionKey.get(1).getName().equals("node") && partitionKey.get(2).getName().equals("bucket");
+	}
 
-			}
 
-            sb.append("APPLY BATCH;");
+	/**
+	 * Create the table of runs with the given name in the given keyspace. Each row describes one run: when it started
+	 * and ended, the nodes it watched, and where and in what buckets its samples are kept. The tables of the run's other
+	 * series, such as the cassandra-stress results, are kept by series name in series_tables.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table to create.
+	 */
+	public static void createRunsTable(String keyspaceName, String tableName) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createRunsTable '" + keyspaceName + "." + tableName + "'...");
 
-            String queryString = sb.toString();
+		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspaceName).append(".").append(tableName).append(" (")
+				.append(" run_id timeuuid PRIMARY KEY, start_time timestamp, end_time timestamp, nodes list<text>,")
+				.append(" results_table text, bucket_millis bigint, description text, series_tables map<text, text>)")
+				.append(" WITH default_time_to_live = ").append(RESULTS_TTL).append(";");
 
-            logger.error(queryString);
-            logger.error("Size of query: " + queryString.length());
+		String query = sb.toString();
+		session.execute(query);
 
-            String query = sb.toString();
+		// The runs table of an earlier version has no series_tables.
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+		if (tableMetadata != null && tableMetadata.getColumn("series_tables") == null) {
+			logger.info("Adding column 'series_tables' to '" + keyspaceName + "." + tableName + "'.");
+			session.execute("ALTER TABLE " + keyspaceName + "." + tableName + " ADD series_tables map<text, text>;");
+		}
 
-            try {
-            	session.execute(query);
-            } catch (InvalidQueryException e1) {
-            	logger.error("Batch is too large, you need to lower the maximum entries from '" + MAXIMUM_BATCH_ENTRIES + "'.");
-            	logger.error("entryCounterStart: " + entryCounterStart);
-            	logger.error("entryCounterEnd: " + entryCounterEnd);
-            }
+		updateTimeToLive(keyspaceName, tableName);
+	}
+
+
+	/**
+	 * Add the metric columns the given table lacks, as it may have been created by an earlier run with a different catalog.
+	 */
+	private static void addMissingColumns(String keyspaceName, String tableName, List<MetricDefinition> metrics) {
+		String table = keyspaceName + "." + tableName;
 
-			entryCounterStart+=MAXIMUM_BATCH_ENTRIES;
-			entryCounterEnd+=MAXIMUM_BATCH_ENTRIES;
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+		for (MetricDefinition metric : metrics) {
+			if (tableMetadata != null && tableMetadata.getColumn(metric.getId()) == null) {
+				logger.info("Adding column '" + metric.getId() + "' to '" + table + "'.");
+				session.execute("ALTER TABLE " + table + " ADD " + metric.getId() + " " + getColumnType(metric) + ";");
+			}
 		}
+	}
 
+
+	/**
+	 * Bring the default time to live of the given table in line with resultsTtl, as it may have been created by an earlier
+	 * run with another. Rows already written keep the time to live they were written with.
+	 */
+	private static void updateTimeToLive(String keyspaceName, String tableName) {
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+
+		if (tableMetadata != null && tableMetadata.getOptions().getDefaultTimeToLive() != RESULTS_TTL) {
+			logger.info("Changing the default time to live of '" + keyspaceName + "." + tableName + "' from "
+					+ tableMetadata.getOptions().getDefaultTimeToLive() + " to " + RESULTS_TTL + " seconds.");
+			session.execute("ALTER TABLE " + keyspaceName + "." + tableName + " WITH default_time_to_live = " + RESULTS_TTL + ";");
+		}
+	}
+
+
+	/**
+	 * Get the CQL column type used to store the given metric.
+	 *
+	 * @param metric The metric.
+	 * @return String The CQL type.
+	 */
+	private static String getColumnType(MetricDefinition metric) {
+		return metric.getType() == MetricDefinition.Type.LONG ? "bigint" : "double";
 	}
 
 
 	/**
-	 * Write the given map results to the given test table in the given keyspace.
+	 * Write the given series to the given test table in the given keyspace.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the table to create.
+	 * @param passedSeries The series of data to write.
+	 * @return int The number of rows that could not be written.
+	 */
+	public static int writeSeriesToTable(String keyspaceName, String tableName, MetricSeries passedSeries) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.writeSeriesToTable '" + keyspaceName + "." + tableName + "'...");
+
+		ResultWriter writer = new ResultWriter(session, keyspaceName, tableName, passedSeries.getColumns());
+
+		return writer.write(passedSeries, 0, passedSeries.size());
+	}
+
+
+	/**
+	 * Write the given series to the given test table in the given keyspace.
 	 * Create the given  keyspace or table if they don't already exist.
 	 *
 	 * @param keyspaceName The name of the keyspace to create.
 	 * @param tableName The name of the table to create.
-	 * @param passedMap The map of data to write.
+	 * @param passedSeries The series of data to write.
 	 */
-	public static void writeResults(String keyspaceName, String tableName, SortedMap<String, String> passedMap) {
+	public static void writeResults(String keyspaceName, String tableName, MetricSeries passedSeries) {
 		logger.info("================================================================================");
 		logger.info("  Starting DbFunctions.writeResults '" + keyspaceName + "." + tableName + "'...");
 
 		createKeyspace(keyspaceName);
 
-		createTestTable(keyspaceName, tableName);
+		createTestTable(keyspaceName, tableName, passedSeries.getColumns());
+
+		int failed = writeSeriesToTable(keyspaceName, tableName, passedSeries);
+		if (failed > 0) {
+			logger.error(failed + " rows could not be written to '" + keyspaceName + "." + tableName + "', see the entries above.");
+		}
+	}
+
+
+	/**
+	 * Create the given keyspace and results table if they don't already exist, and a writer for the table.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the table to create.
+	 * @param metrics The metrics stored in the table, one column each.
+	 * @return ResultWriter The writer.
+	 */
+	public static ResultWriter createResultWriter(String keyspaceName, String tableName, List<MetricDefinition> metrics) {
+		return createResultWriter(keyspaceName, tableName, metrics, null);
+	}
+
+
+	/**
+	 * Create the given keyspace and results table if they don't already exist, and a writer for the table.
+	 * With a node given, the table is keyed by node and timestamp so the samples of every node of a cluster can share it.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the table to create.
+	 * @param metrics The metrics stored in the table, one column each.
+	 * @param node The host the rows are read from, or null for the single node named by nodeIp.
+	 * @return ResultWriter The writer.
+	 */
+	public static ResultWriter createResultWriter(String keyspaceName, String tableName, List<MetricDefinition> metrics, String node) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createResultWriter '" + keyspaceName + "." + tableName + "'...");
+
+		createKeyspace(keyspaceName);
+
+		createTestTable(keyspaceName, tableName, metrics, node != null);
+
+		return new ResultWriter(session, keyspaceName, tableName, metrics, node);
+	}
+
+
+	/**
+	 * Create the given keyspace and run results table if they don't already exist, and a writer for the samples of one node of a run.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the run results table to create.
+	 * @param metrics The metrics stored in the table, one column each.
+	 * @param runId The run, as registered by startRun.
+	 * @param node The host the rows are read from.
+	 * @return ResultWriter The writer.
+	 */
+	public static ResultWriter createRunResultWriter(String keyspaceName, String tableName, List<MetricDefinition> metrics, UUID runId, String node) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createRunResultWriter '" + keyspaceName + "." + tableName + "' for node '" + node + "'...");
+
+		createKeyspace(keyspaceName);
+
+		createRunResultsTable(keyspaceName, tableName, metrics);
+
+		return new ResultWriter(session, keyspaceName, tableName, metrics, node, runId, RESULTS_BUCKET);
+	}
+
+
+	/**
+	 * Create the events table with the given name in the given keyspace. Like the run results, the events of a run are
+	 * partitioned by run, node and resultsBucket and ordered by time, compacted with TimeWindowCompactionStrategy and
+	 * expired after resultsTtl seconds, so they can be read back beside the samples.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table to create.
+	 */
+	public static void createEventsTable(String keyspaceName, String tableName) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createEventsTable '" + keyspaceName + "." + tableName + "'...");
+
+		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspaceName).append(".").append(tableName).append(" (")
+				.append(" run_id timeuuid, node text, bucket timestamp, timestamp timestamp, sequence bigint,")
+				.append(" source text, type text, label text, message text, duration_ms double,")
+				.append(" PRIMARY KEY ((run_id, node, bucket), timestamp, sequence))")
+				.append(" WITH CLUSTERING ORDER BY (timestamp ASC, sequence ASC)")
+				.append(" AND compaction = { 'class' : 'TimeWindowCompactionStrategy', 'compaction_window_unit' : 'MINUTES',")
+				.append(" 'compaction_window_size' : ").append(Math.max(1, (RESULTS_BUCKET + 59999) / 60000)).append(" }")
+				.append(" AND default_time_to_live = ").append(RESULTS_TTL).append(";");
+
+		String query = sb.toString();
+		session.execute(query);
+
+		updateTimeToLive(keyspaceName, tableName);
+	}
+
+
+	/**
+	 * Create the given keyspace and events table if they don't already exist, and a flusher that writes the events
+	 * published to the given ring during a run.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the events table to create.
+	 * @param runId The run, as registered by startRun.
+	 * @param ring The ring the events are published to.
+	 * @return EventFlusher The flusher, not yet started.
+	 */
+	public static EventFlusher createEventFlusher(String keyspaceName, String tableName, UUID runId, EventRing ring) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createEventFlusher '" + keyspaceName + "." + tableName + "'...");
+
+		createKeyspace(keyspaceName);
+
+		createEventsTable(keyspaceName, tableName);
+
+		return new EventFlusher(session, keyspaceName, tableName, runId, RESULTS_BUCKET, ring);
+	}
+
+
+	/**
+	 * Register a run in the runs table, so its samples can be found again by its ID.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the runs table.
+	 * @param resultsTableName The name of the run results table the samples are written to.
+	 * @param runId The ID of the run, a time based UUID.
+	 * @param nodes The hosts watched during the run.
+	 * @param startTime The time the run started in epoch milliseconds, no later than its first sample.
+	 * @param description What was run, for the people reading the results.
+	 */
+	public static void startRun(String keyspaceName, String tableName, String resultsTableName, UUID runId, List<String> nodes,
+			long startTime, String description) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.startRun '" + runId + "'...");
+
+		createKeyspace(keyspaceName);
+
+		createRunsTable(keyspaceName, tableName);
+
+		session.execute(new SimpleStatement("INSERT INTO " + keyspaceName + "." + tableName
+				+ " (run_id, start_time, nodes, results_table, bucket_millis, description) VALUES (?, ?, ?, ?, ?, ?);",
+				runId, new Date(startTime), nodes, resultsTableName, RESULTS_BUCKET, description));
+	}
+
+
+	/**
+	 * Register the run results table of another series of a run, such as the cassandra-stress results or the latency
+	 * percentiles, in the runs table, so RunReader can read the series back by its name. May be called before startRun.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the runs table.
+	 * @param runId The ID of the run.
+	 * @param series The name of the series, such as stress or latency.
+	 * @param seriesTableName The name of the run results table the series is written to, as created by createRunResultWriter.
+	 */
+	public static void addRunTable(String keyspaceName, String tableName, UUID runId, String series, String seriesTableName) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.addRunTable '" + runId + "' " + series + " '" + seriesTableName + "'...");
+
+		createKeyspace(keyspaceName);
+
+		createRunsTable(keyspaceName, tableName);
+
+		session.execute(new SimpleStatement("UPDATE " + keyspaceName + "." + tableName + " SET series_tables[?] = ? WHERE run_id = ?;",
+				series, seriesTableName, runId));
+	}
+
+
+	/**
+	 * Record the end of a run in the runs table. A run that never finishes is still readable, up to the present.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the runs table.
+	 * @param runId The ID of the run.
+	 * @param endTime The time the run ended in epoch milliseconds, no earlier than its last sample.
+	 */
+	public static void finishRun(String keyspaceName, String tableName, UUID runId, long endTime) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.finishRun '" + runId + "'...");
+
+		session.execute(new SimpleStatement("UPDATE " + keyspaceName + "." + tableName + " SET end_time = ? WHERE run_id = ?;",
+				new Date(endTime), runId));
+	}
+
+
+	/**
+	 * Create a reader for the samples of the given run.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the runs table.
+	 * @param runId The ID of the run.
+	 * @return RunReader The reader.
+	 */
+	public static RunReader createRunReader(String keyspaceName, String tableName, UUID runId) {
+		return new RunReader(session, keyspaceName, tableName, runId);
+	}
 
-		writeMapResultsToTable(keyspaceName, tableName, passedMap);
+
+	/**
+	 * Create a scanner that reads a results table back a token range at a time, several ranges at once.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table.
+	 * @return ResultScanner The scanner.
+	 */
+	public static ResultScanner createResultScanner(String keyspaceName, String tableName) {
+		return new ResultScanner(session, keyspaceName, tableName);
+	}
+
+
+	/**
+	 * Read the samples taken within the given times back from a results table, such as to compare a run with another.
+	 * The rows are fetched a page at a time; metrics the table has no column for are read as missing.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table.
+	 * @param metrics The metrics to read, one column each.
+	 * @param node The host to read the samples of from a table keyed by node, or null for the table of the single node named by nodeIp.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @return MetricSeries The samples in time order.
+	 */
+	public static MetricSeries readResults(String keyspaceName, String tableName, List<MetricDefinition> metrics, String node, long from, long to) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.readResults '" + keyspaceName + "." + tableName + "'" + (node == null ? "" : " for node '" + node + "'") + "...");
+
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+		if (tableMetadata == null) {
+			throw new IllegalArgumentException("There is no table '" + keyspaceName + "." + tableName + "'.");
+		}
+
+		// The values are read by the column's own type, as the tables of earlier versions use int for some metrics the
+		// catalog now reads as long.
+		ResultColumns columns = new ResultColumns(tableMetadata, metrics, false);
+		StringBuilder sb = new StringBuilder(columns.getSelect()).append(" FROM ").append(keyspaceName).append(".").append(tableName);
+
+		Statement statement;
+		if (node == null) {
+			// Every timestamp is its own partition in the single node table, so the range is a filtered scan.
+			sb.append(" WHERE timestamp >= ? AND timestamp <= ? ALLOW FILTERING;");
+			statement = new SimpleStatement(sb.toString(), new Date(from), new Date(to));
+		} else {
+			sb.append(" WHERE node = ? AND timestamp >= ? AND timestamp <= ?;");
+			statement = new SimpleStatement(sb.toString(), node, new Date(from), new Date(to));
+		}
+		statement.setFetchSize(READ_FETCH_SIZE);
+
+		MetricSeries series = new MetricSeries(metrics, node);
+
+		if (node != null) {
+			// The samples of a node are one partition, already in time order.
+			columns.read(session.execute(statement), READ_FETCH_SIZE, null, from, to, series::append);
+
+			logger.info("Read " + series.size() + " samples.");
+
+			return series;
+		}
+
+		// The single node table comes back in token order, so its samples are sorted before they are appended.
+		List<long[]> timestamps = new ArrayList<>();
+		List<double[]> samples = new ArrayList<>();
+		columns.read(session.execute(statement), READ_FETCH_SIZE, null, from, to, (timestamp, values) -> {
+			timestamps.add(new long[] { timestamp, samples.size() });
+			samples.add(values.clone());
+		});
+
+		timestamps.sort((a, b) -> Long.compare(a[0], b[0]));
+
+		for (long[] timestamp : timestamps) {
+			series.append(timestamp[0], samples.get((int) timestamp[1]));
+		}
+
+		logger.info("Read " + series.size() + " samples.");
+
+		return series;
+	}
+
+
+	/**
+	 * Create the given keyspace and latency histogram table if they don't already exist.
+	 * Each row holds the whole-run histogram of one latency metric of one node, with its percentiles and
+	 * the histogram itself compressed in HdrHistogram's format, so runs and nodes can later be decoded and merged.
+	 *
+	 * @param keyspaceName The name of the keyspace to create.
+	 * @param tableName The name of the table to create.
+	 */
+	public static void createHistogramTable(String keyspaceName, String tableName) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.createHistogramTable '" + keyspaceName + "." + tableName + "'...");
+
+		createKeyspace(keyspaceName);
+
+		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(keyspaceName).append(".").append(tableName).append(" (")
+				.append(" node text, histogram text, start_time timestamp, end_time timestamp,")
+				.append(" total_count bigint, p50 bigint, p99 bigint, p999 bigint, max bigint, encoded blob,")
+				.append(" PRIMARY KEY ((node, histogram), start_time));");
+
+		String query = sb.toString();
+		session.execute(query);
+	}
+
+
+	/**
+	 * Write the whole-run histograms of the given sampler to the given histogram table.
+	 *
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table, as created by createHistogramTable.
+	 * @param node The host the histograms were read from.
+	 * @param sampler The sampler, after the run.
+	 */
+	public static void writeHistograms(String keyspaceName, String tableName, String node, HistogramSampler sampler) {
+		logger.info("================================================================================");
+		logger.info("  Starting DbFunctions.writeHistograms '" + keyspaceName + "." + tableName + "' for node '" + node + "'...");
+
+		createHistogramTable(keyspaceName, tableName);
+
+		PreparedStatement statement = session.prepare("INSERT INTO " + keyspaceName + "." + tableName
+				+ " (node, histogram, start_time, end_time, total_count, p50, p99, p999, max, encoded) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+		for (int h = 0; h < sampler.getDefinitions().size(); h++) {
+			Histogram histogram = sampler.getRunHistogram(h);
+
+			if (histogram.getTotalCount() == 0) {
+				continue;
+			}
+
+			ByteBuffer encoded = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+			histogram.encodeIntoCompressedByteBuffer(encoded);
+			encoded.flip();
+
+			session.execute(statement.bind(node, sampler.getDefinitions().get(h).getId(),
+					new Date(sampler.getRunStartTime()), new Date(sampler.getRunEndTime()), histogram.getTotalCount(),
+					histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+					histogram.getMaxValue(), encoded));
+
+			logger.info("Wrote histogram '" + sampler.getDefinitions().get(h).getId() + "' of " + histogram.getTotalCount()
+					+ " requests in " + encoded.remaining() + " bytes.");
+		}
 	}
 
 
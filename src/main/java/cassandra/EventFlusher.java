@@ -0,0 +1,219 @@
+package cassandra;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+
+import general.EventRing;
+import general.Instrumentation;
+import general.JmxEvent;
+import general.LoadPropertiesFile;
+
+public class EventFlusher implements Runnable {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Long FLUSH_INTERVAL = LoadPropertiesFile.getLong("flushInterval");
+
+	private final Session session;
+	private final String table;
+	private final UUID runId;
+	private final long bucketMillis;
+	private final EventRing ring;
+	private final PreparedStatement preparedStatement;
+	private final Object lock = new Object();
+	private final Instrumentation.QueueDepth queueDepth;
+
+	private Thread thread;
+	private boolean running;
+
+	// Only used by the flusher thread, then by close once it has stopped.
+	private long cursor;
+	private long eventsWritten;
+	private long eventsFailed;
+
+	// Kept for the charts when retainSamples is true.
+	private final List<JmxEvent> retainedEvents = new ArrayList<>();
+
+
+	/**
+	 * Create a flusher that writes the events published to the given ring to the given events table,
+	 * including any published before the flusher was created.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table, as created by DbFunctions.createEventsTable.
+	 * @param runId The run the events belong to.
+	 * @param bucketMillis The length of each time bucket in milliseconds.
+	 * @param ring The ring the events are published to.
+	 */
+	public EventFlusher(Session session, String keyspaceName, String tableName, UUID runId, long bucketMillis, EventRing ring) {
+		this.session = session;
+		this.table = keyspaceName + "." + tableName;
+		this.runId = runId;
+		this.bucketMillis = bucketMillis;
+		this.ring = ring;
+		this.queueDepth = Instrumentation.getQueue("eventRing");
+
+		this.preparedStatement = session.prepare("INSERT INTO " + table
+				+ " (run_id, node, bucket, timestamp, sequence, source, type, label, message, duration_ms) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+	}
+
+
+	/**
+	 * Start flushing in the background.
+	 */
+	public void start() {
+		logger.info("================================================================================");
+		logger.info("  Starting EventFlusher.start...");
+
+		synchronized (lock) {
+			running = true;
+		}
+
+		thread = new Thread(this, "event-flusher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	@Override
+	public void run() {
+		while (true) {
+			boolean stopping;
+
+			synchronized (lock) {
+				if (running) {
+					waitOnLock(FLUSH_INTERVAL);
+				}
+				stopping = !running;
+			}
+
+			flushPending();
+
+			if (stopping) {
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Write every event published since the last flush, waiting until every write has completed.
+	 */
+	private void flushPending() {
+		queueDepth.update(ring.getPublished() - cursor);
+
+		List<JmxEvent> events = new ArrayList<>();
+		cursor = ring.drain(cursor, events::add);
+		if (events.isEmpty()) {
+			return;
+		}
+
+		List<ResultSetFuture> futures = new ArrayList<>(events.size());
+		for (JmxEvent event : events) {
+			try {
+				futures.add(session.executeAsync(preparedStatement.bind(runId, event.getNode(),
+						new Date(ResultWriter.getBucket(event.getTimestamp(), bucketMillis)), new Date(event.getTimestamp()),
+						event.getSequence(), event.getSource(), event.getType(), event.getLabel(), event.getMessage(),
+						Double.isNaN(event.getDurationMillis()) ? null : event.getDurationMillis())));
+			} catch (RuntimeException e) {
+				futures.add(null);
+				logger.debug("Write of event " + event.getSequence() + " failed to start: " + e);
+			}
+		}
+
+		for (int i = 0; i < events.size(); i++) {
+			try {
+				if (futures.get(i) == null) {
+					throw new IllegalStateException("The write was not started.");
+				}
+				futures.get(i).getUninterruptibly();
+				eventsWritten++;
+			} catch (RuntimeException e) {
+				eventsFailed++;
+				logger.error("Unable to write event to '" + table + "' (" + e + "): " + events.get(i).getNode() + " "
+						+ events.get(i).getTimestamp() + " " + events.get(i));
+			}
+		}
+
+		if (ResultFlusher.isRetainingSamples()) {
+			synchronized (retainedEvents) {
+				retainedEvents.addAll(events);
+			}
+		}
+
+		logger.debug("Wrote " + events.size() + " events to '" + table + "'.");
+	}
+
+
+	/**
+	 * Stop the flusher once every event published so far has been written.
+	 *
+	 * @return long The number of events that could not be written during the run.
+	 */
+	public long close() {
+		logger.info("================================================================================");
+		logger.info("  Starting EventFlusher.close...");
+
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		logger.info("Flushed " + eventsWritten + " events, " + eventsFailed + " could not be written.");
+
+		return eventsFailed;
+	}
+
+
+	/**
+	 * Get the events of the given node written so far, in time order, for the charts.
+	 * Empty unless retainSamples is true.
+	 *
+	 * @param node The host, or null for the events of every node.
+	 * @return List<JmxEvent> The events.
+	 */
+	public List<JmxEvent> getEvents(String node) {
+		List<JmxEvent> events = new ArrayList<>();
+
+		synchronized (retainedEvents) {
+			for (JmxEvent event : retainedEvents) {
+				if (node == null || node.equals(event.getNode())) {
+					events.add(event);
+				}
+			}
+		}
+		events.sort(Comparator.comparingLong(JmxEvent::getTimestamp));
+
+		return events;
+	}
+
+
+	private void waitOnLock(long millis) {
+		try {
+			lock.wait(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package cassandra;
+
+import java.util.List;
+
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TableMetadata;
+
+import general.MetricDefinition;
+import general.SampleHandler;
+
+/**
+ * The columns of a results table that the given metrics are read from, and the reading of its rows into samples a page
+ * at a time. Shared by every reader of the results tables, so they all request the next page the same way, read each
+ * value by the type of its column, and read a metric the table has no column for as missing.
+ */
+final class ResultColumns {
+
+	// The next page is requested once this fraction of the current page is left.
+	private static final int PREFETCH_DIVISOR = 4;
+
+	// The position of each metric in the rows read, or -1 if the table has no column for it.
+	private final int[] positions;
+	private final DataType[] types;
+	private final String select;
+
+
+	/**
+	 * Map the metrics onto the columns of the given table.
+	 *
+	 * @param tableMetadata The table.
+	 * @param metrics The metrics to read, one value each.
+	 * @param withNode Should the node be selected after the timestamp, so the rows of another node can be skipped?
+	 */
+	ResultColumns(TableMetadata tableMetadata, List<MetricDefinition> metrics, boolean withNode) {
+		this.positions = new int[metrics.size()];
+		this.types = new DataType[metrics.size()];
+
+		StringBuilder sb = new StringBuilder(withNode ? "SELECT timestamp, node" : "SELECT timestamp");
+		int selected = withNode ? 2 : 1;
+		for (int i = 0; i < metrics.size(); i++) {
+			ColumnMetadata column = tableMetadata.getColumn(metrics.get(i).getId());
+			positions[i] = column == null ? -1 : selected++;
+			if (column != null) {
+				types[i] = column.getType();
+				sb.append(", ").append(column.getName());
+			}
+		}
+		this.select = sb.toString();
+	}
+
+
+	/**
+	 * Get the select clause of the query, the timestamp (and node) and then the metric columns, to be followed by FROM.
+	 *
+	 * @return String The select clause.
+	 */
+	String getSelect() {
+		return select;
+	}
+
+
+	/**
+	 * Hand the rows of the result set taken within the given times to the handler, requesting the next page before the
+	 * current one runs out.
+	 *
+	 * @param resultSet The rows, selected by getSelect().
+	 * @param fetchSize The page size the statement was executed with.
+	 * @param node The node to keep the rows of, if the node was selected, or null to keep every row.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param handler Receives the samples, in the order of the rows.
+	 * @return long The number of samples handed over.
+	 */
+	long read(ResultSet resultSet, int fetchSize, String node, long from, long to, SampleHandler handler) {
+		double[] values = new double[positions.length];
+		long rows = 0;
+
+		for (Row row : resultSet) {
+			if (resultSet.getAvailableWithoutFetching() == fetchSize / PREFETCH_DIVISOR && !resultSet.isFullyFetched()) {
+				resultSet.fetchMoreResults();
+			}
+
+			long timestamp = row.getTimestamp(0).getTime();
+			if (timestamp < from || timestamp > to || (node != null && !node.equals(row.getString(1)))) {
+				continue;
+			}
+
+			for (int i = 0; i < values.length; i++) {
+				values[i] = positions[i] < 0 ? Double.NaN : getValue(row, positions[i], types[i]);
+			}
+			handler.accept(timestamp, values);
+			rows++;
+		}
+
+		return rows;
+	}
+
+
+	/**
+	 * Get a metric value of a row as read back, by the type of its column, as a table created by an older run may
+	 * use int rather than bigint.
+	 *
+	 * @param row The row.
+	 * @param position The position of the value in the row.
+	 * @param type The type of the column.
+	 * @return double The value, or NaN if it is null.
+	 */
+	private static double getValue(Row row, int position, DataType type) {
+		if (row.isNull(position)) {
+			return Double.NaN;
+		}
+
+		switch (type.getName()) {
+		case INT:
+			return row.getInt(position);
+		case BIGINT:
+		case COUNTER:
+			return row.getLong(position);
+		case FLOAT:
+			return row.getFloat(position);
+		default:
+			return row.getDouble(position);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+package cassandra;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.Instrumentation;
+import general.LoadPropertiesFile;
+import general.MetricSeries;
+
+public class ResultFlusher implements Runnable {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Long FLUSH_INTERVAL = LoadPropertiesFile.getLong("flushInterval");
+	private static final Integer MAXIMUM_FLUSH_ROWS = LoadPropertiesFile.getInteger("maximumFlushRows");
+	private static final Integer FLUSH_QUEUE_CAPACITY = LoadPropertiesFile.getInteger("flushQueueCapacity");
+	private static final Boolean RETAIN_SAMPLES = LoadPropertiesFile.getBoolean("retainSamples");
+
+	private final ResultWriter writer;
+	private final MetricSeries series;
+	private final Object lock = new Object();
+	private final Instrumentation.QueueDepth queueDepth;
+
+	private Thread thread;
+	private boolean running;
+
+	// The rows before this have been written. The rows from here up to the series size form the flush queue.
+	private volatile int flushedRows;
+	private long rowsFailed;
+
+
+	/**
+	 * Create a flusher that continuously writes the rows appended to the given series,
+	 * including any appended before the flusher was created (cassandra-stress may already be running).
+	 *
+	 * @param writer The writer for the results table.
+	 * @param series The series being collected.
+	 */
+	public ResultFlusher(ResultWriter writer, MetricSeries series) {
+		this.writer = writer;
+		this.series = series;
+		this.queueDepth = Instrumentation.getQueue("flushQueue." + writer.getName());
+	}
+
+
+	/**
+	 * Start flushing in the background.
+	 */
+	public void start() {
+		logger.info("================================================================================");
+		logger.info("  Starting ResultFlusher.start...");
+
+		synchronized (lock) {
+			running = true;
+		}
+
+		thread = new Thread(this, "result-flusher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	@Override
+	public void run() {
+		while (true) {
+			synchronized (lock) {
+				long deadline = System.currentTimeMillis() + FLUSH_INTERVAL;
+
+				// Wake up early once a full micro-batch is waiting.
+				while (running && pendingRows() < MAXIMUM_FLUSH_ROWS) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					waitOnLock(remaining);
+				}
+
+				if (!running && pendingRows() == 0) {
+					return;
+				}
+			}
+
+			flushPending();
+		}
+	}
+
+
+	/**
+	 * Write everything that is pending, in micro-batches of at most maximumFlushRows.
+	 */
+	private void flushPending() {
+		int size = series.size();
+
+		while (flushedRows < size) {
+			int toRow = Math.min(size, flushedRows + MAXIMUM_FLUSH_ROWS);
+
+			rowsFailed += writer.write(series, flushedRows, toRow);
+
+			synchronized (lock) {
+				flushedRows = toRow;
+				queueDepth.update(pendingRows());
+				lock.notifyAll();
+			}
+
+			if (!RETAIN_SAMPLES) {
+				series.releaseBefore(toRow);
+			}
+		}
+	}
+
+
+	/**
+	 * Called by the collector after appending a sample. Blocks while the flush queue is full, so a
+	 * results cluster that cannot keep up slows down the collector rather than exhausting the heap.
+	 */
+	public void awaitCapacity() {
+		synchronized (lock) {
+			queueDepth.update(pendingRows());
+
+			if (pendingRows() >= MAXIMUM_FLUSH_ROWS) {
+				lock.notifyAll();
+			}
+
+			if (pendingRows() >= FLUSH_QUEUE_CAPACITY) {
+				logger.warn(pendingRows() + " samples are waiting to be written, pausing the collector.");
+				Instrumentation.increment(Instrumentation.Counter.COLLECTOR_PAUSES);
+
+				while (running && pendingRows() >= FLUSH_QUEUE_CAPACITY) {
+					waitOnLock(FLUSH_INTERVAL);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Stop the flusher once everything collected so far has been written.
+	 *
+	 * @return long The number of rows that could not be written during the run.
+	 */
+	public long close() {
+		logger.info("================================================================================");
+		logger.info("  Starting ResultFlusher.close...");
+
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		logger.info("Flushed " + writer.getRowsWritten() + " samples, " + rowsFailed + " could not be written.");
+
+		return rowsFailed;
+	}
+
+
+	private int pendingRows() {
+		return series.size() - flushedRows;
+	}
+
+
+	private void waitOnLock(long millis) {
+		try {
+			lock.wait(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+
+	/**
+	 * Check whether the samples are kept in memory after they have been written.
+	 *
+	 * @return boolean Are the samples retained?
+	 */
+	public static boolean isRetainingSamples() {
+		return RETAIN_SAMPLES;
+	}
+
+}
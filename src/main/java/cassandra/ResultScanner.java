@@ -0,0 +1,211 @@
+package cassandra;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TokenRange;
+
+import general.LoadPropertiesFile;
+import general.MetricDefinition;
+import general.SampleHandler;
+
+/**
+ * Reads every sample of a results table back, such as the testResultsTable written by earlier versions, where each
+ * sample is its own partition and the only way through the table is a scan. The ring is split into token ranges which
+ * are read readParallelism at a time, each a page of readFetchSize rows at a time, so the table is never held in memory.
+ */
+public class ResultScanner {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Integer READ_FETCH_SIZE = LoadPropertiesFile.getInteger("readFetchSize");
+	private static final Integer READ_PARALLELISM = LoadPropertiesFile.getInteger("readParallelism");
+
+	// The ring is split into at least this many ranges per parallel read, so a slow range does not hold up the others.
+	private static final int RANGES_PER_READ = 4;
+
+	private final Session session;
+	private final String keyspaceName;
+	private final String tableName;
+	private final TableMetadata tableMetadata;
+
+
+	/**
+	 * Create a scanner of the given table.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table.
+	 */
+	public ResultScanner(Session session, String keyspaceName, String tableName) {
+		this.session = session;
+		this.keyspaceName = keyspaceName;
+		this.tableName = tableName;
+
+		KeyspaceMetadata keyspaceMetadata = session.getCluster().getMetadata().getKeyspace(keyspaceName);
+		this.tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(tableName);
+		if (tableMetadata == null) {
+			throw new IllegalArgumentException("There is no table '" + keyspaceName + "." + tableName + "'.");
+		}
+	}
+
+
+	/**
+	 * Read the samples taken within the given times. In a table keyed by node alone, the samples of the given node are
+	 * its one partition and are read in time order. Otherwise the whole table is scanned and the samples are handed over
+	 * in no particular order, one at a time, as the ranges are read.
+	 * Metrics the table has no column for are read as missing.
+	 *
+	 * @param metrics The metrics to read, one value each.
+	 * @param node The host to read the samples of, or null for a table without a node column.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param handler Receives the samples; it is never called by two threads at once.
+	 * @return long The number of samples read.
+	 */
+	public long scan(List<MetricDefinition> metrics, String node, long from, long to, SampleHandler handler) {
+		logger.info("================================================================================");
+		logger.info("  Starting ResultScanner.scan '" + keyspaceName + "." + tableName + "'" + (node == null ? "" : " for node '" + node + "'") + "...");
+
+		if (node != null && tableMetadata.getColumn("node") == null) {
+			throw new IllegalArgumentException("Table '" + keyspaceName + "." + tableName + "' has no node column.");
+		}
+
+		ResultColumns columns = new ResultColumns(tableMetadata, metrics, node != null);
+		String select = columns.getSelect() + " FROM " + keyspaceName + "." + tableName;
+
+		long startTime = System.nanoTime();
+		long rows;
+
+		List<ColumnMetadata> partitionKey = tableMetadata.getPartitionKey();
+		if (node != null && partitionKey.size() == 1 && "node".equals(partitionKey.get(0).getName())) {
+			PreparedStatement statement = session.prepare(select + " WHERE node = ? AND timestamp >= ? AND timestamp <= ?;");
+			rows = read(statement.bind(node, new Date(from), new Date(to)), columns, node, from, to, handler);
+		} else {
+			rows = scanRanges(select, partitionKey, columns, node, from, to, handler);
+		}
+
+		logger.info(String.format("Read %d samples in %.1f ms.", rows, (System.nanoTime() - startTime) / 1e6));
+
+		return rows;
+	}
+
+
+	private long scanRanges(String select, List<ColumnMetadata> partitionKey, ResultColumns columns, String node,
+			long from, long to, SampleHandler handler) {
+		StringBuilder token = new StringBuilder("token(");
+		for (int i = 0; i < partitionKey.size(); i++) {
+			token.append(i == 0 ? "" : ", ").append(partitionKey.get(i).getName());
+		}
+		token.append(")");
+
+		PreparedStatement bounded = session.prepare(select + " WHERE " + token + " > ? AND " + token + " <= ?;");
+		PreparedStatement after = session.prepare(select + " WHERE " + token + " > ?;");
+		PreparedStatement upTo = session.prepare(select + " WHERE " + token + " <= ?;");
+
+		List<TokenRange> ranges = getRanges();
+		logger.info("Scanning " + ranges.size() + " token ranges, " + READ_PARALLELISM + " at a time.");
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, READ_PARALLELISM), runnable -> {
+			Thread thread = new Thread(runnable, "result-scanner");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		AtomicLong rows = new AtomicLong();
+		try {
+			List<BoundStatement> statements = new ArrayList<>();
+			for (TokenRange range : ranges) {
+				int order = range.getEnd().compareTo(range.getStart());
+
+				if (order > 0) {
+					statements.add(bounded.bind().setToken(0, range.getStart()).setToken(1, range.getEnd()));
+				} else if (order < 0) {
+					// After unwrapping, only the range that ends the ring ends before it starts, at the minimum token.
+					statements.add(after.bind().setToken(0, range.getStart()));
+				} else {
+					// A single range from a token round to itself is the whole ring.
+					statements.add(after.bind().setToken(0, range.getStart()));
+					statements.add(upTo.bind().setToken(0, range.getEnd()));
+				}
+			}
+
+			List<Future<?>> futures = new ArrayList<>(statements.size());
+			for (BoundStatement statement : statements) {
+				futures.add(executor.submit(() -> rows.addAndGet(read(statement, columns, node, from, to, handler))));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Reading '" + keyspaceName + "." + tableName + "' failed: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Reading '" + keyspaceName + "." + tableName + "' was interrupted.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return rows.get();
+	}
+
+
+	/**
+	 * Get the token ranges of the ring, unwrapped and split so there are enough to keep every parallel read busy.
+	 */
+	private List<TokenRange> getRanges() {
+		List<TokenRange> unwrapped = new ArrayList<>();
+		for (TokenRange range : session.getCluster().getMetadata().getTokenRanges()) {
+			unwrapped.addAll(range.unwrap());
+		}
+
+		int wanted = Math.max(1, READ_PARALLELISM) * RANGES_PER_READ;
+		if (unwrapped.size() >= wanted) {
+			return unwrapped;
+		}
+
+		List<TokenRange> split = new ArrayList<>();
+		int parts = (wanted + unwrapped.size() - 1) / unwrapped.size();
+		for (TokenRange range : unwrapped) {
+			// Only a range that ends after it starts is split.
+			if (range.getEnd().compareTo(range.getStart()) <= 0) {
+				split.add(range);
+			} else {
+				split.addAll(range.splitEvenly(parts));
+			}
+		}
+
+		return split;
+	}
+
+
+	/**
+	 * Read the rows of one statement a page at a time, handing the samples over one at a time as the ranges are read in parallel.
+	 */
+	private long read(BoundStatement statement, ResultColumns columns, String node, long from, long to, SampleHandler handler) {
+		statement.setFetchSize(READ_FETCH_SIZE);
+
+		return columns.read(session.execute(statement), READ_FETCH_SIZE, node, from, to, (timestamp, values) -> {
+			synchronized (handler) {
+				handler.accept(timestamp, values);
+			}
+		});
+	}
+
+}
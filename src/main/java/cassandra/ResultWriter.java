@@ -0,0 +1,364 @@
+package cassandra;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import general.Instrumentation;
+import general.LoadPropertiesFile;
+import general.MetricDefinition;
+import general.MetricSeries;
+
+public class ResultWriter {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Integer MAXIMUM_IN_FLIGHT_WRITES = LoadPropertiesFile.getInteger("maximumInFlightWrites");
+	private static final Integer WRITE_RETRIES = LoadPropertiesFile.getInteger("writeRetries");
+
+	// The first retry round waits this long, doubling for each further round.
+	private static final long RETRY_BACKOFF_MILLIS = 100;
+
+	private final Session session;
+	private final String table;
+	private final List<MetricDefinition> columns;
+	private final String node;
+	private final UUID runId;
+	private final long bucketMillis;
+	private final int firstMetricVariable;
+	private final PreparedStatement preparedStatement;
+	private final DataType[] variableTypes;
+	private final Semaphore inFlightPermits;
+
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private final AtomicLong rowsFailed = new AtomicLong();
+
+
+	/**
+	 * Create a writer for the given results table, preparing its insert statement.
+	 * Each row is its own partition, so rows are written individually and routed straight to a replica rather than batched.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table.
+	 * @param columns The metrics to write, one column each.
+	 */
+	public ResultWriter(Session session, String keyspaceName, String tableName, List<MetricDefinition> columns) {
+		this(session, keyspaceName, tableName, columns, null);
+	}
+
+
+	/**
+	 * Create a writer for the given results table that tags every row with the given node.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table, keyed by node as created by DbFunctions.createTestTable.
+	 * @param columns The metrics to write, one column each.
+	 * @param node The host the rows were read from, or null for a table without a node column.
+	 */
+	public ResultWriter(Session session, String keyspaceName, String tableName, List<MetricDefinition> columns, String node) {
+		this(session, keyspaceName, tableName, columns, node, null, 0);
+	}
+
+
+	/**
+	 * Create a writer for a run results table, as created by DbFunctions.createRunResultsTable. Every row is tagged with
+	 * the run and node, and with the start of the time bucket its sample falls in, so a run is read back a bucket at a time.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param tableName The name of the table.
+	 * @param columns The metrics to write, one column each.
+	 * @param node The host the rows were read from.
+	 * @param runId The run the rows belong to, or null for a table without a run column.
+	 * @param bucketMillis The length of each time bucket in milliseconds.
+	 */
+	public ResultWriter(Session session, String keyspaceName, String tableName, List<MetricDefinition> columns, String node, UUID runId, long bucketMillis) {
+		if (runId != null && (node == null || bucketMillis <= 0)) {
+			throw new IllegalArgumentException("A run results writer needs a node and a bucket length greater than 0, not " + bucketMillis + ".");
+		}
+
+		this.session = session;
+		this.table = keyspaceName + "." + tableName;
+		this.columns = columns;
+		this.node = node;
+		this.runId = runId;
+		this.bucketMillis = bucketMillis;
+		this.inFlightPermits = new Semaphore(MAXIMUM_IN_FLIGHT_WRITES);
+
+		StringBuilder names;
+		if (runId != null) {
+			names = new StringBuilder("run_id, node, bucket, timestamp");
+			this.firstMetricVariable = 4;
+		} else if (node != null) {
+			names = new StringBuilder("node, timestamp");
+			this.firstMetricVariable = 2;
+		} else {
+			names = new StringBuilder("timestamp");
+			this.firstMetricVariable = 1;
+		}
+
+		StringBuilder markers = new StringBuilder("?");
+		for (int i = 1; i < firstMetricVariable; i++) {
+			markers.append(", ?");
+		}
+		for (MetricDefinition metric : columns) {
+			names.append(", ").append(metric.getId());
+			markers.append(", ?");
+		}
+
+		this.preparedStatement = session.prepare("INSERT INTO " + table + " (" + names + ") VALUES (" + markers + ")");
+
+		// Bind by the table's own column types, as a table created by an older run may use int rather than bigint.
+		ColumnDefinitions variables = preparedStatement.getVariables();
+		this.variableTypes = new DataType[variables.size()];
+		for (int i = 0; i < variableTypes.length; i++) {
+			variableTypes[i] = variables.getType(i);
+		}
+	}
+
+
+	/**
+	 * Write the given rows of the series, waiting until every write has completed.
+	 * Failed rows are retried; rows that still fail are logged so they can be inserted by hand.
+	 *
+	 * @param series The series to write.
+	 * @param fromRow The first row to write.
+	 * @param toRow The row after the last row to write.
+	 * @return int The number of rows that could not be written.
+	 */
+	public int write(MetricSeries series, int fromRow, int toRow) {
+		logger.debug("================================================================================");
+		logger.debug("  Starting ResultWriter.write '" + table + "' rows " + fromRow + " to " + toRow + "...");
+
+		int rowCount = toRow - fromRow;
+		if (rowCount <= 0) {
+			return 0;
+		}
+
+		long startTime = System.nanoTime();
+		// The latency of every write that completed, successfully or not, in the order they completed. A row is written at
+		// most 1 + WRITE_RETRIES times, and a write that failed to start has no latency, so the p99 is over the completed only.
+		long[] latencies = new long[rowCount * (1 + WRITE_RETRIES)];
+		AtomicInteger completedWrites = new AtomicInteger();
+		Queue<Integer> failedRows = new ConcurrentLinkedQueue<>();
+
+		for (int row = fromRow; row < toRow; row++) {
+			writeRow(series, row, latencies, completedWrites, failedRows);
+		}
+		awaitInFlight();
+
+		for (int attempt = 1; attempt <= WRITE_RETRIES && !failedRows.isEmpty(); attempt++) {
+			Integer[] retryRows = failedRows.toArray(new Integer[0]);
+			failedRows.clear();
+
+			logger.warn("Retrying " + retryRows.length + " failed writes to '" + table + "', attempt " + attempt + " of " + WRITE_RETRIES + ".");
+			sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+
+			for (Integer row : retryRows) {
+				writeRow(series, row, latencies, completedWrites, failedRows);
+			}
+			awaitInFlight();
+		}
+
+		for (Integer row : failedRows) {
+			logger.error("Unable to write row to '" + table + "': " + describeRow(series, row));
+		}
+
+		int failed = failedRows.size();
+		rowsWritten.addAndGet(rowCount - failed);
+		rowsFailed.addAndGet(failed);
+		Instrumentation.record(Instrumentation.Stage.DB_BATCH, System.nanoTime() - startTime);
+		Instrumentation.add(Instrumentation.Counter.ROWS_WRITTEN, rowCount - failed);
+		Instrumentation.add(Instrumentation.Counter.ROWS_FAILED, failed);
+
+		double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+		int completed = completedWrites.get();
+		Arrays.sort(latencies, 0, completed);
+		long p99 = completed == 0 ? 0 : latencies[Math.min(completed - 1, (int) Math.ceil(completed * 0.99) - 1)];
+
+		logger.info(String.format("Wrote %d rows to '%s' in %.3f s (%.0f rows/s), p99 write latency %.3f ms, %d failed.",
+				rowCount - failed, table, elapsedSeconds, rowCount / Math.max(elapsedSeconds, 1e-9), p99 / 1e6, failed));
+
+		return failed;
+	}
+
+
+	/**
+	 * Start writing one row, blocking while the in-flight window is full.
+	 */
+	private void writeRow(MetricSeries series, int row, long[] latencies, AtomicInteger completedWrites, Queue<Integer> failedRows) {
+		BoundStatement statement = bind(series, row);
+
+		inFlightPermits.acquireUninterruptibly();
+		long writeStart = System.nanoTime();
+
+		ResultSetFuture future;
+		try {
+			future = session.executeAsync(statement);
+		} catch (RuntimeException e) {
+			inFlightPermits.release();
+			logger.debug("Write of row " + row + " failed to start: " + e);
+			failedRows.add(row);
+			return;
+		}
+
+		Futures.addCallback(future, new FutureCallback<ResultSet>() {
+			@Override
+			public void onSuccess(ResultSet result) {
+				latencies[completedWrites.getAndIncrement()] = System.nanoTime() - writeStart;
+				inFlightPermits.release();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				latencies[completedWrites.getAndIncrement()] = System.nanoTime() - writeStart;
+				logger.debug("Write of row " + row + " failed: " + t);
+				failedRows.add(row);
+				inFlightPermits.release();
+			}
+		}, MoreExecutors.directExecutor());
+	}
+
+
+	private BoundStatement bind(MetricSeries series, int row) {
+		BoundStatement statement = preparedStatement.bind();
+		long timestamp = series.getTimestamp(row);
+
+		if (runId != null) {
+			statement.setUUID(0, runId);
+			statement.setString(1, node);
+			statement.setTimestamp(2, new Date(getBucket(timestamp, bucketMillis)));
+		} else if (node != null) {
+			statement.setString(0, node);
+		}
+		statement.setTimestamp(firstMetricVariable - 1, new Date(timestamp));
+
+		for (int column = 0; column < columns.size(); column++) {
+			int variable = column + firstMetricVariable;
+
+			if (series.isMissing(row, column)) {
+				statement.setToNull(variable);
+				continue;
+			}
+
+			switch (variableTypes[variable].getName()) {
+			case INT:
+				statement.setInt(variable, (int) series.getLong(row, column));
+				break;
+			case BIGINT:
+			case COUNTER:
+				statement.setLong(variable, series.getLong(row, column));
+				break;
+			case FLOAT:
+				statement.setFloat(variable, (float) series.getDouble(row, column));
+				break;
+			default:
+				statement.setDouble(variable, series.getDouble(row, column));
+				break;
+			}
+		}
+
+		return statement;
+	}
+
+
+	/**
+	 * Get the start of the time bucket the given time falls in.
+	 *
+	 * @param timestamp The time in epoch milliseconds.
+	 * @param bucketMillis The length of each bucket in milliseconds.
+	 * @return long The start of the bucket in epoch milliseconds.
+	 */
+	public static long getBucket(long timestamp, long bucketMillis) {
+		return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+	}
+
+
+	/**
+	 * Wait until every write started so far has completed.
+	 */
+	private void awaitInFlight() {
+		inFlightPermits.acquireUninterruptibly(MAXIMUM_IN_FLIGHT_WRITES);
+		inFlightPermits.release(MAXIMUM_IN_FLIGHT_WRITES);
+	}
+
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private String describeRow(MetricSeries series, int row) {
+		StringBuilder sb = new StringBuilder();
+		if (runId != null) {
+			sb.append("run_id=").append(runId).append(", ");
+		}
+		if (node != null) {
+			sb.append("node=").append(node).append(", ");
+		}
+		sb.append("timestamp=").append(series.getTimestamp(row));
+
+		for (int column = 0; column < columns.size(); column++) {
+			sb.append(", ").append(columns.get(column).getId()).append("=").append(series.format(row, column));
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Get the name of the table, with the node the rows are written for if there is one, such as RunResults.10.0.0.1.
+	 *
+	 * @return String The name.
+	 */
+	public String getName() {
+		return node == null ? table : table + "." + node;
+	}
+
+
+	/**
+	 * Get the number of rows written successfully by this writer.
+	 *
+	 * @return long The number of rows.
+	 */
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+
+	/**
+	 * Get the number of rows this writer gave up on.
+	 *
+	 * @return long The number of rows.
+	 */
+	public long getRowsFailed() {
+		return rowsFailed.get();
+	}
+
+}
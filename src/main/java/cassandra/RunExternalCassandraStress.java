@@ -11,6 +11,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import general.LoadPropertiesFile;
+import general.MetricSeries;
 
 public class RunExternalCassandraStress {
 
@@ -23,18 +24,24 @@ public class RunExternalCassandraStress {
 	private static final SimpleDateFormat FORMATTED_DATE = new SimpleDateFormat(DATE_PATTERN);
 	private static final String CURRENT_DATE = FORMATTED_DATE.format(new Date());
 
-	private static final Integer JMX_PORT = Integer.parseInt(LoadPropertiesFile.getProperty("jmxPort"));
-	private static final Integer NODE_PORT = Integer.parseInt(LoadPropertiesFile.getProperty("nodePort"));
+	private static final Integer JMX_PORT = LoadPropertiesFile.getInteger("jmxPort");
+	private static final Integer NODE_PORT = LoadPropertiesFile.getInteger("nodePort");
 	private static final String NODE_IP = LoadPropertiesFile.getProperty("nodeIp");
 	private static final String NODE_USERNAME = LoadPropertiesFile.getProperty("nodeUsername");
 	private static final String NODE_PASSWORD = LoadPropertiesFile.getProperty("nodePassword");
 	private static final String LOG_DIR = LoadPropertiesFile.getProperty("logDir");
 	private static final String GRAPH_DIR = LoadPropertiesFile.getProperty("graphDir");
 
-	private static final Integer NUMBER_OF_WRITES = Integer.parseInt(LoadPropertiesFile.getProperty("numberOfWrites"));
+	private static final Integer NUMBER_OF_WRITES = LoadPropertiesFile.getInteger("numberOfWrites");
 
 	private static Process process;
 
+	// The client side throughput and latency of each cassandra-stress interval, on the same clock as the JMX samples.
+	private static final MetricSeries STRESS_SERIES = new MetricSeries(StressOutputParser.getColumns());
+
+	// cassandra-stress is a client rather than a node, so its samples are stored under this name in a run.
+	public static final String STRESS_NODE = "cassandra-stress";
+
 
 	/**
 	 * Run the Cassandra stress logic.
@@ -76,9 +83,27 @@ public class RunExternalCassandraStress {
 
 		logger.debug("Output of cassandra-stress is:");
 
+		StressOutputParser parser = new StressOutputParser(STRESS_SERIES);
+
 		while ((line = br.readLine()) != null) {
-			logger.debug(line);
+			if (logger.isDebugEnabled()) {
+				logger.debug(line);
+			}
+
+			parser.parseLine(line, System.currentTimeMillis());
 		}
+
+		logger.info("Parsed " + parser.getIntervals() + " cassandra-stress intervals.");
+	}
+
+
+	/**
+	 * Get the series the cassandra-stress intervals are appended to while it runs.
+	 *
+	 * @return MetricSeries The series, with the columns of StressOutputParser.getColumns().
+	 */
+	public static MetricSeries getStressSeries() {
+		return STRESS_SERIES;
 	}
 
 	public static void close() {
@@ -0,0 +1,245 @@
+package cassandra;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.TableMetadata;
+
+import general.LoadPropertiesFile;
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.SampleHandler;
+
+/**
+ * Reads the samples of one run back from its run results table, as registered in the runs table by DbFunctions.startRun,
+ * or from the table of another of its series, such as the cassandra-stress results, registered by DbFunctions.addRunTable.
+ * The samples of a node are read bucket by bucket, each bucket a single partition in time order, a page at a time; the
+ * next page and the next bucket are fetched while the current one is handled, and nothing is kept beyond the page in hand.
+ */
+public class RunReader {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Integer READ_FETCH_SIZE = LoadPropertiesFile.getInteger("readFetchSize");
+
+	private final Session session;
+	private final String keyspaceName;
+	private final UUID runId;
+
+	private final long startTime;
+	private final Long endTime;
+	private final List<String> nodes;
+	private final String resultsTable;
+	private final Map<String, String> seriesTables;
+	private final long bucketMillis;
+	private final String description;
+
+
+	/**
+	 * Look the run up in the runs table.
+	 *
+	 * @param session The database session.
+	 * @param keyspaceName The name of the keyspace.
+	 * @param runsTableName The name of the runs table.
+	 * @param runId The ID of the run.
+	 */
+	public RunReader(Session session, String keyspaceName, String runsTableName, UUID runId) {
+		logger.info("================================================================================");
+		logger.info("  Starting RunReader '" + runId + "'...");
+
+		this.session = session;
+		this.keyspaceName = keyspaceName;
+		this.runId = runId;
+
+		// Every column, as the runs table of an earlier version has no series_tables.
+		Row run = session.execute(new SimpleStatement("SELECT * FROM " + keyspaceName + "." + runsTableName + " WHERE run_id = ?;", runId)).one();
+		if (run == null) {
+			throw new IllegalArgumentException("There is no run '" + runId + "' in '" + keyspaceName + "." + runsTableName + "'.");
+		}
+
+		this.startTime = run.getTimestamp("start_time").getTime();
+		this.endTime = run.isNull("end_time") ? null : run.getTimestamp("end_time").getTime();
+		this.nodes = Collections.unmodifiableList(run.getList("nodes", String.class));
+		this.resultsTable = run.getString("results_table");
+		this.seriesTables = run.getColumnDefinitions().contains("series_tables")
+				? Collections.unmodifiableMap(run.getMap("series_tables", String.class, String.class)) : Collections.<String, String>emptyMap();
+		this.bucketMillis = run.getLong("bucket_millis");
+		this.description = run.getString("description");
+
+		logger.info("Run '" + runId + "' (" + description + ") of " + nodes + " from " + new Date(startTime) + " to "
+				+ (endTime == null ? "an unrecorded end" : new Date(endTime)) + ".");
+	}
+
+
+	/**
+	 * Read every sample of the given node.
+	 *
+	 * @param node The host, one of getNodes().
+	 * @param metrics The metrics to read, one value each.
+	 * @param handler Receives the samples in time order.
+	 * @return long The number of samples read.
+	 */
+	public long read(String node, List<MetricDefinition> metrics, SampleHandler handler) {
+		return read(node, metrics, Long.MIN_VALUE, Long.MAX_VALUE, handler);
+	}
+
+
+	/**
+	 * Read the samples of the given node taken within the given times. Only the buckets overlapping the times are read.
+	 * Metrics the table has no column for, such as those added to the catalog after the run, are read as missing.
+	 *
+	 * @param node The host, one of getNodes().
+	 * @param metrics The metrics to read, one value each.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param handler Receives the samples in time order.
+	 * @return long The number of samples read.
+	 */
+	public long read(String node, List<MetricDefinition> metrics, long from, long to, SampleHandler handler) {
+		logger.info("================================================================================");
+		logger.info("  Starting RunReader.read '" + runId + "' for node '" + node + "'...");
+
+		if (!nodes.contains(node)) {
+			throw new IllegalArgumentException("Run '" + runId + "' did not watch node '" + node + "', only " + nodes + ".");
+		}
+
+		return readTable(resultsTable, node, metrics, from, to, handler);
+	}
+
+
+	/**
+	 * Read the samples of another series of the run, as registered by DbFunctions.addRunTable, taken within the given times.
+	 * Metrics the table has no column for are read as missing.
+	 *
+	 * @param series The name of the series, one of getSeriesTables().
+	 * @param node The name the samples are stored under, such as a host of getNodes() for the latency percentiles, or
+	 *        RunExternalCassandraStress.STRESS_NODE for the cassandra-stress results.
+	 * @param metrics The metrics to read, one value each.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param handler Receives the samples in time order.
+	 * @return long The number of samples read.
+	 */
+	public long read(String series, String node, List<MetricDefinition> metrics, long from, long to, SampleHandler handler) {
+		String table = seriesTables.get(series);
+		if (table == null) {
+			throw new IllegalArgumentException("Run '" + runId + "' has no series '" + series + "', only " + seriesTables.keySet() + ".");
+		}
+
+		return readTable(table, node, metrics, from, to, handler);
+	}
+
+
+	private long readTable(String table, String node, List<MetricDefinition> metrics, long from, long to, SampleHandler handler) {
+		KeyspaceMetadata keyspaceMetadata = session.getCluster().getMetadata().getKeyspace(keyspaceName);
+		TableMetadata tableMetadata = keyspaceMetadata == null ? null : keyspaceMetadata.getTable(table);
+		if (tableMetadata == null) {
+			throw new IllegalArgumentException("There is no table '" + keyspaceName + "." + table + "'.");
+		}
+
+		ResultColumns columns = new ResultColumns(tableMetadata, metrics, false);
+		PreparedStatement statement = session.prepare(columns.getSelect() + " FROM " + keyspaceName + "." + table
+				+ " WHERE run_id = ? AND node = ? AND bucket = ? AND timestamp >= ? AND timestamp <= ?;");
+
+		// A run without a recorded end is read up to the present, as it may still be running.
+		long last = Math.min(to, endTime == null ? System.currentTimeMillis() : endTime);
+		long firstBucket = ResultWriter.getBucket(Math.max(from, startTime), bucketMillis);
+		long lastBucket = ResultWriter.getBucket(last, bucketMillis);
+
+		long rows = 0;
+		long readStart = System.nanoTime();
+
+		ResultSetFuture next = firstBucket <= lastBucket ? query(statement, node, firstBucket, from, to) : null;
+		for (long bucket = firstBucket; next != null; bucket += bucketMillis) {
+			ResultSet resultSet = next.getUninterruptibly();
+			next = bucket + bucketMillis <= lastBucket ? query(statement, node, bucket + bucketMillis, from, to) : null;
+
+			rows += columns.read(resultSet, READ_FETCH_SIZE, null, from, to, handler);
+		}
+
+		logger.info(String.format("Read %d samples of node '%s' from %d buckets of '%s' in %.1f ms.", rows, node,
+				firstBucket <= lastBucket ? (lastBucket - firstBucket) / bucketMillis + 1 : 0, table, (System.nanoTime() - readStart) / 1e6));
+
+		return rows;
+	}
+
+
+	private ResultSetFuture query(PreparedStatement statement, String node, long bucket, long from, long to) {
+		return session.executeAsync(statement.bind(runId, node, new Date(bucket), new Date(from), new Date(to)).setFetchSize(READ_FETCH_SIZE));
+	}
+
+
+	/**
+	 * Read every sample of the given node into a series, such as to chart or compare the run.
+	 *
+	 * @param node The host, one of getNodes().
+	 * @param metrics The metrics to read, one column each.
+	 * @return MetricSeries The samples in time order, tagged with the node.
+	 */
+	public MetricSeries readSeries(String node, List<MetricDefinition> metrics) {
+		MetricSeries series = new MetricSeries(metrics, node);
+
+		read(node, metrics, series::append);
+
+		return series;
+	}
+
+
+	public UUID getRunId() {
+		return runId;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+
+	/**
+	 * Get the time the run ended.
+	 *
+	 * @return Long The time in epoch milliseconds, or null if the run did not record its end.
+	 */
+	public Long getEndTime() {
+		return endTime;
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	public String getResultsTable() {
+		return resultsTable;
+	}
+
+
+	/**
+	 * Get the tables of the other series of the run, as registered by DbFunctions.addRunTable.
+	 *
+	 * @return Map<String, String> The table of each series by series name, empty if there are none.
+	 */
+	public Map<String, String> getSeriesTables() {
+		return seriesTables;
+	}
+
+	public long getBucketMillis() {
+		return bucketMillis;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+}
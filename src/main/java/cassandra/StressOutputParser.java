@@ -0,0 +1,226 @@
+package cassandra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.Miscellaneous;
+
+public class StressOutputParser {
+
+	// The columns of a cassandra-stress interval row after its type:
+	// total ops, op/s, pk/s, row/s, mean, med, .95, .99, .999, max, time, stderr, errors, gc: #, max ms, sum ms, sdv ms, mb
+	private static final int FIELD_COUNT = 18;
+	private static final int OP_RATE = 1;
+	private static final int MEAN = 4;
+	private static final int P95 = 6;
+	private static final int P99 = 7;
+	private static final int P999 = 8;
+	private static final int MAX = 9;
+	private static final int TIME = 10;
+	private static final int ERRORS = 12;
+	private static final int GC_COUNT = 13;
+	private static final int GC_MAX_MS = 14;
+	private static final int GC_SUM_MS = 15;
+
+	// The fields recorded for each row type, in column order.
+	private static final int[] TYPE_FIELDS = { OP_RATE, MEAN, P95, P99, P999, MAX };
+	private static final String[] TYPE_FIELD_NAMES = { "OpRate", "LatencyMean", "Latency95th", "Latency99th", "Latency999th", "LatencyMax" };
+	private static final String[] TYPE_FIELD_TITLES = { "op/s", "ms", "ms", "ms", "ms", "ms" };
+
+	// The row types, in the order cassandra-stress prints them each interval. The total row closes the interval.
+	private static final String[] TYPES = { "READ", "WRITE", "total" };
+	private static final String[] TYPE_NAMES = { "Read", "Write", "Total" };
+	private static final int TOTAL = 2;
+
+	// The fields recorded from the total row only, after the per type columns.
+	private static final int[] TOTAL_FIELDS = { ERRORS, GC_COUNT, GC_MAX_MS, GC_SUM_MS };
+	private static final String[] TOTAL_FIELD_NAMES = { "stressErrors", "stressGcCount", "stressGcMaxMs", "stressGcSumMs" };
+	private static final String[] TOTAL_FIELD_TITLES = { "errors", "collections", "ms", "ms" };
+
+	private static final List<MetricDefinition> COLUMNS = createColumns();
+
+	private final MetricSeries series;
+
+	// Reused for every line, so parsing allocates nothing.
+	private final double[] fields = new double[FIELD_COUNT];
+	private final double[] values = new double[COLUMNS.size()];
+
+	private long intervals;
+
+	// The total ops and time of the last interval appended, as the cassandra-stress log repeats each row.
+	private double lastTotalOps = Double.NaN;
+	private double lastTime = Double.NaN;
+
+
+	/**
+	 * Create a parser that appends every cassandra-stress interval to the given series.
+	 *
+	 * @param series The series, with the columns given by getColumns().
+	 */
+	public StressOutputParser(MetricSeries series) {
+		this.series = series;
+		Arrays.fill(values, Double.NaN);
+	}
+
+
+	/**
+	 * Get the columns of the series filled by the parser.
+	 *
+	 * @return List<MetricDefinition> The columns.
+	 */
+	public static List<MetricDefinition> getColumns() {
+		return COLUMNS;
+	}
+
+
+	private static List<MetricDefinition> createColumns() {
+		List<MetricDefinition> columns = new ArrayList<>();
+		List<String> noMBeans = Collections.emptyList();
+
+		for (int t = 0; t < TYPES.length; t++) {
+			for (int f = 0; f < TYPE_FIELDS.length; f++) {
+				columns.add(new MetricDefinition("stress" + TYPE_NAMES[t] + TYPE_FIELD_NAMES[f], noMBeans, TYPES[t], MetricDefinition.Type.DOUBLE,
+						MetricDefinition.Aggregation.SUM, null, TYPE_FIELD_TITLES[f],
+						"The " + TYPES[t] + " " + TYPE_FIELD_NAMES[f] + " of each cassandra-stress interval, as seen by the client."));
+			}
+		}
+
+		for (int f = 0; f < TOTAL_FIELDS.length; f++) {
+			columns.add(new MetricDefinition(TOTAL_FIELD_NAMES[f], noMBeans, "total", MetricDefinition.Type.LONG,
+					MetricDefinition.Aggregation.SUM, null, TOTAL_FIELD_TITLES[f],
+					"The " + TOTAL_FIELD_NAMES[f].substring("stress".length()) + " of each cassandra-stress interval."));
+		}
+
+		return Collections.unmodifiableList(columns);
+	}
+
+
+	/**
+	 * Parse one line of cassandra-stress output. Interval rows are collected until the total row of the interval,
+	 * which appends one sample at the given time; any other line is ignored.
+	 *
+	 * @param line The line.
+	 * @param timestamp The time the line was read in epoch milliseconds.
+	 * @return boolean Was the line an interval row?
+	 */
+	public boolean parseLine(CharSequence line, long timestamp) {
+		int type = parseType(line);
+		if (type < 0) {
+			return false;
+		}
+
+		if (!parseFields(line, TYPES[type].length() + 1)) {
+			return false;
+		}
+
+		int column = type * TYPE_FIELDS.length;
+		for (int f = 0; f < TYPE_FIELDS.length; f++) {
+			values[column + f] = fields[TYPE_FIELDS[f]];
+		}
+
+		if (type == TOTAL) {
+			if (fields[0] == lastTotalOps && fields[TIME] == lastTime) {
+				return true;
+			}
+			lastTotalOps = fields[0];
+			lastTime = fields[TIME];
+
+			column = TYPES.length * TYPE_FIELDS.length;
+			for (int f = 0; f < TOTAL_FIELDS.length; f++) {
+				values[column + f] = fields[TOTAL_FIELDS[f]];
+			}
+
+			series.append(timestamp, values);
+			Arrays.fill(values, Double.NaN);
+			intervals++;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Find the row type at the start of the line, followed by a comma.
+	 */
+	private static int parseType(CharSequence line) {
+		for (int t = 0; t < TYPES.length; t++) {
+			String type = TYPES[t];
+			int length = type.length();
+
+			if (line.length() > length && line.charAt(length) == ',' && startsWith(line, type)) {
+				return t;
+			}
+		}
+
+		return -1;
+	}
+
+
+	private static boolean startsWith(CharSequence line, String prefix) {
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Parse the comma separated numbers from the given position into the fields. Anything after the last field is ignored.
+	 */
+	private boolean parseFields(CharSequence line, int position) {
+		int length = line.length();
+
+		for (int f = 0; f < FIELD_COUNT; f++) {
+			while (position < length && line.charAt(position) == ' ') {
+				position++;
+			}
+
+			// A field is the run of characters a number can hold, parsed in place without allocating.
+			int start = position;
+			while (position < length && isNumberCharacter(line.charAt(position))) {
+				position++;
+			}
+
+			fields[f] = Miscellaneous.parseNumber(line, start, position);
+			if (Double.isNaN(fields[f])) {
+				return false;
+			}
+
+			// Each field but the last ends at a comma; the last runs into whatever follows it.
+			if (f < FIELD_COUNT - 1) {
+				while (position < length && line.charAt(position) == ' ') {
+					position++;
+				}
+				if (position >= length || line.charAt(position) != ',') {
+					return false;
+				}
+				position++;
+			}
+		}
+
+		return true;
+	}
+
+
+	private static boolean isNumberCharacter(char c) {
+		return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+	}
+
+
+	/**
+	 * Get the number of intervals appended to the series.
+	 *
+	 * @return long The number of intervals.
+	 */
+	public long getIntervals() {
+		return intervals;
+	}
+
+}
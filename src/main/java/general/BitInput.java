@@ -0,0 +1,74 @@
+package general;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bits written by BitOutput from a region of a buffer, such as a mapped file, without copying it.
+ */
+final class BitInput {
+
+	private final ByteBuffer buffer;
+	private int position;
+
+	// The next bits to read, left aligned; only the top cacheBits are valid.
+	private long cache;
+	private int cacheBits;
+
+
+	/**
+	 * Read bits from the given buffer, starting at the given absolute position. The buffer's own position is not used.
+	 *
+	 * @param buffer The buffer.
+	 * @param position The index of the first byte.
+	 */
+	BitInput(ByteBuffer buffer, int position) {
+		this.buffer = buffer;
+		this.position = position;
+	}
+
+
+	/**
+	 * Read the given number of bits, most significant first. Reading past the end of the buffer gives zero bits.
+	 *
+	 * @param count The number of bits, from 0 to 64.
+	 * @return long The bits, in the lowest bits of the value.
+	 */
+	long readBits(int count) {
+		if (count == 0) {
+			return 0;
+		}
+		if (count > 56) {
+			// The cache holds at least 57 bits after a refill, so wide reads are split.
+			long high = readBits(count - 32);
+			return (high << 32) | readBits(32);
+		}
+
+		if (cacheBits < count) {
+			refill();
+		}
+
+		long result = cache >>> (64 - count);
+		cache <<= count;
+		cacheBits -= count;
+
+		return result;
+	}
+
+
+	private void refill() {
+		int limit = buffer.limit();
+
+		while (cacheBits <= 56) {
+			long next = position < limit ? buffer.get(position) & 0xff : 0;
+			position++;
+			cache |= next << (56 - cacheBits);
+			cacheBits += 8;
+		}
+	}
+
+
+	boolean readBit() {
+		return readBits(1) != 0;
+	}
+
+}
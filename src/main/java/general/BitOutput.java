@@ -0,0 +1,75 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer that bits are written to, most significant bit first.
+ */
+final class BitOutput {
+
+	private byte[] bytes = new byte[4096];
+	private int length;
+
+	// The bits of the byte being filled, and how many of them are set.
+	private int current;
+	private int currentBits;
+
+
+	/**
+	 * Write the lowest bits of the given value, most significant first.
+	 *
+	 * @param value The bits to write.
+	 * @param count The number of bits, from 0 to 64.
+	 */
+	void writeBits(long value, int count) {
+		while (count > 0) {
+			int take = Math.min(8 - currentBits, count);
+			int bits = (int) (value >>> (count - take)) & ((1 << take) - 1);
+
+			current = (current << take) | bits;
+			currentBits += take;
+			count -= take;
+
+			if (currentBits == 8) {
+				if (length == bytes.length) {
+					bytes = Arrays.copyOf(bytes, length * 2);
+				}
+				bytes[length++] = (byte) current;
+				current = 0;
+				currentBits = 0;
+			}
+		}
+	}
+
+
+	void writeBit(boolean bit) {
+		writeBits(bit ? 1 : 0, 1);
+	}
+
+
+	/**
+	 * Pad the last byte with zero bits.
+	 *
+	 * @return int The number of bytes written.
+	 */
+	int finish() {
+		if (currentBits > 0) {
+			writeBits(0, 8 - currentBits);
+		}
+
+		return length;
+	}
+
+
+	byte[] getBytes() {
+		return bytes;
+	}
+
+
+	void reset() {
+		length = 0;
+		current = 0;
+		currentBits = 0;
+	}
+
+}
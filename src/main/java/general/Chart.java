@@ -1,13 +1,17 @@
 package general;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Map;
-import java.util.SortedMap;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,69 +24,99 @@ public class Chart {
 	private static final SimpleDateFormat FORMATTED_DATE = new SimpleDateFormat(DATE_PATTERN);
 	private static final String CURRENT_DATE = FORMATTED_DATE.format(new Date());
 
-	private static final String LIVESSTABLECOUNT_THRESHOLD = LoadPropertiesFile.getProperty("liveSSTableCountThreshold");
-	private static final String ALLMEMTABLESLIVEDATASIZE_THRESHOLD = LoadPropertiesFile.getProperty("allMemtablesLiveDataSizeThreshold");
-	private static final String READLATENCY_THRESHOLD = LoadPropertiesFile.getProperty("readLatencyThreshold");
-	private static final String WRITELATENCY_THRESHOLD = LoadPropertiesFile.getProperty("writeLatencyThreshold");
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
 
+	// The most events described in the tooltip of one mark; the rest are only counted.
+	private static final int MAXIMUM_EVENTS_PER_MARK = 10;
 
 	/**
 	 * Create the output html file containing charts for the passed metrics.
 	 *
-	 * @param passedMetricHash A hash of metrics and values.
+	 * @param passedMetricSeries A series of metric samples.
 	 * @throws IOException
 	 */
-	public static void createChartHTML(SortedMap <String, String> passedMetricHash) throws IOException {
+	public static void createChartHTML(MetricSeries passedMetricSeries) throws IOException {
+		createChartHTML(passedMetricSeries, "TestScreen");
+	}
+
+
+	/**
+	 * Create the output html file containing charts for the passed metrics, named after the given name.
+	 *
+	 * @param passedMetricSeries A series of metric samples.
+	 * @param passedName The start of the file name and title, such as TestScreen.
+	 * @throws IOException
+	 */
+	public static void createChartHTML(MetricSeries passedMetricSeries, String passedName) throws IOException {
+		createChartHTML(passedMetricSeries, passedName, Collections.emptyList());
+	}
+
+
+	/**
+	 * Create the output html file containing charts for the passed metrics, with the given events marked on every chart.
+	 *
+	 * @param passedMetricSeries A series of metric samples.
+	 * @param passedName The start of the file name and title, such as TestScreen.
+	 * @param events The events the node reported during the series, in time order.
+	 * @throws IOException
+	 */
+	public static void createChartHTML(MetricSeries passedMetricSeries, String passedName, List<JmxEvent> events) throws IOException {
 		logger.info("================================================================================");
-		logger.info("  Starting Chart.createChartHTML...");
+		logger.info("  Starting Chart.createChartHTML '" + passedName + "'...");
 
 		String graphDir = LoadPropertiesFile.getProperty("graphDir");
-		String graphTitle = "TestScreen_" + CURRENT_DATE;
+		String graphTitle = passedName + "_" + CURRENT_DATE;
+		if (passedMetricSeries.getNode() != null) {
+			// One chart per node in cluster mode; IPv6 colons are not welcome in file names.
+			graphTitle = passedName + "_" + passedMetricSeries.getNode().replace(':', '_') + "_" + CURRENT_DATE;
+		}
 		String htmlFile = graphDir + graphTitle + ".html";
 
 		File file = new File(htmlFile);
 		Files.deleteIfExists(file.toPath());
 
-		PrintWriter printWriter = new PrintWriter(file);
+		int pointBudget = LoadPropertiesFile.getInteger("chartPointBudget");
 
-		String liveSSTableCountString = "";
-		String allMemtablesLiveDataSizeString = "";
-		String readLatency95thPercentileString = "";
-		String writeLatency95thPercentileString = "";
-
-		// Iterate over the returned metrics results.
-		for (Map.Entry<String, String> entry : passedMetricHash.entrySet()) {
-			String timestamp = entry.getKey();
-			String readMetricHashValue = entry.getValue();
-
-			String[] metrics = readMetricHashValue.split(",");
-
-			String[] datetime = timestamp.split(" ");
-			String date = datetime[0].replaceAll("-", ",");
-			String time = datetime[1].replaceAll(":", ",");
-			time = time.substring(0, time.indexOf('.'));
+		long chartStart = Instrumentation.start();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+			writeChartHTML(passedMetricSeries, graphTitle, pointBudget, events, writer);
+		}
+		Instrumentation.stop(Instrumentation.Stage.CHART, chartStart);
+	}
 
-			String formattedDate = "new Date(" + date + "," + time + ")";
 
-			String liveSSTableCount = metrics[0];
-			String allMemtablesLiveDataSize = metrics[1];
-			String readLatency95thPercentile = metrics[2];
-			String writeLatency95thPercentile = metrics[3];
+	/**
+	 * Write the html containing charts for the passed metrics to the given writer, without events.
+	 *
+	 * @param passedMetricSeries A series of metric samples.
+	 * @param graphTitle The title of the page.
+	 * @param pointBudget The most samples to draw per metric, or 0 to draw every sample.
+	 * @param writer The writer, which should be buffered.
+	 * @throws IOException
+	 */
+	public static void writeChartHTML(MetricSeries passedMetricSeries, String graphTitle, int pointBudget, Writer writer) throws IOException {
+		writeChartHTML(passedMetricSeries, graphTitle, pointBudget, Collections.emptyList(), writer);
+	}
 
-			liveSSTableCountString += "[" + formattedDate + ", " + liveSSTableCount + ", " + LIVESSTABLECOUNT_THRESHOLD + "], ";
-			allMemtablesLiveDataSizeString += "[" + formattedDate + ", " + allMemtablesLiveDataSize + ", " + ALLMEMTABLESLIVEDATASIZE_THRESHOLD +  "], ";
-			readLatency95thPercentileString += "[" + formattedDate + ", " + readLatency95thPercentile + ", " + READLATENCY_THRESHOLD +  "], ";
-			writeLatency95thPercentileString += "[" + formattedDate + ", " + writeLatency95thPercentile + ", " + WRITELATENCY_THRESHOLD +  "], ";
-		}
 
-		logger.debug("liveSSTableCountString");
-		logger.debug(liveSSTableCountString);
-		logger.debug("allMemtablesLiveDataSizeString");
-		logger.debug(allMemtablesLiveDataSizeString);
-		logger.debug("readLatency95thPercentileString");
-		logger.debug(readLatency95thPercentileString);
-		logger.debug("writeLatency95thPercentileString");
-		logger.debug(writeLatency95thPercentileString);
+	/**
+	 * Write the html containing charts for the passed metrics to the given writer, one sample at a time.
+	 * Each metric is drawn from at most pointBudget samples, picked by largest-triangle-three-buckets so that
+	 * spikes and the shape of the line survive; the page stays the same size however long the run was.
+	 * Each event is marked as a line at the drawn sample nearest to it, with its exact time and message in the tooltip.
+	 *
+	 * @param passedMetricSeries A series of metric samples.
+	 * @param graphTitle The title of the page.
+	 * @param pointBudget The most samples to draw per metric, or 0 to draw every sample.
+	 * @param events The events the node reported during the series, in time order.
+	 * @param writer The writer, which should be buffered.
+	 * @throws IOException
+	 */
+	public static void writeChartHTML(MetricSeries passedMetricSeries, String graphTitle, int pointBudget, List<JmxEvent> events,
+			Writer writer) throws IOException {
+		List<MetricDefinition> metrics = passedMetricSeries.getColumns();
+		boolean annotated = !events.isEmpty();
+		SimpleDateFormat eventTime = new SimpleDateFormat("HH:mm:ss.SSS");
 
 		// Some repeated values for the graphs
 		String haxis = 	"		         hAxis: {" +
@@ -92,8 +126,7 @@ public class Chart {
 		String colors = "		         backgroundColor: '#f1f8e9'," +
 			"		         colors: ['#AB0D06', '#007329'],";
 
-		// This is very ugly, but it gets the job done.
-		String htmlText = "<html>" +
+		writer.write("<html>" +
 				"		   <head>" +
 				"		      <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">" +
 				"		      <script type=\"text/javascript\" src=\"https://www.gstatic.com/charts/loader.js\"></script>" +
@@ -110,96 +143,74 @@ public class Chart {
 				"		         google.charts.setOnLoadCallback(drawBackgroundColor);" +
 				"" +
 				"		         function drawBackgroundColor() {" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// LiveSSTableCount graph section
-				"		         var dateFormatter = new google.visualization.DateFormat({pattern: 'yyyy-MM-dd HH:mm:ss'});" +
-				"" +
-				"		         var liveSSTableCountData = new google.visualization.DataTable();" +
-				"		         liveSSTableCountData.addColumn('datetime', 'X');" +
-				"		         liveSSTableCountData.addColumn('number', 'LiveSSTableCount');" +
-				"		         liveSSTableCountData.addColumn('number', 'Threshold');" +
-				"" +
-				"		         liveSSTableCountData.addRows([" +
-				liveSSTableCountString + "" +
-				"		         ]);" +
-				"" +
-				"		         var liveSSTableCountOptions = {" +
-				haxis +
-				"		         vAxis: {" +
-				"		         title: 'The number of live sorted string tables for this table'" +
-				"		         }," +
-				colors +
-				"		         };" +
-				"" +
-				"		         var liveSSTableCountChart = new google.visualization.LineChart(document.getElementById('liveSSTableCountChart_div'));" +
-				"		         liveSSTableCountChart.draw(liveSSTableCountData, liveSSTableCountOptions);" +
-				"" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// AllMemtablesLiveDataSize graph section
-				"		         var allMemtablesLiveDataSizeData = new google.visualization.DataTable();" +
-				"		         allMemtablesLiveDataSizeData.addColumn('datetime', 'X');" +
-				"		         allMemtablesLiveDataSizeData.addColumn('number', 'AllMemtablesLiveDataSize');" +
-				"		         allMemtablesLiveDataSizeData.addColumn('number', 'Threshold');" +
-				"" +
-				"		         allMemtablesLiveDataSizeData.addRows([" +
-				allMemtablesLiveDataSizeString + "" +
-				"		         ]);" +
-				"" +
-				"		         var allMemtablesLiveDataSizeOptions = {" +
-				haxis +
-				"		         vAxis: {" +
-				"		         title: 'Total amount of live data stored in the memtables'" +
-				"		         }," +
-				colors +
-				"		         };" +
-				"" +
-				"		         var allMemtablesLiveDataSizeChart = new google.visualization.LineChart(document.getElementById('allMemtablesLiveDataSizeChart_div'));" +
-				"		         allMemtablesLiveDataSizeChart.draw(allMemtablesLiveDataSizeData, allMemtablesLiveDataSizeOptions);" +
-				"" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// ReadLatency95thPercentile graph section
-				"		         var readLatency95thPercentileData = new google.visualization.DataTable();" +
-				"		         readLatency95thPercentileData.addColumn('datetime', 'X');" +
-				"		         readLatency95thPercentileData.addColumn('number', 'ReadLatency95thPercentile');" +
-				"		         readLatency95thPercentileData.addColumn('number', 'Threshold');" +
-				"" +
-				"		         readLatency95thPercentileData.addRows([" +
-				readLatency95thPercentileString + "" +
-				"		         ]);" +
-				"" +
-				"		         var readLatency95thPercentileOptions = {" +
-				haxis +
-				"		         vAxis: {" +
-				"		         title: 'Read latency in millis'" +
-				"		         }," +
-				colors +
-				"		         };" +
-				"" +
-				"		         var readLatency95thPercentileChart = new google.visualization.LineChart(document.getElementById('readLatency95thPercentileChart_div'));" +
-				"		         readLatency95thPercentileChart.draw(readLatency95thPercentileData, readLatency95thPercentileOptions);" +
-				"" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// WriteLatency95thPercentile graph section
-				"		         var writeLatency95thPercentileData = new google.visualization.DataTable();" +
-				"		         writeLatency95thPercentileData.addColumn('datetime', 'X');" +
-				"		         writeLatency95thPercentileData.addColumn('number', 'WriteLatency95thPercentile');" +
-				"		         writeLatency95thPercentileData.addColumn('number', 'Threshold');" +
-				"" +
-				"		         writeLatency95thPercentileData.addRows([" +
-				writeLatency95thPercentileString + "" +
-				"		         ]);" +
-				"" +
-				"		         var writeLatency95thPercentileOptions = {" +
-				haxis +
-				"		         vAxis: {" +
-				"		         title: 'Write latency in millis'" +
-				"		         }," +
-				colors +
-				"		         };" +
-				"" +
-				"		         var writeLatency95thPercentileChart = new google.visualization.LineChart(document.getElementById('writeLatency95thPercentileChart_div'));" +
-				"		         writeLatency95thPercentileChart.draw(writeLatency95thPercentileData, writeLatency95thPercentileOptions);" +
-				"" +
+				"		         var dateFormatter = new google.visualization.DateFormat({pattern: 'yyyy-MM-dd HH:mm:ss'});");
+
+		int size = passedMetricSeries.size();
+		int drawnRows = 0;
+
+		// One graph section per metric in the catalog.
+		for (int i = 0; i < metrics.size(); i++) {
+			MetricDefinition metric = metrics.get(i);
+			String id = metric.getId();
+
+			writer.write("" +
+					"		         var " + id + "Data = new google.visualization.DataTable();" +
+					"		         " + id + "Data.addColumn('datetime', 'X');" +
+					"		         " + id + "Data.addColumn('number', '" + escapeJs(id) + "');");
+			if (annotated) {
+				writer.write("" +
+						"		         " + id + "Data.addColumn({type: 'string', role: 'annotation'});" +
+						"		         " + id + "Data.addColumn({type: 'string', role: 'annotationText'});");
+			}
+			if (metric.getThreshold() != null) {
+				writer.write("		         " + id + "Data.addColumn('number', 'Threshold');");
+			}
+			writer.write("		         " + id + "Data.addRows([");
+
+			String threshold = metric.getThreshold() == null ? null : metric.format(metric.getThreshold());
+			int[] rows = Downsampler.largestTriangleThreeBuckets(passedMetricSeries, i, pointBudget);
+			int rowCount = rows == null ? size : rows.length;
+			String[] annotations = annotated ? new String[rowCount] : null;
+			String[] annotationTexts = annotated ? new String[rowCount] : null;
+			if (annotated) {
+				attachEvents(passedMetricSeries, rows, rowCount, events, eventTime, annotations, annotationTexts);
+			}
+
+			for (int r = 0; r < rowCount; r++) {
+				int row = rows == null ? r : rows[r];
+
+				writer.write("[new Date(");
+				writer.write(Long.toString(passedMetricSeries.getTimestamp(row)));
+				writer.write("), ");
+				writer.write(passedMetricSeries.format(row, i));
+				if (annotated) {
+					writer.write(annotations[r] == null ? ", null, null" : ", '" + escapeJs(annotations[r]) + "', '" + escapeJs(annotationTexts[r]) + "'");
+				}
+				if (threshold != null) {
+					writer.write(", ");
+					writer.write(threshold);
+				}
+				writer.write("], ");
+			}
+			drawnRows = Math.max(drawnRows, rowCount);
+
+			writer.write("" +
+					"		         ]);" +
+					"" +
+					"		         var " + id + "Options = {" +
+					haxis +
+					"		         vAxis: {" +
+					"		         title: '" + escapeJs(metric.getTitle()) + "'" +
+					"		         }," +
+					colors +
+					(annotated ? "		         annotations: {style: 'line'}," : "") +
+					"		         };" +
+					"" +
+					"		         var " + id + "Chart = new google.visualization.LineChart(document.getElementById('" + id + "Chart_div'));" +
+					"		         " + id + "Chart.draw(" + id + "Data, " + id + "Options);");
+		}
+
+		writer.write("" +
 				"		         }" +
 				"		      </script>" +
 				"		   </head>" +
@@ -208,72 +219,268 @@ public class Chart {
 				"		      <p><br/></p>" +
 				"		      <H2>Preamble</H2>" +
 				"		      <p><br/></p>" +
-				"             <p>cassandra-stress was run without the use of a custom yaml file, and in mixed mode for read/write operations. Because of this, the following mBean Values were totaled for the output below:<br/>" +
-				"             <pre>" +
-				"               <code>" +
-				"org.apache.cassandra.metrics:keyspace=keyspace1,name=LiveSSTableCount,scope=counter1,type=ColumnFamily<br>" +
-				"org.apache.cassandra.metrics:keyspace=keyspace1,name=LiveSSTableCount,scope=standard1,type=ColumnFamily" +
-				"               </code>" +
-				"             </pre>" +
-				"And:<br>" +
-				"             <pre>" +
-				"               <code>" +
-				"org.apache.cassandra.metrics:keyspace=keyspace1,name=AllMemtablesLiveDataSize,scope=counter1,type=ColumnFamily<br>" +
-				"org.apache.cassandra.metrics:keyspace=keyspace1,name=AllMemtablesLiveDataSize,scope=standard1,type=ColumnFamily" +
-				"               </code>" +
-				"             </pre></p>" +
-				"		      <p><br/></p>" +
-				"             <p>The requested metric &quot;o.a.c.m.ColumnFamily.keyspace.columnfamily.AllMemTablesDataSize&quot; was renamed in 2.1 from AllMemtablesDataSize to AllMemtablesLiveDataSize. The metric available in the current release was used (AllMemtablesLiveDataSize).<br/>" +
-				"		      <p><br/></p>" +
-				"             <p>The requested metric &quot;o.a.c.m.ClientRequest.Write.95thPercentile&quot; appears to be incomplete. It was inferred that the Latency was being requested:" +
-				"             <pre>" +
-				"               <code>" +
-				"org.apache.cassandra.metrics:name=Latency,scope=Write,type=ClientRequest" +
-				"               </code>" +
-				"             </pre></p>" +
-				"		      <p><br/></p>" +
-				"             <p>To compliment the Write 95thPercentile metric, it was decided to include the corresponding Read metric:<br>" +
-				"             <pre>" +
-				"               <code>" +
-				"org.apache.cassandra.metrics:name=Latency,scope=Read,type=ClientRequest" +
-				"               </code>" +
-				"             </pre></p>" +
+				"             <p>cassandra-stress was run without the use of a custom yaml file, and in mixed mode for read/write operations. " +
+				"Each metric below was read from the following mBeans; where several mBeans match, their values were combined as noted.<br/></p>");
+
+		if (drawnRows < size) {
+			writer.write("             <p>Each chart draws at most " + drawnRows + " of the " + size + " samples, chosen to keep the shape of the line and its peaks (chartPointBudget).</p>");
+		}
+
+		if (annotated) {
+			writer.write("             <p>The " + events.size() + " events the node reported, such as GC pauses, are marked on each chart at the nearest sample drawn;" +
+					" hover over a mark for when and what happened (notificationSources).</p>");
+		}
+
+		for (MetricDefinition metric : metrics) {
+			if (metric.getObjectNameTemplates().isEmpty()) {
+				// Not read over JMX, such as the client side metrics parsed from the cassandra-stress output.
+				writer.write("             <p>" + metric.getId() + ": " + metric.getDescription() + "</p>");
+				continue;
+			}
+
+			writer.write("" +
+					"             <p>" + metric.getId() + " (" + metric.getAttribute() + ", " + metric.getAggregation().name().toLowerCase() + "):" +
+					"             <pre>" +
+					"               <code>" +
+					String.join("<br>", metric.getObjectNameTemplates()) +
+					"               </code>" +
+					"             </pre></p>");
+		}
+
+		writer.write("" +
 				"		      <p><br/></p>" +
-				"             <hr>" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// LiveSSTableCount graph section
-				"		      <p><H3>LiveSSTableCount</H3></p>" +
-				"		      <div id=\"liveSSTableCountChart_div\" style=\"width: 900px; height: 500px\"></div>" +
-				"		      <p>The number of live SSTables (sorted string tables) on disk for this table.</p>" +
-				"		      <p>With writes and deletes the SSTables will increase with regular operations as the memtables are flushed and written to disk, and will decrease with compaction. Compaction will merge multiple old SSTables into a new one, saving disk space in the process.</p>" +
-				"             <hr>" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// AllMemtablesLiveDataSize graph section
-				"		      <p><H3>AllMemtablesLiveDataSize</H3></p>" +
-				"		      <div id=\"allMemtablesLiveDataSizeChart_div\" style=\"width: 900px; height: 500px\"></div>" +
-				"		      <p>Total amount of live data stored in the memtables (2i and pending flush memtables included) that resides off-heap, excluding any data structure overhead.<br/></p>" +
-				"		      <p>This graph will help monitor data size in memory, and load.</p>" +
-				"		      <p>Cassandra writes are first written to the commit log and to the memtables. When the size of the memtabes hit a limit, they are flushed to SSTables and the commit log purges its data.</p>" +
-				"             <hr>" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// ReadLatency95thPercentile graph section
-				"		      <p><H3>ReadLatency95thPercentile</H3></p>" +
-				"		      <div id=\"readLatency95thPercentileChart_div\" style=\"width: 900px; height: 500px\"></div>" +
-				"		      <p>95% of the time the latency was less than the number displayed in the column.<br/></p>" +
-				"		      <p>Spikes in latency indicate disk or i/o issues during the test. Possible resolutions include tuning, addition of disk space, or addition of nodes. The goal is to have consistent levels. High latency indicates a bottleneck that restricts the system&apos;s bandwidth.</p>" +
-				"             <hr>" +
-				// ------------------------------------------------------------------------------------------------------------------
-				// WriteLatency95thPercentile graph section
-				"		      <p><H3>WriteLatency95thPercentile</H3></p>" +
-				"		      <div id=\"writeLatency95thPercentileChart_div\" style=\"width: 900px; height: 500px\"></div>" +
-				"		      <p>95% of the writes in the stress test experienced this latency value.<br/></p>" +
-				"		      <p>Spikes in latency indicate disk or i/o issues during the test. Possible resolutions include tuning, addition of disk space, or addition of nodes.  The goal is to have consistent levels. Spikes are expected during write operations to SSTables.</p>" +
+				"             <hr>");
+
+		for (MetricDefinition metric : metrics) {
+			writer.write("" +
+					"		      <p><H3>" + metric.getId() + "</H3></p>" +
+					"		      <div id=\"" + metric.getId() + "Chart_div\" style=\"width: 900px; height: 500px\"></div>" +
+					"		      " + metric.getDescription() +
+					"             <hr>");
+		}
+
+		writer.write("" +
 				"		   </body>" +
-				"		</html>";
+				"		</html>");
+		writer.write(System.lineSeparator());
+	}
 
-		printWriter.println(htmlText);
-		printWriter.close();
 
+	/**
+	 * Create the output html file overlaying two compared runs, with the verdict on each metric.
+	 *
+	 * @param comparison The comparison of the runs.
+	 * @param passedName The start of the file name and title, such as Comparison.
+	 * @throws IOException
+	 */
+	public static void createComparisonChartHTML(RunComparison comparison, String passedName) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting Chart.createComparisonChartHTML '" + passedName + "'...");
+
+		String graphTitle = passedName + "_" + CURRENT_DATE;
+		File file = new File(LoadPropertiesFile.getProperty("graphDir") + graphTitle + ".html");
+		Files.deleteIfExists(file.toPath());
+
+		int pointBudget = LoadPropertiesFile.getInteger("chartPointBudget");
+
+		long chartStart = Instrumentation.start();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+			writeComparisonChartHTML(comparison, graphTitle, pointBudget, writer);
+		}
+		Instrumentation.stop(Instrumentation.Stage.CHART, chartStart);
+	}
+
+
+	/**
+	 * Write the html overlaying two compared runs to the given writer. Each metric is drawn against the seconds since each
+	 * run started, from at most pointBudget samples of each run, under a table of the verdict on every metric.
+	 *
+	 * @param comparison The comparison of the runs.
+	 * @param graphTitle The title of the page.
+	 * @param pointBudget The most samples to draw per metric and run, or 0 to draw every sample.
+	 * @param writer The writer, which should be buffered.
+	 * @throws IOException
+	 */
+	public static void writeComparisonChartHTML(RunComparison comparison, String graphTitle, int pointBudget, Writer writer) throws IOException {
+		MetricSeries baseline = comparison.getBaseline().getSeries();
+		MetricSeries candidate = comparison.getCandidate().getSeries();
+
+		writer.write("<html>" +
+				"		   <head>" +
+				"		      <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">" +
+				"		      <script type=\"text/javascript\" src=\"https://www.gstatic.com/charts/loader.js\"></script>" +
+				"		      <style>" +
+				"		      td, th { padding: 4px 10px; text-align: right; }" +
+				"		      .regressed { background-color: #f4c7c3; }" +
+				"		      .improved { background-color: #b7e1cd; }" +
+				"		      </style>" +
+				"		      <script type=\"text/javascript\">" +
+				"		         google.charts.load('current', {packages: ['corechart', 'line']});" +
+				"		         google.charts.setOnLoadCallback(drawBackgroundColor);" +
+				"" +
+				"		         function drawBackgroundColor() {");
+
+		for (RunComparison.MetricComparison metric : comparison.getComparisons()) {
+			String id = metric.getId();
+			MetricDefinition definition = baseline.getColumns().get(metric.getBaselineColumn());
+
+			writer.write("" +
+					"		         var " + id + "Data = new google.visualization.DataTable();" +
+					"		         " + id + "Data.addColumn('number', 'X');" +
+					"		         " + id + "Data.addColumn('number', 'Baseline');" +
+					"		         " + id + "Data.addColumn('number', 'Candidate');" +
+					"		         " + id + "Data.addRows([");
+
+			writeOverlayRows(baseline, comparison.getBaseline().getStartTime(), metric.getBaselineColumn(), pointBudget, true, writer);
+			writeOverlayRows(candidate, comparison.getCandidate().getStartTime(), metric.getCandidateColumn(), pointBudget, false, writer);
+
+			writer.write("" +
+					"		         ]);" +
+					"" +
+					"		         var " + id + "Options = {" +
+					"		         hAxis: {" +
+					"		         title: 'Seconds since the run started'" +
+					"		         }," +
+					"		         vAxis: {" +
+					"		         title: '" + escapeJs(definition.getTitle()) + "'" +
+					"		         }," +
+					"		         interpolateNulls: true," +
+					"		         backgroundColor: '#f1f8e9'," +
+					"		         colors: ['#1F4E9E', '#AB0D06']," +
+					"		         };" +
+					"" +
+					"		         var " + id + "Chart = new google.visualization.LineChart(document.getElementById('" + id + "Chart_div'));" +
+					"		         " + id + "Chart.draw(" + id + "Data, " + id + "Options);");
+		}
+
+		writer.write("" +
+				"		         }" +
+				"		      </script>" +
+				"		   </head>" +
+				"		   <body>" +
+				"		      <H1>" + graphTitle + "</H1>" +
+				"		      <p>The candidate run is <b>" + comparison.getVerdict().name().toLowerCase() + "</b> against the baseline, comparing the first " +
+				String.format("%.1f", comparison.getCommonDurationMillis() / 1000.0) + " s of each run (baseline " + comparison.getBaseline().getSampleCount() +
+				" samples, candidate " + comparison.getCandidate().getSampleCount() + " samples). Percentiles are within 1%; the p-value of the Kolmogorov-Smirnov " +
+				"distance D allows for each sample being correlated with the one before.</p>" +
+				"		      <table>" +
+				"		      <tr><th>Metric</th><th>Verdict</th><th>Mean</th><th>p50</th><th>p95</th><th>p99</th><th>D</th><th>p-value</th><th>Better</th></tr>");
+
+		for (RunComparison.MetricComparison metric : comparison.getComparisons()) {
+			String verdict = metric.getVerdict().name().toLowerCase();
+
+			writer.write("<tr class=\"" + verdict + "\"><td>" + metric.getId() + "</td><td>" + verdict + "</td>" +
+					"<td>" + formatChange(metric.getBaselineMean(), metric.getCandidateMean()) + "</td>");
+			for (int p = 0; p < 3; p++) {
+				writer.write("<td>" + formatChange(metric.getBaselinePercentile(p), metric.getCandidatePercentile(p)) + "</td>");
+			}
+			writer.write(String.format("<td>%.3f</td><td>%.4f</td><td>%s</td></tr>", metric.getDistance(), metric.getPValue(),
+					metric.isHigherBetter() ? "higher" : "lower"));
+		}
+
+		writer.write("" +
+				"		      </table>" +
+				"             <hr>");
+
+		for (RunComparison.MetricComparison metric : comparison.getComparisons()) {
+			writer.write("" +
+					"		      <p><H3>" + metric.getId() + "</H3></p>" +
+					"		      <div id=\"" + metric.getId() + "Chart_div\" style=\"width: 900px; height: 500px\"></div>" +
+					"		      " + baseline.getColumns().get(metric.getBaselineColumn()).getDescription() +
+					"             <hr>");
+		}
+
+		writer.write("" +
+				"		   </body>" +
+				"		</html>");
+		writer.write(System.lineSeparator());
+	}
+
+
+	private static void writeOverlayRows(MetricSeries series, long start, int column, int pointBudget, boolean first, Writer writer) throws IOException {
+		int size = series.size();
+		if (size == 0) {
+			return;
+		}
+
+		int[] rows = Downsampler.largestTriangleThreeBuckets(series, column, pointBudget);
+		int rowCount = rows == null ? size : rows.length;
+
+		for (int r = 0; r < rowCount; r++) {
+			int row = rows == null ? r : rows[r];
+
+			writer.write("[");
+			writer.write(Double.toString((series.getTimestamp(row) - start) / 1000.0));
+			writer.write(first ? ", " : ", null, ");
+			writer.write(series.format(row, column));
+			writer.write(first ? ", null], " : "], ");
+		}
+	}
+
+
+	private static String formatChange(double from, double to) {
+		return String.format("%.2f &rarr; %.2f", from, to);
+	}
+
+
+	/**
+	 * Mark each event at the drawn row nearest in time, walking the events and the rows together. Events outside the
+	 * drawn rows are left out; several events at one row are marked as the first with a count.
+	 */
+	private static void attachEvents(MetricSeries series, int[] rows, int rowCount, List<JmxEvent> events, SimpleDateFormat eventTime,
+			String[] annotations, String[] annotationTexts) {
+		if (rowCount == 0) {
+			return;
+		}
+
+		long first = series.getTimestamp(rows == null ? 0 : rows[0]);
+		long last = series.getTimestamp(rows == null ? rowCount - 1 : rows[rowCount - 1]);
+		int[] counts = new int[rowCount];
+		int r = 0;
+
+		for (JmxEvent event : events) {
+			long timestamp = event.getTimestamp();
+			if (timestamp < first || timestamp > last) {
+				continue;
+			}
+
+			while (r + 1 < rowCount && series.getTimestamp(rows == null ? r + 1 : rows[r + 1]) <= timestamp) {
+				r++;
+			}
+			int nearest = r;
+			if (r + 1 < rowCount && series.getTimestamp(rows == null ? r + 1 : rows[r + 1]) - timestamp
+					< timestamp - series.getTimestamp(rows == null ? r : rows[r])) {
+				nearest = r + 1;
+			}
+
+			String text = eventTime.format(new Date(timestamp)) + " " + event;
+			if (counts[nearest]++ == 0) {
+				annotations[nearest] = event.getLabel();
+				annotationTexts[nearest] = text;
+			} else if (counts[nearest] <= MAXIMUM_EVENTS_PER_MARK) {
+				annotationTexts[nearest] += "; " + text;
+			}
+		}
+
+		for (int i = 0; i < rowCount; i++) {
+			if (counts[i] > 1) {
+				annotations[i] += " +" + (counts[i] - 1);
+			}
+			if (counts[i] > MAXIMUM_EVENTS_PER_MARK) {
+				annotationTexts[i] += "; and " + (counts[i] - MAXIMUM_EVENTS_PER_MARK) + " more";
+			}
+		}
+	}
+
+
+	/**
+	 * Escape the given text for use in a single quoted JavaScript string.
+	 *
+	 * @param text The text to escape.
+	 * @return String The escaped text.
+	 */
+	private static String escapeJs(String text) {
+		return text.replace("\\", "\\\\").replace("'", "\\'").replace("\n", "\\n").replace("\r", "\\r");
 	}
 
 }
@@ -0,0 +1,447 @@
+package general;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class Configuration {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// The file may be changed with -DconfigFile=...
+	private static final String CONFIG_FILE = System.getProperty("configFile", "config.properties");
+
+	// Checked when the configuration is loaded, so a bad value fails at startup rather than half way through a run.
+	private static final List<String> REQUIRED_KEYS = Arrays.asList("nodeIp", "metricCatalog", "graphDir", "logDir",
+			"testResultsKeyspace", "testResultsTable", "clusterResultsTable", "stressResultsTable",
+			"latencyResultsTable", "histogramTable", "runResultsTable", "runsTable", "eventsTable", "jmxCollector");
+	private static final List<String> INTEGER_KEYS = Arrays.asList("nodePort", "jmxPort", "querySleepInterval", "jmxFetchThreads",
+			"clusterPollThreads", "maximumInFlightWrites", "writeRetries", "maximumFlushRows", "flushQueueCapacity",
+			"chartPointBudget", "numberOfWrites", "resultsTtl", "readFetchSize", "readParallelism",
+			"metricsPort", "eventRingCapacity");
+	private static final List<String> LONG_KEYS = Arrays.asList("progressReportInterval", "jmxNodeTimeout", "flushInterval", "statisticsWindow", "resultsBucket",
+			"jmxConnectTimeout", "jmxReadTimeout", "jmxHeartbeatInterval", "jmxReconnectDelay", "jmxMaximumReconnectDelay");
+	private static final List<String> DOUBLE_KEYS = Arrays.asList("liveSSTableCountThreshold", "allMemtablesLiveDataSizeThreshold",
+			"readLatencyThreshold", "writeLatencyThreshold", "comparisonSignificance", "comparisonTolerance");
+	private static final List<String> BOOLEAN_KEYS = Arrays.asList("retainSamples", "reloadConfig");
+
+	// Only these keys are picked up when the file changes during a run; every other key is read once at startup.
+	private static final List<String> RELOADABLE_KEYS = Arrays.asList("querySleepInterval", "liveSSTableCountThreshold",
+			"allMemtablesLiveDataSizeThreshold", "readLatencyThreshold", "writeLatencyThreshold");
+
+	// How long to wait after the file changes before reading it.
+	private static final long RELOAD_SETTLE_MILLIS = 200;
+
+	private static volatile Configuration current;
+	private static final List<Consumer<Configuration>> RELOAD_LISTENERS = new CopyOnWriteArrayList<>();
+	private static Thread watcher;
+
+	private final String fileName;
+	private final Map<String, String> values;
+
+
+	private Configuration(String fileName, Map<String, String> values) {
+		this.fileName = fileName;
+		this.values = Collections.unmodifiableMap(values);
+	}
+
+
+	/**
+	 * Get the current configuration, loading it on first use.
+	 *
+	 * @return Configuration The configuration.
+	 */
+	public static Configuration get() {
+		Configuration configuration = current;
+
+		if (configuration == null) {
+			synchronized (Configuration.class) {
+				if (current == null) {
+					current = load(CONFIG_FILE);
+				}
+				configuration = current;
+			}
+		}
+
+		return configuration;
+	}
+
+
+	/**
+	 * Load and validate the given configuration file.
+	 * A key may be overridden by a system property of the same name (-DquerySleepInterval=500), or by an
+	 * environment variable of the same name in upper case with underscores (QUERY_SLEEP_INTERVAL=500); the system property wins.
+	 *
+	 * @param fileName The name of the configuration file.
+	 * @return Configuration The configuration.
+	 */
+	static Configuration load(String fileName) {
+		logger.info("================================================================================");
+		logger.info("  Starting Configuration.load '" + fileName + "'...");
+
+		Properties prop = new Properties();
+
+		try (InputStream input = new FileInputStream(fileName)) {
+			prop.load(input);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read the configuration file '" + fileName + "'.", e);
+		}
+
+		Map<String, String> values = new HashMap<>();
+		for (String key : prop.stringPropertyNames()) {
+			values.put(key, prop.getProperty(key).trim());
+		}
+
+		applyOverrides(values);
+
+		Configuration configuration = new Configuration(fileName, values);
+		configuration.validate(fileName);
+
+		logger.debug("Configuration: " + configuration);
+
+		return configuration;
+	}
+
+
+	private static void applyOverrides(Map<String, String> values) {
+		List<String> keys = new ArrayList<>(values.keySet());
+		for (List<String> known : Arrays.asList(REQUIRED_KEYS, INTEGER_KEYS, LONG_KEYS, DOUBLE_KEYS, BOOLEAN_KEYS)) {
+			for (String key : known) {
+				if (!keys.contains(key)) {
+					keys.add(key);
+				}
+			}
+		}
+
+		for (String key : keys) {
+			String override = System.getProperty(key);
+			String source = "system property";
+
+			if (override == null) {
+				override = System.getenv(toEnvironmentName(key));
+				source = "environment variable " + toEnvironmentName(key);
+			}
+
+			if (override != null) {
+				logger.info("Property '" + key + "' is overridden by the " + source + ".");
+				values.put(key, override.trim());
+			}
+		}
+	}
+
+
+	/**
+	 * Convert a property key to the name of the environment variable that overrides it, such as querySleepInterval to QUERY_SLEEP_INTERVAL.
+	 *
+	 * @param key The property key.
+	 * @return String The environment variable name.
+	 */
+	static String toEnvironmentName(String key) {
+		StringBuilder sb = new StringBuilder(key.length() + 8);
+
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+
+			if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(key.charAt(i - 1))) {
+				sb.append('_');
+			}
+			sb.append(Character.toUpperCase(c));
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Check that every required key is present and every number parses, reporting all the problems at once.
+	 */
+	private void validate(String fileName) {
+		List<String> problems = new ArrayList<>();
+
+		for (String key : REQUIRED_KEYS) {
+			if (getString(key) == null || getString(key).isEmpty()) {
+				problems.add("'" + key + "' is missing");
+			}
+		}
+
+		for (String key : INTEGER_KEYS) {
+			checkNumber(problems, key, "a whole number", value -> Integer.parseInt(value));
+		}
+		for (String key : LONG_KEYS) {
+			checkNumber(problems, key, "a whole number", value -> Long.parseLong(value));
+		}
+		for (String key : DOUBLE_KEYS) {
+			checkNumber(problems, key, "a number", value -> Double.parseDouble(value));
+		}
+
+		for (String key : BOOLEAN_KEYS) {
+			String value = getString(key);
+
+			if (value != null && !value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+				problems.add("'" + key + "' must be true or false, not '" + value + "'");
+			}
+		}
+
+		if (!problems.isEmpty()) {
+			throw new IllegalStateException("Invalid configuration in '" + fileName + "': " + String.join("; ", problems) + ".");
+		}
+	}
+
+
+	private void checkNumber(List<String> problems, String key, String description, Consumer<String> parser) {
+		String value = getString(key);
+
+		if (value == null || value.isEmpty()) {
+			problems.add("'" + key + "' is missing");
+			return;
+		}
+
+		try {
+			parser.accept(value);
+		} catch (NumberFormatException e) {
+			problems.add("'" + key + "' must be " + description + ", not '" + value + "'");
+		}
+	}
+
+
+	/**
+	 * Get the name of the file the configuration was loaded from, for messages about its values.
+	 *
+	 * @return String The file name.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+
+	/**
+	 * Get the given property.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return String The value, or null if it is not set.
+	 */
+	public String getString(String key) {
+		return values.get(key);
+	}
+
+
+	/**
+	 * Get the given property as an integer.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return int The value.
+	 */
+	public int getInt(String key) {
+		String value = require(key);
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Property '" + key + "' must be a whole number, not '" + value + "'.", e);
+		}
+	}
+
+
+	/**
+	 * Get the given property as a long.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return long The value.
+	 */
+	public long getLong(String key) {
+		String value = require(key);
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Property '" + key + "' must be a whole number, not '" + value + "'.", e);
+		}
+	}
+
+
+	/**
+	 * Get the given property as a double.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return double The value.
+	 */
+	public double getDouble(String key) {
+		String value = require(key);
+
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Property '" + key + "' must be a number, not '" + value + "'.", e);
+		}
+	}
+
+
+	/**
+	 * Get the given property as a boolean.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return boolean The value; false if it is not set.
+	 */
+	public boolean getBoolean(String key) {
+		return Boolean.parseBoolean(getString(key));
+	}
+
+
+	private String require(String key) {
+		String value = getString(key);
+
+		if (value == null || value.isEmpty()) {
+			throw new IllegalStateException("Property '" + key + "' is missing from '" + CONFIG_FILE + "'.");
+		}
+
+		return value;
+	}
+
+
+	/**
+	 * Call the given listener with the new configuration whenever the file is reloaded.
+	 *
+	 * @param listener The listener.
+	 */
+	public static void addReloadListener(Consumer<Configuration> listener) {
+		RELOAD_LISTENERS.add(listener);
+	}
+
+
+	/**
+	 * Watch the configuration file if reloadConfig is set, so the thresholds and querySleepInterval can be retuned during a run.
+	 */
+	public static synchronized void startWatching() {
+		if (watcher != null || !get().getBoolean("reloadConfig")) {
+			return;
+		}
+
+		Path file = Paths.get(CONFIG_FILE).toAbsolutePath();
+
+		WatchService watchService;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+		} catch (IOException e) {
+			logger.error("Unable to watch '" + file + "' for changes: " + e);
+			return;
+		}
+
+		watcher = new Thread(() -> watch(watchService, file), "config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+
+		logger.info("Watching '" + file + "' for changes to " + RELOADABLE_KEYS + ".");
+	}
+
+
+	private static void watch(WatchService watchService, Path file) {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+
+				// Let an editor finish writing the file, so a truncated file is not read half way through.
+				Thread.sleep(RELOAD_SETTLE_MILLIS);
+
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (file.getFileName().equals(event.context())) {
+						changed = true;
+					}
+				}
+				key.reset();
+
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Reload the configuration file, taking only the reloadable keys from it. A file that does not validate is ignored.
+	 */
+	static void reload() {
+		Configuration reloaded;
+		try {
+			reloaded = load(CONFIG_FILE);
+		} catch (IllegalStateException e) {
+			logger.error("Ignoring the changed configuration: " + e.getMessage());
+			return;
+		}
+
+		Configuration previous = get();
+		Map<String, String> values = new HashMap<>(previous.values);
+		boolean changed = false;
+
+		for (String key : reloaded.values.keySet()) {
+			String value = reloaded.getString(key);
+
+			if (value.equals(previous.getString(key))) {
+				continue;
+			}
+
+			if (RELOADABLE_KEYS.contains(key)) {
+				logger.info("Property '" + key + "' changed from '" + previous.getString(key) + "' to '" + value + "'.");
+				values.put(key, value);
+				changed = true;
+			} else {
+				logger.warn("Property '" + key + "' changed, but only takes effect on restart.");
+			}
+		}
+
+		if (!changed) {
+			return;
+		}
+
+		Configuration configuration = new Configuration(previous.fileName, values);
+		current = configuration;
+
+		for (Consumer<Configuration> listener : RELOAD_LISTENERS) {
+			try {
+				listener.accept(configuration);
+			} catch (RuntimeException e) {
+				logger.error("Unable to apply the changed configuration: " + e);
+			}
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		Map<String, String> shown = new HashMap<>(values);
+
+		// Keep the credentials out of the logs.
+		for (String key : shown.keySet()) {
+			if (key.toLowerCase(Locale.ROOT).contains("password")) {
+				shown.put(key, "********");
+			}
+		}
+
+		return shown.toString();
+	}
+
+}
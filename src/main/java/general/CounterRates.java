@@ -0,0 +1,109 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class CounterRates {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private final MetricCatalog catalog;
+	private final String node;
+
+	// The columns of the counter metrics, and the raw total and time last read for each.
+	private final int[] columns;
+	private final double[] previousTotals;
+	private final long[] previousTimestamps;
+
+	private long resets;
+
+
+	/**
+	 * Create the rate stage for the counter metrics of the given catalog, read from one node.
+	 * Each node needs its own, as it keeps the totals last read from that node.
+	 *
+	 * @param catalog The metrics sampled, in column order.
+	 * @param node The host the samples are read from, or null for the single node named by nodeIp.
+	 */
+	public CounterRates(MetricCatalog catalog, String node) {
+		this.catalog = catalog;
+		this.node = node;
+
+		List<Integer> counterColumns = new ArrayList<>();
+		for (int column = 0; column < catalog.size(); column++) {
+			if (catalog.get(column).isCounter()) {
+				counterColumns.add(column);
+			}
+		}
+
+		this.columns = new int[counterColumns.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = counterColumns.get(i);
+		}
+
+		this.previousTotals = new double[columns.length];
+		this.previousTimestamps = new long[columns.length];
+		Arrays.fill(previousTimestamps, Long.MIN_VALUE);
+	}
+
+
+	/**
+	 * Replace the raw total of every counter metric in the sample with its rate per second since the previous total read,
+	 * using the times of the two samples. The first total read, and a total read in the same millisecond as the previous one,
+	 * give a missing (NaN) rate. A missing total leaves the previous one in place, so the next rate covers the gap.
+	 * A total lower than the previous one means the node restarted, so the whole total is counted as new.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param values The value of each metric in catalog order, changed in place.
+	 */
+	public void apply(long timestamp, double[] values) {
+		for (int i = 0; i < columns.length; i++) {
+			int column = columns[i];
+			double total = values[column];
+
+			if (Double.isNaN(total)) {
+				continue;
+			}
+
+			long previousTimestamp = previousTimestamps[i];
+			long elapsed = timestamp - previousTimestamp;
+
+			if (previousTimestamp == Long.MIN_VALUE || elapsed <= 0) {
+				values[column] = Double.NaN;
+
+				if (previousTimestamp == Long.MIN_VALUE) {
+					previousTotals[i] = total;
+					previousTimestamps[i] = timestamp;
+				}
+				continue;
+			}
+
+			double delta = total - previousTotals[i];
+			if (delta < 0) {
+				resets++;
+				logger.info("Counter '{}'{} went down from {} to {}, so it is counted again from zero.", catalog.get(column).getId(),
+						node == null ? "" : " on " + node, previousTotals[i], total);
+				delta = total;
+			}
+
+			values[column] = delta * 1000.0 / elapsed;
+			previousTotals[i] = total;
+			previousTimestamps[i] = timestamp;
+		}
+	}
+
+
+	/**
+	 * Get the number of times a counter went down during the run, as when a node restarts.
+	 *
+	 * @return long The number of resets.
+	 */
+	public long getResets() {
+		return resets;
+	}
+
+}
@@ -0,0 +1,98 @@
+package general;
+
+public class Downsampler {
+
+	private Downsampler() {
+	}
+
+
+	/**
+	 * Pick at most the given number of samples of one column with the largest-triangle-three-buckets algorithm.
+	 * The first and last samples are kept; every bucket in between keeps the sample that forms the largest triangle
+	 * with the sample kept before it and the average of the next bucket, which keeps peaks and the shape of the line.
+	 * Missing values are passed over; a bucket with nothing but missing values keeps one, so the gap still shows.
+	 *
+	 * @param series The series.
+	 * @param column The column to downsample.
+	 * @param budget The most samples to keep, or 0 to keep them all.
+	 * @return int[] The rows to keep in order, or null if every row is kept.
+	 */
+	public static int[] largestTriangleThreeBuckets(MetricSeries series, int column, int budget) {
+		int size = series.size();
+
+		if (budget <= 0 || size <= budget || budget < 3) {
+			return null;
+		}
+
+		int[] selected = new int[budget];
+		double bucketSize = (double) (size - 2) / (budget - 2);
+		long origin = series.getTimestamp(0);
+
+		int previous = 0;
+		selected[0] = 0;
+
+		for (int bucket = 0; bucket < budget - 2; bucket++) {
+			int from = (int) (bucket * bucketSize) + 1;
+			int to = (int) ((bucket + 1) * bucketSize) + 1;
+
+			// The average point of the next bucket; the last bucket is followed by the last sample alone.
+			int nextFrom = to;
+			int nextTo = Math.min(size, (int) ((bucket + 2) * bucketSize) + 1);
+			if (bucket == budget - 3) {
+				nextFrom = size - 1;
+				nextTo = size;
+			}
+
+			double averageX = 0;
+			double averageY = 0;
+			int count = 0;
+			for (int row = nextFrom; row < nextTo; row++) {
+				double y = series.getDouble(row, column);
+				if (!Double.isNaN(y)) {
+					averageX += series.getTimestamp(row) - origin;
+					averageY += y;
+					count++;
+				}
+			}
+
+			double previousX = series.getTimestamp(previous) - origin;
+			double previousY = series.getDouble(previous, column);
+
+			if (count == 0) {
+				averageX = series.getTimestamp(nextTo - 1) - origin;
+				averageY = previousY;
+			} else {
+				averageX /= count;
+				averageY /= count;
+			}
+			if (Double.isNaN(previousY)) {
+				previousY = averageY;
+			}
+
+			int chosen = from;
+			double largestArea = -1;
+			for (int row = from; row < to; row++) {
+				double y = series.getDouble(row, column);
+				if (Double.isNaN(y)) {
+					continue;
+				}
+
+				double x = series.getTimestamp(row) - origin;
+				double area = Math.abs((previousX - averageX) * (y - previousY) - (previousX - x) * (averageY - previousY));
+
+				if (area > largestArea) {
+					largestArea = area;
+					chosen = row;
+				}
+			}
+
+			selected[bucket + 1] = chosen;
+			previous = chosen;
+		}
+
+		selected[budget - 1] = size - 1;
+
+		return selected;
+	}
+
+}
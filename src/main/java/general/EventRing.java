@@ -0,0 +1,119 @@
+package general;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Hands events from the threads that receive JMX notifications to the one thread that writes them, without locking.
+ * A publisher claims the next sequence number and stores the event in its slot; the reader follows behind, and should
+ * it fall a whole ring behind, the oldest events are overwritten and counted as lost rather than the publisher waiting.
+ */
+public class EventRing {
+
+	private static final Integer EVENT_RING_CAPACITY = LoadPropertiesFile.getInteger("eventRingCapacity");
+
+	private static EventRing defaultRing;
+
+	private final AtomicReferenceArray<JmxEvent> slots;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+
+
+	/**
+	 * Create a ring holding at least the given number of events.
+	 *
+	 * @param capacity The number of events, rounded up to a power of two.
+	 */
+	public EventRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+
+	/**
+	 * Get the ring every node of this screen publishes its events to, of eventRingCapacity events.
+	 *
+	 * @return EventRing The ring.
+	 */
+	public static synchronized EventRing getDefault() {
+		if (defaultRing == null) {
+			defaultRing = new EventRing(EVENT_RING_CAPACITY);
+		}
+
+		return defaultRing;
+	}
+
+
+	/**
+	 * Publish an event. Never waits; may be called by any number of threads at once.
+	 *
+	 * @param timestamp The time the node reported the event in epoch milliseconds.
+	 * @param node The host that reported the event.
+	 * @param source The MBean that reported the event.
+	 * @param type The notification type.
+	 * @param label A short name for the charts.
+	 * @param message What happened.
+	 * @param durationMillis How long it took in milliseconds, or NaN if it has no duration.
+	 */
+	public void publish(long timestamp, String node, String source, String type, String label, String message, double durationMillis) {
+		long sequence = next.getAndIncrement();
+
+		slots.set((int) (sequence & mask), new JmxEvent(sequence, timestamp, node, source, type, label, message, durationMillis));
+		Instrumentation.increment(Instrumentation.Counter.EVENTS);
+	}
+
+
+	/**
+	 * Hand the events published since the given position to the handler, in the order they were published.
+	 * Only one thread may drain the ring. Events overwritten before they were drained are counted as lost.
+	 *
+	 * @param cursor The position after the last event drained, 0 at first.
+	 * @param handler Receives the events.
+	 * @return long The position to drain from next time.
+	 */
+	public long drain(long cursor, Consumer<JmxEvent> handler) {
+		long published = next.get();
+		int capacity = mask + 1;
+
+		if (published - cursor > capacity) {
+			Instrumentation.add(Instrumentation.Counter.EVENTS_LOST, published - capacity - cursor);
+			cursor = published - capacity;
+		}
+
+		for (; cursor < published; cursor++) {
+			JmxEvent event = slots.get((int) (cursor & mask));
+
+			if (event == null || event.getSequence() < cursor) {
+				// Claimed but not stored yet; it is picked up next time.
+				break;
+			}
+
+			if (event.getSequence() > cursor) {
+				Instrumentation.increment(Instrumentation.Counter.EVENTS_LOST);
+				continue;
+			}
+
+			handler.accept(event);
+		}
+
+		return cursor;
+	}
+
+
+	/**
+	 * Get the number of events published so far.
+	 *
+	 * @return long The number of events.
+	 */
+	public long getPublished() {
+		return next.get();
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+}
@@ -0,0 +1,77 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+public class HistogramDefinition {
+
+	private final String id;
+	private final List<String> objectNameTemplates;
+	private final String attribute;
+	private final boolean cumulative;
+	private final String title;
+	private final String description;
+
+
+	/**
+	 * Create a latency histogram definition.
+	 *
+	 * @param id The name of the histogram; also the prefix of its columns in the charts and results table.
+	 * @param objectNameTemplates The MBean names to read, which may contain ${keyspace}. The buckets of every MBean are added together.
+	 * @param attribute The MBean attribute holding the bucket counts, such as RecentValues.
+	 * @param cumulative Are the bucket counts totals since the node started (true), or counts since the previous read (false)?
+	 * @param title The axis title for the chart.
+	 * @param description The description for the chart.
+	 */
+	public HistogramDefinition(String id, List<String> objectNameTemplates, String attribute, boolean cumulative, String title, String description) {
+		this.id = id;
+		this.objectNameTemplates = Collections.unmodifiableList(new ArrayList<>(objectNameTemplates));
+		this.attribute = attribute;
+		this.cumulative = cumulative;
+		this.title = title;
+		this.description = description;
+	}
+
+
+	/**
+	 * Get the MBean names for the given keyspace.
+	 *
+	 * @param keyspace The keyspace to substitute for ${keyspace}.
+	 * @return List<ObjectName> The MBean names.
+	 * @throws MalformedObjectNameException
+	 */
+	public List<ObjectName> getObjectNames(String keyspace) throws MalformedObjectNameException {
+		List<ObjectName> objectNames = new ArrayList<>(objectNameTemplates.size());
+
+		for (String template : objectNameTemplates) {
+			objectNames.add(new ObjectName(template.replace("${keyspace}", keyspace)));
+		}
+
+		return objectNames;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	public boolean isCumulative() {
+		return cumulative;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+}
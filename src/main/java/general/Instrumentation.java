@@ -0,0 +1,433 @@
+package general;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Times the stages of the screener's own pipeline and counts what goes wrong in it, so the cost of collecting can be
+ * told apart from the behavior of the node under test. Every stage keeps a latency histogram and every event a counter,
+ * all striped (LongAdder), so the sampling threads record them without locking or allocating and never contend with
+ * each other or with a reader. Read over JMX through InstrumentationMXBean, and logged at the end of the run by report.
+ */
+public class Instrumentation {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final String OBJECT_NAME = "jmx_logger_qa_screen:type=Instrumentation";
+
+
+	/**
+	 * The timed stages of the pipeline.
+	 */
+	public enum Stage {
+		/** Reading one sample of every MBean from a node. */
+		JMX_ROUND_TRIP("jmxRoundTrip"),
+		/** Turning the lines of one jmxterm sample into values. */
+		JMXTERM_PARSE("jmxtermParse"),
+		/** The rates, threshold checks, statistics and append of one sample, after it was read. */
+		SAMPLE_PROCESSING("sampleProcessing"),
+		/** Writing one micro-batch of rows to a results table. */
+		DB_BATCH("dbBatch"),
+		/** Validating a series before it is charted. */
+		VALIDATION("validation"),
+		/** Writing one chart page. */
+		CHART("chart");
+
+		private final String name;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+
+	/**
+	 * The counted events.
+	 */
+	public enum Counter {
+		/** Samples appended, including those recorded as missing. */
+		SAMPLES("samples"),
+		/** Samples recorded as missing because the node could not be read. */
+		SAMPLES_FAILED("samplesFailed"),
+		/** Node samples not taken because the node was still busy with the previous one. */
+		SAMPLES_SKIPPED("samplesSkipped"),
+		/** Node samples that did not answer within jmxNodeTimeout. */
+		SAMPLES_TIMED_OUT("samplesTimedOut"),
+		/** Ticks skipped because sampling fell behind. */
+		TICKS_MISSED("ticksMissed"),
+		/** Connections opened to a JMX service. */
+		JMX_CONNECTS("jmxConnects"),
+		/** Connections opened again after one was lost. */
+		JMX_RECONNECTS("jmxReconnects"),
+		/** Rows written to the results tables. */
+		ROWS_WRITTEN("rowsWritten"),
+		/** Rows that could not be written after every retry. */
+		ROWS_FAILED("rowsFailed"),
+		/** Times a collector waited because a flush queue was full. */
+		COLLECTOR_PAUSES("collectorPauses"),
+		/** Events published by JMX notifications. */
+		EVENTS("events"),
+		/** Events lost by the JMX connector or overwritten before they were written. */
+		EVENTS_LOST("eventsLost");
+
+		private final String name;
+
+		Counter(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+
+	/**
+	 * The depth of one queue: the latest reported, and the most reported at once.
+	 */
+	public static class QueueDepth {
+		private volatile long depth;
+		private final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Report the number of entries now waiting.
+		 *
+		 * @param newDepth The number of entries.
+		 */
+		public void update(long newDepth) {
+			depth = newDepth;
+			peak.accumulate(newDepth);
+		}
+
+		public long getDepth() {
+			return depth;
+		}
+
+		public long getPeak() {
+			return peak.get();
+		}
+	}
+
+
+	/**
+	 * A latency histogram with four buckets per power of two of nanoseconds, so a percentile is within 12.5% of the
+	 * true value, whatever the range. Recording is a few striped additions.
+	 */
+	private static class StageTimer {
+		// Values below 4 ns have a bucket each; above, the highest bit of a long is bit 62.
+		private static final int BUCKETS = 4 * 62;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maximumNanos = new LongAccumulator(Math::max, 0);
+
+		private StageTimer() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		private void record(long nanos) {
+			if (nanos < 0) {
+				return;
+			}
+
+			buckets[index(nanos)].increment();
+			totalNanos.add(nanos);
+			maximumNanos.accumulate(nanos);
+		}
+
+		private static int index(long nanos) {
+			if (nanos < 4) {
+				return (int) nanos;
+			}
+
+			int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+			return 4 * (highestBit - 1) + (int) ((nanos >>> (highestBit - 2)) & 3);
+		}
+
+		// The middle of the bucket at the given index.
+		private static long value(int index) {
+			if (index < 4) {
+				return index;
+			}
+
+			int shift = index / 4 - 1;
+			return ((4L + index % 4) << shift) + (1L << shift) / 2;
+		}
+
+		private StageStatistics snapshot(String name) {
+			long[] counts = new long[BUCKETS];
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+				count += counts[i];
+			}
+
+			return new StageStatistics(name, count, totalNanos.sum() / 1e6, quantile(counts, count, 0.5) / 1e6,
+					quantile(counts, count, 0.99) / 1e6, maximumNanos.get() / 1e6);
+		}
+
+		private static double quantile(long[] counts, long count, double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return value(i);
+				}
+			}
+
+			return value(counts.length - 1);
+		}
+	}
+
+
+	private static final StageTimer[] TIMERS = new StageTimer[Stage.values().length];
+	private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+	private static final ConcurrentMap<String, QueueDepth> QUEUES = new ConcurrentSkipListMap<>();
+
+	private static final long START_TIME = System.currentTimeMillis();
+
+	static {
+		for (int i = 0; i < TIMERS.length; i++) {
+			TIMERS[i] = new StageTimer();
+		}
+		for (int i = 0; i < COUNTERS.length; i++) {
+			COUNTERS[i] = new LongAdder();
+		}
+	}
+
+
+	private Instrumentation() {
+	}
+
+
+	/**
+	 * Start timing a stage.
+	 *
+	 * @return long The start time, to be passed to stop.
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+
+	/**
+	 * Record the time a stage took since start was called.
+	 *
+	 * @param stage The stage.
+	 * @param startNanos The time returned by start.
+	 */
+	public static void stop(Stage stage, long startNanos) {
+		record(stage, System.nanoTime() - startNanos);
+	}
+
+
+	/**
+	 * Record the time a stage took, as measured by the caller.
+	 *
+	 * @param stage The stage.
+	 * @param nanos The time in nanoseconds.
+	 */
+	public static void record(Stage stage, long nanos) {
+		TIMERS[stage.ordinal()].record(nanos);
+	}
+
+
+	/**
+	 * Count one event.
+	 *
+	 * @param counter The event.
+	 */
+	public static void increment(Counter counter) {
+		COUNTERS[counter.ordinal()].increment();
+	}
+
+
+	/**
+	 * Count a number of events.
+	 *
+	 * @param counter The event.
+	 * @param count The number of events.
+	 */
+	public static void add(Counter counter, long count) {
+		COUNTERS[counter.ordinal()].add(count);
+	}
+
+
+	/**
+	 * Get the depth of the named queue, to be updated by whoever fills or drains it.
+	 *
+	 * @param name The name of the queue, such as flushQueue.RunResults.10.0.0.1.
+	 * @return QueueDepth The depth, created on first use.
+	 */
+	public static QueueDepth getQueue(String name) {
+		return QUEUES.computeIfAbsent(name, key -> new QueueDepth());
+	}
+
+
+	/**
+	 * Get the timing of every stage that has run.
+	 *
+	 * @return List<StageStatistics> The stages, in pipeline order.
+	 */
+	public static List<StageStatistics> getStages() {
+		List<StageStatistics> stages = new ArrayList<>();
+
+		for (Stage stage : Stage.values()) {
+			StageStatistics statistics = TIMERS[stage.ordinal()].snapshot(stage.getName());
+			if (statistics.getCount() > 0) {
+				stages.add(statistics);
+			}
+		}
+
+		return stages;
+	}
+
+
+	/**
+	 * Get the number of each counted event, and of the log events dropped by LogQueuePolicy.
+	 *
+	 * @return Map<String, Long> The counts.
+	 */
+	public static Map<String, Long> getCounters() {
+		Map<String, Long> counters = new LinkedHashMap<>();
+
+		for (Counter counter : Counter.values()) {
+			counters.put(counter.getName(), COUNTERS[counter.ordinal()].sum());
+		}
+		counters.put("logEventsDiscarded", LogQueuePolicy.getDiscardedEvents());
+
+		return counters;
+	}
+
+
+	/**
+	 * Get the CPU time this JVM has used.
+	 *
+	 * @return long The time in milliseconds, or -1 if the JVM does not report it.
+	 */
+	public static long getProcessCpuTimeMillis() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			long nanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+			return nanos < 0 ? -1 : nanos / 1000000;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Register the instrumentation with the platform MBean server, so it can be read over JMX while the screen runs.
+	 */
+	public static synchronized void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new Bean(), name);
+				logger.info("Registered the screener's instrumentation as '" + OBJECT_NAME + "'.");
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to register the screener's instrumentation as '" + OBJECT_NAME + "': " + e);
+		}
+	}
+
+
+	/**
+	 * Log the timing of every stage, the counted events and the peak depth of every queue, for the end of the run.
+	 */
+	public static void report() {
+		logger.info("================================================================================");
+		logger.info("  Starting Instrumentation.report...");
+
+		for (StageStatistics stage : getStages()) {
+			logger.info(stage.toString());
+		}
+
+		StringBuilder sb = new StringBuilder("Events:");
+		for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+			sb.append(' ').append(counter.getKey()).append('=').append(counter.getValue());
+		}
+		logger.info(sb.toString());
+
+		if (!QUEUES.isEmpty()) {
+			sb = new StringBuilder("Peak queue depths:");
+			for (Map.Entry<String, QueueDepth> queue : QUEUES.entrySet()) {
+				sb.append(' ').append(queue.getKey()).append('=').append(queue.getValue().getPeak());
+			}
+			logger.info(sb.toString());
+		}
+
+		long cpuMillis = getProcessCpuTimeMillis();
+		if (cpuMillis >= 0) {
+			long wallMillis = Math.max(1, System.currentTimeMillis() - START_TIME);
+			logger.info(String.format("The screener used %.1f s of CPU in %.1f s (%.1f%% of one core).",
+					cpuMillis / 1e3, wallMillis / 1e3, 100.0 * cpuMillis / wallMillis));
+		}
+	}
+
+
+	private static class Bean implements InstrumentationMXBean {
+
+		@Override
+		public List<StageStatistics> getStages() {
+			return Instrumentation.getStages();
+		}
+
+		@Override
+		public Map<String, Long> getCounters() {
+			return Instrumentation.getCounters();
+		}
+
+		@Override
+		public Map<String, Long> getQueueDepths() {
+			Map<String, Long> depths = new LinkedHashMap<>();
+			for (Map.Entry<String, QueueDepth> queue : QUEUES.entrySet()) {
+				depths.put(queue.getKey(), queue.getValue().getDepth());
+			}
+			return depths;
+		}
+
+		@Override
+		public Map<String, Long> getPeakQueueDepths() {
+			Map<String, Long> peaks = new LinkedHashMap<>();
+			for (Map.Entry<String, QueueDepth> queue : QUEUES.entrySet()) {
+				peaks.put(queue.getKey(), queue.getValue().getPeak());
+			}
+			return peaks;
+		}
+
+		@Override
+		public long getProcessCpuTimeMillis() {
+			return Instrumentation.getProcessCpuTimeMillis();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package general;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the screener reports about itself over JMX, registered as jmx_logger_qa_screen:type=Instrumentation by
+ * Instrumentation.register, so jconsole or another collector can watch its overhead while it runs.
+ */
+public interface InstrumentationMXBean {
+
+	/**
+	 * Get the timing of every pipeline stage that has run.
+	 *
+	 * @return List<StageStatistics> The stages, in pipeline order.
+	 */
+	List<StageStatistics> getStages();
+
+
+	/**
+	 * Get the events counted so far, such as failed samples and JMX reconnects.
+	 *
+	 * @return Map<String, Long> The count of each event.
+	 */
+	Map<String, Long> getCounters();
+
+
+	/**
+	 * Get the number of entries now waiting in each queue.
+	 *
+	 * @return Map<String, Long> The depth of each queue.
+	 */
+	Map<String, Long> getQueueDepths();
+
+
+	/**
+	 * Get the most entries that have waited in each queue at once.
+	 *
+	 * @return Map<String, Long> The peak depth of each queue.
+	 */
+	Map<String, Long> getPeakQueueDepths();
+
+
+	/**
+	 * Get the CPU time used by the screener so far.
+	 *
+	 * @return long The time in milliseconds, or -1 if the JVM does not report it.
+	 */
+	long getProcessCpuTimeMillis();
+
+}
@@ -0,0 +1,86 @@
+package general;
+
+/**
+ * Something a node reported as it happened, such as a GC pause, rather than a value read on a tick. Immutable, so it can
+ * be handed from the thread that received it to any other through the EventRing.
+ */
+public class JmxEvent {
+
+	private final long sequence;
+	private final long timestamp;
+	private final String node;
+	private final String source;
+	private final String type;
+	private final String label;
+	private final String message;
+	private final double durationMillis;
+
+
+	/**
+	 * Create an event.
+	 *
+	 * @param sequence The position of the event in its ring.
+	 * @param timestamp The time the node reported the event in epoch milliseconds.
+	 * @param node The host that reported the event.
+	 * @param source The MBean that reported the event.
+	 * @param type The notification type, such as com.sun.management.gc.notification.
+	 * @param label A short name for the charts, such as GC.
+	 * @param message What happened.
+	 * @param durationMillis How long it took in milliseconds, or NaN if it has no duration.
+	 */
+	JmxEvent(long sequence, long timestamp, String node, String source, String type, String label, String message, double durationMillis) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.node = node;
+		this.source = source;
+		this.type = type;
+		this.label = label;
+		this.message = message;
+		this.durationMillis = durationMillis;
+	}
+
+
+	/**
+	 * Describe the event, as for the tooltip of its mark on a chart.
+	 *
+	 * @return String The description.
+	 */
+	@Override
+	public String toString() {
+		return Double.isNaN(durationMillis) ? message : message + ", " + Math.round(durationMillis) + " ms";
+	}
+
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public double getDurationMillis() {
+		return durationMillis;
+	}
+
+}
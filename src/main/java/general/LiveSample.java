@@ -0,0 +1,68 @@
+package general;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latest sample of a series, published by the collecting thread and read by the metrics endpoint without a lock.
+ * The version is odd while a sample is being written, so a reader that sees it change, or odd, reads again; publishing
+ * never waits and never allocates.
+ */
+class LiveSample {
+
+	private final AtomicLong version = new AtomicLong();
+	// The timestamp, then the raw bits of each value.
+	private final AtomicLongArray sample;
+
+
+	LiveSample(int columnCount) {
+		this.sample = new AtomicLongArray(columnCount + 1);
+	}
+
+
+	/**
+	 * Publish a sample. Only the thread that appends to the series may call this.
+	 */
+	void publish(long timestamp, double[] values) {
+		long start = version.get() + 1;
+		version.set(start);
+
+		sample.set(0, timestamp);
+		for (int column = 1; column < sample.length(); column++) {
+			sample.set(column, Double.doubleToRawLongBits(column - 1 < values.length ? values[column - 1] : Double.NaN));
+		}
+
+		version.set(start + 1);
+	}
+
+
+	/**
+	 * Copy the latest sample.
+	 *
+	 * @param values Receives the value of each column.
+	 * @return long The timestamp of the sample, or Long.MIN_VALUE if none has been published yet.
+	 */
+	long read(double[] values) {
+		while (true) {
+			long before = version.get();
+
+			if (before == 0) {
+				return Long.MIN_VALUE;
+			}
+
+			if ((before & 1) == 0) {
+				long timestamp = sample.get(0);
+				for (int column = 1; column < sample.length(); column++) {
+					values[column - 1] = Double.longBitsToDouble(sample.get(column));
+				}
+
+				if (version.get() == before) {
+					return timestamp;
+				}
+			}
+
+			Thread.yield();
+		}
+	}
+
+}
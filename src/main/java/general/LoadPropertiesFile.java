@@ -1,51 +1,62 @@
 package general;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 public class LoadPropertiesFile {
 
     private LoadPropertiesFile() {
     }
 
-    private static final Logger logger = LogManager.getLogger(Class.class.getName());
 	/**
-	 * Get the given property from the config.properties file.
+	 * Get the given property from the config.properties file. The file is read and validated once, see Configuration.
 	 *
 	 * @param key The name of the parameter key.
+	 * @return String The value, or null if it is not set.
 	 */
 	public static String getProperty(String key) {
-		logger.debug("================================================================================");
-		logger.debug("  Starting LoadPropertiesFile.getProperty '" + key + "'...");
+		return Configuration.get().getString(key);
+	}
+
+
+	/**
+	 * Get the given property from the config.properties file as an integer.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return Integer The value.
+	 */
+	public static Integer getInteger(String key) {
+		return Configuration.get().getInt(key);
+	}
 
-		Properties prop = new Properties();
-		InputStream input = null;
 
-		try {
+	/**
+	 * Get the given property from the config.properties file as a long.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return Long The value.
+	 */
+	public static Long getLong(String key) {
+		return Configuration.get().getLong(key);
+	}
 
-			input = new FileInputStream("config.properties");
 
-			// load a properties file
-			prop.load(input);
+	/**
+	 * Get the given property from the config.properties file as a double.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return Double The value.
+	 */
+	public static Double getDouble(String key) {
+		return Configuration.get().getDouble(key);
+	}
 
-		} catch (IOException io) {
-			logger.catching(io);
-		} finally {
-			if (input != null) {
-				try {
-					input.close();
-				} catch (IOException e) {
-					logger.catching(e);
-				}
-			}
-		}
 
-		return prop.getProperty(key);
+	/**
+	 * Get the given property from the config.properties file as a boolean.
+	 *
+	 * @param key The name of the parameter key.
+	 * @return Boolean The value; false if it is not set.
+	 */
+	public static Boolean getBoolean(String key) {
+		return Configuration.get().getBoolean(key);
 	}
 
 }
\ No newline at end of file
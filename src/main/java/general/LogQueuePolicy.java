@@ -0,0 +1,97 @@
+package general;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.async.AsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.EventRoute;
+
+/**
+ * Decides what happens to a log event when the queue of an asynchronous appender in log4j2.xml is full, so that logging
+ * never makes the sampling threads wait for the disk or the console. INFO and below are dropped; warnings and errors are
+ * written straight away by the thread that logged them, out of order but not lost. Both are counted.
+ *
+ * <p>Selected by log4j2.asyncQueueFullPolicy in log4j2.component.properties; without it log4j2 waits for room instead.</p>
+ */
+public class LogQueuePolicy implements AsyncQueueFullPolicy {
+
+	private static final AtomicLong DISCARDED_EVENTS = new AtomicLong();
+	private static final AtomicLong SYNCHRONOUS_EVENTS = new AtomicLong();
+
+
+	@Override
+	public EventRoute getRoute(long backgroundThreadId, Level level) {
+		// The appender thread itself logging (such as an appender reporting an error) must never wait on its own queue.
+		if (Thread.currentThread().getId() == backgroundThreadId) {
+			return EventRoute.SYNCHRONOUS;
+		}
+
+		if (level.isMoreSpecificThan(Level.WARN)) {
+			SYNCHRONOUS_EVENTS.incrementAndGet();
+			return EventRoute.SYNCHRONOUS;
+		}
+
+		DISCARDED_EVENTS.incrementAndGet();
+		return EventRoute.DISCARD;
+	}
+
+
+	/**
+	 * Get the number of log events dropped because a queue was full.
+	 *
+	 * @return long The number of events.
+	 */
+	public static long getDiscardedEvents() {
+		return DISCARDED_EVENTS.get();
+	}
+
+
+	/**
+	 * Get the number of warnings and errors written by the thread that logged them because a queue was full.
+	 *
+	 * @return long The number of events.
+	 */
+	public static long getSynchronousEvents() {
+		return SYNCHRONOUS_EVENTS.get();
+	}
+
+
+	/**
+	 * Get the number of log events waiting in the queues of the asynchronous appenders.
+	 *
+	 * @return long The number of events, or -1 if no appender is asynchronous.
+	 */
+	public static long getQueuedEvents() {
+		long queued = -1;
+
+		for (Appender appender : ((LoggerContext) LogManager.getContext(false)).getConfiguration().getAppenders().values()) {
+			if (appender instanceof AsyncAppender) {
+				AsyncAppender asyncAppender = (AsyncAppender) appender;
+				queued = Math.max(queued, 0) + asyncAppender.getQueueCapacity() - asyncAppender.getQueueRemainingCapacity();
+			}
+		}
+
+		return queued;
+	}
+
+
+	/**
+	 * Describe the state of the logging queues, for the progress report.
+	 *
+	 * @return String The description, or null if logging is synchronous.
+	 */
+	public static String describe() {
+		long queued = getQueuedEvents();
+		if (queued < 0) {
+			return null;
+		}
+
+		return "Logging: " + queued + " events queued, " + getDiscardedEvents() + " dropped and "
+				+ getSynchronousEvents() + " written synchronously while a queue was full.";
+	}
+
+}
@@ -0,0 +1,292 @@
+package general;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class MetricCatalog {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// Multiple MBean names for one metric are separated by this character in the catalog file.
+	private static final String OBJECT_NAME_SEPARATOR = "\\|";
+
+	private static MetricCatalog defaultCatalog;
+
+	private final List<MetricDefinition> metrics;
+
+	// The configuration property each metric's threshold is read from, or null where it is given in the catalog.
+	private final List<String> thresholdProperties;
+
+	private final List<HistogramDefinition> histograms;
+
+	// The ids of the metrics where a higher value is better, such as throughput; for the rest lower is better.
+	private final Set<String> higherIsBetter;
+
+
+	private MetricCatalog(List<MetricDefinition> metrics, List<String> thresholdProperties, List<HistogramDefinition> histograms,
+			Set<String> higherIsBetter) {
+		this.metrics = Collections.unmodifiableList(metrics);
+		this.thresholdProperties = thresholdProperties;
+		this.histograms = Collections.unmodifiableList(histograms);
+		this.higherIsBetter = Collections.unmodifiableSet(higherIsBetter);
+	}
+
+
+	/**
+	 * Get the catalog named by the metricCatalog property, loading it on first use.
+	 *
+	 * @return MetricCatalog The catalog.
+	 */
+	public static synchronized MetricCatalog getDefault() {
+		if (defaultCatalog == null) {
+			String fileName = LoadPropertiesFile.getProperty("metricCatalog");
+
+			try {
+				defaultCatalog = load(fileName);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to load the metric catalog '" + fileName + "'.", e);
+			}
+
+			Configuration.addReloadListener(defaultCatalog::reloadThresholds);
+		}
+
+		return defaultCatalog;
+	}
+
+
+	/**
+	 * Load a metric catalog from the given properties file.
+	 *
+	 * The metrics property lists the metric ids in column order. Each id then has the keys:
+	 * objectName (required, | separated, may use ${keyspace} and wildcards), attribute (required),
+	 * type (long or double), aggregate (sum, max, min or avg), counter, threshold or thresholdProperty, better (higher or lower),
+	 * title and description.
+	 * The optional histograms property lists latency histograms, each with the keys objectName (required, | separated),
+	 * attribute (default RecentValues), cumulative (default false), title and description.
+	 *
+	 * @param fileName The name of the catalog file.
+	 * @return MetricCatalog The catalog.
+	 * @throws IOException
+	 */
+	public static MetricCatalog load(String fileName) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting MetricCatalog.load '" + fileName + "'...");
+
+		Properties prop = new Properties();
+
+		try (InputStream input = new FileInputStream(fileName)) {
+			prop.load(input);
+		}
+
+		String metricList = prop.getProperty("metrics");
+		if (metricList == null || metricList.trim().isEmpty()) {
+			throw new IllegalArgumentException("Metric catalog '" + fileName + "' does not list any metrics.");
+		}
+
+		List<MetricDefinition> metrics = new ArrayList<>();
+		List<String> thresholdProperties = new ArrayList<>();
+		Set<String> higherIsBetter = new HashSet<>();
+
+		for (String id : metricList.split(",")) {
+			id = id.trim();
+			if (!id.isEmpty()) {
+				metrics.add(parseMetric(fileName, prop, id));
+
+				String better = prop.getProperty(id + ".better", "lower").trim();
+				if (better.equalsIgnoreCase("higher")) {
+					higherIsBetter.add(id);
+				} else if (!better.equalsIgnoreCase("lower")) {
+					throw new IllegalArgumentException("Metric '" + id + "' in '" + fileName + "' must have better set to higher or lower, not '" + better + "'.");
+				}
+
+				String thresholdProperty = prop.getProperty(id + ".threshold") == null ? prop.getProperty(id + ".thresholdProperty") : null;
+				thresholdProperties.add(thresholdProperty == null ? null : thresholdProperty.trim());
+			}
+		}
+
+		List<HistogramDefinition> histograms = new ArrayList<>();
+		String histogramList = prop.getProperty("histograms", "");
+
+		for (String id : histogramList.split(",")) {
+			id = id.trim();
+			if (!id.isEmpty()) {
+				histograms.add(parseHistogram(fileName, prop, id));
+			}
+		}
+
+		logger.info("Loaded " + metrics.size() + " metrics and " + histograms.size() + " histograms from '" + fileName + "'.");
+
+		return new MetricCatalog(metrics, thresholdProperties, histograms, higherIsBetter);
+	}
+
+
+	private static MetricDefinition parseMetric(String fileName, Properties prop, String id) {
+		// The id is used as a JavaScript variable in the charts and a column in the results table.
+		if (!id.matches("[A-Za-z][A-Za-z0-9_]*")) {
+			throw new IllegalArgumentException("Metric id '" + id + "' in '" + fileName + "' must be a letter followed by letters, digits or underscores.");
+		}
+
+		String objectNames = required(fileName, prop, id, "objectName");
+		String attribute = required(fileName, prop, id, "attribute");
+
+		List<String> objectNameTemplates = new ArrayList<>();
+		for (String objectName : objectNames.split(OBJECT_NAME_SEPARATOR)) {
+			if (!objectName.trim().isEmpty()) {
+				objectNameTemplates.add(objectName.trim());
+			}
+		}
+
+		MetricDefinition.Type type;
+		MetricDefinition.Aggregation aggregation;
+		try {
+			type = MetricDefinition.Type.valueOf(prop.getProperty(id + ".type", "double").trim().toUpperCase(Locale.ROOT));
+			aggregation = MetricDefinition.Aggregation.valueOf(prop.getProperty(id + ".aggregate", "sum").trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Metric '" + id + "' in '" + fileName + "' has an unknown type or aggregate.", e);
+		}
+
+		// A counter is recorded as a rate per second, which is rarely a whole number.
+		boolean counter = Boolean.parseBoolean(prop.getProperty(id + ".counter", "false").trim());
+		if (counter && type != MetricDefinition.Type.DOUBLE) {
+			throw new IllegalArgumentException("Metric '" + id + "' in '" + fileName + "' is a counter, so its rate must be of type double.");
+		}
+
+		// A threshold may be given directly, or by naming a property in config.properties.
+		String threshold = prop.getProperty(id + ".threshold");
+		String thresholdProperty = prop.getProperty(id + ".thresholdProperty");
+		String thresholdFileName = fileName;
+		if (threshold == null && thresholdProperty != null) {
+			threshold = LoadPropertiesFile.getProperty(thresholdProperty.trim());
+			thresholdFileName = Configuration.get().getFileName();
+		}
+
+		Double thresholdValue = parseThreshold(thresholdFileName, id, threshold);
+
+		return new MetricDefinition(id, objectNameTemplates, attribute.trim(), type, aggregation, counter, thresholdValue,
+				prop.getProperty(id + ".title", id), prop.getProperty(id + ".description", ""));
+	}
+
+
+	private static HistogramDefinition parseHistogram(String fileName, Properties prop, String id) {
+		// The id prefixes the percentile columns in the charts and the results table.
+		if (!id.matches("[A-Za-z][A-Za-z0-9_]*")) {
+			throw new IllegalArgumentException("Histogram id '" + id + "' in '" + fileName + "' must be a letter followed by letters, digits or underscores.");
+		}
+
+		List<String> objectNameTemplates = new ArrayList<>();
+		for (String objectName : required(fileName, prop, id, "objectName").split(OBJECT_NAME_SEPARATOR)) {
+			if (!objectName.trim().isEmpty()) {
+				objectNameTemplates.add(objectName.trim());
+			}
+		}
+
+		return new HistogramDefinition(id, objectNameTemplates, prop.getProperty(id + ".attribute", "RecentValues").trim(),
+				Boolean.parseBoolean(prop.getProperty(id + ".cumulative", "false").trim()),
+				prop.getProperty(id + ".title", id), prop.getProperty(id + ".description", ""));
+	}
+
+
+	private static Double parseThreshold(String fileName, String id, String threshold) {
+		if (threshold == null || threshold.trim().isEmpty()) {
+			return null;
+		}
+
+		try {
+			return Double.parseDouble(threshold.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Metric '" + id + "' in '" + fileName + "' has an invalid threshold '" + threshold + "'.", e);
+		}
+	}
+
+
+	/**
+	 * Read the thresholds that come from configuration properties again, after the configuration file has changed.
+	 *
+	 * @param configuration The changed configuration.
+	 */
+	private void reloadThresholds(Configuration configuration) {
+		for (int i = 0; i < metrics.size(); i++) {
+			String thresholdProperty = thresholdProperties.get(i);
+
+			if (thresholdProperty != null) {
+				MetricDefinition metric = metrics.get(i);
+				metric.setThreshold(parseThreshold(configuration.getFileName(), metric.getId(), configuration.getString(thresholdProperty)));
+			}
+		}
+	}
+
+
+	private static String required(String fileName, Properties prop, String id, String key) {
+		String value = prop.getProperty(id + "." + key);
+
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalArgumentException("Metric '" + id + "' in '" + fileName + "' is missing '" + key + "'.");
+		}
+
+		return value;
+	}
+
+
+	/**
+	 * Get the metrics in column order.
+	 *
+	 * @return List<MetricDefinition> The metrics.
+	 */
+	public List<MetricDefinition> getMetrics() {
+		return metrics;
+	}
+
+
+	/**
+	 * Get the latency histograms.
+	 *
+	 * @return List<HistogramDefinition> The histograms, in the order they are listed.
+	 */
+	public List<HistogramDefinition> getHistograms() {
+		return histograms;
+	}
+
+
+	/**
+	 * Check whether a higher value of the given metric is better, as for throughput, rather than worse, as for latency.
+	 *
+	 * @param id The metric id.
+	 * @return boolean Is higher better? False for a metric not in the catalog.
+	 */
+	public boolean isHigherBetter(String id) {
+		return higherIsBetter.contains(id);
+	}
+
+
+	/**
+	 * Get the metric in the given column.
+	 *
+	 * @param index The column index.
+	 * @return MetricDefinition The metric.
+	 */
+	public MetricDefinition get(int index) {
+		return metrics.get(index);
+	}
+
+
+	/**
+	 * Get the number of metrics in the catalog.
+	 *
+	 * @return int The number of metrics.
+	 */
+	public int size() {
+		return metrics.size();
+	}
+
+}
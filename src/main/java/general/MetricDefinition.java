@@ -0,0 +1,239 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+public class MetricDefinition {
+
+	/**
+	 * How the metric value is stored and printed.
+	 */
+	public enum Type {
+		LONG, DOUBLE
+	}
+
+	/**
+	 * How the values read from several MBeans (for example one per table scope) are combined into one.
+	 */
+	public enum Aggregation {
+		SUM, MAX, MIN, AVG
+	}
+
+	private final String id;
+	private final List<String> objectNameTemplates;
+	private final String attribute;
+	private final Type type;
+	private final Aggregation aggregation;
+	private final boolean counter;
+	// May be retuned during a run when the threshold comes from a reloadable property.
+	private volatile Double threshold;
+	private final String title;
+	private final String description;
+
+
+	/**
+	 * Create a metric definition.
+	 *
+	 * @param id The name of the metric; also used as the column name in the charts and results table.
+	 * @param objectNameTemplates The MBean names to read, which may contain ${keyspace} and ObjectName wildcards.
+	 * @param attribute The MBean attribute to read. A dotted name such as HeapMemoryUsage.used reads an item of a composite attribute.
+	 * @param type How the value is stored.
+	 * @param aggregation How the values of all the matched MBeans are combined.
+	 * @param threshold The warning threshold, or null if there is none.
+	 * @param title The axis title for the chart.
+	 * @param description The description for the chart.
+	 */
+	public MetricDefinition(String id, List<String> objectNameTemplates, String attribute, Type type, Aggregation aggregation,
+			Double threshold, String title, String description) {
+		this(id, objectNameTemplates, attribute, type, aggregation, false, threshold, title, description);
+	}
+
+
+	/**
+	 * Create a metric definition, which may be a counter.
+	 *
+	 * @param id The name of the metric; also used as the column name in the charts and results table.
+	 * @param objectNameTemplates The MBean names to read, which may contain ${keyspace} and ObjectName wildcards.
+	 * @param attribute The MBean attribute to read. A dotted name such as HeapMemoryUsage.used reads an item of a composite attribute.
+	 * @param type How the value is stored.
+	 * @param aggregation How the values of all the matched MBeans are combined.
+	 * @param counter Is the attribute a total that only grows, recorded as its rate per second rather than as read?
+	 * @param threshold The warning threshold, or null if there is none.
+	 * @param title The axis title for the chart.
+	 * @param description The description for the chart.
+	 */
+	public MetricDefinition(String id, List<String> objectNameTemplates, String attribute, Type type, Aggregation aggregation,
+			boolean counter, Double threshold, String title, String description) {
+		this.id = id;
+		this.objectNameTemplates = Collections.unmodifiableList(new ArrayList<>(objectNameTemplates));
+		this.attribute = attribute;
+		this.type = type;
+		this.aggregation = aggregation;
+		this.counter = counter;
+		this.threshold = threshold;
+		this.title = title;
+		this.description = description;
+	}
+
+
+	/**
+	 * Get the MBean names for the given keyspace. Any of these may be patterns that still need to be queried.
+	 *
+	 * @param keyspace The keyspace to substitute for ${keyspace}.
+	 * @return List<ObjectName> The MBean names.
+	 * @throws MalformedObjectNameException
+	 */
+	public List<ObjectName> getObjectNames(String keyspace) throws MalformedObjectNameException {
+		List<ObjectName> objectNames = new ArrayList<>(objectNameTemplates.size());
+
+		for (String template : objectNameTemplates) {
+			objectNames.add(new ObjectName(template.replace("${keyspace}", keyspace)));
+		}
+
+		return objectNames;
+	}
+
+
+	/**
+	 * Get the name of the MBean attribute, without any composite item key.
+	 *
+	 * @return String The attribute name.
+	 */
+	public String getAttributeName() {
+		int dot = attribute.indexOf('.');
+		return dot < 0 ? attribute : attribute.substring(0, dot);
+	}
+
+
+	/**
+	 * Get the composite item key to read from the attribute value.
+	 *
+	 * @return String The item key, or null if the attribute is a plain number.
+	 */
+	public String getCompositeKey() {
+		int dot = attribute.indexOf('.');
+		return dot < 0 ? null : attribute.substring(dot + 1);
+	}
+
+
+	/**
+	 * Check whether the given value is greater than the threshold.
+	 *
+	 * @param value The value to check.
+	 * @return boolean Is there a threshold, and is it exceeded?
+	 */
+	public boolean exceedsThreshold(double value) {
+		Double currentThreshold = threshold;
+		return currentThreshold != null && value > currentThreshold;
+	}
+
+
+	/**
+	 * Combine the given values read from each matched MBean into the metric value. Missing (NaN) values are ignored.
+	 *
+	 * @param values The values to combine.
+	 * @param length The number of values to use from the start of the array.
+	 * @return double The combined value, or NaN if no value was present.
+	 */
+	public double aggregate(double[] values, int length) {
+		double result = Double.NaN;
+		int count = 0;
+
+		for (int i = 0; i < length; i++) {
+			double value = values[i];
+
+			if (Double.isNaN(value)) {
+				continue;
+			}
+
+			if (count == 0) {
+				result = value;
+			} else {
+				switch (aggregation) {
+				case MAX:
+					result = Math.max(result, value);
+					break;
+				case MIN:
+					result = Math.min(result, value);
+					break;
+				default:
+					result += value;
+					break;
+				}
+			}
+			count++;
+		}
+
+		if (aggregation == Aggregation.AVG && count > 0) {
+			result /= count;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Format the given value for this metric's type. A missing value is formatted as null.
+	 *
+	 * @param value The value to format.
+	 * @return String The formatted value.
+	 */
+	public String format(double value) {
+		if (Double.isNaN(value)) {
+			return "null";
+		}
+
+		return type == Type.LONG ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public List<String> getObjectNameTemplates() {
+		return objectNameTemplates;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public Aggregation getAggregation() {
+		return aggregation;
+	}
+
+	public boolean isCounter() {
+		return counter;
+	}
+
+	public Double getThreshold() {
+		return threshold;
+	}
+
+
+	/**
+	 * Replace the warning threshold, such as when the configuration file has been changed during a run.
+	 *
+	 * @param threshold The new threshold, or null for none.
+	 */
+	void setThreshold(Double threshold) {
+		this.threshold = threshold;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+}
@@ -0,0 +1,328 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MetricSeries {
+
+	// Samples are stored in fixed size chunks so growing the series never copies the data already collected.
+	private static final int CHUNK_SHIFT = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Long columns have no NaN, so a missing value is stored as this.
+	private static final long MISSING_LONG = Long.MIN_VALUE;
+
+	private final List<MetricDefinition> columns;
+	private final boolean[] longColumn;
+	private final String node;
+
+	private long[][] timestampChunks;
+	private long[][][] longChunks;
+	private double[][][] doubleChunks;
+
+	// Written only by the collecting thread, after the row is complete, so readers never see a partial row.
+	private volatile int size;
+
+	// Rows before this may be dropped from memory. The chunks are only released by the collecting thread.
+	private volatile int releasedRow;
+	private int releasedChunks;
+
+	// The latest sample, published for the metrics endpoint once the series is registered with it.
+	private volatile LiveSample liveSample;
+
+
+	/**
+	 * Create an empty series with one column per given metric.
+	 *
+	 * @param columns The metrics stored in the series, in column order.
+	 */
+	public MetricSeries(List<MetricDefinition> columns) {
+		this(columns, null);
+	}
+
+
+	/**
+	 * Create an empty series with one column per given metric, tagged with the node its samples are read from.
+	 *
+	 * @param columns The metrics stored in the series, in column order.
+	 * @param node The host the samples are read from, or null for the single node named by nodeIp.
+	 */
+	public MetricSeries(List<MetricDefinition> columns, String node) {
+		this.node = node;
+		this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+		this.longColumn = new boolean[columns.size()];
+
+		for (int i = 0; i < longColumn.length; i++) {
+			longColumn[i] = columns.get(i).getType() == MetricDefinition.Type.LONG;
+		}
+
+		this.timestampChunks = new long[1][];
+		this.longChunks = new long[columns.size()][1][];
+		this.doubleChunks = new double[columns.size()][1][];
+	}
+
+
+	/**
+	 * Append a sample. Only one thread may append to a series; any thread may read the rows already appended.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param values The value of each column; NaN for a missing value.
+	 */
+	public void append(long timestamp, double[] values) {
+		int row = size;
+		int chunk = row >>> CHUNK_SHIFT;
+		int offset = row & CHUNK_MASK;
+
+		if (offset == 0) {
+			allocateChunk(chunk);
+		}
+
+		timestampChunks[chunk][offset] = timestamp;
+
+		for (int column = 0; column < longColumn.length; column++) {
+			double value = column < values.length ? values[column] : Double.NaN;
+
+			if (longColumn[column]) {
+				longChunks[column][chunk][offset] = Double.isNaN(value) ? MISSING_LONG : (long) value;
+			} else {
+				doubleChunks[column][chunk][offset] = value;
+			}
+		}
+
+		size = row + 1;
+
+		LiveSample live = liveSample;
+		if (live != null) {
+			live.publish(timestamp, values);
+		}
+	}
+
+
+	/**
+	 * Publish every sample appended from now on to the given live sample.
+	 */
+	void setLiveSample(LiveSample liveSample) {
+		this.liveSample = liveSample;
+	}
+
+
+	private void allocateChunk(int chunk) {
+		int releasableChunks = releasedRow >>> CHUNK_SHIFT;
+		while (releasedChunks < releasableChunks) {
+			timestampChunks[releasedChunks] = null;
+			for (int column = 0; column < longColumn.length; column++) {
+				longChunks[column][releasedChunks] = null;
+				doubleChunks[column][releasedChunks] = null;
+			}
+			releasedChunks++;
+		}
+
+		if (chunk == timestampChunks.length) {
+			int newLength = chunk * 2;
+
+			timestampChunks = Arrays.copyOf(timestampChunks, newLength);
+			for (int column = 0; column < longColumn.length; column++) {
+				longChunks[column] = Arrays.copyOf(longChunks[column], newLength);
+				doubleChunks[column] = Arrays.copyOf(doubleChunks[column], newLength);
+			}
+		}
+
+		timestampChunks[chunk] = new long[CHUNK_SIZE];
+		for (int column = 0; column < longColumn.length; column++) {
+			if (longColumn[column]) {
+				longChunks[column][chunk] = new long[CHUNK_SIZE];
+			} else {
+				doubleChunks[column][chunk] = new double[CHUNK_SIZE];
+			}
+		}
+	}
+
+
+	/**
+	 * Allow the rows before the given row to be dropped from memory, for example once they have been persisted.
+	 * Whole chunks are released as the series grows; released rows must not be read again.
+	 *
+	 * @param row The first row that must be kept.
+	 */
+	public void releaseBefore(int row) {
+		if (row > releasedRow) {
+			releasedRow = Math.min(row, size);
+		}
+	}
+
+
+	/**
+	 * Check whether any rows have been released from memory.
+	 *
+	 * @return boolean Have rows been released?
+	 */
+	public boolean isReleased() {
+		return releasedRow > 0;
+	}
+
+
+	/**
+	 * Get the number of samples in the series.
+	 *
+	 * @return int The number of samples.
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Get the time of the given sample.
+	 *
+	 * @param row The sample index.
+	 * @return long The time in epoch milliseconds.
+	 */
+	public long getTimestamp(int row) {
+		return timestampChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the value of the given column as a double.
+	 *
+	 * @param row The sample index.
+	 * @param column The column index.
+	 * @return double The value, or NaN if it is missing.
+	 */
+	public double getDouble(int row, int column) {
+		if (longColumn[column]) {
+			long value = longChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+			return value == MISSING_LONG ? Double.NaN : value;
+		}
+
+		return doubleChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the value of the given column as a long.
+	 *
+	 * @param row The sample index.
+	 * @param column The column index.
+	 * @return long The value, truncated for a double column, or 0 if it is missing.
+	 */
+	public long getLong(int row, int column) {
+		if (longColumn[column]) {
+			long value = longChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+			return value == MISSING_LONG ? 0 : value;
+		}
+
+		double value = doubleChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+		return Double.isNaN(value) ? 0 : (long) value;
+	}
+
+
+	/**
+	 * Check whether the given value is missing.
+	 *
+	 * @param row The sample index.
+	 * @param column The column index.
+	 * @return boolean Is the value missing?
+	 */
+	public boolean isMissing(int row, int column) {
+		return Double.isNaN(getDouble(row, column));
+	}
+
+
+	/**
+	 * Replace the value of the given column.
+	 *
+	 * @param row The sample index.
+	 * @param column The column index.
+	 * @param value The new value; NaN for a missing value.
+	 */
+	public void setDouble(int row, int column, double value) {
+		if (longColumn[column]) {
+			longChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK] = Double.isNaN(value) ? MISSING_LONG : (long) value;
+		} else {
+			doubleChunks[column][row >>> CHUNK_SHIFT][row & CHUNK_MASK] = value;
+		}
+	}
+
+
+	/**
+	 * Format the value of the given column for its metric type.
+	 *
+	 * @param row The sample index.
+	 * @param column The column index.
+	 * @return String The formatted value, or null if it is missing.
+	 */
+	public String format(int row, int column) {
+		return columns.get(column).format(getDouble(row, column));
+	}
+
+
+	/**
+	 * Copy the samples of this series into a new series with the same columns.
+	 *
+	 * @return MetricSeries The copy.
+	 */
+	public MetricSeries copy() {
+		if (isReleased()) {
+			throw new IllegalStateException("The series has released rows from memory and cannot be copied.");
+		}
+
+		MetricSeries copy = new MetricSeries(columns, node);
+		int rows = size;
+		int chunks = (rows + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+
+		copy.timestampChunks = new long[Math.max(1, chunks)][];
+		copy.longChunks = new long[longColumn.length][copy.timestampChunks.length][];
+		copy.doubleChunks = new double[longColumn.length][copy.timestampChunks.length][];
+
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			copy.timestampChunks[chunk] = timestampChunks[chunk].clone();
+
+			for (int column = 0; column < longColumn.length; column++) {
+				if (longColumn[column]) {
+					copy.longChunks[column][chunk] = longChunks[column][chunk].clone();
+				} else {
+					copy.doubleChunks[column][chunk] = doubleChunks[column][chunk].clone();
+				}
+			}
+		}
+
+		copy.size = rows;
+
+		return copy;
+	}
+
+
+	/**
+	 * Get the metrics stored in the series.
+	 *
+	 * @return List<MetricDefinition> The metrics in column order.
+	 */
+	public List<MetricDefinition> getColumns() {
+		return columns;
+	}
+
+
+	/**
+	 * Get the node the samples are read from.
+	 *
+	 * @return String The host, or null for the single node named by nodeIp.
+	 */
+	public String getNode() {
+		return node;
+	}
+
+
+	/**
+	 * Get the number of columns in the series.
+	 *
+	 * @return int The number of columns.
+	 */
+	public int getColumnCount() {
+		return longColumn.length;
+	}
+
+}
@@ -0,0 +1,287 @@
+package general;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the latest sample of every registered series at http://host:metricsPort/metrics in the Prometheus text
+ * exposition format, so a local Prometheus can watch the screen while it runs.
+ *
+ * <p>Registering a series makes its appends publish each sample to a lock-free snapshot; the collecting threads do
+ * nothing else and allocate nothing. The names, help text and labels are rendered once, when a series is registered,
+ * and a scrape only copies the snapshots and formats their numbers, on the endpoint's own thread.</p>
+ */
+public class MetricsEndpoint {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Integer METRICS_PORT = LoadPropertiesFile.getInteger("metricsPort");
+	private static final String NODE_IP = LoadPropertiesFile.getProperty("nodeIp");
+
+	private static final String PREFIX = "jmx_logger_";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static HttpServer server;
+	private static ExecutorService executor;
+
+	private static final List<Source> SOURCES = new ArrayList<>();
+	// Rendered again whenever a series is registered.
+	private static List<Family> families = Collections.emptyList();
+
+	private static long scrapes;
+
+
+	/**
+	 * A registered series: its snapshot and where the scrape copies it to.
+	 */
+	private static class Source {
+		private final LiveSample liveSample;
+		private final List<MetricDefinition> columns;
+		private final String labels;
+		private final double[] values;
+		private long timestamp;
+
+		private Source(LiveSample liveSample, List<MetricDefinition> columns, String labels) {
+			this.liveSample = liveSample;
+			this.columns = columns;
+			this.labels = labels;
+			this.values = new double[columns.size()];
+		}
+	}
+
+
+	/**
+	 * One metric: its header and a line per series that has it.
+	 */
+	private static class Family {
+		private final String header;
+		private final List<Source> sources = new ArrayList<>();
+		private final List<Integer> columns = new ArrayList<>();
+		private final List<String> prefixes = new ArrayList<>();
+
+		private Family(String header) {
+			this.header = header;
+		}
+	}
+
+
+	private MetricsEndpoint() {
+	}
+
+
+	/**
+	 * Start serving, unless metricsPort is 0.
+	 *
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static synchronized void start() throws IOException {
+		if (server != null || METRICS_PORT == null || METRICS_PORT <= 0) {
+			return;
+		}
+
+		logger.info("================================================================================");
+		logger.info("  Starting MetricsEndpoint.start on port " + METRICS_PORT + "...");
+
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-endpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		server = HttpServer.create(new InetSocketAddress(METRICS_PORT), 0);
+		server.createContext("/metrics", MetricsEndpoint::handle);
+		server.setExecutor(executor);
+		server.start();
+
+		logger.info("Serving the latest samples at http://" + NODE_IP + ":" + METRICS_PORT + "/metrics.");
+	}
+
+
+	/**
+	 * Serve the latest sample of the given series from now on. Does nothing unless the endpoint was started.
+	 *
+	 * @param series The series.
+	 * @param source What the series holds, such as jmx, latency or stress, given as the source label.
+	 */
+	public static synchronized void register(MetricSeries series, String source) {
+		if (server == null) {
+			return;
+		}
+
+		String node = series.getNode() == null ? NODE_IP : series.getNode();
+		String labels = "node=\"" + escapeLabel(node) + "\",source=\"" + escapeLabel(source) + "\"";
+
+		LiveSample liveSample = new LiveSample(series.getColumnCount());
+		SOURCES.add(new Source(liveSample, series.getColumns(), labels));
+		series.setLiveSample(liveSample);
+
+		families = buildFamilies();
+
+		logger.info("Serving the samples of '" + source + "' from node '" + node + "'.");
+	}
+
+
+	private static List<Family> buildFamilies() {
+		Map<String, Family> byName = new LinkedHashMap<>();
+
+		Family timestamps = new Family(header(PREFIX + "sample_timestamp_seconds", "The time of the latest sample."));
+		byName.put(PREFIX + "sample_timestamp_seconds", timestamps);
+
+		for (Source source : SOURCES) {
+			timestamps.sources.add(source);
+			timestamps.columns.add(-1);
+			timestamps.prefixes.add(PREFIX + "sample_timestamp_seconds{" + source.labels + "} ");
+
+			for (int column = 0; column < source.columns.size(); column++) {
+				MetricDefinition metric = source.columns.get(column);
+				String name = PREFIX + metric.getId();
+
+				Family family = byName.get(name);
+				if (family == null) {
+					family = new Family(header(name, metric.getTitle()));
+					byName.put(name, family);
+				}
+
+				family.sources.add(source);
+				family.columns.add(column);
+				family.prefixes.add(name + "{" + source.labels + "} ");
+			}
+		}
+
+		return new ArrayList<>(byName.values());
+	}
+
+
+	private static String header(String name, String help) {
+		if (help == null || help.isEmpty()) {
+			return "# TYPE " + name + " gauge\n";
+		}
+
+		return "# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n# TYPE " + name + " gauge\n";
+	}
+
+
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+
+	private static void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			byte[] body = render().getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+
+	/**
+	 * Render the latest sample of every registered series.
+	 *
+	 * @return String The samples in the Prometheus text exposition format.
+	 */
+	static synchronized String render() {
+		scrapes++;
+
+		// Copy every snapshot first, so all the metrics of a series come from the same sample.
+		for (Source source : SOURCES) {
+			source.timestamp = source.liveSample.read(source.values);
+		}
+
+		StringBuilder sb = new StringBuilder(4096);
+		for (Family family : families) {
+			sb.append(family.header);
+
+			for (int i = 0; i < family.sources.size(); i++) {
+				Source source = family.sources.get(i);
+				int column = family.columns.get(i);
+
+				if (source.timestamp == Long.MIN_VALUE) {
+					continue;
+				}
+
+				sb.append(family.prefixes.get(i));
+				if (column < 0) {
+					appendSeconds(sb, source.timestamp);
+				} else {
+					appendValue(sb, source.values[column], source.columns.get(column).getType());
+				}
+				sb.append('\n');
+			}
+		}
+
+		return sb.toString();
+	}
+
+
+	private static void appendSeconds(StringBuilder sb, long millis) {
+		long fraction = Math.floorMod(millis, 1000L);
+
+		sb.append(Math.floorDiv(millis, 1000L)).append('.');
+		if (fraction < 100) {
+			sb.append(fraction < 10 ? "00" : "0");
+		}
+		sb.append(fraction);
+	}
+
+
+	private static void appendValue(StringBuilder sb, double value, MetricDefinition.Type type) {
+		if (Double.isNaN(value)) {
+			sb.append("NaN");
+		} else if (Double.isInfinite(value)) {
+			sb.append(value > 0 ? "+Inf" : "-Inf");
+		} else if (type == MetricDefinition.Type.LONG) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+	}
+
+
+	/**
+	 * Stop serving. The series stay registered, and keep publishing, until the end of the run.
+	 */
+	public static synchronized void close() {
+		if (server == null) {
+			return;
+		}
+
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+
+		logger.info("Served " + scrapes + " scrapes of " + SOURCES.size() + " series.");
+	}
+
+}
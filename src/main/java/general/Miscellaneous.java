@@ -1,8 +1,6 @@
 package general;
 
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,6 +9,11 @@ public class Miscellaneous {
 
 	private static final Logger logger = LogManager.getLogger(Class.class.getName());
 
+	// Every integer up to 15 digits, and every power of ten up to 1e22, is exact as a double.
+	private static final int MAXIMUM_EXACT_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
 
 	/**
 	 * Check if the passed metric string value is a positive number.
@@ -19,23 +22,22 @@ public class Miscellaneous {
 	 * @param passedStringValue The string value to check.
 	 * @param passedMetricName The name of the metric being checked.
 	 * @param timestamp The timestamp of the given metric.
-	 * @return Double The parsed value.
+	 * @return double The parsed value.
 	 */
-	public static Double convertStringValue(String passedStringValue, String passedMetricName, String timestamp) {
+	public static double convertStringValue(String passedStringValue, String passedMetricName, String timestamp) {
 		logger.debug("================================================================================");
-		logger.debug("  Starting Miscellaneous.convertStringValue for '" + passedMetricName + "'...");
-
-		double tempValue = 0;
+		logger.debug("  Starting Miscellaneous.convertStringValue for '{}'...", passedMetricName);
 
-		if (isNumber(passedStringValue)) {
-			tempValue = Double.parseDouble(passedStringValue);
+		double tempValue = parseNumber(passedStringValue);
 
-			if (tempValue < 0) {
-				logger.error("Timestamp " + timestamp + " value " + passedMetricName + " '" + passedStringValue + "' is negative!");
-			}
-		} else {
+		if (Double.isNaN(tempValue)) {
 			// If we received an invalid number, 0 will be returned.
-			logger.error("Timestamp " + timestamp + " value " + passedMetricName + " '" + passedStringValue + "' is not a valid number!");
+			logger.error("Timestamp {} value {} '{}' is not a valid number!", timestamp, passedMetricName, passedStringValue);
+			return 0;
+		}
+
+		if (tempValue < 0) {
+			logger.error("Timestamp {} value {} '{}' is negative!", timestamp, passedMetricName, passedStringValue);
 		}
 
 		return tempValue;
@@ -44,153 +46,207 @@ public class Miscellaneous {
 
 	/**
 	 * Report how long we have been waiting for the given name based upon the given timestamp.
+	 * Called on the progress timer of the SamplingScheduler, so it always logs.
 	 *
 	 * @param passedStartTime The timestamp of the given name.
 	 * @param passedName The given name.
 	 */
 	public static void reportWaitTime(Long passedStartTime, String passedName) {
 		logger.debug("================================================================================");
-		logger.debug("  Starting Miscellaneous.reportWaitTime for '" + passedName + "'...");
+		logger.debug("  Starting Miscellaneous.reportWaitTime for '{}'...", passedName);
+
+		long elapsedSeconds = (System.currentTimeMillis() - passedStartTime) / 1000;
 
-		long currentTime = System.currentTimeMillis();
+		logger.info(String.format("Waiting on " + passedName + " for: %02d hours, %02d min, %02d sec",
+				elapsedSeconds / 3600, (elapsedSeconds / 60) % 60, elapsedSeconds % 60));
+	}
 
-		long timeDifference = (currentTime - passedStartTime);
-		int elapsedSeconds = (int) (timeDifference / 1000) % 60 ;
 
-		int modulus30 = (int) (elapsedSeconds % 30);
+	/**
+	 * Check if the given string value is a number or not.
+	 *
+	 * @param str The given string value.
+	 * @return boolean Is the passed string value a number?
+	 */
+	public static boolean isNumber(String str) {
+		logger.debug("================================================================================");
+		logger.debug("  Starting Miscellaneous.isNumber for '{}'...", str);
 
-		if (modulus30 == 0) {
+		if (str == null) {
+			logger.error("Missing value is not a number!");
+			return false;
+		}
 
-			long secondsInMilli = 1000;
-			long minutesInMilli = secondsInMilli * 60;
-			long hoursInMilli = minutesInMilli * 60;
+		if (Double.isNaN(parseNumber(str))) {
+			logger.error("{} is not a number!", str);
+			return false;
+		}
 
-			long elapsedHours = timeDifference / hoursInMilli;
-			timeDifference = timeDifference % hoursInMilli;
+		return true;
+	}
 
-			long elapsedMinutes = timeDifference / minutesInMilli;
 
-			logger.info(String.format("Waiting on " + passedName + " for: %02d hours, %02d min, %02d sec", elapsedHours, elapsedMinutes, elapsedSeconds));
+	/**
+	 * Parse the given text as a number in a single pass, without allocating or throwing for the plain decimals read from JMX.
+	 * Surrounding whitespace is ignored. Anything else Double.parseDouble accepts, such as an exponent, is handed to it.
+	 *
+	 * @param str The text to parse.
+	 * @return double The number, or NaN if the text is missing or not a number.
+	 */
+	public static double parseNumber(CharSequence str) {
+		if (str == null) {
+			return Double.NaN;
 		}
+
+		return parseNumber(str, 0, str.length());
 	}
 
 
 	/**
-	 * Get a range of values in the passed map between the given min and max int values.
+	 * Parse the given range of the text as a number, as parseNumber does, such as one field of a line. Nothing is
+	 * allocated unless the number has to be handed to Double.parseDouble.
 	 *
-	 * @param min The minimum value for the range.
-	 * @param max The maximum value for the range.
-	 * @param passedSortedMap The passed data map.
-	 * @return SortedMap<String, String> The data in the desired range.
+	 * @param str The text holding the number.
+	 * @param start The position of the first character of the number.
+	 * @param end The position after its last character.
+	 * @return double The number, or NaN if the range is not a number.
 	 */
-	public static SortedMap<String, String> getRangeOfSortedMapEntries(int min, int max,
-			SortedMap<String, String> passedSortedMap) {
-		logger.debug("================================================================================");
-		logger.debug("  Starting Miscellaneous.getRangeOfSortedMapEntries '" + min + "." + max + "'...");
+	public static double parseNumber(CharSequence str, int start, int end) {
+		int position = start;
+		int length = end;
 
-		int count = 0;
+		while (position < length && str.charAt(position) <= ' ') {
+			position++;
+		}
+		while (length > position && str.charAt(length - 1) <= ' ') {
+			length--;
+		}
 
-		TreeMap<String, String> subMap = new TreeMap<String, String>();
-		for (Map.Entry<String, String> entry : passedSortedMap.entrySet()) {
+		boolean negative = false;
+		if (position < length && (str.charAt(position) == '-' || str.charAt(position) == '+')) {
+			negative = str.charAt(position) == '-';
+			position++;
+		}
 
-			if ((count >= min) && (count <= (max - 1))) {
-				subMap.put(entry.getKey(), entry.getValue());
+		long mantissa = 0;
+		int significantDigits = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+
+		for (; position < length; position++) {
+			char c = str.charAt(position);
+
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+				if (fraction) {
+					scale++;
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				return parseNumberSlowly(str, start, end);
 			}
 
-			if (count > max) {
-				break;
+			if (significantDigits > MAXIMUM_EXACT_DIGITS || scale >= POWERS_OF_TEN.length) {
+				return parseNumberSlowly(str, start, end);
 			}
-			count++;
+		}
 
+		if (digits == 0) {
+			return Double.NaN;
 		}
-		return subMap;
+
+		// Both the mantissa and the power of ten are exact doubles, so a single division rounds the same as Double.parseDouble.
+		double value = mantissa / POWERS_OF_TEN[scale];
+
+		return negative ? -value : value;
 	}
 
 
-	/**
-	 * Check if the given string value is a number or not.
-	 *
-	 * @param str The given string value.
-	 * @return boolean Is the passed string value a number?
-	 */
-	public static boolean isNumber(String str) {
-		logger.debug("================================================================================");
-		logger.debug("  Starting Miscellaneous.isNumber for '" + str + "'...");
-
-	    try {
-	        @SuppressWarnings("unused")
-			double v = Double.parseDouble(str);
-	        return true;
-	    } catch (NumberFormatException nfe) {
-	    	logger.error(str + " is not a number!");
-	    }
-	    return false;
+	private static double parseNumberSlowly(CharSequence str, int start, int end) {
+		try {
+			return Double.parseDouble(str.subSequence(start, end).toString());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
 	}
 
 
 	/**
-	 * Convert the passed metric hash values from string to numbers.
+	 * Validate the passed metric series, returning a copy in which every value is numeric and present.
+	 * Missing values are replaced by zero, and negative values are reported. A sample missing every value was not read at
+	 * all, such as while the node was unreachable; it is left missing, so the charts show a gap rather than a drop to zero.
+	 * So is the rate of a counter that has no rate, as at the first sample of a run and the sample after a missed read.
 	 *
-	 * @param readMetricHash The metrics to be converted.
-	 * @return SortedMap<String, String> The converted metrics.
+	 * @param readMetricSeries The metrics to be validated.
+	 * @return MetricSeries The validated metrics.
 	 */
-	public static SortedMap<String, String> convertMetricHash(SortedMap <String, String> readMetricHash) {
+	public static MetricSeries validateMetricSeries(MetricSeries readMetricSeries) {
 		logger.info("================================================================================");
-		logger.info("  Starting Miscellaneous.convertMetricHash...");
-
-		TreeMap<String, String> validatedMetricHash = new TreeMap<>();
-
-		int liveSSTableCountTotal = 0;
-		int allMemtablesLiveDataSizeTotal= 0;
-		double readLatency95thPercentileTotal = 0;
-		double writeLatency95thPercentileTotal = 0;
-
-		// Iterate over the returned metrics results.
-		for (Map.Entry<String, String> entry : readMetricHash.entrySet()) {
-			String timestamp = entry.getKey();
-			String readMetricHashValue = entry.getValue();
-
-			String[] metrics = readMetricHashValue.split(",");
-
-			// Cast the string values to int/double to validate that the values are valid (numeric & not negative).
-			// If a value is not numeric, zero will be used in its place.
-			int liveSSTableCount = Miscellaneous.convertStringValue(metrics[0], "liveSSTableCount", timestamp).intValue();
-			int allMemtablesLiveDataSize = Miscellaneous.convertStringValue(metrics[1], "allMemtablesLiveDataSize", timestamp).intValue();
-			double readLatency95thPercentile = Miscellaneous.convertStringValue(metrics[2], "readLatency95thPercentile", timestamp);
-			double writeLatency95thPercentile = Miscellaneous.convertStringValue(metrics[3], "writeLatency95thPercentile", timestamp);
-
-			logger.debug("timestamp                 : " + timestamp);
-			logger.debug("liveSSTableCount          : " + liveSSTableCount);
-			logger.debug("allMemtablesLiveDataSize  : " + allMemtablesLiveDataSize);
-			logger.debug("readLatency95thPercentile: " + readLatency95thPercentile);
-			logger.debug("writeLatency95thPercentile: " + writeLatency95thPercentile);
-
-			liveSSTableCountTotal += liveSSTableCount;
-			allMemtablesLiveDataSizeTotal += allMemtablesLiveDataSize;
-			readLatency95thPercentileTotal += readLatency95thPercentile;
-			writeLatency95thPercentileTotal += writeLatency95thPercentile;
-
-			// Convert the values back to String to be returned in the validated hash.
-			validatedMetricHash.put(timestamp, String.join(",", Integer.toString(liveSSTableCount), Integer.toString(allMemtablesLiveDataSize), Double.toString(readLatency95thPercentile), Double.toString(writeLatency95thPercentile)));
-		}
+		logger.info("  Starting Miscellaneous.validateMetricSeries...");
 
-		if (liveSSTableCountTotal == 0) {
-			logger.error("liveSSTableCount is always zero in results set!");
+		long validationStart = Instrumentation.start();
+		MetricSeries validatedMetricSeries = readMetricSeries.copy();
+		List<MetricDefinition> columns = validatedMetricSeries.getColumns();
+
+		double[] metricTotals = new double[columns.size()];
+		int gapRows = 0;
+
+		for (int row = 0; row < validatedMetricSeries.size(); row++) {
+			if (isGap(validatedMetricSeries, row)) {
+				gapRows++;
+				continue;
+			}
+
+			for (int column = 0; column < columns.size(); column++) {
+				double value = validatedMetricSeries.getDouble(row, column);
+
+				// A counter has no rate until it has been read twice in a row; that is a gap, not an error.
+				if (Double.isNaN(value) && columns.get(column).isCounter()) {
+					continue;
+				}
+
+				// If a value is missing, zero will be used in its place.
+				if (Double.isNaN(value)) {
+					logger.error("Timestamp {} value {} is not a valid number!", validatedMetricSeries.getTimestamp(row), columns.get(column).getId());
+					value = 0;
+					validatedMetricSeries.setDouble(row, column, value);
+				} else if (value < 0) {
+					logger.error("Timestamp {} value {} '{}' is negative!", validatedMetricSeries.getTimestamp(row), columns.get(column).getId(), value);
+				}
+
+				metricTotals[column] += value;
+			}
 		}
 
-		if (allMemtablesLiveDataSizeTotal == 0) {
-			logger.error("allMemtablesLiveDataSize is always zero in results set!");
+		for (int column = 0; column < columns.size(); column++) {
+			if (metricTotals[column] == 0) {
+				logger.error("{} is always zero in results set!", columns.get(column).getId());
+			}
 		}
 
-		if (readLatency95thPercentileTotal == 0) {
-			logger.error("readLatency95thPercentile is always zero in results set!");
+		if (gapRows > 0) {
+			logger.warn("{} of {} samples could not be read and are left as gaps.", gapRows, validatedMetricSeries.size());
 		}
 
-		if (writeLatency95thPercentileTotal == 0) {
-			logger.error("writeLatency95thPercentile is always zero in results set!");
+		Instrumentation.stop(Instrumentation.Stage.VALIDATION, validationStart);
+
+		return validatedMetricSeries;
+	}
+
+	private static boolean isGap(MetricSeries series, int row) {
+		for (int column = 0; column < series.getColumnCount(); column++) {
+			if (!series.isMissing(row, column)) {
+				return false;
+			}
 		}
 
-		return validatedMetricHash;
+		return series.getColumnCount() > 0;
 	}
 
 	private Miscellaneous() {
@@ -0,0 +1,183 @@
+package general;
+
+import java.util.Arrays;
+
+public class QuantileSketch {
+
+	// Values are counted in buckets whose bounds grow by this factor, so any quantile is within 1% of the true value.
+	private static final double RELATIVE_ACCURACY = 0.01;
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	// Values below this are counted as zero; no metric read from Cassandra is that small and still meaningful.
+	private static final double MINIMUM_VALUE = 1e-9;
+
+	private static final int INITIAL_BUCKETS = 64;
+
+	private int[] counts = new int[INITIAL_BUCKETS];
+	private int offset;
+	private boolean empty = true;
+
+	private long zeroCount;
+	private long count;
+
+
+	/**
+	 * Count a value. Values at or below zero are counted as zero.
+	 *
+	 * @param value The value; NaN is ignored.
+	 */
+	public void add(double value) {
+		update(value, 1);
+	}
+
+
+	/**
+	 * Stop counting a value that was added before, such as one that has left a rolling window.
+	 *
+	 * @param value The value, exactly as it was added.
+	 */
+	public void remove(double value) {
+		update(value, -1);
+	}
+
+
+	private void update(double value, int delta) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+
+		count += delta;
+
+		if (value < MINIMUM_VALUE) {
+			zeroCount += delta;
+			return;
+		}
+
+		int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+
+		if (empty) {
+			// Centre the first value, so the buckets can grow either way before the array has to.
+			offset = index - counts.length / 2;
+			empty = false;
+		} else if (index < offset || index >= offset + counts.length) {
+			grow(index);
+		}
+
+		counts[index - offset] += delta;
+	}
+
+
+	/**
+	 * Make room for the given bucket, doubling the array until it fits.
+	 */
+	private void grow(int index) {
+		int low = Math.min(offset, index);
+		int high = Math.max(offset + counts.length - 1, index);
+		int length = counts.length;
+
+		while (length < high - low + 1) {
+			length *= 2;
+		}
+
+		// Leave the new room on the side that needed it.
+		int newOffset = index < offset ? high - length + 1 : low;
+
+		int[] newCounts = new int[length];
+		System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+
+		counts = newCounts;
+		offset = newOffset;
+	}
+
+
+	/**
+	 * Get the value at the given quantile of the values counted.
+	 *
+	 * @param quantile The quantile, from 0 to 1 (0.95 for the 95th percentile).
+	 * @return double The value, within 1% of the true value, or NaN if nothing is counted.
+	 */
+	public double getQuantile(double quantile) {
+		if (count <= 0) {
+			return Double.NaN;
+		}
+
+		long rank = (long) Math.ceil(quantile * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+
+		long seen = zeroCount;
+		if (seen >= rank) {
+			return 0;
+		}
+
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+
+			if (seen >= rank) {
+				// The middle of the bucket (GAMMA^(index - 1), GAMMA^index] in relative terms.
+				return 2 * Math.pow(GAMMA, i + offset) / (GAMMA + 1);
+			}
+		}
+
+		return Double.NaN;
+	}
+
+
+	/**
+	 * Get the largest difference between the cumulative distributions of the values counted by two sketches
+	 * (the Kolmogorov-Smirnov statistic), compared at every bucket bound.
+	 *
+	 * @param first The first sketch.
+	 * @param second The second sketch.
+	 * @return double The difference, from 0 (the same distribution) to 1, or NaN if either sketch is empty.
+	 */
+	public static double getMaximumDistance(QuantileSketch first, QuantileSketch second) {
+		if (first.count <= 0 || second.count <= 0) {
+			return Double.NaN;
+		}
+
+		long firstSeen = first.zeroCount;
+		long secondSeen = second.zeroCount;
+		double distance = Math.abs((double) firstSeen / first.count - (double) secondSeen / second.count);
+
+		int low = Math.min(first.offset, second.offset);
+		int high = Math.max(first.offset + first.counts.length, second.offset + second.counts.length);
+
+		for (int index = low; index < high; index++) {
+			firstSeen += first.countAt(index);
+			secondSeen += second.countAt(index);
+			distance = Math.max(distance, Math.abs((double) firstSeen / first.count - (double) secondSeen / second.count));
+		}
+
+		return distance;
+	}
+
+
+	private int countAt(int index) {
+		return empty || index < offset || index >= offset + counts.length ? 0 : counts[index - offset];
+	}
+
+
+	/**
+	 * Get the number of values counted.
+	 *
+	 * @return long The count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+
+	/**
+	 * Forget every value counted.
+	 */
+	public void clear() {
+		Arrays.fill(counts, 0);
+		zeroCount = 0;
+		count = 0;
+		empty = true;
+	}
+
+}
@@ -0,0 +1,357 @@
+package general;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Replays a recording written by RecordingWriter. The file is memory mapped and only the blocks that overlap the
+ * requested time range are decoded, so a slice of a day-long recording reads in milliseconds.
+ */
+public class RecordingReader implements Closeable {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+
+	private final String node;
+	private final List<MetricDefinition> columns;
+
+	// The offset, first and last timestamp and row count of each block, in time order.
+	private final long[] blockOffsets;
+	private final long[] blockFirstTimestamps;
+	private final long[] blockLastTimestamps;
+	private final int[] blockRows;
+	private final long rowCount;
+
+
+	/**
+	 * Open a recording. A recording whose writer was not closed, such as after a crash, is read up to its last whole block.
+	 *
+	 * @param file The file to read.
+	 * @throws IOException If the file is not a recording, or is larger than 2 GB.
+	 */
+	public RecordingReader(Path file) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting RecordingReader '" + file + "'...");
+
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Recording '" + file + "' is larger than 2 GB and cannot be mapped.");
+			}
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if (size < 10 || buffer.getInt(0) != RecordingWriter.MAGIC) {
+				throw new IOException("'" + file + "' is not a recording.");
+			}
+			if (buffer.getShort(4) != RecordingWriter.VERSION) {
+				throw new IOException("Recording '" + file + "' has the unknown version " + buffer.getShort(4) + ".");
+			}
+
+			int headerLength = buffer.getInt(6);
+			byte[] header = new byte[headerLength];
+			ByteBuffer headerBuffer = buffer.duplicate();
+			headerBuffer.position(10);
+			headerBuffer.get(header);
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+			String nodeName = in.readUTF();
+			this.node = nodeName.isEmpty() ? null : nodeName;
+			this.columns = Collections.unmodifiableList(readColumns(in));
+
+			List<long[]> blocks = hasFooter(size) ? readIndex(size) : scanBlocks(10 + headerLength, size);
+
+			this.blockOffsets = new long[blocks.size()];
+			this.blockFirstTimestamps = new long[blocks.size()];
+			this.blockLastTimestamps = new long[blocks.size()];
+			this.blockRows = new int[blocks.size()];
+
+			long rows = 0;
+			for (int b = 0; b < blocks.size(); b++) {
+				long[] block = blocks.get(b);
+				blockOffsets[b] = block[0];
+				blockFirstTimestamps[b] = block[1];
+				blockLastTimestamps[b] = block[2];
+				blockRows[b] = (int) block[3];
+				rows += block[3];
+			}
+			this.rowCount = rows;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		logger.info("Opened recording of " + rowCount + " samples of " + columns.size() + " metrics in " + blockOffsets.length + " blocks.");
+	}
+
+
+	private static List<MetricDefinition> readColumns(DataInputStream in) throws IOException {
+		int columnCount = in.readInt();
+		List<MetricDefinition> columns = new ArrayList<>(columnCount);
+		List<String> noMBeans = new ArrayList<>();
+
+		for (int column = 0; column < columnCount; column++) {
+			String id = in.readUTF();
+			String attribute = in.readUTF();
+			MetricDefinition.Type type = MetricDefinition.Type.values()[in.readByte()];
+			boolean counter = in.readBoolean();
+			double threshold = in.readDouble();
+			String title = in.readUTF();
+			String description = in.readUTF();
+
+			columns.add(new MetricDefinition(id, noMBeans, attribute, type, MetricDefinition.Aggregation.SUM, counter,
+					Double.isNaN(threshold) ? null : threshold, title, description));
+		}
+
+		return columns;
+	}
+
+
+	private boolean hasFooter(long size) {
+		return size >= RecordingWriter.FOOTER_BYTES && buffer.getInt((int) size - 4) == RecordingWriter.FOOTER_MAGIC;
+	}
+
+
+	private List<long[]> readIndex(long size) {
+		int footer = (int) size - RecordingWriter.FOOTER_BYTES;
+		int blockCount = buffer.getInt(footer);
+		int position = (int) buffer.getLong(footer + 4);
+
+		List<long[]> blocks = new ArrayList<>(blockCount);
+		for (int b = 0; b < blockCount; b++, position += RecordingWriter.INDEX_ENTRY_BYTES) {
+			blocks.add(new long[] { buffer.getLong(position), buffer.getLong(position + 8), buffer.getLong(position + 16), buffer.getInt(position + 24) });
+		}
+
+		return blocks;
+	}
+
+
+	/**
+	 * Find the blocks by walking their headers, for a recording that has no index.
+	 */
+	private List<long[]> scanBlocks(int position, long size) {
+		List<long[]> blocks = new ArrayList<>();
+
+		while (position + RecordingWriter.BLOCK_HEADER_BYTES <= size && buffer.getInt(position) == RecordingWriter.BLOCK_MAGIC) {
+			int payloadLength = buffer.getInt(position + 24);
+			if (position + RecordingWriter.BLOCK_HEADER_BYTES + (long) payloadLength > size) {
+				break;
+			}
+
+			blocks.add(new long[] { position, buffer.getLong(position + 8), buffer.getLong(position + 16), buffer.getInt(position + 4) });
+			position += RecordingWriter.BLOCK_HEADER_BYTES + payloadLength;
+		}
+
+		logger.warn("Recording '" + file + "' was not closed, read " + blocks.size() + " whole blocks without its index.");
+
+		return blocks;
+	}
+
+
+	/**
+	 * Read every sample of the recording.
+	 *
+	 * @return MetricSeries The samples, tagged with the node they were recorded from.
+	 */
+	public MetricSeries read() {
+		return read(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+
+	/**
+	 * Read the samples of the recording taken within the given times.
+	 *
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @return MetricSeries The samples, tagged with the node they were recorded from.
+	 */
+	public MetricSeries read(long from, long to) {
+		MetricSeries series = new MetricSeries(columns, node);
+
+		read(from, to, series::append);
+
+		return series;
+	}
+
+
+	/**
+	 * Hand the samples of the recording taken within the given times to the handler, a block at a time.
+	 *
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param handler Receives the samples in time order.
+	 * @return long The number of samples read.
+	 */
+	public long read(long from, long to, SampleHandler handler) {
+		long samples = 0;
+
+		long[] timestamps = new long[RecordingWriter.BLOCK_ROWS];
+		double[][] values = new double[columns.size()][RecordingWriter.BLOCK_ROWS];
+		double[] sample = new double[columns.size()];
+
+		for (int b = findFirstBlock(from); b < blockOffsets.length && blockFirstTimestamps[b] <= to; b++) {
+			int rows = decodeBlock(b, timestamps, values);
+
+			for (int row = 0; row < rows; row++) {
+				if (timestamps[row] < from || timestamps[row] > to) {
+					continue;
+				}
+
+				for (int column = 0; column < sample.length; column++) {
+					sample[column] = values[column][row];
+				}
+				handler.accept(timestamps[row], sample);
+				samples++;
+			}
+		}
+
+		return samples;
+	}
+
+
+	/**
+	 * Find the first block that may hold a sample at or after the given time.
+	 */
+	private int findFirstBlock(long from) {
+		int low = 0;
+		int high = blockOffsets.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (blockLastTimestamps[middle] < from) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+
+	private int decodeBlock(int block, long[] timestamps, double[][] values) {
+		int position = (int) blockOffsets[block];
+		int rows = buffer.getInt(position + 4);
+		BitInput bits = new BitInput(buffer, position + RecordingWriter.BLOCK_HEADER_BYTES);
+
+		timestamps[0] = buffer.getLong(position + 8);
+		long delta = 0;
+		for (int row = 1; row < rows; row++) {
+			delta += readDeltaOfDelta(bits);
+			timestamps[row] = timestamps[row - 1] + delta;
+		}
+
+		for (double[] column : values) {
+			readValues(bits, column, rows);
+		}
+
+		return rows;
+	}
+
+
+	private static long readDeltaOfDelta(BitInput bits) {
+		if (!bits.readBit()) {
+			return 0;
+		}
+		if (!bits.readBit()) {
+			return bits.readBits(7) - 63;
+		}
+		if (!bits.readBit()) {
+			return bits.readBits(9) - 255;
+		}
+		if (!bits.readBit()) {
+			return bits.readBits(12) - 2047;
+		}
+		return bits.readBits(64);
+	}
+
+
+	private static void readValues(BitInput bits, double[] column, int rows) {
+		long previous = bits.readBits(64);
+		column[0] = Double.longBitsToDouble(previous);
+
+		int leading = 0;
+		int trailing = 0;
+
+		for (int row = 1; row < rows; row++) {
+			if (bits.readBit()) {
+				if (bits.readBit()) {
+					leading = (int) bits.readBits(5);
+					int meaningful = (int) bits.readBits(6) + 1;
+					trailing = 64 - leading - meaningful;
+				}
+
+				previous ^= bits.readBits(64 - leading - trailing) << trailing;
+			}
+
+			column[row] = Double.longBitsToDouble(previous);
+		}
+	}
+
+
+	public String getNode() {
+		return node;
+	}
+
+	public List<MetricDefinition> getColumns() {
+		return columns;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public int getBlockCount() {
+		return blockOffsets.length;
+	}
+
+
+	/**
+	 * Get the time of the first sample.
+	 *
+	 * @return long The time in epoch milliseconds, or Long.MIN_VALUE if the recording is empty.
+	 */
+	public long getStartTime() {
+		return blockOffsets.length == 0 ? Long.MIN_VALUE : blockFirstTimestamps[0];
+	}
+
+
+	/**
+	 * Get the time of the last sample.
+	 *
+	 * @return long The time in epoch milliseconds, or Long.MIN_VALUE if the recording is empty.
+	 */
+	public long getEndTime() {
+		return blockOffsets.length == 0 ? Long.MIN_VALUE : blockLastTimestamps[blockOffsets.length - 1];
+	}
+
+
+	/**
+	 * Close the file. The mapping is released when the reader is garbage collected.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
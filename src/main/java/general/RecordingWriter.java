@@ -0,0 +1,323 @@
+package general;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Appends samples to a compact binary recording, which RecordingReader replays.
+ *
+ * <p>The file is a header describing the columns, then blocks of up to BLOCK_ROWS samples, then an index of the blocks.
+ * Within a block the timestamps are stored as deltas of deltas and each column as the XOR of each value with the one
+ * before it (as in Facebook's Gorilla), so a regular sample period and slowly changing metrics take a few bits per value.
+ * Each block is written as soon as it is full, so a run that dies loses at most the last block; the reader finds the
+ * blocks without the index in that case.</p>
+ */
+public class RecordingWriter implements Closeable {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	static final int MAGIC = 0x4A4D5852; // JMXR
+	static final short VERSION = 1;
+	static final int BLOCK_MAGIC = 0x424C4B31; // BLK1
+	static final int FOOTER_MAGIC = 0x454E4431; // END1
+
+	// The block header: magic, row count, first and last timestamp, payload length.
+	static final int BLOCK_HEADER_BYTES = 4 + 4 + 8 + 8 + 4;
+	// The index entry of each block: offset, first and last timestamp, row count.
+	static final int INDEX_ENTRY_BYTES = 8 + 8 + 8 + 4;
+	// The footer: block count, index offset, magic.
+	static final int FOOTER_BYTES = 4 + 8 + 4;
+
+	static final int BLOCK_ROWS = 1024;
+
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH:mm:ss");
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int columnCount;
+
+	// The samples of the block being filled.
+	private final long[] timestamps = new long[BLOCK_ROWS];
+	private final double[][] values;
+	private int rows;
+
+	private final BitOutput bits = new BitOutput();
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+
+	private final List<long[]> index = new ArrayList<>();
+	private long rowsWritten;
+
+	// The rows of the series given to record() that are already in the recording.
+	private int recordedRows;
+
+
+	/**
+	 * Create a recording, replacing any file of the same name.
+	 *
+	 * @param file The file to write.
+	 * @param columns The metrics recorded, in column order.
+	 * @param node The host the samples are read from, or null for the single node named by nodeIp.
+	 * @throws IOException
+	 */
+	public RecordingWriter(Path file, List<MetricDefinition> columns, String node) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting RecordingWriter '" + file + "'...");
+
+		this.file = file;
+		this.columnCount = columns.size();
+		this.values = new double[columnCount][BLOCK_ROWS];
+
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+		writeFully(ByteBuffer.wrap(encodeHeader(columns, node)));
+	}
+
+
+	/**
+	 * Create a recording of the given series in the recordingDir directory, named like the charts.
+	 *
+	 * @param series The series to be recorded; only its columns and node are used here.
+	 * @param passedName The start of the file name, such as TestScreen.
+	 * @return RecordingWriter The writer, or null if recordingDir is empty and nothing is to be recorded.
+	 * @throws IOException
+	 */
+	public static RecordingWriter create(MetricSeries series, String passedName) throws IOException {
+		String recordingDir = LoadPropertiesFile.getProperty("recordingDir");
+
+		if (recordingDir == null || recordingDir.trim().isEmpty()) {
+			return null;
+		}
+
+		String name = passedName + "_" + (series.getNode() == null ? "" : series.getNode().replace(':', '_') + "_")
+				+ FILE_DATE.format(LocalDateTime.now()) + ".jmxr";
+
+		return new RecordingWriter(Paths.get(recordingDir.trim(), name), series.getColumns(), series.getNode());
+	}
+
+
+	private static byte[] encodeHeader(List<MetricDefinition> columns, String node) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+
+		out.writeUTF(node == null ? "" : node);
+		out.writeInt(columns.size());
+		for (MetricDefinition column : columns) {
+			Double threshold = column.getThreshold();
+
+			out.writeUTF(column.getId());
+			out.writeUTF(column.getAttribute());
+			out.writeByte(column.getType().ordinal());
+			out.writeBoolean(column.isCounter());
+			out.writeDouble(threshold == null ? Double.NaN : threshold);
+			out.writeUTF(column.getTitle());
+			out.writeUTF(column.getDescription());
+		}
+		out.flush();
+
+		// The magic, version and length come first, so the reader can find the first block without parsing the columns.
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + 4 + header.size());
+		buffer.putInt(MAGIC).putShort(VERSION).putInt(header.size()).put(header.toByteArray());
+
+		return buffer.array();
+	}
+
+
+	/**
+	 * Append a sample.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds, no earlier than the previous sample.
+	 * @param sample The value of each column; NaN for a missing value.
+	 * @throws IOException
+	 */
+	public void append(long timestamp, double[] sample) throws IOException {
+		timestamps[rows] = timestamp;
+		for (int column = 0; column < columnCount; column++) {
+			values[column][rows] = column < sample.length ? sample[column] : Double.NaN;
+		}
+		rows++;
+
+		if (rows == BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+
+	/**
+	 * Append the rows of the given series that have not been recorded yet. Call it from the thread that appends to the
+	 * series, or soon after each append, before the rows can be released.
+	 *
+	 * @param series The series, with the same columns as the recording.
+	 * @throws IOException
+	 */
+	public void record(MetricSeries series) throws IOException {
+		int size = series.size();
+
+		for (int row = recordedRows; row < size; row++) {
+			timestamps[rows] = series.getTimestamp(row);
+			for (int column = 0; column < columnCount; column++) {
+				values[column][rows] = series.getDouble(row, column);
+			}
+			rows++;
+
+			if (rows == BLOCK_ROWS) {
+				writeBlock();
+			}
+		}
+
+		recordedRows = size;
+	}
+
+
+	private void writeBlock() throws IOException {
+		bits.reset();
+
+		// Timestamps: the first is in the block header, then each delta as its difference from the delta before.
+		long previousDelta = 0;
+		for (int row = 1; row < rows; row++) {
+			long delta = timestamps[row] - timestamps[row - 1];
+			writeDeltaOfDelta(delta - previousDelta);
+			previousDelta = delta;
+		}
+
+		for (int column = 0; column < columnCount; column++) {
+			writeValues(values[column]);
+		}
+
+		int payloadLength = bits.finish();
+
+		blockHeader.clear();
+		blockHeader.putInt(BLOCK_MAGIC).putInt(rows).putLong(timestamps[0]).putLong(timestamps[rows - 1]).putInt(payloadLength);
+		blockHeader.flip();
+
+		long offset = channel.position();
+		writeFully(blockHeader);
+		writeFully(ByteBuffer.wrap(bits.getBytes(), 0, payloadLength));
+
+		index.add(new long[] { offset, timestamps[0], timestamps[rows - 1], rows });
+		rowsWritten += rows;
+		rows = 0;
+	}
+
+
+	private void writeDeltaOfDelta(long deltaOfDelta) {
+		if (deltaOfDelta == 0) {
+			bits.writeBits(0b0, 1);
+		} else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+			bits.writeBits(0b10, 2);
+			bits.writeBits(deltaOfDelta + 63, 7);
+		} else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+			bits.writeBits(0b110, 3);
+			bits.writeBits(deltaOfDelta + 255, 9);
+		} else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+			bits.writeBits(0b1110, 4);
+			bits.writeBits(deltaOfDelta + 2047, 12);
+		} else {
+			bits.writeBits(0b1111, 4);
+			bits.writeBits(deltaOfDelta, 64);
+		}
+	}
+
+
+	private void writeValues(double[] column) {
+		long previous = Double.doubleToRawLongBits(column[0]);
+		bits.writeBits(previous, 64);
+
+		// The window of meaningful bits of the previous XOR, reused while the next XOR fits inside it.
+		int previousLeading = -1;
+		int previousTrailing = 0;
+
+		for (int row = 1; row < rows; row++) {
+			long current = Double.doubleToRawLongBits(column[row]);
+			long xor = current ^ previous;
+			previous = current;
+
+			if (xor == 0) {
+				bits.writeBits(0b0, 1);
+				continue;
+			}
+
+			int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int trailing = Long.numberOfTrailingZeros(xor);
+
+			if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+				bits.writeBits(0b10, 2);
+				bits.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+			} else {
+				int meaningful = 64 - leading - trailing;
+
+				bits.writeBits(0b11, 2);
+				bits.writeBits(leading, 5);
+				bits.writeBits(meaningful - 1, 6);
+				bits.writeBits(xor >>> trailing, meaningful);
+
+				previousLeading = leading;
+				previousTrailing = trailing;
+			}
+		}
+	}
+
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+
+	/**
+	 * Get the number of samples appended so far.
+	 *
+	 * @return long The number of samples.
+	 */
+	public long getRowCount() {
+		return rowsWritten + rows;
+	}
+
+
+	/**
+	 * Write the last block and the index of the blocks, and close the file.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (rows > 0) {
+				writeBlock();
+			}
+
+			long indexOffset = channel.position();
+			ByteBuffer footer = ByteBuffer.allocate(index.size() * INDEX_ENTRY_BYTES + FOOTER_BYTES);
+			for (long[] entry : index) {
+				footer.putLong(entry[0]).putLong(entry[1]).putLong(entry[2]).putInt((int) entry[3]);
+			}
+			footer.putInt(index.size()).putLong(indexOffset).putInt(FOOTER_MAGIC);
+			footer.flip();
+			writeFully(footer);
+
+			logger.info("Recorded " + rowsWritten + " samples of " + columnCount + " metrics in " + index.size() + " blocks, "
+					+ channel.size() + " bytes, to '" + file + "'.");
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+package general;
+
+public class RollingStatistics {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final long windowMillis;
+
+	// The samples in the window, oldest first, in a ring addressed by sequence number.
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+	private double[] values = new double[INITIAL_CAPACITY];
+	private long first;
+	private long next;
+
+	// The sequence numbers of the samples that may still become the minimum or maximum, in the same ring layout.
+	// Each sample enters and leaves each queue once, so keeping them is O(1) per sample on average.
+	private long[] minimumQueue = new long[INITIAL_CAPACITY];
+	private long[] maximumQueue = new long[INITIAL_CAPACITY];
+	private long minimumFirst;
+	private long minimumNext;
+	private long maximumFirst;
+	private long maximumNext;
+
+	private final QuantileSketch sketch = new QuantileSketch();
+	private double sum;
+
+	private double ewma = Double.NaN;
+	private long ewmaTimestamp;
+
+	private long lastTimestamp = Long.MIN_VALUE;
+
+
+	/**
+	 * Create rolling statistics over the samples of the given length of time.
+	 *
+	 * @param windowMillis The length of the window in milliseconds.
+	 */
+	public RollingStatistics(long windowMillis) {
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("The window must be longer than zero, not " + windowMillis + " ms.");
+		}
+
+		this.windowMillis = windowMillis;
+	}
+
+
+	/**
+	 * Add a sample, dropping the samples that have left the window.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds, no earlier than the previous sample.
+	 * @param value The value; NaN (missing) only moves the window on.
+	 */
+	public void add(long timestamp, double value) {
+		lastTimestamp = timestamp;
+		evictBefore(timestamp - windowMillis);
+
+		if (Double.isNaN(value)) {
+			return;
+		}
+
+		if (next - first == timestamps.length) {
+			grow();
+		}
+
+		int slot = slot(next);
+		timestamps[slot] = timestamp;
+		values[slot] = value;
+
+		sum += value;
+		sketch.add(value);
+
+		while (minimumNext > minimumFirst && values[slot(minimumQueue[slot(minimumNext - 1)])] >= value) {
+			minimumNext--;
+		}
+		minimumQueue[slot(minimumNext++)] = next;
+
+		while (maximumNext > maximumFirst && values[slot(maximumQueue[slot(maximumNext - 1)])] <= value) {
+			maximumNext--;
+		}
+		maximumQueue[slot(maximumNext++)] = next;
+
+		next++;
+
+		// The smoothing fades each sample with a time constant of the window, however irregular the samples are.
+		if (Double.isNaN(ewma)) {
+			ewma = value;
+		} else {
+			double alpha = 1 - Math.exp(-(double) (timestamp - ewmaTimestamp) / windowMillis);
+			ewma += alpha * (value - ewma);
+		}
+		ewmaTimestamp = timestamp;
+	}
+
+
+	private void evictBefore(long cutoff) {
+		while (first < next && timestamps[slot(first)] <= cutoff) {
+			double value = values[slot(first)];
+
+			sum -= value;
+			sketch.remove(value);
+
+			if (minimumNext > minimumFirst && minimumQueue[slot(minimumFirst)] == first) {
+				minimumFirst++;
+			}
+			if (maximumNext > maximumFirst && maximumQueue[slot(maximumFirst)] == first) {
+				maximumFirst++;
+			}
+
+			first++;
+		}
+
+		if (first == next) {
+			// Start the running sum again, so rounding errors cannot build up over a long run.
+			sum = 0;
+		}
+	}
+
+
+	/**
+	 * Double the ring, keeping every sequence number at its slot in the larger ring.
+	 */
+	private void grow() {
+		int capacity = timestamps.length * 2;
+
+		long[] newTimestamps = new long[capacity];
+		double[] newValues = new double[capacity];
+		long[] newMinimumQueue = new long[capacity];
+		long[] newMaximumQueue = new long[capacity];
+
+		for (long sequence = first; sequence < next; sequence++) {
+			int newSlot = (int) (sequence & (capacity - 1));
+			newTimestamps[newSlot] = timestamps[slot(sequence)];
+			newValues[newSlot] = values[slot(sequence)];
+		}
+		for (long position = minimumFirst; position < minimumNext; position++) {
+			newMinimumQueue[(int) (position & (capacity - 1))] = minimumQueue[slot(position)];
+		}
+		for (long position = maximumFirst; position < maximumNext; position++) {
+			newMaximumQueue[(int) (position & (capacity - 1))] = maximumQueue[slot(position)];
+		}
+
+		timestamps = newTimestamps;
+		values = newValues;
+		minimumQueue = newMinimumQueue;
+		maximumQueue = newMaximumQueue;
+	}
+
+
+	private int slot(long sequence) {
+		return (int) (sequence & (timestamps.length - 1));
+	}
+
+
+	/**
+	 * Get the number of samples in the window.
+	 *
+	 * @return int The number of samples.
+	 */
+	public int getCount() {
+		return (int) (next - first);
+	}
+
+
+	/**
+	 * Get the mean of the samples in the window.
+	 *
+	 * @return double The mean, or NaN if the window is empty.
+	 */
+	public double getMean() {
+		return first == next ? Double.NaN : sum / (next - first);
+	}
+
+
+	/**
+	 * Get the smallest sample in the window.
+	 *
+	 * @return double The minimum, or NaN if the window is empty.
+	 */
+	public double getMinimum() {
+		return first == next ? Double.NaN : values[slot(minimumQueue[slot(minimumFirst)])];
+	}
+
+
+	/**
+	 * Get the largest sample in the window.
+	 *
+	 * @return double The maximum, or NaN if the window is empty.
+	 */
+	public double getMaximum() {
+		return first == next ? Double.NaN : values[slot(maximumQueue[slot(maximumFirst)])];
+	}
+
+
+	/**
+	 * Get the exponentially weighted moving average of every sample so far, fading with a time constant of the window.
+	 *
+	 * @return double The average, or NaN before the first sample.
+	 */
+	public double getEwma() {
+		return ewma;
+	}
+
+
+	/**
+	 * Get how fast the value changed across the window, from the oldest sample to the newest.
+	 *
+	 * @return double The change per second, or NaN with fewer than two samples.
+	 */
+	public double getRatePerSecond() {
+		if (next - first < 2) {
+			return Double.NaN;
+		}
+
+		long oldest = timestamps[slot(first)];
+		long newest = timestamps[slot(next - 1)];
+		if (newest == oldest) {
+			return Double.NaN;
+		}
+
+		return (values[slot(next - 1)] - values[slot(first)]) * 1000.0 / (newest - oldest);
+	}
+
+
+	/**
+	 * Get the value at the given quantile of the samples in the window.
+	 *
+	 * @param quantile The quantile, from 0 to 1 (0.95 for the 95th percentile).
+	 * @return double The value, within 1% of the true value, or NaN if the window is empty.
+	 */
+	public double getQuantile(double quantile) {
+		return sketch.getQuantile(quantile);
+	}
+
+
+	/**
+	 * Get the most recent sample.
+	 *
+	 * @return double The value, or NaN if the window is empty.
+	 */
+	public double getLast() {
+		return first == next ? Double.NaN : values[slot(next - 1)];
+	}
+
+
+	/**
+	 * Get the time of the most recent sample, including missing ones.
+	 *
+	 * @return long The time in epoch milliseconds, or Long.MIN_VALUE before the first sample.
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+}
@@ -0,0 +1,531 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class RunComparison {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	/**
+	 * The outcome of comparing one metric, or the whole run.
+	 */
+	public enum Verdict {
+		IMPROVED, UNCHANGED, REGRESSED, INSUFFICIENT
+	}
+
+	private final Run baseline;
+	private final Run candidate;
+	private final long commonDurationMillis;
+	private final List<MetricComparison> comparisons;
+
+
+	/**
+	 * Compare two runs held in memory metric by metric. The runs are aligned by the time since each first sample, and
+	 * only their common length is compared, so a run that went on longer is not judged on a tail the other does not have.
+	 *
+	 * @param baseline The earlier run, such as last week's build.
+	 * @param candidate The run being judged.
+	 * @param catalog The catalog saying which way each metric is better.
+	 * @param significance The largest p-value at which a difference in distribution is taken as real, such as 0.01.
+	 * @param tolerance The smallest relative change of the median or 95th percentile that matters, such as 0.1 for 10%.
+	 */
+	public RunComparison(MetricSeries baseline, MetricSeries candidate, MetricCatalog catalog, double significance, double tolerance) {
+		this(new Run(baseline, Math.min(getDuration(baseline), getDuration(candidate))),
+				new Run(candidate, Math.min(getDuration(baseline), getDuration(candidate))), catalog, significance, tolerance);
+	}
+
+
+	/**
+	 * Compare two runs metric by metric, once each has been streamed through its Run. Nothing but the running sums,
+	 * quantile sketches and chart points of each Run is held, however long the runs.
+	 *
+	 * @param baseline The earlier run, such as last week's build.
+	 * @param candidate The run being judged.
+	 * @param catalog The catalog saying which way each metric is better.
+	 * @param significance The largest p-value at which a difference in distribution is taken as real, such as 0.01.
+	 * @param tolerance The smallest relative change of the median or 95th percentile that matters, such as 0.1 for 10%.
+	 */
+	public RunComparison(Run baseline, Run candidate, MetricCatalog catalog, double significance, double tolerance) {
+		logger.info("================================================================================");
+		logger.info("  Starting RunComparison...");
+
+		this.baseline = baseline;
+		this.candidate = candidate;
+		this.commonDurationMillis = Math.min(baseline.durationMillis, candidate.durationMillis);
+
+		// The metrics in both runs, by id, as the runs may have been recorded with different catalogs.
+		List<MetricComparison> compared = new ArrayList<>();
+		for (int b = 0; b < baseline.columns.size(); b++) {
+			for (int c = 0; c < candidate.columns.size(); c++) {
+				String id = baseline.columns.get(b).getId();
+
+				if (id.equals(candidate.columns.get(c).getId())) {
+					compared.add(new MetricComparison(id, b, c, catalog.isHigherBetter(id),
+							baseline.accumulators[b], candidate.accumulators[c], significance, tolerance));
+				}
+			}
+		}
+		this.comparisons = Collections.unmodifiableList(compared);
+	}
+
+
+	private static long getDuration(MetricSeries series) {
+		return series.size() == 0 ? 0 : series.getTimestamp(series.size() - 1) - series.getTimestamp(0);
+	}
+
+
+	/**
+	 * Get the verdict on the whole run: regressed if any metric regressed, improved if any improved and none regressed.
+	 *
+	 * @return Verdict The verdict.
+	 */
+	public Verdict getVerdict() {
+		Verdict verdict = Verdict.UNCHANGED;
+
+		for (MetricComparison comparison : comparisons) {
+			if (comparison.getVerdict() == Verdict.REGRESSED) {
+				return Verdict.REGRESSED;
+			}
+			if (comparison.getVerdict() == Verdict.IMPROVED) {
+				verdict = Verdict.IMPROVED;
+			}
+		}
+
+		return verdict;
+	}
+
+
+	/**
+	 * Log the comparison of every metric and the verdict on the run.
+	 */
+	public void logReport() {
+		logger.info(String.format("Compared %d metrics over the first %.1f s of each run (baseline %d samples, candidate %d samples).",
+				comparisons.size(), commonDurationMillis / 1000.0, baseline.samples, candidate.samples));
+
+		for (MetricComparison comparison : comparisons) {
+			String line = comparison.toString();
+
+			if (comparison.getVerdict() == Verdict.REGRESSED) {
+				logger.warn(line);
+			} else {
+				logger.info(line);
+			}
+		}
+
+		if (getVerdict() == Verdict.REGRESSED) {
+			logger.error("The candidate run regressed against the baseline, see the metrics above.");
+		} else {
+			logger.info("The candidate run is " + getVerdict().name().toLowerCase(Locale.ROOT) + " against the baseline.");
+		}
+	}
+
+
+	public Run getBaseline() {
+		return baseline;
+	}
+
+	public Run getCandidate() {
+		return candidate;
+	}
+
+	public long getCommonDurationMillis() {
+		return commonDurationMillis;
+	}
+
+	public List<MetricComparison> getComparisons() {
+		return comparisons;
+	}
+
+
+	/**
+	 * One run as it is read, sample by sample in time order, from a recording or the database. Only the samples within
+	 * the given time of its start are taken; each is added to the running sums of every metric and to the points kept
+	 * for the chart, so the run itself is never held in memory.
+	 */
+	public static final class Run implements SampleHandler {
+
+		private final List<MetricDefinition> columns;
+		private final long startTime;
+		private final long durationMillis;
+		private final Accumulator[] accumulators;
+
+		// Either the points kept for the chart, or every sample when there is no point budget.
+		private final StreamingDownsampler downsampler;
+		private MetricSeries series;
+
+		private long samples;
+
+
+		/**
+		 * Create a run to stream the samples of a run into.
+		 *
+		 * @param columns The metrics of the samples.
+		 * @param node The host the samples were read from, or null.
+		 * @param startTime The time the run started in epoch milliseconds, which the runs are aligned by.
+		 * @param durationMillis The length of the run to compare, normally the common length of both runs.
+		 * @param pointBudget The most rows to keep for the chart, or 0 to keep every sample.
+		 */
+		public Run(List<MetricDefinition> columns, String node, long startTime, long durationMillis, int pointBudget) {
+			this.columns = columns;
+			this.startTime = startTime;
+			this.durationMillis = durationMillis;
+			this.accumulators = createAccumulators(columns.size());
+
+			if (pointBudget >= 2) {
+				this.downsampler = new StreamingDownsampler(columns, node, startTime, startTime + durationMillis, pointBudget);
+			} else {
+				this.downsampler = null;
+				this.series = new MetricSeries(columns, node);
+			}
+		}
+
+
+		/**
+		 * Summarize a run already held in memory, charting it as it is.
+		 */
+		private Run(MetricSeries series, long durationMillis) {
+			this.columns = series.getColumns();
+			this.startTime = series.size() == 0 ? 0 : series.getTimestamp(0);
+			this.durationMillis = durationMillis;
+			this.accumulators = createAccumulators(columns.size());
+			this.downsampler = null;
+			this.series = series;
+
+			for (int row = 0; row < series.size() && series.getTimestamp(row) - startTime <= durationMillis; row++) {
+				for (int column = 0; column < accumulators.length; column++) {
+					accumulators[column].add(series.getDouble(row, column));
+				}
+				samples++;
+			}
+		}
+
+
+		private static Accumulator[] createAccumulators(int count) {
+			Accumulator[] accumulators = new Accumulator[count];
+			for (int i = 0; i < count; i++) {
+				accumulators[i] = new Accumulator();
+			}
+			return accumulators;
+		}
+
+
+		@Override
+		public void accept(long timestamp, double[] values) {
+			if (timestamp < startTime || timestamp - startTime > durationMillis) {
+				return;
+			}
+
+			for (int column = 0; column < accumulators.length; column++) {
+				accumulators[column].add(values[column]);
+			}
+			samples++;
+
+			if (downsampler != null) {
+				downsampler.accept(timestamp, values);
+			} else {
+				series.append(timestamp, values);
+			}
+		}
+
+
+		/**
+		 * Get the samples to chart: every sample compared, or the points kept of them.
+		 *
+		 * @return MetricSeries The samples in time order.
+		 */
+		public MetricSeries getSeries() {
+			if (series == null) {
+				series = downsampler.getSeries();
+			}
+			return series;
+		}
+
+		public List<MetricDefinition> getColumns() {
+			return columns;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		public long getSampleCount() {
+			return samples;
+		}
+
+	}
+
+
+	/**
+	 * The running sums of one metric of one run.
+	 */
+	private static final class Accumulator {
+
+		private final QuantileSketch sketch = new QuantileSketch();
+		private long count;
+		private double mean;
+		private double sumOfSquares;
+
+		// For the correlation of each sample with the one before, taken from the first value to keep the sums small.
+		private double shift = Double.NaN;
+		private double previous = Double.NaN;
+		private long pairs;
+		private double sumPrevious;
+		private double sumCurrent;
+		private double sumProducts;
+
+		void add(double value) {
+			if (Double.isNaN(value)) {
+				// A gap breaks the chain of neighbouring samples.
+				previous = Double.NaN;
+				return;
+			}
+
+			sketch.add(value);
+
+			count++;
+			double delta = value - mean;
+			mean += delta / count;
+			sumOfSquares += delta * (value - mean);
+
+			if (Double.isNaN(shift)) {
+				shift = value;
+			}
+			double shifted = value - shift;
+			if (!Double.isNaN(previous)) {
+				pairs++;
+				sumPrevious += previous;
+				sumCurrent += shifted;
+				sumProducts += previous * shifted;
+			}
+			previous = shifted;
+		}
+
+		double getVariance() {
+			return count < 2 ? Double.NaN : sumOfSquares / (count - 1);
+		}
+
+		/**
+		 * Get the number of independent samples the samples are worth. Metrics sampled every second are strongly
+		 * correlated with the sample before, so they are treated as a first order autoregressive series.
+		 */
+		double getEffectiveCount() {
+			if (pairs < 2 || !(sumOfSquares > 0)) {
+				return count;
+			}
+
+			double covariance = sumProducts / pairs - (sumPrevious / pairs) * (sumCurrent / pairs);
+			double correlation = Math.max(0, Math.min(0.99, covariance / (sumOfSquares / count)));
+
+			return Math.max(1, count * (1 - correlation) / (1 + correlation));
+		}
+
+	}
+
+
+	/**
+	 * The comparison of one metric between the two runs.
+	 */
+	public static final class MetricComparison {
+
+		private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+		private final String id;
+		private final int baselineColumn;
+		private final int candidateColumn;
+		private final boolean higherIsBetter;
+
+		private final long baselineCount;
+		private final long candidateCount;
+		private final double baselineMean;
+		private final double candidateMean;
+		private final double[] baselinePercentiles = new double[PERCENTILES.length];
+		private final double[] candidatePercentiles = new double[PERCENTILES.length];
+
+		private final double distance;
+		private final double pValue;
+		private final Verdict verdict;
+
+
+		MetricComparison(String id, int baselineColumn, int candidateColumn, boolean higherIsBetter, Accumulator baseline,
+				Accumulator candidate, double significance, double tolerance) {
+			this.id = id;
+			this.baselineColumn = baselineColumn;
+			this.candidateColumn = candidateColumn;
+			this.higherIsBetter = higherIsBetter;
+			this.baselineCount = baseline.count;
+			this.candidateCount = candidate.count;
+			this.baselineMean = baseline.count == 0 ? Double.NaN : baseline.mean;
+			this.candidateMean = candidate.count == 0 ? Double.NaN : candidate.mean;
+
+			for (int p = 0; p < PERCENTILES.length; p++) {
+				baselinePercentiles[p] = baseline.sketch.getQuantile(PERCENTILES[p]);
+				candidatePercentiles[p] = candidate.sketch.getQuantile(PERCENTILES[p]);
+			}
+
+			this.distance = QuantileSketch.getMaximumDistance(baseline.sketch, candidate.sketch);
+
+			double baselineEffective = baseline.getEffectiveCount();
+			double candidateEffective = candidate.getEffectiveCount();
+
+			if (baseline.count < 2 || candidate.count < 2 || Double.isNaN(distance)) {
+				this.pValue = Double.NaN;
+				this.verdict = Verdict.INSUFFICIENT;
+				return;
+			}
+
+			double effective = baselineEffective * candidateEffective / (baselineEffective + candidateEffective);
+			this.pValue = getKolmogorovProbability((Math.sqrt(effective) + 0.12 + 0.11 / Math.sqrt(effective)) * distance);
+
+			// Judge the direction on the median and the 95th percentile, whichever moved further.
+			double medianChange = getRelativeChange(baselinePercentiles[0], candidatePercentiles[0]);
+			double tailChange = getRelativeChange(baselinePercentiles[1], candidatePercentiles[1]);
+			double change = Math.abs(tailChange) >= Math.abs(medianChange) ? tailChange : medianChange;
+
+			if (pValue >= significance || Math.abs(change) <= tolerance) {
+				this.verdict = Verdict.UNCHANGED;
+			} else if ((change > 0) == higherIsBetter) {
+				this.verdict = Verdict.IMPROVED;
+			} else {
+				this.verdict = Verdict.REGRESSED;
+			}
+		}
+
+
+		private static double getRelativeChange(double from, double to) {
+			if (from == to) {
+				return 0;
+			}
+			if (from == 0) {
+				return to > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+			}
+
+			return (to - from) / Math.abs(from);
+		}
+
+
+		/**
+		 * Get the probability of a Kolmogorov-Smirnov statistic at least this large when both runs share a distribution.
+		 */
+		private static double getKolmogorovProbability(double lambda) {
+			if (lambda < 0.2) {
+				return 1;
+			}
+
+			double sign = 2;
+			double sum = 0;
+			double previousTerm = 0;
+
+			for (int k = 1; k <= 100; k++) {
+				double term = sign * Math.exp(-2 * k * k * lambda * lambda);
+				sum += term;
+
+				if (Math.abs(term) <= 0.001 * previousTerm || Math.abs(term) <= 1e-8 * sum) {
+					return Math.max(0, Math.min(1, sum));
+				}
+
+				sign = -sign;
+				previousTerm = Math.abs(term);
+			}
+
+			return 1;
+		}
+
+
+		public String getId() {
+			return id;
+		}
+
+		public int getBaselineColumn() {
+			return baselineColumn;
+		}
+
+		public int getCandidateColumn() {
+			return candidateColumn;
+		}
+
+		public boolean isHigherBetter() {
+			return higherIsBetter;
+		}
+
+		public double getBaselineMean() {
+			return baselineMean;
+		}
+
+		public double getCandidateMean() {
+			return candidateMean;
+		}
+
+
+		/**
+		 * Get a percentile of the baseline run, within 1%.
+		 *
+		 * @param index 0 for the median, 1 for the 95th and 2 for the 99th percentile.
+		 * @return double The value, or NaN if the run has no values.
+		 */
+		public double getBaselinePercentile(int index) {
+			return baselinePercentiles[index];
+		}
+
+
+		/**
+		 * Get a percentile of the candidate run, within 1%.
+		 *
+		 * @param index 0 for the median, 1 for the 95th and 2 for the 99th percentile.
+		 * @return double The value, or NaN if the run has no values.
+		 */
+		public double getCandidatePercentile(int index) {
+			return candidatePercentiles[index];
+		}
+
+
+		/**
+		 * Get the Kolmogorov-Smirnov statistic: the largest difference between the distributions of the two runs.
+		 *
+		 * @return double The difference, from 0 to 1, or NaN if either run has no values.
+		 */
+		public double getDistance() {
+			return distance;
+		}
+
+
+		/**
+		 * Get the probability of a difference this large by chance, allowing for samples being correlated with their neighbours.
+		 *
+		 * @return double The p-value, or NaN if there were too few values.
+		 */
+		public double getPValue() {
+			return pValue;
+		}
+
+		public Verdict getVerdict() {
+			return verdict;
+		}
+
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s %s: mean %s -> %s, p50 %s -> %s, p95 %s -> %s, p99 %s -> %s, D %.3f, p %.4f (%d and %d samples, %s is better)",
+					id, verdict.name().toLowerCase(Locale.ROOT), format(baselineMean), format(candidateMean),
+					format(baselinePercentiles[0]), format(candidatePercentiles[0]), format(baselinePercentiles[1]), format(candidatePercentiles[1]),
+					format(baselinePercentiles[2]), format(candidatePercentiles[2]), distance, pValue, baselineCount, candidateCount,
+					higherIsBetter ? "higher" : "lower");
+		}
+
+
+		private static String format(double value) {
+			return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.2f", value);
+		}
+
+	}
+
+}
@@ -0,0 +1,16 @@
+package general;
+
+/**
+ * Receives samples one at a time as they are read back, so a long run can be processed without holding all of it.
+ */
+public interface SampleHandler {
+
+	/**
+	 * Handle one sample.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param values The value of each metric, NaN where missing. The array may be reused for the next sample.
+	 */
+	void accept(long timestamp, double[] values);
+
+}
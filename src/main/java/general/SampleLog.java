@@ -0,0 +1,54 @@
+package general;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes one line per sample to the samples logger (logs/samples.log in log4j2.xml), to follow a run as it goes or see
+ * the values behind a warning without the debug logging of everything else. The logger is off by default, so nothing is
+ * formatted on the sampling thread; set its level to info to write the lines.
+ */
+public class SampleLog {
+
+	private static final Logger samples = LogManager.getLogger("samples");
+
+	private static final DateTimeFormatter FORMATTED_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+	private SampleLog() {
+	}
+
+
+	/**
+	 * Log a sample, if the samples logger is enabled.
+	 *
+	 * @param node The host the sample was read from, or null for the single node named by nodeIp.
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param columns The metrics, in the order of the values.
+	 * @param values The value of each metric.
+	 * @param collectionLatencyNanos How long reading the sample took, or -1 if not known.
+	 */
+	public static void log(String node, long timestamp, MetricCatalog columns, double[] values, long collectionLatencyNanos) {
+		if (!samples.isInfoEnabled()) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder(32 + values.length * 24);
+		sb.append(FORMATTED_DATE.format(Instant.ofEpochMilli(timestamp)));
+		if (node != null) {
+			sb.append(" node=").append(node);
+		}
+		for (int i = 0; i < values.length; i++) {
+			sb.append(' ').append(columns.get(i).getId()).append('=').append(columns.get(i).format(values[i]));
+		}
+		if (collectionLatencyNanos >= 0) {
+			sb.append(String.format(" collectionLatencyMs=%.3f", collectionLatencyNanos / 1e6));
+		}
+
+		samples.info(sb.toString());
+	}
+
+}
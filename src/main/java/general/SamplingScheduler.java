@@ -0,0 +1,198 @@
+package general;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class SamplingScheduler {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Instrumentation.QueueDepth LOG_QUEUE = Instrumentation.getQueue("logEvents");
+
+	// May be retuned during a run by setPeriod.
+	private volatile long periodMillis;
+
+	// The wall-clock time of the next tick, always a multiple of the period. Only used by the sampling thread.
+	private long nextTick;
+	private volatile boolean realign;
+
+	private long ticks;
+	private long missedTicks;
+	private long totalJitterMillis;
+	private long maximumJitterMillis;
+
+	private ScheduledExecutorService progressExecutor;
+
+
+	/**
+	 * Create a scheduler that ticks every given period, on wall-clock boundaries that are a multiple of the period
+	 * (every whole second for 1000 ms), so samples taken on different nodes or in different runs line up.
+	 *
+	 * @param periodMillis The time between ticks in milliseconds.
+	 */
+	public SamplingScheduler(long periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("The sampling period must be positive, got " + periodMillis + " ms.");
+		}
+
+		this.periodMillis = periodMillis;
+		this.nextTick = alignUp(System.currentTimeMillis());
+	}
+
+
+	/**
+	 * Change the time between ticks, such as when querySleepInterval is changed during a run.
+	 * The ticks move onto the new wall-clock boundaries from the next tick on.
+	 *
+	 * @param newPeriodMillis The time between ticks in milliseconds.
+	 */
+	public void setPeriod(long newPeriodMillis) {
+		if (newPeriodMillis <= 0) {
+			logger.error("Ignoring the sampling period of " + newPeriodMillis + " ms, it must be positive.");
+			return;
+		}
+		if (newPeriodMillis == periodMillis) {
+			return;
+		}
+
+		logger.info("Sampling every " + newPeriodMillis + " ms from the next tick on.");
+		periodMillis = newPeriodMillis;
+		realign = true;
+	}
+
+
+	/**
+	 * Wait for the next tick. The ticks are at a fixed rate, so the time spent collecting between ticks does not
+	 * push the following ticks back. Should collection overrun whole periods, the ticks it overran are counted
+	 * as missed and skipped rather than run back to back.
+	 *
+	 * @return long The scheduled time of the tick in epoch milliseconds, to be used as the sample timestamp.
+	 * @throws InterruptedException
+	 */
+	public long awaitNextTick() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		long period = periodMillis;
+
+		if (realign) {
+			realign = false;
+			nextTick = alignUp(now);
+		}
+
+		if (now >= nextTick + period) {
+			long late = now - nextTick;
+			long missed = late / period;
+			nextTick += missed * period;
+			recordMissed(missed);
+			Instrumentation.add(Instrumentation.Counter.TICKS_MISSED, missed);
+
+			logger.warn("Sampling fell behind by " + late + " ms, skipped " + missed + " ticks.");
+		}
+
+		while (now < nextTick) {
+			Thread.sleep(nextTick - now);
+			now = System.currentTimeMillis();
+		}
+
+		long tick = nextTick;
+		nextTick += period;
+		recordTick(now - tick);
+
+		long queuedEvents = LogQueuePolicy.getQueuedEvents();
+		if (queuedEvents >= 0) {
+			LOG_QUEUE.update(queuedEvents);
+		}
+
+		return tick;
+	}
+
+
+	private synchronized void recordMissed(long missed) {
+		missedTicks += missed;
+	}
+
+
+	private synchronized void recordTick(long jitterMillis) {
+		ticks++;
+		totalJitterMillis += jitterMillis;
+		if (jitterMillis > maximumJitterMillis) {
+			maximumJitterMillis = jitterMillis;
+		}
+	}
+
+
+	/**
+	 * Log how long we have been waiting on the given name, and how well the ticks are keeping time, on a timer of its own.
+	 *
+	 * @param startTime The time the wait started in epoch milliseconds.
+	 * @param name The name of what we are waiting on.
+	 * @param reportIntervalMillis The time between reports in milliseconds.
+	 */
+	public synchronized void startProgressReport(long startTime, String name, long reportIntervalMillis) {
+		if (progressExecutor != null) {
+			return;
+		}
+
+		progressExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "progress-report");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		progressExecutor.scheduleAtFixedRate(() -> {
+			Miscellaneous.reportWaitTime(startTime, name);
+			logger.info(describe());
+			reportLogging();
+		}, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Stop the progress report and log the tick statistics.
+	 */
+	public synchronized void close() {
+		if (progressExecutor != null) {
+			progressExecutor.shutdownNow();
+			progressExecutor = null;
+		}
+
+		logger.info(describe());
+		reportLogging();
+	}
+
+
+	private static void reportLogging() {
+		String logging = LogQueuePolicy.describe();
+		if (logging != null) {
+			logger.info(logging);
+		}
+	}
+
+
+	private long alignUp(long time) {
+		return ((time + periodMillis - 1) / periodMillis) * periodMillis;
+	}
+
+
+	private synchronized String describe() {
+		return String.format("Sampled %d ticks every %d ms, %d ticks missed, jitter mean %.1f ms, max %d ms.",
+				ticks, periodMillis, missedTicks, ticks == 0 ? 0.0 : (double) totalJitterMillis / ticks, maximumJitterMillis);
+	}
+
+
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	public synchronized long getMissedTicks() {
+		return missedTicks;
+	}
+
+	public synchronized long getMaximumJitterMillis() {
+		return maximumJitterMillis;
+	}
+
+}
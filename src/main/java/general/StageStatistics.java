@@ -0,0 +1,63 @@
+package general;
+
+/**
+ * The timing of one pipeline stage at a moment, as reported by Instrumentation.
+ */
+public class StageStatistics {
+
+	private final String name;
+	private final long count;
+	private final double totalMillis;
+	private final double meanMillis;
+	private final double medianMillis;
+	private final double p99Millis;
+	private final double maximumMillis;
+
+
+	StageStatistics(String name, long count, double totalMillis, double medianMillis, double p99Millis, double maximumMillis) {
+		this.name = name;
+		this.count = count;
+		this.totalMillis = totalMillis;
+		this.meanMillis = count == 0 ? 0 : totalMillis / count;
+		this.medianMillis = medianMillis;
+		this.p99Millis = p99Millis;
+		this.maximumMillis = maximumMillis;
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d calls, total %.1f ms, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+				name, count, totalMillis, meanMillis, medianMillis, p99Millis, maximumMillis);
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public double getMedianMillis() {
+		return medianMillis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaximumMillis() {
+		return maximumMillis;
+	}
+
+}
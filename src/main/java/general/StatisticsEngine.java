@@ -0,0 +1,163 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class StatisticsEngine {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private final String node;
+	private final RollingStatistics[] statistics;
+	private final List<ThresholdRule> rules;
+
+	// The rules on each column, so a sample only evaluates the rules on the metrics it updates.
+	private final ThresholdRule[][] columnRules;
+
+	private long lastTimestamp = Long.MIN_VALUE;
+
+
+	/**
+	 * Create an engine that keeps rolling statistics of every metric in the catalog and evaluates the given rules on each sample.
+	 *
+	 * @param catalog The metrics sampled, in column order.
+	 * @param node The host the samples are read from, or null for the single node named by nodeIp.
+	 * @param windowMillis The length of the rolling window in milliseconds.
+	 * @param rules The threshold rules, as parsed by ThresholdRule.parse against the same catalog.
+	 */
+	public StatisticsEngine(MetricCatalog catalog, String node, long windowMillis, List<ThresholdRule> rules) {
+		this.node = node;
+		this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+		this.statistics = new RollingStatistics[catalog.size()];
+		this.columnRules = new ThresholdRule[catalog.size()][];
+
+		for (int column = 0; column < statistics.length; column++) {
+			statistics[column] = new RollingStatistics(windowMillis);
+
+			List<ThresholdRule> onColumn = new ArrayList<>();
+			for (ThresholdRule rule : rules) {
+				if (rule.getColumn() == column) {
+					onColumn.add(rule);
+				}
+			}
+			columnRules[column] = onColumn.toArray(new ThresholdRule[0]);
+		}
+	}
+
+
+	/**
+	 * Create an engine for the default catalog, with the window given by statisticsWindow and the rules given by thresholdRules.
+	 * Each node gets its own engine, as the rules track how long each node has been in breach.
+	 *
+	 * @param node The host the samples are read from, or null for the single node named by nodeIp.
+	 * @return StatisticsEngine The engine.
+	 */
+	public static StatisticsEngine create(String node) {
+		MetricCatalog catalog = MetricCatalog.getDefault();
+
+		return new StatisticsEngine(catalog, node, LoadPropertiesFile.getLong("statisticsWindow"),
+				ThresholdRule.parse(LoadPropertiesFile.getProperty("thresholdRules"), catalog));
+	}
+
+
+	/**
+	 * Add a sample to the rolling statistics and evaluate the rules on it.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param values The value of each metric in catalog order; NaN where it is missing.
+	 */
+	public synchronized void update(long timestamp, double[] values) {
+		// A sample out of order (the jmxterm clock only has whole seconds) is left out rather than breaking the windows.
+		if (timestamp < lastTimestamp) {
+			return;
+		}
+		lastTimestamp = timestamp;
+
+		for (int column = 0; column < statistics.length && column < values.length; column++) {
+			statistics[column].add(timestamp, values[column]);
+
+			for (ThresholdRule rule : columnRules[column]) {
+				rule.evaluate(statistics[column], timestamp, node);
+			}
+		}
+	}
+
+
+	/**
+	 * Get the rolling statistics of the given metric.
+	 *
+	 * @param column The column index of the metric.
+	 * @return RollingStatistics The statistics.
+	 */
+	public synchronized RollingStatistics getStatistics(int column) {
+		return statistics[column];
+	}
+
+
+	/**
+	 * Get the threshold rules evaluated by this engine.
+	 *
+	 * @return List<ThresholdRule> The rules.
+	 */
+	public List<ThresholdRule> getRules() {
+		return rules;
+	}
+
+
+	/**
+	 * Check whether any rule has been breached during the run.
+	 *
+	 * @return boolean Has a rule been breached?
+	 */
+	public synchronized boolean hasBreaches() {
+		for (ThresholdRule rule : rules) {
+			if (rule.wasBreached()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * End any breach still in progress and log the outcome of every rule, with the final rolling statistics of its metric.
+	 *
+	 * @return boolean Did every rule pass?
+	 */
+	public synchronized boolean close() {
+		logger.info("================================================================================");
+		logger.info("  Starting StatisticsEngine.close" + (node == null ? "" : " for node '" + node + "'") + "...");
+
+		for (ThresholdRule rule : rules) {
+			rule.close(lastTimestamp);
+
+			RollingStatistics metricStatistics = statistics[rule.getColumn()];
+			String summary = String.format("mean %s, min %s, max %s, p95 %s over the last %d ms",
+					format(metricStatistics.getMean()), format(metricStatistics.getMinimum()),
+					format(metricStatistics.getMaximum()), format(metricStatistics.getQuantile(0.95)),
+					metricStatistics.getWindowMillis());
+
+			if (rule.wasBreached()) {
+				logger.error("Threshold rule '" + rule.getText() + "' failed: breached " + rule.getBreaches() + " time(s), the longest for "
+						+ rule.getLongestBreachMillis() + " ms (" + summary + ").");
+			} else {
+				logger.info("Threshold rule '" + rule.getText() + "' passed (" + summary + ").");
+			}
+		}
+
+		return !hasBreaches();
+	}
+
+
+	private static String format(double value) {
+		// Rolling statistics of a long metric are not whole numbers, so every metric is shown the same way.
+		return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.2f", value);
+	}
+
+}
@@ -0,0 +1,145 @@
+package general;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces samples to a chartable series as they are read, in any order, keeping memory bounded however long the run.
+ * The time range is cut into pointBudget / 2 equal buckets, and each bucket keeps the minimum and maximum of every
+ * metric; the chart draws them at the first and last sample time of the bucket, in the order they occurred, so peaks
+ * survive and no value is drawn more than one bucket away from its own time.
+ */
+public class StreamingDownsampler implements SampleHandler {
+
+	private final List<MetricDefinition> columns;
+	private final String node;
+	private final long from;
+	private final long to;
+	private final double bucketWidth;
+
+	// Per bucket, the times of its first and last sample.
+	private final long[] firstTimes;
+	private final long[] lastTimes;
+
+	// Per column and bucket, the extremes and when they occurred.
+	private final double[][] minimums;
+	private final double[][] maximums;
+	private final long[][] minimumTimes;
+	private final long[][] maximumTimes;
+
+	private long samples;
+
+
+	/**
+	 * Create a downsampler of the samples taken within the given times.
+	 *
+	 * @param columns The metrics of the samples.
+	 * @param node The host the samples were read from, or null.
+	 * @param from The earliest time in epoch milliseconds, inclusive.
+	 * @param to The latest time in epoch milliseconds, inclusive.
+	 * @param pointBudget The most rows to keep, at least 2.
+	 */
+	public StreamingDownsampler(List<MetricDefinition> columns, String node, long from, long to, int pointBudget) {
+		if (pointBudget < 2 || to < from) {
+			throw new IllegalArgumentException("A streaming downsampler needs a point budget of at least 2 and a time range, not "
+					+ pointBudget + " from " + from + " to " + to + ".");
+		}
+
+		int buckets = pointBudget / 2;
+
+		this.columns = columns;
+		this.node = node;
+		this.from = from;
+		this.to = to;
+		this.bucketWidth = ((double) to - from + 1) / buckets;
+
+		this.firstTimes = new long[buckets];
+		this.lastTimes = new long[buckets];
+		Arrays.fill(firstTimes, Long.MAX_VALUE);
+		Arrays.fill(lastTimes, Long.MIN_VALUE);
+
+		this.minimums = new double[columns.size()][buckets];
+		this.maximums = new double[columns.size()][buckets];
+		this.minimumTimes = new long[columns.size()][buckets];
+		this.maximumTimes = new long[columns.size()][buckets];
+		for (int column = 0; column < columns.size(); column++) {
+			Arrays.fill(minimums[column], Double.NaN);
+			Arrays.fill(maximums[column], Double.NaN);
+		}
+	}
+
+
+	@Override
+	public void accept(long timestamp, double[] values) {
+		if (timestamp < from || timestamp > to) {
+			return;
+		}
+
+		int bucket = Math.min(firstTimes.length - 1, (int) ((timestamp - from) / bucketWidth));
+		firstTimes[bucket] = Math.min(firstTimes[bucket], timestamp);
+		lastTimes[bucket] = Math.max(lastTimes[bucket], timestamp);
+		samples++;
+
+		for (int column = 0; column < columns.size(); column++) {
+			double value = values[column];
+			if (Double.isNaN(value)) {
+				continue;
+			}
+
+			// Of equal values, the earliest is kept, so the order of the reads does not change the chart.
+			double minimum = minimums[column][bucket];
+			if (Double.isNaN(minimum) || value < minimum || (value == minimum && timestamp < minimumTimes[column][bucket])) {
+				minimums[column][bucket] = value;
+				minimumTimes[column][bucket] = timestamp;
+			}
+
+			double maximum = maximums[column][bucket];
+			if (Double.isNaN(maximum) || value > maximum || (value == maximum && timestamp < maximumTimes[column][bucket])) {
+				maximums[column][bucket] = value;
+				maximumTimes[column][bucket] = timestamp;
+			}
+		}
+	}
+
+
+	/**
+	 * Get the reduced samples: up to two rows per bucket that had any, in time order.
+	 *
+	 * @return MetricSeries The series, tagged with the node.
+	 */
+	public MetricSeries getSeries() {
+		MetricSeries series = new MetricSeries(columns, node);
+		double[] first = new double[columns.size()];
+		double[] last = new double[columns.size()];
+
+		for (int bucket = 0; bucket < firstTimes.length; bucket++) {
+			if (firstTimes[bucket] == Long.MAX_VALUE) {
+				continue;
+			}
+
+			for (int column = 0; column < columns.size(); column++) {
+				boolean minimumFirst = minimumTimes[column][bucket] <= maximumTimes[column][bucket];
+				first[column] = minimumFirst ? minimums[column][bucket] : maximums[column][bucket];
+				last[column] = minimumFirst ? maximums[column][bucket] : minimums[column][bucket];
+			}
+
+			series.append(firstTimes[bucket], first);
+			if (lastTimes[bucket] != firstTimes[bucket]) {
+				series.append(lastTimes[bucket], last);
+			}
+		}
+
+		return series;
+	}
+
+
+	/**
+	 * Get the number of samples handled within the time range.
+	 *
+	 * @return long The number of samples.
+	 */
+	public long getSampleCount() {
+		return samples;
+	}
+
+}
@@ -0,0 +1,314 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class ThresholdRule {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// Rules are separated by this character in the thresholdRules property.
+	private static final String RULE_SEPARATOR = ";";
+
+	/**
+	 * The statistic of the rolling window a rule is evaluated against.
+	 */
+	public enum Statistic {
+		VALUE, MEAN, MIN, MAX, EWMA, RATE, QUANTILE
+	}
+
+	/**
+	 * How the statistic is compared with the limit.
+	 */
+	public enum Comparison {
+		GREATER(">"), GREATER_OR_EQUAL(">="), LESS("<"), LESS_OR_EQUAL("<=");
+
+		private final String symbol;
+
+		Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+
+		boolean holds(double value, double limit) {
+			switch (this) {
+			case GREATER:
+				return value > limit;
+			case GREATER_OR_EQUAL:
+				return value >= limit;
+			case LESS:
+				return value < limit;
+			default:
+				return value <= limit;
+			}
+		}
+	}
+
+	private final String text;
+	private final String metricId;
+	private final int column;
+	private final Statistic statistic;
+	private final double quantile;
+	private final Comparison comparison;
+	private final double limit;
+	private final long durationMillis;
+
+	// The time the condition started to hold, or Long.MIN_VALUE while it does not.
+	private long conditionStart = Long.MIN_VALUE;
+	private boolean breached;
+
+	private int breaches;
+	private long longestBreachMillis;
+
+
+	private ThresholdRule(String text, String metricId, int column, Statistic statistic, double quantile, Comparison comparison,
+			double limit, long durationMillis) {
+		this.text = text;
+		this.metricId = metricId;
+		this.column = column;
+		this.statistic = statistic;
+		this.quantile = quantile;
+		this.comparison = comparison;
+		this.limit = limit;
+		this.durationMillis = durationMillis;
+	}
+
+
+	/**
+	 * Parse the rules in the given text, separated by semicolons. Each rule has the form
+	 * {@code <metric> <statistic> <comparison> <limit> [for <duration>]}, such as
+	 * {@code writeLatency95thPercentile p95 > 400 for 30s}. The statistic is value, mean, min, max, ewma, rate (per second)
+	 * or a percentile such as p95 or p99.9; the comparison is &gt;, &gt;=, &lt; or &lt;=; the duration is in ms, s or m and defaults to 0.
+	 *
+	 * @param rules The rules, or null or empty for none.
+	 * @param catalog The catalog the metric ids are looked up in.
+	 * @return List<ThresholdRule> The rules.
+	 */
+	public static List<ThresholdRule> parse(String rules, MetricCatalog catalog) {
+		List<ThresholdRule> parsed = new ArrayList<>();
+
+		if (rules == null) {
+			return parsed;
+		}
+
+		for (String rule : rules.split(RULE_SEPARATOR)) {
+			if (!rule.trim().isEmpty()) {
+				parsed.add(parseRule(rule.trim(), catalog));
+			}
+		}
+
+		return parsed;
+	}
+
+
+	private static ThresholdRule parseRule(String text, MetricCatalog catalog) {
+		String[] words = text.split("\\s+");
+
+		if (words.length != 4 && !(words.length == 6 && words[4].equalsIgnoreCase("for"))) {
+			throw invalid(text, "expected '<metric> <statistic> <comparison> <limit> [for <duration>]'");
+		}
+
+		int column = -1;
+		for (int i = 0; i < catalog.size(); i++) {
+			if (catalog.get(i).getId().equals(words[0])) {
+				column = i;
+			}
+		}
+		if (column < 0) {
+			throw invalid(text, "there is no metric '" + words[0] + "' in the catalog");
+		}
+
+		String statisticName = words[1].toLowerCase(Locale.ROOT);
+		Statistic statistic;
+		double quantile = Double.NaN;
+
+		if (statisticName.startsWith("p")) {
+			statistic = Statistic.QUANTILE;
+			try {
+				quantile = Double.parseDouble(statisticName.substring(1)) / 100;
+			} catch (NumberFormatException e) {
+				throw invalid(text, "'" + words[1] + "' is not a percentile such as p95");
+			}
+			if (!(quantile > 0 && quantile <= 1)) {
+				throw invalid(text, "'" + words[1] + "' is not a percentile between p0 and p100");
+			}
+		} else {
+			try {
+				statistic = Statistic.valueOf(statisticName.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw invalid(text, "'" + words[1] + "' is not value, mean, min, max, ewma, rate or a percentile such as p95");
+			}
+			if (statistic == Statistic.QUANTILE) {
+				throw invalid(text, "use a percentile such as p95 rather than 'quantile'");
+			}
+		}
+
+		Comparison comparison = null;
+		for (Comparison candidate : Comparison.values()) {
+			if (candidate.symbol.equals(words[2])) {
+				comparison = candidate;
+			}
+		}
+		if (comparison == null) {
+			throw invalid(text, "'" + words[2] + "' is not one of >, >=, < or <=");
+		}
+
+		double limit;
+		try {
+			limit = Double.parseDouble(words[3]);
+		} catch (NumberFormatException e) {
+			throw invalid(text, "'" + words[3] + "' is not a number");
+		}
+
+		long durationMillis = words.length == 6 ? parseDuration(text, words[5]) : 0;
+
+		return new ThresholdRule(text, words[0], column, statistic, quantile, comparison, limit, durationMillis);
+	}
+
+
+	private static long parseDuration(String text, String duration) {
+		String lower = duration.toLowerCase(Locale.ROOT);
+		long multiplier;
+		String number;
+
+		if (lower.endsWith("ms")) {
+			multiplier = 1;
+			number = lower.substring(0, lower.length() - 2);
+		} else if (lower.endsWith("s")) {
+			multiplier = 1000;
+			number = lower.substring(0, lower.length() - 1);
+		} else if (lower.endsWith("m")) {
+			multiplier = 60_000;
+			number = lower.substring(0, lower.length() - 1);
+		} else {
+			throw invalid(text, "the duration '" + duration + "' must end in ms, s or m");
+		}
+
+		try {
+			return Math.round(Double.parseDouble(number) * multiplier);
+		} catch (NumberFormatException e) {
+			throw invalid(text, "'" + duration + "' is not a duration such as 30s");
+		}
+	}
+
+
+	private static IllegalArgumentException invalid(String text, String reason) {
+		return new IllegalArgumentException("Invalid threshold rule '" + text + "': " + reason + ".");
+	}
+
+
+	/**
+	 * Evaluate the rule against the rolling statistics of its metric after a sample, logging when it is breached and when it clears.
+	 * The rule is breached once its condition has held for the whole duration.
+	 *
+	 * @param statistics The rolling statistics of the metric the rule is on.
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @param node The host the sample was read from, or null for the single node named by nodeIp.
+	 */
+	void evaluate(RollingStatistics statistics, long timestamp, String node) {
+		double value = getStatistic(statistics);
+
+		if (!Double.isNaN(value) && comparison.holds(value, limit)) {
+			if (conditionStart == Long.MIN_VALUE) {
+				conditionStart = timestamp;
+			}
+
+			if (!breached && timestamp - conditionStart >= durationMillis) {
+				breached = true;
+				breaches++;
+				logger.warn("Threshold rule '{}'{} is breached: the {} is {} and has been past the limit for {} ms.", text, node == null ? "" : " on " + node,
+						describeStatistic(), value, timestamp - conditionStart);
+			}
+		} else if (conditionStart != Long.MIN_VALUE) {
+			if (breached) {
+				logger.info("Threshold rule '{}'{} has cleared after {} ms.", text, node == null ? "" : " on " + node, timestamp - conditionStart);
+			}
+			close(timestamp);
+		}
+	}
+
+
+	/**
+	 * End any breach in progress at the given time, so it is counted in the longest breach.
+	 *
+	 * @param timestamp The time in epoch milliseconds.
+	 */
+	void close(long timestamp) {
+		if (breached) {
+			longestBreachMillis = Math.max(longestBreachMillis, timestamp - conditionStart);
+		}
+
+		conditionStart = Long.MIN_VALUE;
+		breached = false;
+	}
+
+
+	private double getStatistic(RollingStatistics statistics) {
+		switch (statistic) {
+		case MEAN:
+			return statistics.getMean();
+		case MIN:
+			return statistics.getMinimum();
+		case MAX:
+			return statistics.getMaximum();
+		case EWMA:
+			return statistics.getEwma();
+		case RATE:
+			return statistics.getRatePerSecond();
+		case QUANTILE:
+			return statistics.getQuantile(quantile);
+		default:
+			return statistics.getLast();
+		}
+	}
+
+
+	private String describeStatistic() {
+		switch (statistic) {
+		case QUANTILE:
+			return "rolling " + formatPercentile(quantile * 100) + "th percentile of " + metricId;
+		case RATE:
+			return "rate of change per second of " + metricId;
+		case VALUE:
+			return "value of " + metricId;
+		default:
+			return "rolling " + statistic.name().toLowerCase(Locale.ROOT) + " of " + metricId;
+		}
+	}
+
+
+	private static String formatPercentile(double percentile) {
+		return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+	}
+
+
+	/**
+	 * Check whether the rule has been breached at any time during the run.
+	 *
+	 * @return boolean Has it been breached?
+	 */
+	public boolean wasBreached() {
+		return breaches > 0;
+	}
+
+
+	public String getText() {
+		return text;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public int getBreaches() {
+		return breaches;
+	}
+
+	public long getLongestBreachMillis() {
+		return longestBreachMillis;
+	}
+
+}
@@ -33,9 +33,44 @@ public class WritePropertiesFile {
 			prop.setProperty("nodePassword", "badpassword1");
 			prop.setProperty("jmxPort", "7199");
 
+			// Each sample reads several MBeans; with more than one thread they are fetched concurrently over the JMX connection.
+			prop.setProperty("jmxFetchThreads", "1");
+
+			// Leave jmxNodes empty to watch nodeIp only. Otherwise list the hosts to watch (comma separated), or use discover to read them from system.peers.
+			// The nodes are polled in parallel on clusterPollThreads threads; a node that has not answered within jmxNodeTimeout milliseconds is left behind for the tick.
+			prop.setProperty("jmxNodes", "");
+			prop.setProperty("clusterPollThreads", "4");
+			prop.setProperty("jmxNodeTimeout", "2000");
+
+			// A lost JMX connection (a node restarting or paused for GC) is reconnected in the background while its samples are recorded as missing.
+			// Connecting and every read are bounded by the timeouts; the connection is checked every jmxHeartbeatInterval, and reconnects back off
+			// from jmxReconnectDelay, doubling up to jmxMaximumReconnectDelay. All in milliseconds.
+			prop.setProperty("jmxConnectTimeout", "5000");
+			prop.setProperty("jmxReadTimeout", "10000");
+			prop.setProperty("jmxHeartbeatInterval", "5000");
+			prop.setProperty("jmxReconnectDelay", "1000");
+			prop.setProperty("jmxMaximumReconnectDelay", "30000");
+
+			// Notifications of the mBeans matching notificationSources (object name patterns, separated by semicolons), such as
+			// GC pauses, are recorded as events as they happen, written to the eventsTable and marked on the charts.
+			// Up to eventRingCapacity events wait to be written. Leave notificationSources empty to subscribe to nothing.
+			prop.setProperty("notificationSources", "java.lang:type=GarbageCollector,name=*;org.apache.cassandra.db:type=StorageService");
+			prop.setProperty("eventRingCapacity", "4096");
+
+			// RunExternalJmxTerm collects in this JVM (native) by default; set to jmxterm to use the external expect/jmxterm process instead.
+			prop.setProperty("jmxCollector", "native");
+
 			// We shouldn't have the JMX listener poll the Cassandra db constantly, throttle the requests by setting this interval value.
+			// Samples are taken at a fixed rate, on wall-clock multiples of the interval, so they line up across nodes and runs.
 			prop.setProperty("querySleepInterval", "1000"); // in milliseconds
 
+			// With reloadConfig true, changes to querySleepInterval and the thresholds below are picked up during a run.
+			// Any key may also be overridden with a system property of the same name, or an environment variable such as QUERY_SLEEP_INTERVAL.
+			prop.setProperty("reloadConfig", "false");
+
+			// How often to log the progress of the run and how well the sampling is keeping time.
+			prop.setProperty("progressReportInterval", "30000"); // in milliseconds
+
 			// While recording JMX values from a running Cassandra Instance check that certain thresholds are not exceeded.
 			// The following sets the thresholds to check, and are arbitrary to the system being monitored. Your mileage may vary.
 			prop.setProperty("liveSSTableCountThreshold", "11");
@@ -43,13 +78,58 @@ public class WritePropertiesFile {
 			prop.setProperty("readLatencyThreshold", "800000");
 			prop.setProperty("writeLatencyThreshold", "400");
 
+			// The thresholds above warn on every sample over them. Threshold rules instead fail the screen on sustained behavior,
+			// judged on rolling statistics over the last statisticsWindow: <metric> <value|mean|min|max|ewma|rate|p95...> <op> <limit> [for <duration>]; ...
+			prop.setProperty("statisticsWindow", "30000"); // in milliseconds
+			prop.setProperty("thresholdRules", "writeLatency95thPercentile p95 > 400 for 30s");
+
+			// When two runs are compared, a metric has changed if the difference in its distribution is significant at this level
+			// and its median or 95th percentile moved by more than this fraction.
+			prop.setProperty("comparisonSignificance", "0.01");
+			prop.setProperty("comparisonTolerance", "0.1");
+
+			// The metrics to collect, chart and store are listed in this catalog. Thresholds above are referenced from it.
+			prop.setProperty("metricCatalog", "metrics.properties");
+
 			// Output test results table and keyspace
 			prop.setProperty("testResultsKeyspace", "JmxMetrics");
 			prop.setProperty("testResultsTable", "TestResults");
-
-			// The APPLY BATCH method will not work if we exceed 120000 characters or so, or batch_size_warn_threshold_in_kb apparently. ;)
-			// Break the inserts into 500 line batches to start. Should it error out, you can use the entries in the error.log to manually insert.
-			prop.setProperty("maximumBatchEntries", "100");
+			prop.setProperty("clusterResultsTable", "TestResultsByNode");
+			prop.setProperty("histogramTable", "LatencyHistograms");
+
+			// Each run's JMX samples are written to the runResultsTable, one partition per run, node and resultsBucket milliseconds,
+			// and the run itself to the runsTable. With resultsTtl greater than 0, the rows expire that many seconds after they are written.
+			// The cassandra-stress results and the latency percentiles of each interval are partitioned the same way in their own tables.
+			prop.setProperty("stressResultsTable", "StressRunResults");
+			prop.setProperty("latencyResultsTable", "LatencyRunResults");
+			prop.setProperty("runResultsTable", "RunResults");
+			prop.setProperty("runsTable", "Runs");
+			prop.setProperty("eventsTable", "Events");
+			prop.setProperty("resultsBucket", "3600000"); // in milliseconds
+			prop.setProperty("resultsTtl", "0"); // in seconds
+
+			// Results are read back readFetchSize rows per page; a table scan reads readParallelism token ranges at once.
+			prop.setProperty("readFetchSize", "5000");
+			prop.setProperty("readParallelism", "4");
+
+			// Results are written one row at a time with a prepared statement, keeping at most this many writes in flight.
+			// Failed writes are retried this many times; rows that still fail are logged in the error.log to manually insert.
+			prop.setProperty("maximumInFlightWrites", "128");
+			prop.setProperty("writeRetries", "3");
+
+			// Results are written while they are collected: every flushInterval milliseconds, or sooner once maximumFlushRows are waiting.
+			// Should flushQueueCapacity samples be waiting, the collector pauses until the database catches up.
+			// With retainSamples false, written samples are dropped from memory (the end of run chart is then skipped).
+			prop.setProperty("flushInterval", "5000");
+			prop.setProperty("maximumFlushRows", "500");
+			prop.setProperty("flushQueueCapacity", "10000");
+			prop.setProperty("retainSamples", "true");
+
+			// With metricsPort set (such as 9404), the latest samples are served at http://<host>:<metricsPort>/metrics for Prometheus.
+			prop.setProperty("metricsPort", "0");
+
+			// Each chart draws at most this many samples, picked to keep the shape of the line and its peaks; 0 draws every sample.
+			prop.setProperty("chartPointBudget", "2000");
 
 			// Output cassandra-stress tables and keyspace
 			// prop.setProperty("cassandraStressKeyspace", "keyspace1");
@@ -63,6 +143,8 @@ public class WritePropertiesFile {
 			String slash = System.getProperty("file.separator");
 			prop.setProperty("logDir", "logs" + slash);
 			prop.setProperty("graphDir", "graphs" + slash);
+			// Every sample is also kept in a compact binary recording here, to replay offline; leave it empty to record nothing.
+			prop.setProperty("recordingDir", "recordings" + slash);
 
 			// save properties to project root folder
 			prop.store(output, null);
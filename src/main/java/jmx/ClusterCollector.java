@@ -0,0 +1,168 @@
+package jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.Instrumentation;
+import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricSeries;
+
+public class ClusterCollector {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final String JMX_PORT = LoadPropertiesFile.getProperty("jmxPort");
+	private static final Integer CLUSTER_POLL_THREADS = LoadPropertiesFile.getInteger("clusterPollThreads");
+	private static final Long JMX_NODE_TIMEOUT = LoadPropertiesFile.getLong("jmxNodeTimeout");
+
+	private final List<NodeConnection> nodes;
+	private final ExecutorService pollExecutor;
+
+	private long ticks;
+	private long nodesTimedOut;
+	private long nodesSkipped;
+
+
+	/**
+	 * Create a collector that polls every given node of the cluster in parallel.
+	 *
+	 * @param hosts The hosts of the nodes.
+	 * @param keyspace The keyspace to retrieve metrics from.
+	 */
+	public ClusterCollector(List<String> hosts, String keyspace) {
+		logger.info("================================================================================");
+		logger.info("  Starting ClusterCollector for " + hosts.size() + " nodes " + hosts + "...");
+
+		MetricCatalog catalog = MetricCatalog.getDefault();
+
+		List<NodeConnection> connections = new ArrayList<>();
+		for (String host : hosts) {
+			connections.add(new NodeConnection(host, JMX_PORT, catalog, keyspace));
+		}
+		this.nodes = Collections.unmodifiableList(connections);
+
+		this.pollExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(CLUSTER_POLL_THREADS, hosts.size())), runnable -> {
+			Thread thread = new Thread(runnable, "cluster-poll");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	/**
+	 * Read one sample from every node, waiting at most jmxNodeTimeout milliseconds for them.
+	 * Every node's sample carries the same timestamp. A node still busy with its previous sample is skipped, and the tick
+	 * is recorded as a gap in its series, and a node that does not answer in time is left to finish in the background, so one slow node cannot stall the tick.
+	 */
+	public void poll() {
+		poll(System.currentTimeMillis());
+	}
+
+
+	/**
+	 * Read one sample from every node, recorded at the given time (such as the tick of a SamplingScheduler).
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 */
+	public void poll(long timestamp) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(JMX_NODE_TIMEOUT);
+		ticks++;
+
+		List<Future<?>> futures = new ArrayList<>(nodes.size());
+
+		for (NodeConnection node : nodes) {
+			if (node.tryAcquire()) {
+				futures.add(pollExecutor.submit(() -> node.sample(timestamp)));
+			} else {
+				nodesSkipped++;
+				Instrumentation.increment(Instrumentation.Counter.SAMPLES_SKIPPED);
+				node.skip(timestamp);
+				futures.add(null);
+				logger.warn("Node '" + node.getHost() + "' is still busy with its previous sample, skipping it this tick.");
+			}
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			Future<?> future = futures.get(i);
+			if (future == null) {
+				continue;
+			}
+
+			try {
+				future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				nodesTimedOut++;
+				Instrumentation.increment(Instrumentation.Counter.SAMPLES_TIMED_OUT);
+				logger.warn("Node '" + nodes.get(i).getHost() + "' did not answer within " + JMX_NODE_TIMEOUT + " ms.");
+			} catch (ExecutionException e) {
+				logger.error("Polling node '" + nodes.get(i).getHost() + "' failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Get the nodes polled by this collector.
+	 *
+	 * @return List<NodeConnection> The nodes.
+	 */
+	public List<NodeConnection> getNodes() {
+		return nodes;
+	}
+
+
+	/**
+	 * Get the series of each node, in the order the nodes were given.
+	 *
+	 * @return List<MetricSeries> The series.
+	 */
+	public List<MetricSeries> getSeries() {
+		List<MetricSeries> series = new ArrayList<>(nodes.size());
+
+		for (NodeConnection node : nodes) {
+			series.add(node.getSeries());
+		}
+
+		return series;
+	}
+
+
+	/**
+	 * Stop polling and close the connection to every node.
+	 */
+	public void close() {
+		logger.info("================================================================================");
+		logger.info("  Starting ClusterCollector.close...");
+
+		pollExecutor.shutdown();
+		try {
+			if (!pollExecutor.awaitTermination(JMX_NODE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				pollExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			pollExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		for (NodeConnection node : nodes) {
+			node.close();
+		}
+
+		logger.info("Polled " + nodes.size() + " nodes for " + ticks + " ticks: " + nodesTimedOut + " node samples timed out, " + nodesSkipped + " were skipped.");
+	}
+
+}
@@ -0,0 +1,326 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.HistogramDefinition;
+import general.MetricDefinition;
+import general.MetricSeries;
+
+public class HistogramSampler {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// The Cassandra buckets are 20% wide, so three significant digits keep everything they can tell apart.
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	// The columns recorded for each histogram, per interval.
+	private static final String[] COLUMN_SUFFIXES = { "Count", "P50", "P99", "P999", "Max" };
+	private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+	// The upper bound of each Cassandra histogram bucket, by the number of buckets.
+	private static final ConcurrentMap<Integer, long[]> BUCKET_OFFSETS = new ConcurrentHashMap<>();
+
+	private final List<HistogramDefinition> definitions;
+	private final List<List<ObjectName>> objectNames;
+	private final MetricSeries series;
+
+	private final Histogram[] intervalHistograms;
+	private final Histogram[] runHistograms;
+
+	// The counts read last time from each MBean of each histogram, for cumulative attributes.
+	private final long[][][] previousCounts;
+	private final boolean[] unavailable;
+	private final double[] values;
+
+	private boolean baselineRead;
+	private long runStartTime;
+	private long runEndTime;
+
+
+	/**
+	 * Create a sampler of the given latency histograms.
+	 *
+	 * @param definitions The histograms to read.
+	 * @param keyspace The keyspace to substitute into the MBean names.
+	 * @param node The host the histograms are read from, or null for the single node named by nodeIp.
+	 * @throws MalformedObjectNameException
+	 */
+	public HistogramSampler(List<HistogramDefinition> definitions, String keyspace, String node) throws MalformedObjectNameException {
+		this.definitions = definitions;
+		this.objectNames = new ArrayList<>(definitions.size());
+		this.series = new MetricSeries(getColumns(definitions), node);
+		this.intervalHistograms = new Histogram[definitions.size()];
+		this.runHistograms = new Histogram[definitions.size()];
+		this.previousCounts = new long[definitions.size()][][];
+		this.unavailable = new boolean[definitions.size()];
+		this.values = new double[definitions.size() * COLUMN_SUFFIXES.length];
+
+		for (int h = 0; h < definitions.size(); h++) {
+			List<ObjectName> names = definitions.get(h).getObjectNames(keyspace);
+			for (ObjectName name : names) {
+				if (name.isPattern()) {
+					throw new MalformedObjectNameException("Histogram '" + definitions.get(h).getId() + "' cannot use the pattern '" + name + "'.");
+				}
+			}
+
+			objectNames.add(names);
+			intervalHistograms[h] = new Histogram(SIGNIFICANT_DIGITS);
+			runHistograms[h] = new Histogram(SIGNIFICANT_DIGITS);
+			previousCounts[h] = new long[names.size()][];
+		}
+	}
+
+
+	/**
+	 * Get the columns of the series of interval percentiles for the given histograms:
+	 * the count, p50, p99, p99.9 and max of each.
+	 *
+	 * @param definitions The histograms.
+	 * @return List<MetricDefinition> The columns.
+	 */
+	public static List<MetricDefinition> getColumns(List<HistogramDefinition> definitions) {
+		List<MetricDefinition> columns = new ArrayList<>();
+		List<String> noMBeans = new ArrayList<>();
+
+		for (HistogramDefinition definition : definitions) {
+			for (String suffix : COLUMN_SUFFIXES) {
+				String description = "Count".equals(suffix) ? "<p>The number of requests completed in each interval.</p>" + definition.getDescription()
+						: "<p>The " + suffix.toLowerCase(Locale.ROOT).replace("p999", "p99.9") + " latency of the requests completed in each interval.</p>";
+
+				columns.add(new MetricDefinition(definition.getId() + suffix, noMBeans, definition.getAttribute(), MetricDefinition.Type.LONG,
+						MetricDefinition.Aggregation.SUM, null, "Count".equals(suffix) ? "Requests" : definition.getTitle(), description));
+			}
+		}
+
+		return columns;
+	}
+
+
+	/**
+	 * Read the bucket counts of every histogram, record the requests completed since the previous sample,
+	 * and append the percentiles of the interval to the series. The first sample only sets the starting counts.
+	 *
+	 * @param connection The connection to the JMX service.
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @throws IOException
+	 */
+	public void sample(MBeanServerConnection connection, long timestamp) throws IOException {
+		for (int h = 0; h < definitions.size(); h++) {
+			intervalHistograms[h].reset();
+
+			if (unavailable[h]) {
+				continue;
+			}
+
+			List<ObjectName> names = objectNames.get(h);
+			for (int n = 0; n < names.size(); n++) {
+				long[] counts = read(connection, h, names.get(n));
+
+				if (counts != null) {
+					record(h, n, counts);
+				}
+			}
+		}
+
+		if (!baselineRead) {
+			// The first counts include requests from before the run, so they only set the starting point.
+			baselineRead = true;
+			runStartTime = timestamp;
+			return;
+		}
+		runEndTime = timestamp;
+
+		for (int h = 0; h < definitions.size(); h++) {
+			Histogram interval = intervalHistograms[h];
+			int column = h * COLUMN_SUFFIXES.length;
+
+			if (unavailable[h]) {
+				for (int i = 0; i < COLUMN_SUFFIXES.length; i++) {
+					values[column + i] = Double.NaN;
+				}
+				continue;
+			}
+
+			runHistograms[h].add(interval);
+
+			long count = interval.getTotalCount();
+			values[column] = count;
+			for (int p = 0; p < PERCENTILES.length; p++) {
+				values[column + 1 + p] = count == 0 ? Double.NaN : interval.getValueAtPercentile(PERCENTILES[p]);
+			}
+			values[column + COLUMN_SUFFIXES.length - 1] = count == 0 ? Double.NaN : interval.getMaxValue();
+		}
+
+		series.append(timestamp, values);
+	}
+
+
+	private long[] read(MBeanServerConnection connection, int h, ObjectName name) throws IOException {
+		HistogramDefinition definition = definitions.get(h);
+
+		try {
+			Object value = connection.getAttribute(name, definition.getAttribute());
+
+			if (value instanceof long[]) {
+				return (long[]) value;
+			}
+
+			logger.warn("Histogram '" + definition.getId() + "' attribute '" + definition.getAttribute() + "' of '" + name
+					+ "' is not a long[] of bucket counts, it will not be collected.");
+		} catch (InstanceNotFoundException e) {
+			// The MBean may not be registered until the first request, so try again next time.
+			logger.debug("MBean '{}' of histogram '{}' is not registered yet.", name, definition.getId());
+			return null;
+		} catch (AttributeNotFoundException e) {
+			logger.warn("Histogram '" + definition.getId() + "' attribute '" + definition.getAttribute() + "' is not found on '" + name
+					+ "' (a node without RecentValues may have a cumulative attribute, read with cumulative=true), it will not be collected.");
+		} catch (MBeanException | ReflectionException e) {
+			logger.warn("Unable to read histogram '" + definition.getId() + "' from '" + name + "', it will not be collected: " + e);
+		}
+
+		unavailable[h] = true;
+		return null;
+	}
+
+
+	/**
+	 * Record the requests counted in each bucket at the upper bound of the bucket, as Cassandra reports its own percentiles.
+	 */
+	private void record(int h, int n, long[] counts) {
+		long[] deltas = counts;
+
+		if (definitions.get(h).isCumulative()) {
+			long[] previous = previousCounts[h][n];
+			previousCounts[h][n] = counts.clone();
+
+			if (previous == null) {
+				return;
+			}
+
+			deltas = new long[counts.length];
+			for (int i = 0; i < counts.length; i++) {
+				// A count going down means the node restarted, so everything counted since is new.
+				deltas[i] = previous.length != counts.length || counts[i] < previous[i] ? counts[i] : counts[i] - previous[i];
+			}
+		}
+
+		if (!baselineRead) {
+			return;
+		}
+
+		long[] offsets = getBucketOffsets(counts.length);
+		Histogram histogram = intervalHistograms[h];
+
+		for (int i = 0; i < deltas.length; i++) {
+			if (deltas[i] > 0) {
+				// The last bucket has no upper bound; its requests are recorded just past the bucket before it.
+				long value = i < offsets.length ? offsets[i] : offsets[offsets.length - 1] + 1;
+				histogram.recordValueWithCount(value, deltas[i]);
+			}
+		}
+	}
+
+
+	/**
+	 * Get the upper bound of each bucket of a Cassandra EstimatedHistogram with the given number of buckets.
+	 * The bounds start at 1 and grow by 20%, and the last bucket counts everything past the bound before it.
+	 *
+	 * @param bucketCount The number of buckets, including the last.
+	 * @return long[] The upper bounds of every bucket but the last.
+	 */
+	static long[] getBucketOffsets(int bucketCount) {
+		return BUCKET_OFFSETS.computeIfAbsent(bucketCount, count -> {
+			long[] offsets = new long[Math.max(1, count - 1)];
+			long last = 1;
+			offsets[0] = last;
+
+			for (int i = 1; i < offsets.length; i++) {
+				long next = Math.round(last * 1.2);
+				if (next == last) {
+					next++;
+				}
+				offsets[i] = next;
+				last = next;
+			}
+
+			return offsets;
+		});
+	}
+
+
+	/**
+	 * Log the percentiles of every histogram over the whole run.
+	 */
+	public void logSummary() {
+		String node = series.getNode() == null ? "" : " on " + series.getNode();
+
+		for (int h = 0; h < definitions.size(); h++) {
+			Histogram run = runHistograms[h];
+
+			if (unavailable[h] || run.getTotalCount() == 0) {
+				logger.info("Histogram '" + definitions.get(h).getId() + "'" + node + " recorded no requests.");
+				continue;
+			}
+
+			logger.info(String.format("Histogram '%s'%s over %d requests: p50 %d, p99 %d, p99.9 %d, max %d", definitions.get(h).getId(), node,
+					run.getTotalCount(), run.getValueAtPercentile(50), run.getValueAtPercentile(99), run.getValueAtPercentile(99.9), run.getMaxValue()));
+		}
+	}
+
+
+	/**
+	 * Get the series of interval percentiles, with the columns given by getColumns().
+	 *
+	 * @return MetricSeries The series.
+	 */
+	public MetricSeries getSeries() {
+		return series;
+	}
+
+
+	/**
+	 * Get the histograms in the order they are listed in the catalog.
+	 *
+	 * @return List<HistogramDefinition> The histograms.
+	 */
+	public List<HistogramDefinition> getDefinitions() {
+		return definitions;
+	}
+
+
+	/**
+	 * Get every request recorded by the given histogram during the run. Histograms of several runs or nodes may be merged with add().
+	 *
+	 * @param index The index of the histogram.
+	 * @return Histogram The histogram, in microseconds.
+	 */
+	public Histogram getRunHistogram(int index) {
+		return runHistograms[index];
+	}
+
+	public long getRunStartTime() {
+		return runStartTime;
+	}
+
+	public long getRunEndTime() {
+		return runEndTime;
+	}
+
+}
@@ -0,0 +1,366 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.Instrumentation;
+import general.LoadPropertiesFile;
+
+/**
+ * A connection to the JMX service of one node that survives the node pausing or restarting. Connecting, heartbeats and
+ * reconnecting all happen on the connection's own thread, so the sampling threads only ever ask for the connection and
+ * get null while it is down, to record the sample as missing. A connection is given up on when a read through it fails,
+ * when the heartbeat fails, or when the connector itself reports it failed or closed, and is then reconnected with an
+ * exponential backoff from jmxReconnectDelay up to jmxMaximumReconnectDelay.
+ *
+ * <p>Every RMI call of this JVM is bounded by jmxConnectTimeout to connect and jmxReadTimeout to answer, unless
+ * sun.rmi.transport.proxy.connectTimeout or sun.rmi.transport.tcp.responseTimeout are already set; RMI reads them once,
+ * so they are set when this class is loaded, before the first connection.</p>
+ */
+public class JmxConnection {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final Long JMX_CONNECT_TIMEOUT = LoadPropertiesFile.getLong("jmxConnectTimeout");
+	private static final Long JMX_READ_TIMEOUT = LoadPropertiesFile.getLong("jmxReadTimeout");
+	private static final Long JMX_HEARTBEAT_INTERVAL = LoadPropertiesFile.getLong("jmxHeartbeatInterval");
+	private static final Long JMX_RECONNECT_DELAY = LoadPropertiesFile.getLong("jmxReconnectDelay");
+	private static final Long JMX_MAXIMUM_RECONNECT_DELAY = LoadPropertiesFile.getLong("jmxMaximumReconnectDelay");
+
+	static {
+		setIfAbsent("sun.rmi.transport.proxy.connectTimeout", JMX_CONNECT_TIMEOUT);
+		setIfAbsent("sun.rmi.transport.tcp.responseTimeout", JMX_READ_TIMEOUT);
+	}
+
+	private final String host;
+	private final String jmxPort;
+	private final ScheduledThreadPoolExecutor executor;
+
+	// Null while the connection is down. Set by the connection thread; cleared by whichever thread sees it fail first.
+	private final AtomicReference<MBeanServerConnection> connection = new AtomicReference<>();
+	private volatile boolean closed;
+	private boolean opened;
+
+	// Only used by the connection thread.
+	private JMXConnector jmxConnector;
+	private long reconnectDelay;
+	private int attempts;
+	private boolean connectedBefore;
+	private long downSince;
+
+	private final AtomicLong connectionsLost = new AtomicLong();
+	private final List<Consumer<MBeanServerConnection>> connectListeners = new CopyOnWriteArrayList<>();
+
+
+	/**
+	 * Create a connection to the JMX service of the given node. Nothing is connected until open is called.
+	 *
+	 * @param host The host of the node.
+	 * @param jmxPort The JMX port of the node.
+	 */
+	public JmxConnection(String host, String jmxPort) {
+		this.host = host;
+		this.jmxPort = jmxPort;
+		this.reconnectDelay = Math.max(1, JMX_RECONNECT_DELAY);
+
+		this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "jmx-connection-" + host);
+			thread.setDaemon(true);
+			return thread;
+		});
+		// A reconnect waiting out its backoff must not hold up close.
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+
+	private static void setIfAbsent(String property, Long millis) {
+		if (System.getProperty(property) == null && millis != null && millis > 0) {
+			System.setProperty(property, Long.toString(millis));
+		}
+	}
+
+
+	/**
+	 * Start connecting in the background, and checking the connection every jmxHeartbeatInterval milliseconds.
+	 * Does nothing if the connection is already open.
+	 */
+	public synchronized void open() {
+		if (opened || closed) {
+			return;
+		}
+		opened = true;
+		downSince = System.currentTimeMillis();
+
+		executor.execute(this::connect);
+		if (JMX_HEARTBEAT_INTERVAL > 0) {
+			executor.scheduleWithFixedDelay(this::heartbeat, JMX_HEARTBEAT_INTERVAL, JMX_HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+	/**
+	 * Have the given listener called on the connection thread after every connect, including each reconnect, such as to
+	 * subscribe to notifications again. Add listeners before open, so none misses the first connect.
+	 *
+	 * @param listener Receives the new connection.
+	 */
+	public void addConnectListener(Consumer<MBeanServerConnection> listener) {
+		connectListeners.add(listener);
+	}
+
+
+	/**
+	 * Wait for the connection to be up, such as for the first connection at the start of a screen.
+	 *
+	 * @param timeoutMillis The longest time to wait in milliseconds.
+	 * @return boolean Is the connection up?
+	 * @throws InterruptedException
+	 */
+	public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		synchronized (connection) {
+			while (connection.get() == null && !closed) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				connection.wait(remaining);
+			}
+		}
+
+		return connection.get() != null;
+	}
+
+
+	/**
+	 * Get the connection, without waiting.
+	 *
+	 * @return MBeanServerConnection The connection, or null while it is down.
+	 */
+	public MBeanServerConnection getConnection() {
+		return connection.get();
+	}
+
+
+	/**
+	 * Give up on the given connection after a read through it failed, and reconnect in the background.
+	 * Does nothing if the connection was already given up on, so every thread that saw it fail may call this.
+	 *
+	 * @param failedConnection The connection the read went through.
+	 * @param cause Why the read failed.
+	 */
+	public void failed(MBeanServerConnection failedConnection, Throwable cause) {
+		if (failedConnection == null || !connection.compareAndSet(failedConnection, null)) {
+			return;
+		}
+
+		connectionsLost.incrementAndGet();
+		logger.warn("Lost the JMX connection to node '" + host + ":" + jmxPort + "': " + cause
+				+ ". Its samples are recorded as missing until it is reconnected.");
+
+		try {
+			executor.execute(this::reconnect);
+		} catch (RejectedExecutionException e) {
+			// Closed meanwhile; there is nothing to reconnect.
+		}
+	}
+
+
+	/**
+	 * Close the connector given up on, then connect again.
+	 */
+	private void reconnect() {
+		downSince = System.currentTimeMillis();
+		closeConnector();
+		connect();
+	}
+
+
+	/**
+	 * Try to connect once, and try again after the backoff delay should it fail.
+	 */
+	private void connect() {
+		if (closed || connection.get() != null) {
+			return;
+		}
+
+		attempts++;
+		JMXConnector newConnector = null;
+		try {
+			newConnector = JMXConnectorFactory.connect(JmxListener.getServiceUrl(host, jmxPort), null);
+			MBeanServerConnection newConnection = newConnector.getMBeanServerConnection();
+
+			// The connector tells us when it fails between samples, such as when the node restarts.
+			newConnector.addConnectionNotificationListener(new ConnectionListener(), null, newConnection);
+
+			jmxConnector = newConnector;
+			if (closed) {
+				closeConnector();
+				return;
+			}
+
+			synchronized (connection) {
+				connection.set(newConnection);
+				connection.notifyAll();
+			}
+		} catch (IOException | RuntimeException e) {
+			if (newConnector != null) {
+				try {
+					newConnector.close();
+				} catch (IOException closeException) {
+					logger.debug("Unable to close the JMX connector of node '" + host + "': " + closeException);
+				}
+			}
+
+			logger.warn("Unable to connect to the JMX service of node '" + host + ":" + jmxPort + "' (attempt " + attempts + "): " + e
+					+ ". Trying again in " + reconnectDelay + " ms.");
+
+			try {
+				executor.schedule(this::connect, reconnectDelay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException rejected) {
+				// Closed meanwhile.
+			}
+			reconnectDelay = Math.min(reconnectDelay * 2, Math.max(reconnectDelay, JMX_MAXIMUM_RECONNECT_DELAY));
+			return;
+		}
+
+		if (connectedBefore) {
+			Instrumentation.increment(Instrumentation.Counter.JMX_RECONNECTS);
+			logger.info(String.format("Reconnected to the JMX service of node '%s:%s' after %.1f s and %d attempts.",
+					host, jmxPort, (System.currentTimeMillis() - downSince) / 1e3, attempts));
+		} else {
+			Instrumentation.increment(Instrumentation.Counter.JMX_CONNECTS);
+			logger.info("Connected to the JMX service of node '" + host + ":" + jmxPort + "'.");
+		}
+
+		connectedBefore = true;
+		reconnectDelay = Math.max(1, JMX_RECONNECT_DELAY);
+		attempts = 0;
+
+		MBeanServerConnection current = connection.get();
+		for (Consumer<MBeanServerConnection> listener : connectListeners) {
+			try {
+				listener.accept(current);
+			} catch (RuntimeException e) {
+				logger.warn("A connect listener of node '" + host + "' failed: " + e);
+			}
+		}
+	}
+
+
+	/**
+	 * Check the connection with the cheapest call there is, so a connection lost between samples is found and
+	 * reconnected before the next sample rather than by it.
+	 */
+	private void heartbeat() {
+		MBeanServerConnection current = connection.get();
+		if (current == null) {
+			return;
+		}
+
+		try {
+			current.getMBeanCount();
+		} catch (IOException | RuntimeException e) {
+			failed(current, e);
+		}
+	}
+
+
+	/**
+	 * Hears from the connector that the connection failed or was closed under us.
+	 */
+	private class ConnectionListener implements NotificationListener {
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			String type = notification.getType();
+
+			if (JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type)) {
+				failed((MBeanServerConnection) handback, new IOException("The connector reported " + type));
+			} else if (JMXConnectionNotification.NOTIFS_LOST.equals(type)) {
+				Object lost = notification.getUserData();
+				Instrumentation.add(Instrumentation.Counter.EVENTS_LOST, lost instanceof Long ? (Long) lost : 1);
+				logger.warn("The JMX connector of node '" + host + "' lost notifications: " + notification.getMessage());
+			}
+		}
+	}
+
+
+	private void closeConnector() {
+		if (jmxConnector != null) {
+			try {
+				jmxConnector.close();
+			} catch (IOException | RuntimeException e) {
+				logger.debug("Unable to close the JMX connection of node '" + host + "': " + e);
+			}
+			jmxConnector = null;
+		}
+	}
+
+
+	/**
+	 * Stop reconnecting and close the connection.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		connection.set(null);
+		synchronized (connection) {
+			connection.notifyAll();
+		}
+
+		executor.execute(this::closeConnector);
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(JMX_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		if (connectionsLost.get() > 0) {
+			logger.info("The JMX connection to node '" + host + ":" + jmxPort + "' was lost " + connectionsLost.get() + " times during the run.");
+		}
+	}
+
+
+	/**
+	 * Check whether the connection is up.
+	 *
+	 * @return boolean Is the connection up?
+	 */
+	public boolean isConnected() {
+		return connection.get() != null;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public long getConnectionsLost() {
+		return connectionsLost.get();
+	}
+
+}
@@ -1,25 +1,25 @@
 package jmx;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.SortedMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.management.AttributeNotFoundException;
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanException;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
-import javax.management.ObjectName;
 import javax.management.ReflectionException;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import general.CounterRates;
 import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.StatisticsEngine;
 
 public class JmxListener {
 
@@ -28,38 +28,73 @@ public class JmxListener {
 
 	private static final Logger logger = LogManager.getLogger(Class.class.getName());
 
-	private static JMXConnector jmxConnector;
-	private static MBeanServerConnection jmxConnection;
+	// The connection to the node named by nodeIp, reconnected in the background whenever it is lost.
+	private static JmxConnection jmxConnection;
 
-	private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
-	private static final SimpleDateFormat FORMATTED_DATE = new SimpleDateFormat(DATE_PATTERN);
 
 	private static final String NODE_IP = LoadPropertiesFile.getProperty("nodeIp");
 	private static final String JMX_PORT = LoadPropertiesFile.getProperty("jmxPort");
+	private static final Integer JMX_FETCH_THREADS = LoadPropertiesFile.getInteger("jmxFetchThreads");
+	private static final Long JMX_CONNECT_TIMEOUT = LoadPropertiesFile.getLong("jmxConnectTimeout");
 
-	private static final Integer LIVESSTABLECOUNT_THRESHOLD = Integer.parseInt(LoadPropertiesFile.getProperty("liveSSTableCountThreshold"));
-	private static final Long ALLMEMTABLESLIVEDATASIZE_THRESHOLD = Long.parseLong(LoadPropertiesFile.getProperty("allMemtablesLiveDataSizeThreshold"));
-	private static final Double READLATENCY_THRESHOLD = Double.parseDouble(LoadPropertiesFile.getProperty("readLatencyThreshold"));
-	private static final Double WRITELATENCY_THRESHOLD = Double.parseDouble(LoadPropertiesFile.getProperty("writeLatencyThreshold"));
+	// The sampling plan for each keyspace, so the object names are only resolved once per run.
+	private static final Map<String, SamplingPlan> PLANS = new HashMap<>();
+	// The latency histograms for each keyspace, sampled with the metrics.
+	private static final Map<String, HistogramSampler> HISTOGRAMS = new HashMap<>();
+	private static ExecutorService fetchExecutor;
+
+	// The rolling statistics and threshold rules of the node named by nodeIp.
+	private static StatisticsEngine statisticsEngine;
+	// The counter totals last read from the node named by nodeIp.
+	private static CounterRates counterRates;
 
 
 
 	/**
-	 * Create the connection to the JMX service.
+	 * Create the connection to the JMX service, waiting up to jmxConnectTimeout milliseconds for it so a node that is
+	 * not there stops the screen early. Once up, the connection is kept up in the background for the rest of the run.
 	 *
 	 * @return MBeanServerConnection The connection.
-	 * @throws IOException
+	 * @throws IOException If the node could not be connected to in time.
 	 */
 	public static MBeanServerConnection createConnectionToJmxService() throws IOException {
 		logger.info("================================================================================");
 		logger.info("  Starting JmxListener.createConnectionToJmxService...");
 
-		JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi://%1$s:%2$s/jndi/rmi://%1$s:%2$s/jmxrmi", NODE_IP, JMX_PORT));
+		JmxConnection connection = new JmxConnection(NODE_IP, JMX_PORT);
+		NotificationCollector.attach(connection);
+		connection.open();
+
+		try {
+			if (!connection.awaitConnected(JMX_CONNECT_TIMEOUT)) {
+				connection.close();
+				throw new IOException("Unable to connect to the JMX service of node '" + NODE_IP + ":" + JMX_PORT + "' within "
+						+ JMX_CONNECT_TIMEOUT + " ms.");
+			}
+		} catch (InterruptedException e) {
+			connection.close();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while connecting to the JMX service of node '" + NODE_IP + ":" + JMX_PORT + "'.", e);
+		}
+
+		jmxConnection = connection;
+
+		return connection.getConnection();
+	}
 
-	    jmxConnector = JMXConnectorFactory.connect(url, null);
-	    jmxConnection = jmxConnector.getMBeanServerConnection();
 
-		return jmxConnection;
+	/**
+	 * Get the URL of the JMX service of the given node.
+	 *
+	 * @param host The host of the node.
+	 * @param port The JMX port of the node.
+	 * @return JMXServiceURL The URL.
+	 * @throws IOException
+	 */
+	static JMXServiceURL getServiceUrl(String host, String port) throws IOException {
+		String address = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+
+		return new JMXServiceURL(String.format("service:jmx:rmi://%1$s:%2$s/jndi/rmi://%1$s:%2$s/jmxrmi", address, port));
 	}
 
 
@@ -69,90 +104,190 @@ public class JmxListener {
 	 * @throws IOException
 	 */
 	public static void close() throws IOException {
-		jmxConnector.close();
+		for (Map.Entry<String, SamplingPlan> entry : PLANS.entrySet()) {
+			JmxSampler sampler = entry.getValue().getSampler();
+			logger.info(String.format("JMX collection latency for keyspace '%s' over %d samples: mean %.3f ms, max %.3f ms",
+					entry.getKey(), sampler.getSampleCount(),
+					sampler.getMeanCollectionLatencyNanos() / 1e6, sampler.getMaximumCollectionLatencyNanos() / 1e6));
+		}
+		PLANS.clear();
+		HISTOGRAMS.clear();
+
+		if (fetchExecutor != null) {
+			fetchExecutor.shutdownNow();
+			fetchExecutor = null;
+		}
+
+		if (jmxConnection != null) {
+			jmxConnection.close();
+			jmxConnection = null;
+		}
 	}
 
 
 	/**
-	 * Retrieve the JMX metrics from the listener. Values will be merged with the passed metric hash.
+	 * Get the connection to the JMX service, without waiting.
 	 *
-	 * @param readMetricHash A hash of metrics and values.
-	 * @param keyspace The keyspace to retrive metrics from.
-	 * @return SortedMap<String, String> The updated JMX metrics hash.
+	 * @return MBeanServerConnection The connection, or null if it has not been created or is down.
+	 */
+	public static MBeanServerConnection getConnection() {
+		return jmxConnection == null ? null : jmxConnection.getConnection();
+	}
+
+
+	/**
+	 * Check whether the connection to the JMX service has been created, whether or not it is up right now.
+	 *
+	 * @return boolean Has the connection been created?
+	 */
+	public static boolean isConnectionCreated() {
+		return jmxConnection != null;
+	}
+
+
+	/**
+	 * Get the sampling plan for the given keyspace, creating it on first use.
+	 *
+	 * @param keyspace The keyspace to retrieve metrics from.
+	 * @return SamplingPlan The plan.
+	 */
+	public static synchronized SamplingPlan getSamplingPlan(String keyspace) {
+		SamplingPlan plan = PLANS.get(keyspace);
+
+		if (plan == null) {
+			if (JMX_FETCH_THREADS > 1 && fetchExecutor == null) {
+				fetchExecutor = Executors.newFixedThreadPool(JMX_FETCH_THREADS);
+			}
+
+			plan = new SamplingPlan(MetricCatalog.getDefault(), keyspace, JMX_FETCH_THREADS > 1 ? fetchExecutor : null);
+			PLANS.put(keyspace, plan);
+		}
+
+		return plan;
+	}
+
+
+	/**
+	 * Get the latency histogram sampler for the given keyspace, creating it on first use.
+	 * Its series is keyed by nodeIp, so the latency of a single node and of a cluster share one table layout.
+	 *
+	 * @param keyspace The keyspace to retrieve histograms from.
+	 * @return HistogramSampler The sampler.
 	 * @throws MalformedObjectNameException
-	 * @throws AttributeNotFoundException
-	 * @throws InstanceNotFoundException
-	 * @throws MBeanException
-	 * @throws ReflectionException
-	 * @throws IOException
 	 */
-	public static SortedMap<String, String> getJmxMetrics(SortedMap<String, String> readMetricHash, String keyspace) throws MalformedObjectNameException, AttributeNotFoundException,
-			InstanceNotFoundException, MBeanException, ReflectionException, IOException {
-		logger.debug("================================================================================");
-		logger.debug("  Starting JmxListener.getJmxMetrics from keyspace '" + keyspace + "'...");
+	public static synchronized HistogramSampler getHistogramSampler(String keyspace) throws MalformedObjectNameException {
+		HistogramSampler sampler = HISTOGRAMS.get(keyspace);
+
+		if (sampler == null) {
+			sampler = new HistogramSampler(MetricCatalog.getDefault().getHistograms(), keyspace, NODE_IP);
+			HISTOGRAMS.put(keyspace, sampler);
+		}
 
-		// The cassandra-stress is being run in mixed mode, so we'll tablulate for both standard1 and counter1.
-		ObjectName liveSSTableCountPattern1 = new ObjectName("org.apache.cassandra.metrics:keyspace=" + keyspace + ",name=LiveSSTableCount,scope=standard1,type=ColumnFamily");
-		ObjectName liveSSTableCountPattern2 = new ObjectName("org.apache.cassandra.metrics:keyspace=" + keyspace + ",name=LiveSSTableCount,scope=counter1,type=ColumnFamily");
-		ObjectName allMemtablesLiveDataSizePattern1 = new ObjectName("org.apache.cassandra.metrics:keyspace=" + keyspace + ",name=AllMemtablesLiveDataSize,scope=standard1,type=ColumnFamily");
-		ObjectName allMemtablesLiveDataSizePattern2 = new ObjectName("org.apache.cassandra.metrics:keyspace=" + keyspace + ",name=AllMemtablesLiveDataSize,scope=counter1,type=ColumnFamily");
+		return sampler;
+	}
 
-		ObjectName readLatencyPattern = new ObjectName("org.apache.cassandra.metrics:type=ClientRequest,scope=Read,name=Latency");
-		ObjectName writeLatencyPattern = new ObjectName("org.apache.cassandra.metrics:type=ClientRequest,scope=Write,name=Latency");
 
-		Integer liveSSTableCountTotal = ((Integer) jmxConnection.getAttribute(liveSSTableCountPattern1, "Value") + (Integer) jmxConnection.getAttribute(liveSSTableCountPattern2, "Value"));
-		Long allMemtablesLiveDataSizeTotal = ((Long) jmxConnection.getAttribute(allMemtablesLiveDataSizePattern1, "Value") + (Long) jmxConnection.getAttribute(allMemtablesLiveDataSizePattern2, "Value"));
-		Double readLatency95thPercentileTotal = (Double) jmxConnection.getAttribute(readLatencyPattern, "95thPercentile");
-		Double writeLatency95thPercentileTotal = (Double) jmxConnection.getAttribute(writeLatencyPattern, "95thPercentile");
+	/**
+	 * Get the rolling statistics and threshold rules of the node named by nodeIp, creating them on first use.
+	 *
+	 * @return StatisticsEngine The statistics.
+	 */
+	public static synchronized StatisticsEngine getStatistics() {
+		if (statisticsEngine == null) {
+			statisticsEngine = StatisticsEngine.create(null);
+		}
 
-		checkThresholds(liveSSTableCountTotal, allMemtablesLiveDataSizeTotal, readLatency95thPercentileTotal, writeLatency95thPercentileTotal);
+		return statisticsEngine;
+	}
 
-		// Now that we've performed our calculations, convert back to String so we can send the values back in the hash.
-		String liveSSTableCount = Long.toString(liveSSTableCountTotal);
-		String allMemtablesLiveDataSize = Long.toString(allMemtablesLiveDataSizeTotal);
-		String readLatency95thPercentile = Double.toString(readLatency95thPercentileTotal);
-		String writeLatency95thPercentile = Double.toString(writeLatency95thPercentileTotal);
 
-		String timestamp = FORMATTED_DATE.format(new Date());
+	/**
+	 * Get the rate stage for the counter metrics read from the node named by nodeIp, creating it on first use.
+	 *
+	 * @return CounterRates The rate stage.
+	 */
+	public static synchronized CounterRates getCounterRates() {
+		if (counterRates == null) {
+			counterRates = new CounterRates(MetricCatalog.getDefault(), null);
+		}
 
-		logger.debug("timestamp                 : " + timestamp);
-		logger.debug("liveSSTableCount          : " + liveSSTableCount);
-		logger.debug("allMemtablesLiveDataSize  : " + allMemtablesLiveDataSize);
-		logger.debug("readLatency95thPercentile: " + readLatency95thPercentile);
-		logger.debug("writeLatency95thPercentile: " + writeLatency95thPercentile);
+		return counterRates;
+	}
 
-		readMetricHash.put(timestamp, String.join(",", liveSSTableCount, allMemtablesLiveDataSize, readLatency95thPercentile, writeLatency95thPercentile));
 
-		return readMetricHash;
+	/**
+	 * Retrieve the JMX metrics from the listener. The sample is appended to the passed series.
+	 *
+	 * @param readMetricSeries The series of metric samples, with one column per metric in the catalog.
+	 * @param keyspace The keyspace to retrive metrics from.
+	 * @return MetricSeries The updated series.
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	public static MetricSeries getJmxMetrics(MetricSeries readMetricSeries, String keyspace) throws MalformedObjectNameException,
+			ReflectionException, IOException {
+		return getJmxMetrics(readMetricSeries, keyspace, -1);
+	}
+
+
+	/**
+	 * Retrieve the JMX metrics from the listener, recording the sample at the given time (such as the tick of a SamplingScheduler).
+	 * The sample is appended to the passed series. While the connection is down, such as while the node restarts or
+	 * pauses for GC, the sample is appended as missing (a gap in the series) without waiting, and the connection is
+	 * reconnected in the background. A sample the node fails to answer is appended as missing too, as for a node of a cluster.
+	 *
+	 * @param readMetricSeries The series of metric samples, with one column per metric in the catalog.
+	 * @param keyspace The keyspace to retrive metrics from.
+	 * @param sampleTime The time of the sample in epoch milliseconds, or -1 for the time it was read.
+	 * @return MetricSeries The updated series.
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	public static MetricSeries getJmxMetrics(MetricSeries readMetricSeries, String keyspace, long sampleTime) throws MalformedObjectNameException,
+			ReflectionException, IOException {
+		logger.debug("================================================================================");
+		logger.debug("  Starting JmxListener.getJmxMetrics from keyspace '{}'...", keyspace);
+
+		long timestamp = sampleTime < 0 ? System.currentTimeMillis() : sampleTime;
+
+		NodeConnection.sample(null, jmxConnection, getSamplingPlan(keyspace), getCounterRates(), getStatistics(),
+				getHistogramSampler(keyspace), readMetricSeries, timestamp);
+
+		return readMetricSeries;
 	}
 
 
 	/**
 	 * Check that the passed metrics are within set thresholds and warn if they are not (will be graphed downstream).
 	 *
-	 * @param liveSSTableCountTotal The LiveSSTableCount totals.
-	 * @param allMemtablesLiveDataSizeTotal The AllMemtablesLiveDataSize totals.
-	 * @param readLatency95thPercentileTotal The ClientRequest read 95thPercentile totals.
-	 * @param writeLatency95thPercentileTotal The ClientRequest write 95thPercentile totals.
+	 * @param values The metric values, in the column order of the metric catalog.
 	 */
-	public static void checkThresholds(Integer liveSSTableCountTotal, Long allMemtablesLiveDataSizeTotal, Double readLatency95thPercentileTotal, Double writeLatency95thPercentileTotal) {
+	public static void checkThresholds(double[] values) {
+		checkThresholds(null, values);
+	}
+
+
+	/**
+	 * Check that the metrics read from the given node are within set thresholds and warn if they are not.
+	 *
+	 * @param node The host the metrics were read from, or null for the single node named by nodeIp.
+	 * @param values The metric values, in the column order of the metric catalog.
+	 */
+	public static void checkThresholds(String node, double[] values) {
 		logger.debug("================================================================================");
 		logger.debug("  Starting JmxListener.checkThresholds ...");
 
-		if (liveSSTableCountTotal > LIVESSTABLECOUNT_THRESHOLD) {
-			logger.warn("Read LiveSSTableCount '" + liveSSTableCountTotal + "' is greater than the threshold '" + LIVESSTABLECOUNT_THRESHOLD +  "'!");
-		}
+		MetricCatalog catalog = MetricCatalog.getDefault();
 
-		if (allMemtablesLiveDataSizeTotal > ALLMEMTABLESLIVEDATASIZE_THRESHOLD) {
-			logger.warn("Read AllMemtablesLiveDataSize '" + allMemtablesLiveDataSizeTotal + "' is greater than the threshold '" + ALLMEMTABLESLIVEDATASIZE_THRESHOLD +  "'!");
-		}
-
-		if (readLatency95thPercentileTotal > READLATENCY_THRESHOLD) {
-			logger.warn("Read ReadLatency95thPercentile '" + readLatency95thPercentileTotal + "' is greater than the threshold '" + READLATENCY_THRESHOLD +  "'!");
-		}
+		for (int i = 0; i < values.length; i++) {
+			MetricDefinition metric = catalog.get(i);
 
-		if (writeLatency95thPercentileTotal > WRITELATENCY_THRESHOLD) {
-			logger.warn("Read WriteLatency95thPercentile '" + writeLatency95thPercentileTotal + "' is greater than the threshold '" + WRITELATENCY_THRESHOLD +  "'!");
+			if (metric.exceedsThreshold(values[i])) {
+				logger.warn("Read {}{} '{}' is greater than the threshold '{}'!", metric.getId(), node == null ? "" : " on " + node,
+						metric.format(values[i]), metric.format(metric.getThreshold()));
+			}
 		}
 	}
 
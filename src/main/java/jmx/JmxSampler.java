@@ -0,0 +1,262 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.Instrumentation;
+
+public class JmxSampler {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private final ObjectName[] objectNames;
+	private final String[][] attributeNames;
+	private final ExecutorService executorService;
+
+	// Reused for every sample, so reading the attributes allocates nothing beyond what the connection itself does.
+	private final Object[][] values;
+
+	// Set once a missing MBean or attribute has been warned about, so the following ticks only log it at debug.
+	private final boolean[] warnedMBeans;
+	private final boolean[][] warnedAttributes;
+
+	private long lastCollectionLatencyNanos;
+	private long maximumCollectionLatencyNanos;
+	private long totalCollectionLatencyNanos;
+	private long sampleCount;
+
+
+	/**
+	 * Create a sampler for the given MBeans. The object names are resolved once here and reused for every sample.
+	 * Each MBean has all of its attributes fetched with a single getAttributes call.
+	 *
+	 * @param objectNames The MBeans to sample.
+	 * @param attributeNames The attributes to read, one array per MBean in the same order as the object names.
+	 * @param executorService The executor used to fetch the MBeans concurrently, or null to fetch them in sequence.
+	 */
+	public JmxSampler(ObjectName[] objectNames, String[][] attributeNames, ExecutorService executorService) {
+		if (objectNames.length != attributeNames.length) {
+			throw new IllegalArgumentException("Expected one attribute list per MBean, got " + attributeNames.length + " for " + objectNames.length + " MBeans.");
+		}
+
+		this.objectNames = objectNames.clone();
+		this.attributeNames = attributeNames.clone();
+		this.executorService = executorService;
+
+		this.values = new Object[objectNames.length][];
+		this.warnedMBeans = new boolean[objectNames.length];
+		this.warnedAttributes = new boolean[objectNames.length][];
+		for (int i = 0; i < objectNames.length; i++) {
+			values[i] = new Object[attributeNames[i].length];
+			warnedAttributes[i] = new boolean[attributeNames[i].length];
+		}
+	}
+
+
+	/**
+	 * Create a sampler for a new set of MBeans that shares this sampler's executor and keeps its latency statistics.
+	 *
+	 * @param newObjectNames The MBeans to sample.
+	 * @param newAttributeNames The attributes to read, one array per MBean.
+	 * @return JmxSampler The new sampler.
+	 */
+	public synchronized JmxSampler withMBeans(ObjectName[] newObjectNames, String[][] newAttributeNames) {
+		JmxSampler sampler = new JmxSampler(newObjectNames, newAttributeNames, executorService);
+
+		sampler.lastCollectionLatencyNanos = lastCollectionLatencyNanos;
+		sampler.maximumCollectionLatencyNanos = maximumCollectionLatencyNanos;
+		sampler.totalCollectionLatencyNanos = totalCollectionLatencyNanos;
+		sampler.sampleCount = sampleCount;
+
+		return sampler;
+	}
+
+
+	/**
+	 * Read every attribute of every MBean from the given connection. Only one sample may be read at a time.
+	 *
+	 * @param connection The connection to the JMX service.
+	 * @return Object[][] The attribute values, indexed by MBean and then by attribute. Missing MBeans and attributes are null.
+	 *         The arrays are reused by the next sample.
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	public Object[][] sample(MBeanServerConnection connection) throws ReflectionException, IOException {
+		long startTime = System.nanoTime();
+
+		if (executorService == null || objectNames.length == 1) {
+			for (int i = 0; i < objectNames.length; i++) {
+				fetch(connection, i);
+			}
+		} else {
+			List<Future<Object[]>> futures = new ArrayList<>(objectNames.length);
+
+			for (int i = 0; i < objectNames.length; i++) {
+				final int index = i;
+				Callable<Object[]> task = () -> fetch(connection, index);
+				futures.add(executorService.submit(task));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				await(futures.get(i));
+			}
+		}
+
+		recordLatency(System.nanoTime() - startTime);
+
+		return values;
+	}
+
+
+	/**
+	 * Fetch the attributes of the MBean at the given index in one round trip, into its slot of the sample.
+	 *
+	 * @param connection The connection to the JMX service.
+	 * @param index The index of the MBean.
+	 * @return Object[] The attribute values in the requested order.
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	private Object[] fetch(MBeanServerConnection connection, int index) throws ReflectionException, IOException {
+		String[] names = attributeNames[index];
+		Object[] result = values[index];
+		Arrays.fill(result, null);
+
+		AttributeList attributes;
+		try {
+			attributes = connection.getAttributes(objectNames[index], names);
+		} catch (InstanceNotFoundException e) {
+			// Table metrics only appear once the table exists, so a missing MBean is not fatal to the sample.
+			if (warnedMBeans[index]) {
+				logger.debug("MBean '{}' is not registered yet.", objectNames[index]);
+			} else {
+				logger.warn("MBean '" + objectNames[index] + "' is not registered.");
+				warnedMBeans[index] = true;
+			}
+			return result;
+		}
+
+		// getAttributes silently leaves out anything it could not read, so match the returned values back up by name.
+		for (int a = 0; a < attributes.size(); a++) {
+			Attribute attribute = (Attribute) attributes.get(a);
+
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(attribute.getName())) {
+					result[i] = attribute.getValue();
+					break;
+				}
+			}
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			if (result[i] == null) {
+				if (warnedAttributes[index][i]) {
+					logger.debug("Attribute '{}' could not be read from '{}'.", names[i], objectNames[index]);
+				} else {
+					logger.warn("Attribute '" + names[i] + "' could not be read from '" + objectNames[index] + "'.");
+					warnedAttributes[index][i] = true;
+				}
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Wait for a concurrent fetch to complete, unwrapping the checked exceptions thrown by it.
+	 *
+	 * @param future The pending fetch.
+	 * @return Object[] The attribute values.
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	private static Object[] await(Future<Object[]> future) throws ReflectionException, IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting on the JMX service.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof ReflectionException) {
+				throw (ReflectionException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Failed to read from the JMX service.", cause);
+		}
+	}
+
+
+	private synchronized void recordLatency(long latencyNanos) {
+		Instrumentation.record(Instrumentation.Stage.JMX_ROUND_TRIP, latencyNanos);
+
+		lastCollectionLatencyNanos = latencyNanos;
+		totalCollectionLatencyNanos += latencyNanos;
+		sampleCount++;
+
+		if (latencyNanos > maximumCollectionLatencyNanos) {
+			maximumCollectionLatencyNanos = latencyNanos;
+		}
+	}
+
+
+	/**
+	 * Get the time taken to collect the most recent sample.
+	 *
+	 * @return long The latency in nanoseconds.
+	 */
+	public synchronized long getLastCollectionLatencyNanos() {
+		return lastCollectionLatencyNanos;
+	}
+
+
+	/**
+	 * Get the longest time taken to collect a sample.
+	 *
+	 * @return long The latency in nanoseconds.
+	 */
+	public synchronized long getMaximumCollectionLatencyNanos() {
+		return maximumCollectionLatencyNanos;
+	}
+
+
+	/**
+	 * Get the average time taken to collect a sample.
+	 *
+	 * @return long The latency in nanoseconds.
+	 */
+	public synchronized long getMeanCollectionLatencyNanos() {
+		return sampleCount == 0 ? 0 : totalCollectionLatencyNanos / sampleCount;
+	}
+
+
+	/**
+	 * Get the number of samples collected.
+	 *
+	 * @return long The sample count.
+	 */
+	public synchronized long getSampleCount() {
+		return sampleCount;
+	}
+
+}
@@ -0,0 +1,228 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ReflectionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.CounterRates;
+import general.Instrumentation;
+import general.MetricCatalog;
+import general.MetricSeries;
+import general.SampleLog;
+import general.StatisticsEngine;
+
+public class NodeConnection {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private final String host;
+	private final SamplingPlan plan;
+	private final MetricSeries series;
+	private final CounterRates counterRates;
+	private final StatisticsEngine statistics;
+	private final HistogramSampler histograms;
+
+	// Set while a sample is being read, so a slow node is skipped rather than polled twice at once.
+	private final AtomicBoolean busy = new AtomicBoolean();
+
+	// The ticks skipped while the node was busy. Only the thread holding the node appends them to the series, as gaps.
+	private final Queue<Long> skippedTicks = new ConcurrentLinkedQueue<>();
+	private final double[] gap;
+
+	private final JmxConnection jmxConnection;
+
+	private long samplesFailed;
+
+
+	/**
+	 * Create a connection to the JMX service of one node, and start connecting in the background.
+	 *
+	 * @param host The host of the node.
+	 * @param jmxPort The JMX port of the node.
+	 * @param catalog The metrics to collect.
+	 * @param keyspace The keyspace to retrieve metrics from.
+	 */
+	public NodeConnection(String host, String jmxPort, MetricCatalog catalog, String keyspace) {
+		this.host = host;
+		this.plan = new SamplingPlan(catalog, keyspace, null);
+		this.series = new MetricSeries(catalog.getMetrics(), host);
+		this.counterRates = new CounterRates(catalog, host);
+		this.statistics = StatisticsEngine.create(host);
+		this.gap = new double[catalog.size()];
+		Arrays.fill(gap, Double.NaN);
+
+		try {
+			this.histograms = new HistogramSampler(catalog.getHistograms(), keyspace, host);
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Invalid histogram MBean name for keyspace '" + keyspace + "': " + e.getMessage(), e);
+		}
+
+		this.jmxConnection = new JmxConnection(host, jmxPort);
+		NotificationCollector.attach(jmxConnection);
+		this.jmxConnection.open();
+	}
+
+
+	/**
+	 * Claim the node for a sample.
+	 *
+	 * @return boolean False if the previous sample is still being read.
+	 */
+	boolean tryAcquire() {
+		return busy.compareAndSet(false, true);
+	}
+
+
+	/**
+	 * Read one sample from the node and append it to its series.
+	 * Must only be called after a successful tryAcquire; the node is released when the sample is done.
+	 * While the node cannot be read, such as while it restarts, its samples are recorded as missing (a gap in the series)
+	 * without waiting, and it is reconnected in the background.
+	 *
+	 * @param timestamp The time of the sample in epoch milliseconds, shared by every node in the tick.
+	 */
+	void sample(long timestamp) {
+		try {
+			appendSkippedTicks();
+			if (!sample(host, jmxConnection, plan, counterRates, statistics, histograms, series, timestamp)) {
+				samplesFailed++;
+			}
+			appendSkippedTicks();
+		} finally {
+			busy.set(false);
+		}
+	}
+
+
+	/**
+	 * Record that the tick at the given time was skipped, as the node was still busy with its previous sample.
+	 * The thread sampling the node appends it to the series as a gap once it is done, or before the next sample if
+	 * it had just finished, so the series is still only appended to by the thread holding the node, in time order.
+	 *
+	 * @param timestamp The time of the skipped tick in epoch milliseconds.
+	 */
+	void skip(long timestamp) {
+		skippedTicks.add(timestamp);
+	}
+
+
+	private void appendSkippedTicks() {
+		Long timestamp;
+		while ((timestamp = skippedTicks.poll()) != null) {
+			series.append(timestamp, gap);
+		}
+	}
+
+
+	/**
+	 * Read one sample through the given connection, pass it through the rate, threshold and statistics stages, and
+	 * append it to the series, then sample the latency histograms. Shared by every node of a cluster and the single
+	 * node named by nodeIp, so both handle a failed read the same way: the sample is appended as missing (a gap in the
+	 * series), and if the connection itself failed it is reconnected in the background.
+	 *
+	 * @param host The host the sample is read from, or null for the single node named by nodeIp.
+	 * @param jmxConnection The connection to the node, or null if there is none.
+	 * @param plan The sampling plan of the node.
+	 * @param counterRates The rate stage of the node.
+	 * @param statistics The rolling statistics of the node.
+	 * @param histograms The latency histograms of the node.
+	 * @param series The series the sample is appended to.
+	 * @param timestamp The time of the sample in epoch milliseconds.
+	 * @return boolean True if the sample was read, false if it was appended as missing.
+	 */
+	static boolean sample(String host, JmxConnection jmxConnection, SamplingPlan plan, CounterRates counterRates,
+			StatisticsEngine statistics, HistogramSampler histograms, MetricSeries series, long timestamp) {
+		double[] values = null;
+		long collectionLatencyNanos = -1;
+		MBeanServerConnection connection = jmxConnection == null ? null : jmxConnection.getConnection();
+
+		if (connection != null) {
+			try {
+				values = plan.sample(connection);
+				collectionLatencyNanos = plan.getSampler().getLastCollectionLatencyNanos();
+			} catch (IOException | RuntimeException e) {
+				jmxConnection.failed(connection, e);
+				connection = null;
+			} catch (ReflectionException | MalformedObjectNameException e) {
+				logger.warn("Unable to read the JMX metrics of node '" + jmxConnection.getHost() + "': " + e);
+			}
+		}
+
+		boolean read = values != null;
+		if (!read) {
+			Instrumentation.increment(Instrumentation.Counter.SAMPLES_FAILED);
+
+			values = new double[series.getColumnCount()];
+			Arrays.fill(values, Double.NaN);
+		}
+
+		long processingStart = Instrumentation.start();
+
+		counterRates.apply(timestamp, values);
+		JmxListener.checkThresholds(host, values);
+		statistics.update(timestamp, values);
+
+		series.append(timestamp, values);
+		SampleLog.log(host, timestamp, plan.getCatalog(), values, collectionLatencyNanos);
+
+		Instrumentation.stop(Instrumentation.Stage.SAMPLE_PROCESSING, processingStart);
+		Instrumentation.increment(Instrumentation.Counter.SAMPLES);
+
+		if (connection != null) {
+			try {
+				histograms.sample(connection, timestamp);
+			} catch (IOException e) {
+				jmxConnection.failed(connection, e);
+			} catch (RuntimeException e) {
+				logger.warn("Unable to read the latency histograms of node '" + jmxConnection.getHost() + "': " + e);
+			}
+		}
+
+		return read;
+	}
+
+
+	/**
+	 * Close the connection, logging the collection latency of the node.
+	 */
+	public void close() {
+		// Unless a sample is still being read, the ticks skipped at the end are gaps too. The node is left claimed.
+		if (tryAcquire()) {
+			appendSkippedTicks();
+		}
+
+		JmxSampler sampler = plan.getSampler();
+		logger.info(String.format("JMX collection latency for node '%s' over %d samples: mean %.3f ms, max %.3f ms, %d samples failed",
+				host, sampler.getSampleCount(), sampler.getMeanCollectionLatencyNanos() / 1e6,
+				sampler.getMaximumCollectionLatencyNanos() / 1e6, samplesFailed));
+
+		jmxConnection.close();
+	}
+
+
+	public String getHost() {
+		return host;
+	}
+
+	public MetricSeries getSeries() {
+		return series;
+	}
+
+	public StatisticsEngine getStatistics() {
+		return statistics;
+	}
+
+	public HistogramSampler getHistograms() {
+		return histograms;
+	}
+
+}
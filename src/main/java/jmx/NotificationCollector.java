@@ -0,0 +1,156 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import general.EventRing;
+import general.LoadPropertiesFile;
+
+/**
+ * Records the notifications of a node's mBeans as events, such as the end of each GC pause, the moment the node sends
+ * them rather than at the next tick. The mBeans are named by the object name patterns in notificationSources and
+ * subscribed to again after every reconnect. The listener only publishes to the EventRing, so the JMX connector's
+ * notification thread never waits on anything else.
+ */
+public class NotificationCollector implements NotificationListener {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final String NOTIFICATION_SOURCES = LoadPropertiesFile.getProperty("notificationSources");
+
+	private final String host;
+	private final EventRing ring;
+	private final List<ObjectName> sources;
+
+
+	/**
+	 * Create a collector for the given node.
+	 *
+	 * @param host The host of the node.
+	 * @param ring The ring the events are published to.
+	 * @param sources The object names or patterns of the mBeans to subscribe to.
+	 */
+	public NotificationCollector(String host, EventRing ring, List<ObjectName> sources) {
+		this.host = host;
+		this.ring = ring;
+		this.sources = sources;
+	}
+
+
+	/**
+	 * Subscribe to the mBeans in notificationSources every time the given connection connects, publishing their
+	 * notifications to the default EventRing. Does nothing if notificationSources is empty.
+	 * Call before the connection is opened.
+	 *
+	 * @param connection The connection to the node.
+	 */
+	public static void attach(JmxConnection connection) {
+		List<ObjectName> sources = getSources();
+
+		if (!sources.isEmpty()) {
+			connection.addConnectListener(new NotificationCollector(connection.getHost(), EventRing.getDefault(), sources)::subscribe);
+		}
+	}
+
+
+	/**
+	 * Get the object names or patterns listed in notificationSources, separated by semicolons.
+	 *
+	 * @return List<ObjectName> The names, empty if there are none.
+	 */
+	public static List<ObjectName> getSources() {
+		List<ObjectName> sources = new ArrayList<>();
+
+		if (NOTIFICATION_SOURCES == null) {
+			return sources;
+		}
+
+		for (String source : NOTIFICATION_SOURCES.split(";")) {
+			if (source.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				sources.add(new ObjectName(source.trim()));
+			} catch (MalformedObjectNameException e) {
+				logger.warn("Ignoring the notification source '" + source.trim() + "': " + e.getMessage());
+			}
+		}
+
+		return sources;
+	}
+
+
+	/**
+	 * Add this collector as a listener to every mBean matching the sources. An mBean that does not send
+	 * notifications, or has gone, is skipped.
+	 *
+	 * @param connection The newly connected connection.
+	 */
+	public void subscribe(MBeanServerConnection connection) {
+		int subscribed = 0;
+
+		for (ObjectName source : sources) {
+			Set<ObjectName> names;
+			try {
+				names = connection.queryNames(source, null);
+			} catch (IOException e) {
+				logger.warn("Unable to find the notification sources '" + source + "' of node '" + host + "': " + e);
+				continue;
+			}
+
+			for (ObjectName name : names) {
+				try {
+					if (connection.isInstanceOf(name, "javax.management.NotificationBroadcaster")) {
+						connection.addNotificationListener(name, this, null, name);
+						subscribed++;
+					}
+				} catch (InstanceNotFoundException e) {
+					logger.debug("The notification source '" + name + "' of node '" + host + "' has gone.");
+				} catch (IOException e) {
+					logger.warn("Unable to subscribe to the notifications of '" + name + "' of node '" + host + "': " + e);
+				}
+			}
+		}
+
+		logger.info("Subscribed to the notifications of " + subscribed + " mBeans of node '" + host + "'.");
+	}
+
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		String type = notification.getType();
+		String source = String.valueOf(handback);
+		long timestamp = notification.getTimeStamp() > 0 ? notification.getTimeStamp() : System.currentTimeMillis();
+
+		if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(type)
+				&& notification.getUserData() instanceof CompositeData) {
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			// Some collectors send the notification without the details of the collection, so its duration is unknown.
+			double duration = info.getGcInfo() == null ? Double.NaN : info.getGcInfo().getDuration();
+
+			ring.publish(timestamp, host, source, type, "GC",
+					info.getGcName() + ": " + info.getGcAction() + " (" + info.getGcCause() + ")", duration);
+			return;
+		}
+
+		String message = notification.getMessage();
+		ring.publish(timestamp, host, source, type, type.substring(type.lastIndexOf('.') + 1),
+				message == null || message.isEmpty() ? type : message, Double.NaN);
+	}
+
+}
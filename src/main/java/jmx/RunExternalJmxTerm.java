@@ -7,15 +7,29 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.file.Files;
-import java.util.Objects;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import general.Instrumentation;
 import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricDefinition;
+import general.MetricSeries;
 import general.Miscellaneous;
+import general.SampleLog;
+import general.SamplingScheduler;
 
 public class RunExternalJmxTerm {
 
@@ -26,37 +40,135 @@ public class RunExternalJmxTerm {
 
 	private static Process process;
 
+	private static final String JMX_COLLECTOR = LoadPropertiesFile.getProperty("jmxCollector");
+
+	// Set by close() to stop the native collector loop; the connection is only closed here if the collector opened it.
+	private static volatile boolean nativeCollectorRunning;
+	private static boolean nativeCollectorConnected;
+
+	private static final Integer QUERY_SLEEP_INTERVAL = LoadPropertiesFile.getInteger("querySleepInterval");
+
+	// The format of the expect script's clock format {%D %T}.
+	private static final String EXPECT_DATE_PATTERN = "MM/dd/yy HH:mm:ss";
+	private static final DateTimeFormatter EXPECT_DATE_FORMAT = DateTimeFormatter.ofPattern(EXPECT_DATE_PATTERN);
+
+
+	/**
+	 * Collect the catalog metrics for the given keyspace until close() is called, using the collector named by
+	 * the jmxCollector property: native (in this JVM, over JMX) or jmxterm (an external expect and jmxterm process).
+	 *
+	 * @param keyspace The name of the keyspace to use.
+	 * @return MetricSeries The gathered metrics.
+	 * @throws IOException
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
+	 */
+	public static MetricSeries runJmxCollector(String keyspace) throws IOException, MalformedObjectNameException, ReflectionException {
+		if ("jmxterm".equalsIgnoreCase(JMX_COLLECTOR)) {
+			return runExternalJmxTerm(keyspace);
+		}
+
+		return runNativeCollector(keyspace);
+	}
+
+
+	/**
+	 * Collect the catalog metrics for the given keyspace in this JVM, using the JmxListener connection,
+	 * on every tick of a SamplingScheduler of querySleepInterval until close() is called. Each sample is timestamped
+	 * with its tick, as TestScreen's are. This needs no expect script or second JVM.
+	 *
+	 * @param keyspace The name of the keyspace to use.
+	 * @return MetricSeries The gathered metrics.
+	 * @throws IOException
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
+	 */
+	public static MetricSeries runNativeCollector(String keyspace) throws IOException, MalformedObjectNameException, ReflectionException {
+		logger.info("================================================================================");
+		logger.info("  Starting RunExternalJmxTerm.runNativeCollector...");
+
+		MetricSeries readMetricSeries = new MetricSeries(MetricCatalog.getDefault().getMetrics());
+
+		nativeCollectorRunning = true;
+		if (!JmxListener.isConnectionCreated()) {
+			JmxListener.createConnectionToJmxService();
+			nativeCollectorConnected = true;
+		}
+
+		SamplingScheduler samplingScheduler = new SamplingScheduler(QUERY_SLEEP_INTERVAL);
+		try {
+			while (nativeCollectorRunning) {
+				long tick = samplingScheduler.awaitNextTick();
+
+				JmxListener.getJmxMetrics(readMetricSeries, keyspace, tick);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			samplingScheduler.close();
+		}
+
+		return readMetricSeries;
+	}
+
 
 	/**
 	 * Run the external JMX term client against the given keyspace.
-	 * Retrieve metrics LiveSSTableCount, AllMemtablesLiveDataSize, ClientRequest read, ClientRequest write.
+	 * Retrieve the metrics listed in the metric catalog. Wildcard MBean names and composite attributes
+	 * cannot be read through jmxterm, so those metrics are recorded as missing.
 	 *
 	 * @param keyspace The name of the keyspace to use.
-	 * @return SortedMap<String, String> The gathered metrics.
+	 * @return MetricSeries The gathered metrics.
 	 * @throws IOException
+	 * @throws MalformedObjectNameException
 	 */
-	public static SortedMap<String, String> runExternalJmxTerm(String keyspace) throws IOException {
+	public static MetricSeries runExternalJmxTerm(String keyspace) throws IOException, MalformedObjectNameException {
 		logger.info("================================================================================");
 		logger.info("  Starting RunExternalJmxTerm.runExternalJmxTerm...");
 
-		Integer jmxPort = Integer.parseInt(LoadPropertiesFile.getProperty("jmxPort"));
+		Integer jmxPort = LoadPropertiesFile.getInteger("jmxPort");
 		String nodeIp = LoadPropertiesFile.getProperty("nodeIp");
 
+		MetricCatalog catalog = MetricCatalog.getDefault();
+
+		if (!catalog.getHistograms().isEmpty()) {
+			logger.warn("The latency histograms cannot be read through jmxterm and will not be collected.");
+		}
+
+		// One get command per MBean; remember which metric each output line belongs to.
+		List<String> getCommands = new ArrayList<>();
+		List<Integer> lineMetrics = new ArrayList<>();
+		int[] partsPerMetric = new int[catalog.size()];
+
+		for (int m = 0; m < catalog.size(); m++) {
+			MetricDefinition metric = catalog.get(m);
+
+			if (metric.getCompositeKey() != null) {
+				logger.warn("Metric '" + metric.getId() + "' reads a composite attribute and cannot be collected with jmxterm.");
+				continue;
+			}
+
+			for (ObjectName objectName : metric.getObjectNames(keyspace)) {
+				if (objectName.isPattern()) {
+					logger.warn("Metric '" + metric.getId() + "' uses the pattern '" + objectName + "' and cannot be collected with jmxterm.");
+					continue;
+				}
+
+				getCommands.add("get -s -b " + objectName + " " + metric.getAttribute());
+				lineMetrics.add(m);
+				partsPerMetric[m]++;
+			}
+		}
+
 		String shellScript = "runJmxterm.sh";
 		String shellScriptText = "#!/usr/bin/expect -f\n" +
 				"		set CHILD_PID [spawn java -jar libs/jmxterm-1.0.0-uber.jar -n -v silent -l service:jmx:rmi:///jndi/rmi://" + nodeIp + ":" +  jmxPort + "/jmxrmi]\n" +
-				"		send \"domain org.apache.cassandra.metrics\\r\"\n" +
 				"		while { true } {\n" +
 				"		        set now [clock seconds]\n" +
 				"		        set date [clock format $now -format {%D %T}]\n" +
 				"		        set date\n" +
 				"		        puts $date\n" +
-				"		        send \"get -s -b keyspace=" + keyspace + ",name=LiveSSTableCount,scope=standard1,type=ColumnFamily Value && " +
-				"get -s -b keyspace=" + keyspace + ",name=LiveSSTableCount,scope=counter1,type=ColumnFamily Value && " +
-				"get -s -b keyspace=" + keyspace + ",name=AllMemtablesLiveDataSize,scope=standard1,type=ColumnFamily Value && " +
-				"get -s -b keyspace=" + keyspace + ",name=AllMemtablesLiveDataSize,scope=counter1,type=ColumnFamily Value && " +
-				"get -s -b type=ClientRequest,scope=Read,name=Latency 95thPercentile && " +
-				"get -s -b type=ClientRequest,scope=Write,name=Latency 95thPercentile\\r\"\n" +
+				"		        send \"" + String.join(" && ", getCommands) + "\\r\"\n" +
 				"		        expect sleep 1\n" +
 				"		}\n" +
 				"\n" +
@@ -80,51 +192,103 @@ public class RunExternalJmxTerm {
 
 		logger.debug("Output of running jmxterm is:");
 
-		TreeMap<String, String> readMetricHash = new TreeMap<>();
-		String[] readMetricArray = new String[7];
+		MetricSeries readMetricSeries = new MetricSeries(catalog.getMetrics());
+
+		// The timestamp line followed by one line per get command.
+		int linesPerSample = getCommands.size() + 1;
+		String[] readMetricArray = new String[linesPerSample];
+
+		int[] metricPerLine = new int[lineMetrics.size()];
+		for (int l = 0; l < metricPerLine.length; l++) {
+			metricPerLine[l] = lineMetrics.get(l);
+		}
+
+		// Reused for every sample; the series keeps its own copy of the values.
+		double[][] parts = new double[catalog.size()][];
+		int[] partCounts = new int[catalog.size()];
+		double[] values = new double[catalog.size()];
+		for (int m = 0; m < catalog.size(); m++) {
+			parts[m] = new double[partsPerMetric[m]];
+		}
 
 		int cnt = 0;
 		while ((line = br.readLine()) != null) {
-			if ((!line.startsWith("domain")) && (!line.startsWith("get")) && (!line.startsWith("spawn"))) {
-				logger.debug(cnt + " " + line);
+			if ((!line.startsWith("get")) && (!line.startsWith("spawn"))) {
+				logger.debug("{} {}", cnt, line);
 
 				readMetricArray[cnt] = line;
 
-				if (cnt == 6) {
+				if (cnt == linesPerSample - 1) {
+					long parseStart = Instrumentation.start();
 
 					String timestamp = readMetricArray[0];
+					long timestampMillis = parseTimestamp(timestamp);
+
+					Arrays.fill(partCounts, 0);
 
-					// The cassandra-stress is being run in mixed mode, so we'll tablulate for both standard1 and counter1.
-					Integer liveSSTableCountTotal = (int) (Miscellaneous.convertStringValue(readMetricArray[1], "LiveSSTableCount standard1", timestamp) +
-							Miscellaneous.convertStringValue(readMetricArray[2], "LiveSSTableCount counter1", timestamp));
+					for (int l = 1; l < linesPerSample; l++) {
+						int m = metricPerLine[l - 1];
+						parts[m][partCounts[m]++] = Miscellaneous.convertStringValue(readMetricArray[l], catalog.get(m).getId(), timestamp);
+					}
 
-					Long allMemtablesLiveDataSizeTotal = (long) (Miscellaneous.convertStringValue(readMetricArray[3], "AllMemtablesLiveDataSize standard1", timestamp) +
-							Miscellaneous.convertStringValue(readMetricArray[4], "AllMemtablesLiveDataSize counter1", timestamp));
+					for (int m = 0; m < catalog.size(); m++) {
+						values[m] = catalog.get(m).aggregate(parts[m], partCounts[m]);
+					}
 
-					Double readLatency95thPercentileTotal = Miscellaneous.convertStringValue(readMetricArray[5], "ReadLatency95thPercentileTotal", timestamp);
-					Double writeLatency95thPercentileTotal = Miscellaneous.convertStringValue(readMetricArray[6], "WriteLatency95thPercentileTotal", timestamp);
+					long processingStart = Instrumentation.start();
+					Instrumentation.record(Instrumentation.Stage.JMXTERM_PARSE, processingStart - parseStart);
 
-					JmxListener.checkThresholds(liveSSTableCountTotal, allMemtablesLiveDataSizeTotal, readLatency95thPercentileTotal, writeLatency95thPercentileTotal);
+					JmxListener.getCounterRates().apply(timestampMillis, values);
+					JmxListener.checkThresholds(values);
+					JmxListener.getStatistics().update(timestampMillis, values);
 
-					readMetricHash.put(timestamp,
-							String.join(",",
-							Objects.toString(liveSSTableCountTotal, null),
-							Objects.toString(allMemtablesLiveDataSizeTotal, null),
-							Objects.toString(readLatency95thPercentileTotal, null),
-							Objects.toString(writeLatency95thPercentileTotal, null)));
+					readMetricSeries.append(timestampMillis, values);
+					SampleLog.log(null, timestampMillis, catalog, values, -1);
+
+					Instrumentation.stop(Instrumentation.Stage.SAMPLE_PROCESSING, processingStart);
+					Instrumentation.increment(Instrumentation.Counter.SAMPLES);
 					cnt = 0;
-					readMetricArray = new String[7]; // ensure that we 'zero' out the values for the next pass.
+					Arrays.fill(readMetricArray, null); // ensure that we 'zero' out the values for the next pass.
 				} else {
 					cnt++;
 				}
 			}
 		}
 
-		return readMetricHash;
+		return readMetricSeries;
+	}
+
+
+	/**
+	 * Parse the timestamp printed by the expect script.
+	 *
+	 * @param timestamp The timestamp, formatted as MM/dd/yy HH:mm:ss.
+	 * @return long The time in epoch milliseconds, or the current time if it could not be parsed.
+	 */
+	private static long parseTimestamp(String timestamp) {
+		try {
+			if (timestamp != null) {
+				return LocalDateTime.parse(timestamp, EXPECT_DATE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+			}
+		} catch (DateTimeParseException e) {
+			logger.catching(e);
+		}
+
+		logger.error("Timestamp '" + timestamp + "' is not a valid date, using the current time!");
+		return System.currentTimeMillis();
 	}
 
-	public static void close() {
-		process.destroy();
+	public static void close() throws IOException {
+		nativeCollectorRunning = false;
+
+		if (process != null) {
+			process.destroy();
+		}
+
+		if (nativeCollectorConnected) {
+			JmxListener.close();
+			nativeCollectorConnected = false;
+		}
 	}
 
 }
@@ -0,0 +1,222 @@
+package jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.MetricCatalog;
+import general.MetricDefinition;
+
+public class SamplingPlan {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// Wildcard MBean names are queried again every so often, so tables created during the run are picked up.
+	// Patterns that matched nothing yet (the stress tables are created after warm up) are retried sooner.
+	private static final int PATTERN_REFRESH_SAMPLES = 60;
+	private static final int EMPTY_PATTERN_REFRESH_SAMPLES = 5;
+
+	private final MetricCatalog catalog;
+	private final String keyspace;
+
+	private JmxSampler sampler;
+
+	// For each metric, the MBean and attribute positions in the sampler results that feed it.
+	private int[][] mbeanSlots;
+	private int[][] attributeSlots;
+
+	// Reused for every sample: the value read from each matched MBean, and the aggregated value of each metric.
+	private double[][] parts;
+	private final double[] values;
+
+	private boolean hasPatterns;
+	private boolean hasEmptyPatterns;
+	private int samplesSinceCompile;
+
+
+	/**
+	 * Create a sampling plan for the given catalog and keyspace. The plan is compiled against a connection on the first sample.
+	 *
+	 * @param catalog The metrics to collect.
+	 * @param keyspace The keyspace to substitute into the MBean names.
+	 * @param executorService The executor used to fetch the MBeans concurrently, or null to fetch them in sequence.
+	 */
+	public SamplingPlan(MetricCatalog catalog, String keyspace, ExecutorService executorService) {
+		this.catalog = catalog;
+		this.keyspace = keyspace;
+		this.sampler = new JmxSampler(new ObjectName[0], new String[0][], executorService);
+		this.values = new double[catalog.size()];
+	}
+
+
+	/**
+	 * Resolve every metric's MBean names (querying any wildcards) and group the attributes so that each MBean is read once.
+	 *
+	 * @param connection The connection to the JMX service.
+	 * @throws MalformedObjectNameException
+	 * @throws IOException
+	 */
+	public synchronized void compile(MBeanServerConnection connection) throws MalformedObjectNameException, IOException {
+		logger.debug("================================================================================");
+		logger.debug("  Starting SamplingPlan.compile for keyspace '{}'...", keyspace);
+
+		Map<ObjectName, List<String>> mbeans = new LinkedHashMap<>();
+		Map<ObjectName, Integer> mbeanIndexes = new HashMap<>();
+		int metricCount = catalog.size();
+		int[][] newMbeanSlots = new int[metricCount][];
+		int[][] newAttributeSlots = new int[metricCount][];
+		double[][] newParts = new double[metricCount][];
+
+		hasPatterns = false;
+		hasEmptyPatterns = false;
+
+		for (int m = 0; m < metricCount; m++) {
+			MetricDefinition metric = catalog.get(m);
+			List<ObjectName> resolved = new ArrayList<>();
+
+			for (ObjectName objectName : metric.getObjectNames(keyspace)) {
+				if (objectName.isPattern()) {
+					hasPatterns = true;
+					Set<ObjectName> matches = connection.queryNames(objectName, null);
+
+					if (matches.isEmpty()) {
+						hasEmptyPatterns = true;
+						logger.debug("No MBeans match '{}' for metric '{}' yet.", objectName, metric.getId());
+					}
+					resolved.addAll(matches);
+				} else {
+					resolved.add(objectName);
+				}
+			}
+
+			newMbeanSlots[m] = new int[resolved.size()];
+			newAttributeSlots[m] = new int[resolved.size()];
+			newParts[m] = new double[resolved.size()];
+
+			for (int i = 0; i < resolved.size(); i++) {
+				ObjectName objectName = resolved.get(i);
+				List<String> attributes = mbeans.get(objectName);
+
+				if (attributes == null) {
+					attributes = new ArrayList<>();
+					mbeanIndexes.put(objectName, mbeans.size());
+					mbeans.put(objectName, attributes);
+				}
+
+				int attributeIndex = attributes.indexOf(metric.getAttributeName());
+				if (attributeIndex < 0) {
+					attributeIndex = attributes.size();
+					attributes.add(metric.getAttributeName());
+				}
+
+				newMbeanSlots[m][i] = mbeanIndexes.get(objectName);
+				newAttributeSlots[m][i] = attributeIndex;
+			}
+		}
+
+		ObjectName[] objectNames = mbeans.keySet().toArray(new ObjectName[0]);
+		String[][] attributeNames = new String[objectNames.length][];
+		for (int i = 0; i < objectNames.length; i++) {
+			attributeNames[i] = mbeans.get(objectNames[i]).toArray(new String[0]);
+		}
+
+		sampler = sampler.withMBeans(objectNames, attributeNames);
+		mbeanSlots = newMbeanSlots;
+		attributeSlots = newAttributeSlots;
+		parts = newParts;
+		samplesSinceCompile = 0;
+
+		logger.debug("Sampling {} metrics from {} MBeans.", metricCount, objectNames.length);
+	}
+
+
+	/**
+	 * Read one sample of every metric in the catalog.
+	 *
+	 * @param connection The connection to the JMX service.
+	 * @return double[] The aggregated value of each metric in catalog order; NaN where nothing could be read.
+	 *         The array is reused by the next sample, so copy it (as MetricSeries.append does) before sampling again.
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
+	 * @throws IOException
+	 */
+	public synchronized double[] sample(MBeanServerConnection connection) throws MalformedObjectNameException, ReflectionException, IOException {
+		int refreshSamples = hasEmptyPatterns ? EMPTY_PATTERN_REFRESH_SAMPLES : PATTERN_REFRESH_SAMPLES;
+		if (mbeanSlots == null || (hasPatterns && samplesSinceCompile >= refreshSamples)) {
+			compile(connection);
+		}
+		samplesSinceCompile++;
+
+		Object[][] raw = sampler.sample(connection);
+
+		for (int m = 0; m < values.length; m++) {
+			MetricDefinition metric = catalog.get(m);
+			int[] mbeanSlot = mbeanSlots[m];
+			int[] attributeSlot = attributeSlots[m];
+			double[] metricParts = parts[m];
+
+			for (int i = 0; i < mbeanSlot.length; i++) {
+				Object[] mbeanValues = raw[mbeanSlot[i]];
+				metricParts[i] = toDouble(mbeanValues == null ? null : mbeanValues[attributeSlot[i]], metric.getCompositeKey());
+			}
+
+			values[m] = metric.aggregate(metricParts, metricParts.length);
+		}
+
+		return values;
+	}
+
+
+	/**
+	 * Convert an attribute value read from JMX into a number.
+	 *
+	 * @param value The attribute value.
+	 * @param compositeKey The item to read from a composite value, or null.
+	 * @return double The number, or NaN if the value is missing or not numeric.
+	 */
+	static double toDouble(Object value, String compositeKey) {
+		if (compositeKey != null && value instanceof CompositeData) {
+			CompositeData composite = (CompositeData) value;
+			value = composite.containsKey(compositeKey) ? composite.get(compositeKey) : null;
+		}
+
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+
+		return Double.NaN;
+	}
+
+
+	/**
+	 * Get the sampler used by this plan.
+	 *
+	 * @return JmxSampler The sampler.
+	 */
+	public synchronized JmxSampler getSampler() {
+		return sampler;
+	}
+
+	public MetricCatalog getCatalog() {
+		return catalog;
+	}
+
+	public String getKeyspace() {
+		return keyspace;
+	}
+
+}
@@ -0,0 +1,144 @@
+package jmx_logger_qa_screen;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.CounterRates;
+import general.MetricCatalog;
+import general.MetricSeries;
+import general.Miscellaneous;
+import general.StatisticsEngine;
+import jmx.JmxListener;
+
+public class AllocationTest {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	private static final int WARM_UP_RUNS = 3;
+	private static final int MEASURED_OPERATIONS = 1_000_000;
+
+	// Values as jmxterm prints them.
+	private static final String[] JMXTERM_VALUES = { "0", "7", "1234567", "38499999", "0.0", "412.5", "799999.123456" };
+
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static boolean failed;
+
+
+	/**
+	 * Check that parsing, threshold checks, rolling statistics, counter rates and appending a sample allocate nothing per sample once warmed up,
+	 * so polling every few hundred milliseconds does not make garbage on the node being measured.
+	 * Appending is allowed the amortized cost of the series storage itself.
+	 *
+	 * @param args Main passed arguments.
+	 */
+	public static void main(String[] args) {
+		logger.info("================================================================================");
+		logger.info("  Starting AllocationTest.main...");
+
+		MetricCatalog catalog = MetricCatalog.getDefault();
+		double[] values = new double[catalog.size()];
+		for (int i = 0; i < values.length; i++) {
+			// Under every threshold, as the warnings are meant to allocate.
+			values[i] = 1;
+		}
+
+		measure("Miscellaneous.parseNumber", 0, () -> {
+			double sum = 0;
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				sum += Miscellaneous.parseNumber(JMXTERM_VALUES[i % JMXTERM_VALUES.length]);
+			}
+			return sum;
+		});
+
+		measure("Miscellaneous.convertStringValue", 0, () -> {
+			double sum = 0;
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				sum += Miscellaneous.convertStringValue(JMXTERM_VALUES[i % JMXTERM_VALUES.length], "metric", "10/04/18 07:15:52");
+			}
+			return sum;
+		});
+
+		measure("JmxListener.checkThresholds", 0, () -> {
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				JmxListener.checkThresholds("127.0.0.1", values);
+			}
+			return values[0];
+		});
+
+		StatisticsEngine statistics = StatisticsEngine.create(null);
+		long[] clock = new long[1];
+		measure("StatisticsEngine.update", 0, () -> {
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				statistics.update(clock[0] += 1000, values);
+			}
+			return statistics.getStatistics(0).getMean();
+		});
+
+		CounterRates counterRates = new CounterRates(catalog, null);
+		double[] totals = new double[catalog.size()];
+		measure("CounterRates.apply", 0, () -> {
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				// The rates replace the totals in place, so the growing totals are read afresh each time.
+				Arrays.fill(totals, clock[0]);
+				counterRates.apply(clock[0] += 1000, totals);
+			}
+			return totals[0];
+		});
+
+		// The series stores a timestamp and one value per column for each row, plus its share of the chunk headers.
+		long rowBytes = 8L * (values.length + 1);
+		measure("MetricSeries.append", rowBytes + 8, () -> {
+			MetricSeries series = new MetricSeries(catalog.getMetrics());
+			for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+				series.append(i, values);
+				if ((i & 0xffff) == 0) {
+					series.releaseBefore(i);
+				}
+			}
+			return series.size();
+		});
+
+		if (failed) {
+			throw new IllegalStateException("The sampling path allocates more than it should, see the log.");
+		}
+	}
+
+
+	private static void measure(String name, long maximumBytesPerOperation, Operation operation) {
+		long threadId = Thread.currentThread().getId();
+
+		// Warm up first, so class loading and compilation are not counted.
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			operation.runQuietly();
+		}
+
+		long before = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+		operation.runQuietly();
+		long allocated = THREAD_BEAN.getThreadAllocatedBytes(threadId) - before;
+
+		double bytesPerOperation = (double) allocated / MEASURED_OPERATIONS;
+
+		if (bytesPerOperation > maximumBytesPerOperation) {
+			logger.error(String.format("%s allocates %.2f bytes per call, more than the %d allowed.", name, bytesPerOperation, maximumBytesPerOperation));
+			failed = true;
+		} else {
+			logger.info(String.format("%s allocates %.2f bytes per call.", name, bytesPerOperation));
+		}
+	}
+
+
+	private interface Operation {
+		double run();
+
+		default void runQuietly() {
+			if (Double.isInfinite(run())) {
+				logger.debug("Unreachable, keeps the result alive.");
+			}
+		}
+	}
+
+}
@@ -30,7 +30,7 @@ public class CassandraConnectionTest {
 		logger.info("================================================================================");
 		logger.info("  Starting CassandraConnectionTest.main...");
 
-		Integer nodePort = Integer.parseInt(LoadPropertiesFile.getProperty("nodePort"));
+		Integer nodePort = LoadPropertiesFile.getInteger("nodePort");
 		String nodeIp = LoadPropertiesFile.getProperty("nodeIp");
 		String nodeUsername = LoadPropertiesFile.getProperty("nodeUsername");
 		String nodePassword = LoadPropertiesFile.getProperty("nodePassword");
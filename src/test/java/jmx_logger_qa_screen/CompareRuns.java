@@ -0,0 +1,195 @@
+package jmx_logger_qa_screen;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import cassandra.DbFunctions;
+import cassandra.RunReader;
+import general.Chart;
+import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.RecordingReader;
+import general.RunComparison;
+import general.SampleHandler;
+
+public class CompareRuns {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+
+	/**
+	 * Compare a candidate run with a baseline run, metric by metric, and chart them over each other.
+	 * Each run is either a recording made by TestScreen, run:<run ID>[:<node>] to read it from the run results table,
+	 * or db:<from epoch ms>:<to epoch ms>[:<node>] to read it from the results tables of earlier versions (the
+	 * clusterResultsTable when a node is given).
+	 *
+	 * @param args The baseline run, then the candidate run.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting CompareRuns.main...");
+
+		if (args.length != 2) {
+			logger.error("Usage: CompareRuns <baseline recording | run:id[:node] | db:from:to[:node]> <candidate recording | run:id[:node] | db:from:to[:node]>");
+			return;
+		}
+
+		boolean database = isDatabase(args[0]) || isDatabase(args[1]);
+		if (database) {
+			DbFunctions.createSession();
+		}
+
+		// Both runs are compared over their common length, so it is found before either is read.
+		RunSource baselineSource = open(args[0]);
+		RunSource candidateSource = open(args[1]);
+		long duration = Math.min(baselineSource.getDuration(), candidateSource.getDuration());
+		int pointBudget = LoadPropertiesFile.getInteger("chartPointBudget");
+
+		long startTime = System.nanoTime();
+		RunComparison.Run baseline = baselineSource.read(duration, pointBudget);
+		RunComparison.Run candidate = candidateSource.read(duration, pointBudget);
+
+		if (database) {
+			DbFunctions.close();
+		}
+
+		RunComparison comparison = new RunComparison(baseline, candidate, MetricCatalog.getDefault(),
+				LoadPropertiesFile.getDouble("comparisonSignificance"), LoadPropertiesFile.getDouble("comparisonTolerance"));
+		logger.info(String.format("Read and compared the runs in %.1f ms.", (System.nanoTime() - startTime) / 1e6));
+
+		comparison.logReport();
+		Chart.createComparisonChartHTML(comparison, "Comparison");
+
+		logger.info("Done...");
+	}
+
+
+	private static boolean isDatabase(String run) {
+		return run.startsWith("db:") || run.startsWith("run:");
+	}
+
+
+	/**
+	 * Find the given run and its time range, without reading its samples yet.
+	 */
+	private static RunSource open(String run) throws IOException {
+		if (!isDatabase(run)) {
+			Path file = Paths.get(run);
+
+			try (RecordingReader reader = new RecordingReader(file)) {
+				long start = reader.getRowCount() == 0 ? 0 : reader.getStartTime();
+				long end = reader.getRowCount() == 0 ? 0 : reader.getEndTime();
+
+				return new RunSource(reader.getColumns(), reader.getNode(), start, end) {
+					@Override
+					void read(long from, long to, SampleHandler handler) throws IOException {
+						try (RecordingReader recording = new RecordingReader(file)) {
+							recording.read(from, to, handler);
+						}
+					}
+				};
+			}
+		}
+
+		String testResultsKeyspace = LoadPropertiesFile.getProperty("testResultsKeyspace");
+		List<MetricDefinition> metrics = MetricCatalog.getDefault().getMetrics();
+
+		if (run.startsWith("run:")) {
+			String[] parts = run.split(":", 3);
+			RunReader reader = DbFunctions.createRunReader(testResultsKeyspace, LoadPropertiesFile.getProperty("runsTable"), UUID.fromString(parts[1]));
+
+			String node;
+			if (parts.length == 3) {
+				node = parts[2];
+			} else if (reader.getNodes().size() == 1) {
+				node = reader.getNodes().get(0);
+			} else {
+				throw new IllegalArgumentException("Run '" + parts[1] + "' watched " + reader.getNodes() + ", give one as run:<run ID>:<node>.");
+			}
+
+			long end = reader.getEndTime() == null ? System.currentTimeMillis() : reader.getEndTime();
+
+			return new RunSource(metrics, node, reader.getStartTime(), end) {
+				@Override
+				void read(long from, long to, SampleHandler handler) {
+					reader.read(node, metrics, from, to, handler);
+				}
+			};
+		}
+
+		String[] parts = run.split(":", 4);
+		if (parts.length < 3) {
+			throw new IllegalArgumentException("'" + run + "' is not db:<from epoch ms>:<to epoch ms>[:<node>].");
+		}
+
+		String node = parts.length == 4 ? parts[3] : null;
+		String table = LoadPropertiesFile.getProperty(node == null ? "testResultsTable" : "clusterResultsTable");
+
+		return new RunSource(metrics, node, Long.parseLong(parts[1]), Long.parseLong(parts[2])) {
+			@Override
+			void read(long from, long to, SampleHandler handler) {
+				if (node != null) {
+					// The samples of a node are one partition of the cluster results table, read in time order.
+					DbFunctions.createResultScanner(testResultsKeyspace, table).scan(metrics, node, from, to, handler);
+					return;
+				}
+
+				// Every sample is its own partition of the single node table, which can only be scanned in token order;
+				// it is sorted in memory, as the comparison needs each sample beside the one before.
+				MetricSeries series = DbFunctions.readResults(testResultsKeyspace, table, metrics, null, from, to);
+				double[] values = new double[metrics.size()];
+				for (int row = 0; row < series.size(); row++) {
+					for (int column = 0; column < values.length; column++) {
+						values[column] = series.getDouble(row, column);
+					}
+					handler.accept(series.getTimestamp(row), values);
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * A run to compare: where its samples are, and when it started and ended.
+	 */
+	private abstract static class RunSource {
+
+		private final List<MetricDefinition> columns;
+		private final String node;
+		private final long startTime;
+		private final long endTime;
+
+		RunSource(List<MetricDefinition> columns, String node, long startTime, long endTime) {
+			this.columns = columns;
+			this.node = node;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+
+		long getDuration() {
+			return Math.max(0, endTime - startTime);
+		}
+
+		/**
+		 * Stream the first durationMillis of the run into a new Run, a sample at a time.
+		 */
+		RunComparison.Run read(long durationMillis, int pointBudget) throws IOException {
+			RunComparison.Run run = new RunComparison.Run(columns, node, startTime, durationMillis, pointBudget);
+			read(startTime, startTime + durationMillis, run);
+			return run;
+		}
+
+		abstract void read(long from, long to, SampleHandler handler) throws IOException;
+
+	}
+
+}
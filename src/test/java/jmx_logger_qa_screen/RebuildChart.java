@@ -0,0 +1,100 @@
+package jmx_logger_qa_screen;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import cassandra.DbFunctions;
+import cassandra.ResultScanner;
+import cassandra.RunReader;
+import general.Chart;
+import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.Miscellaneous;
+import general.StreamingDownsampler;
+
+public class RebuildChart {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+
+	/**
+	 * Chart a past run again from the database. The samples are streamed page by page into at most chartPointBudget
+	 * points per node, so a day-long run of a large cluster charts in little memory; with chartPointBudget 0 every
+	 * sample is read into memory and drawn.
+	 *
+	 * @param args run:<run ID>[:<node>] to chart every node (or the given node) of a run in the run results table, or
+	 *             db:<from epoch ms>:<to epoch ms>[:<node>] for the results tables of earlier versions.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting RebuildChart.main...");
+
+		if (args.length != 1 || !(args[0].startsWith("run:") || args[0].startsWith("db:"))) {
+			logger.error("Usage: RebuildChart <run:id[:node] | db:from:to[:node]>");
+			return;
+		}
+
+		String testResultsKeyspace = LoadPropertiesFile.getProperty("testResultsKeyspace");
+		int pointBudget = LoadPropertiesFile.getInteger("chartPointBudget");
+		List<MetricDefinition> metrics = MetricCatalog.getDefault().getMetrics();
+
+		DbFunctions.createSession();
+
+		if (args[0].startsWith("run:")) {
+			String[] parts = args[0].split(":", 3);
+			RunReader reader = DbFunctions.createRunReader(testResultsKeyspace, LoadPropertiesFile.getProperty("runsTable"), UUID.fromString(parts[1]));
+			long to = reader.getEndTime() == null ? System.currentTimeMillis() : reader.getEndTime();
+
+			for (String node : parts.length == 3 ? Collections.singletonList(parts[2]) : reader.getNodes()) {
+				MetricSeries series;
+
+				if (pointBudget <= 0) {
+					series = reader.readSeries(node, metrics);
+				} else {
+					StreamingDownsampler downsampler = new StreamingDownsampler(metrics, node, reader.getStartTime(), to, pointBudget);
+					reader.read(node, metrics, downsampler);
+					series = downsampler.getSeries();
+					logger.info("Reduced " + downsampler.getSampleCount() + " samples of node '" + node + "' to " + series.size() + ".");
+				}
+
+				Chart.createChartHTML(Miscellaneous.validateMetricSeries(series), "Rebuilt_" + parts[1]);
+			}
+		} else {
+			String[] parts = args[0].split(":", 4);
+			if (parts.length < 3) {
+				throw new IllegalArgumentException("'" + args[0] + "' is not db:<from epoch ms>:<to epoch ms>[:<node>].");
+			}
+
+			long from = Long.parseLong(parts[1]);
+			long to = Long.parseLong(parts[2]);
+			String node = parts.length == 4 ? parts[3] : null;
+			String table = LoadPropertiesFile.getProperty(node == null ? "testResultsTable" : "clusterResultsTable");
+			MetricSeries series;
+
+			if (pointBudget <= 0) {
+				series = DbFunctions.readResults(testResultsKeyspace, table, metrics, node, from, to);
+			} else {
+				ResultScanner scanner = DbFunctions.createResultScanner(testResultsKeyspace, table);
+				StreamingDownsampler downsampler = new StreamingDownsampler(metrics, node, from, to, pointBudget);
+				scanner.scan(metrics, node, from, to, downsampler);
+				series = downsampler.getSeries();
+				logger.info("Reduced " + downsampler.getSampleCount() + " samples to " + series.size() + ".");
+			}
+
+			Chart.createChartHTML(Miscellaneous.validateMetricSeries(series), "Rebuilt");
+		}
+
+		DbFunctions.close();
+
+		logger.info("Done...");
+	}
+
+}
@@ -0,0 +1,90 @@
+package jmx_logger_qa_screen;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.utils.UUIDs;
+
+import cassandra.DbFunctions;
+import cassandra.ResultFlusher;
+import cassandra.ResultWriter;
+import general.Chart;
+import general.LoadPropertiesFile;
+import general.MetricSeries;
+import general.Miscellaneous;
+import general.RecordingReader;
+
+public class ReplayRecording {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+
+	/**
+	 * Replay a recording made by TestScreen without a running cluster: validate and chart it again, and with db,
+	 * write it to the run results table again as a new run of the node it was recorded from.
+	 *
+	 * @param args The recording file, then optionally chart (the default), db or all, then optionally the first and last
+	 *             time to replay in epoch milliseconds.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		logger.info("================================================================================");
+		logger.info("  Starting ReplayRecording.main...");
+
+		if (args.length < 1) {
+			logger.error("Usage: ReplayRecording <recording> [chart|db|all] [<from epoch ms> <to epoch ms>]");
+			return;
+		}
+
+		String mode = args.length > 1 ? args[1] : "chart";
+		long from = args.length > 3 ? Long.parseLong(args[2]) : Long.MIN_VALUE;
+		long to = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+		MetricSeries series;
+		long startTime = System.nanoTime();
+		try (RecordingReader reader = new RecordingReader(Paths.get(args[0]))) {
+			series = reader.read(from, to);
+		}
+		logger.info(String.format("Read %d samples in %.1f ms.", series.size(), (System.nanoTime() - startTime) / 1e6));
+
+		if (!"db".equals(mode)) {
+			Chart.createChartHTML(Miscellaneous.validateMetricSeries(series), "Replay");
+		}
+
+		if ("db".equals(mode) || "all".equals(mode)) {
+			String testResultsKeyspace = LoadPropertiesFile.getProperty("testResultsKeyspace");
+			String runResultsTable = LoadPropertiesFile.getProperty("runResultsTable");
+			String runsTable = LoadPropertiesFile.getProperty("runsTable");
+			String node = series.getNode() == null ? LoadPropertiesFile.getProperty("nodeIp") : series.getNode();
+
+			if (series.size() == 0) {
+				logger.warn("There are no samples to write.");
+				return;
+			}
+
+			DbFunctions.createSession();
+
+			UUID runId = UUIDs.timeBased();
+			logger.info("Run ID: " + runId);
+			DbFunctions.startRun(testResultsKeyspace, runsTable, runResultsTable, runId, Collections.singletonList(node),
+					series.getTimestamp(0), "Replay of " + Paths.get(args[0]).getFileName());
+
+			ResultWriter resultWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, runResultsTable, series.getColumns(), runId, node);
+			ResultFlusher resultFlusher = new ResultFlusher(resultWriter, series);
+			resultFlusher.start();
+			resultFlusher.close();
+
+			DbFunctions.finishRun(testResultsKeyspace, runsTable, runId, series.getTimestamp(series.size() - 1));
+
+			DbFunctions.close();
+		}
+
+		logger.info("Done...");
+	}
+
+}
@@ -0,0 +1,131 @@
+package jmx_logger_qa_screen;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import general.MetricCatalog;
+import general.MetricDefinition;
+import general.MetricSeries;
+import general.RunComparison;
+
+public class RunComparisonTest {
+
+	private static final Logger logger = LogManager.getLogger(Class.class.getName());
+
+	// An hour of samples a second, each correlated with the one before as JMX metrics are.
+	private static final int SAMPLES = 3600;
+	private static final double CORRELATION = 0.9;
+	private static final double MEAN = 100;
+	private static final double DEVIATION = 10;
+
+	private static final double SIGNIFICANCE = 0.01;
+	private static final double TOLERANCE = 0.01;
+
+	// Lower is better, so a higher candidate has regressed.
+	private static final String METRIC = "writeLatency95thPercentile";
+
+	private static boolean failed;
+
+
+	/**
+	 * Check the verdict of comparing correlated runs: two runs of the same behavior are unchanged, although their
+	 * samples are strongly correlated and would look different to a test that took them as independent, and a run
+	 * whose level rose by a tenth has regressed. Both the in-memory and the streamed comparison are checked.
+	 *
+	 * @param args Main passed arguments.
+	 */
+	public static void main(String[] args) {
+		logger.info("================================================================================");
+		logger.info("  Starting RunComparisonTest.main...");
+
+		MetricCatalog catalog = MetricCatalog.getDefault();
+		List<MetricDefinition> metrics = catalog.getMetrics();
+		int column = -1;
+		for (int i = 0; i < metrics.size(); i++) {
+			if (metrics.get(i).getId().equals(METRIC)) {
+				column = i;
+			}
+		}
+
+		for (int seed = 1; seed <= 5; seed++) {
+			MetricSeries baseline = createRun(metrics, column, seed, MEAN);
+			MetricSeries candidate = createRun(metrics, column, seed + 1000, MEAN);
+			check("same behavior, seed " + seed, new RunComparison(baseline, candidate, catalog, SIGNIFICANCE, TOLERANCE),
+					RunComparison.Verdict.UNCHANGED);
+
+			MetricSeries slower = createRun(metrics, column, seed + 2000, MEAN * 1.1);
+			check("10% slower, seed " + seed, new RunComparison(baseline, slower, catalog, SIGNIFICANCE, TOLERANCE),
+					RunComparison.Verdict.REGRESSED);
+			check("10% slower streamed, seed " + seed, new RunComparison(stream(baseline), stream(slower), catalog, SIGNIFICANCE, TOLERANCE),
+					RunComparison.Verdict.REGRESSED);
+		}
+
+		if (failed) {
+			throw new IllegalStateException("Comparing correlated runs gave the wrong verdict, see the log.");
+		}
+	}
+
+
+	/**
+	 * Create a run of the given level, a first order autoregressive series with the given seed.
+	 * The other metrics are missing.
+	 */
+	private static MetricSeries createRun(List<MetricDefinition> metrics, int column, long seed, double mean) {
+		Random random = new Random(seed);
+		MetricSeries series = new MetricSeries(metrics);
+		double[] values = new double[metrics.size()];
+		Arrays.fill(values, Double.NaN);
+
+		// Scaled so the series varies by DEVIATION around its mean, whatever the correlation.
+		double innovation = DEVIATION * Math.sqrt(1 - CORRELATION * CORRELATION);
+		double deviation = DEVIATION * random.nextGaussian();
+
+		for (int i = 0; i < SAMPLES; i++) {
+			deviation = CORRELATION * deviation + innovation * random.nextGaussian();
+			values[column] = mean + deviation;
+			series.append(1_000_000L + i * 1000L, values);
+		}
+
+		return series;
+	}
+
+
+	/**
+	 * Stream the series into a Run, as CompareRuns reads a run from a recording or the database.
+	 */
+	private static RunComparison.Run stream(MetricSeries series) {
+		long start = series.getTimestamp(0);
+		RunComparison.Run run = new RunComparison.Run(series.getColumns(), null, start, series.getTimestamp(series.size() - 1) - start, 200);
+
+		double[] values = new double[series.getColumnCount()];
+		for (int row = 0; row < series.size(); row++) {
+			for (int column = 0; column < values.length; column++) {
+				values[column] = series.getDouble(row, column);
+			}
+			run.accept(series.getTimestamp(row), values);
+		}
+
+		return run;
+	}
+
+
+	private static void check(String name, RunComparison comparison, RunComparison.Verdict expected) {
+		for (RunComparison.MetricComparison metric : comparison.getComparisons()) {
+			if (!metric.getId().equals(METRIC)) {
+				continue;
+			}
+
+			if (metric.getVerdict() != expected || comparison.getVerdict() != expected) {
+				logger.error(name + ": expected " + expected + " but got " + metric);
+				failed = true;
+			} else {
+				logger.info(name + ": " + metric);
+			}
+		}
+	}
+
+}
@@ -2,6 +2,9 @@ package jmx_logger_qa_screen;
 
 import java.io.IOException;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ReflectionException;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -13,16 +16,18 @@ public class RunExternalJmxTermTest {
 
 
 	/**
-	 * Test running the external JMX term process.
+	 * Test running the JMX collector named by the jmxCollector property (native or the external jmxterm process).
 	 *
 	 * @param args Main passed arguments.
 	 * @throws IOException
+	 * @throws MalformedObjectNameException
+	 * @throws ReflectionException
 	 */
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws IOException, MalformedObjectNameException, ReflectionException {
 		logger.info("================================================================================");
 		logger.info("  Starting RunExternalJmxTermTest.main...");
 
-		RunExternalJmxTerm.runExternalJmxTerm("keyspace1");
+		RunExternalJmxTerm.runJmxCollector("keyspace1");
 
 		RunExternalJmxTerm.close();
 	}
@@ -1,7 +1,10 @@
 package jmx_logger_qa_screen;
 
 import java.io.IOException;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -16,12 +19,28 @@ import javax.management.ReflectionException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.datastax.driver.core.utils.UUIDs;
+
 import cassandra.DbFunctions;
+import cassandra.EventFlusher;
+import cassandra.ResultFlusher;
+import cassandra.ResultWriter;
 import cassandra.RunExternalCassandraStress;
 import general.Chart;
+import general.Configuration;
+import general.EventRing;
+import general.Instrumentation;
 import general.LoadPropertiesFile;
+import general.MetricCatalog;
+import general.MetricSeries;
+import general.MetricsEndpoint;
 import general.Miscellaneous;
+import general.RecordingWriter;
+import general.SamplingScheduler;
+import jmx.ClusterCollector;
+import jmx.HistogramSampler;
 import jmx.JmxListener;
+import jmx.NodeConnection;
 
 public class TestScreen {
 
@@ -47,11 +66,26 @@ public class TestScreen {
 		logger.info("================================================================================");
 		logger.info("  Starting TestScreen.main...");
 
-		Integer querySleepInterval = Integer.parseInt(LoadPropertiesFile.getProperty("querySleepInterval"));
+		Integer querySleepInterval = LoadPropertiesFile.getInteger("querySleepInterval");
+		Long progressReportInterval = LoadPropertiesFile.getLong("progressReportInterval");
 		String testResultsKeyspace = LoadPropertiesFile.getProperty("testResultsKeyspace");
-		String testResultsTable = LoadPropertiesFile.getProperty("testResultsTable");
-		TreeMap<String, String> readMetricHash = new TreeMap<>();
-		TreeMap<String, String> validatedMetricHash = new TreeMap<>();
+		String runResultsTable = LoadPropertiesFile.getProperty("runResultsTable");
+		String runsTable = LoadPropertiesFile.getProperty("runsTable");
+		String stressResultsTable = LoadPropertiesFile.getProperty("stressResultsTable");
+		String latencyResultsTable = LoadPropertiesFile.getProperty("latencyResultsTable");
+		String histogramTable = LoadPropertiesFile.getProperty("histogramTable");
+		String eventsTable = LoadPropertiesFile.getProperty("eventsTable");
+		String jmxNodes = LoadPropertiesFile.getProperty("jmxNodes");
+		MetricSeries readMetricSeries = new MetricSeries(MetricCatalog.getDefault().getMetrics());
+		MetricSeries validatedMetricSeries;
+		boolean rulesPassed;
+
+		// Every sample of this run is stored under its ID, which is what to compare or chart the run by later.
+		UUID runId = UUIDs.timeBased();
+		logger.info("Run ID: " + runId);
+
+		// Time the screener's own stages, readable over JMX while it runs and reported at the end.
+		Instrumentation.register();
 
 		// Create a thread for the cassandra-stress process.
 		long startTime = System.currentTimeMillis();
@@ -64,36 +98,116 @@ public class TestScreen {
 		// Connect to Cassandra; ensure it is running.
 		DbFunctions.createSession();
 
-		// Connect to the JMX listener.
-		JmxListener.createConnectionToJmxService();
+		// With metricsPort set, serve the latest samples to Prometheus while the screen runs.
+		MetricsEndpoint.start();
 
-		// While the cassandra-stress is running, poll with the jmx listener and gather metrics.
-		// Sleep at a set interval before retrieving metrics again.
-		while (!future.isDone()) {
-			// Retrieve the metrics from JMX. Use the default cassandra-space keyspace 'keyspace1'.
-			readMetricHash = (TreeMap<String, String>) JmxListener.getJmxMetrics(readMetricHash, "keyspace1");
+		// Write the cassandra-stress throughput and latency to their own table of the run as they are parsed.
+		MetricSeries stressSeries = RunExternalCassandraStress.getStressSeries();
+		MetricsEndpoint.register(stressSeries, "stress");
+		ResultWriter stressWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, stressResultsTable, stressSeries.getColumns(), runId,
+				RunExternalCassandraStress.STRESS_NODE);
+		DbFunctions.addRunTable(testResultsKeyspace, runsTable, runId, "stress", stressResultsTable);
+		ResultFlusher stressFlusher = new ResultFlusher(stressWriter, stressSeries);
+		stressFlusher.start();
+
+		// Write the events the nodes report as they happen, such as GC pauses, to their own table.
+		EventFlusher eventFlusher = DbFunctions.createEventFlusher(testResultsKeyspace, eventsTable, runId, EventRing.getDefault());
+		eventFlusher.start();
+
+		// Sample at a fixed rate on wall-clock boundaries, and mention every so often that we're waiting on cassandra-stress.
+		SamplingScheduler samplingScheduler = new SamplingScheduler(querySleepInterval);
+		samplingScheduler.startProgressReport(startTime, "cassandra-stress", progressReportInterval);
+
+		// With reloadConfig set, the thresholds and querySleepInterval may be retuned in config.properties during the run.
+		Configuration.addReloadListener(configuration -> samplingScheduler.setPeriod(configuration.getInt("querySleepInterval")));
+		Configuration.startWatching();
+
+		// With jmxNodes set, watch every node of the cluster rather than only nodeIp.
+		if (jmxNodes != null && !jmxNodes.trim().isEmpty()) {
+			rulesPassed = runClusterScreen(future, samplingScheduler, runId, startTime, testResultsKeyspace, runsTable, latencyResultsTable,
+					histogramTable, eventFlusher, jmxNodes.trim());
+		} else {
+			// Connect to the JMX listener, and load the threshold rules before polling so a bad rule stops the screen early.
+			JmxListener.createConnectionToJmxService();
+			JmxListener.getStatistics();
+
+			// Write the results as read from JMX to the Cassandra database while they are collected.
+			String nodeIp = LoadPropertiesFile.getProperty("nodeIp");
+			DbFunctions.startRun(testResultsKeyspace, runsTable, runResultsTable, runId, Collections.singletonList(nodeIp), startTime, "TestScreen of " + nodeIp);
+			ResultWriter resultWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, runResultsTable, readMetricSeries.getColumns(), runId, nodeIp);
+			ResultFlusher resultFlusher = new ResultFlusher(resultWriter, readMetricSeries);
+			resultFlusher.start();
+			MetricsEndpoint.register(readMetricSeries, "jmx");
+
+			// Write the request latency percentiles of each interval, as read from the Cassandra histograms, to their own table of the run.
+			HistogramSampler histogramSampler = JmxListener.getHistogramSampler("keyspace1");
+			MetricSeries latencySeries = histogramSampler.getSeries();
+			ResultWriter latencyWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, latencyResultsTable, latencySeries.getColumns(), runId,
+					latencySeries.getNode());
+			DbFunctions.addRunTable(testResultsKeyspace, runsTable, runId, "latency", latencyResultsTable);
+			ResultFlusher latencyFlusher = new ResultFlusher(latencyWriter, latencySeries);
+			latencyFlusher.start();
+			MetricsEndpoint.register(latencySeries, "latency");
+
+			// Keep every sample in a compact binary recording too, so the run can be replayed offline.
+			RecordingWriter recordingWriter = RecordingWriter.create(readMetricSeries, "TestScreen");
+
+			// While the cassandra-stress is running, poll with the jmx listener and gather metrics on every tick.
+			while (!future.isDone()) {
+				long tick = samplingScheduler.awaitNextTick();
+
+				// Retrieve the metrics from JMX. Use the default cassandra-space keyspace 'keyspace1'.
+				readMetricSeries = JmxListener.getJmxMetrics(readMetricSeries, "keyspace1", tick);
+				if (recordingWriter != null) {
+					recordingWriter.record(readMetricSeries);
+				}
+				resultFlusher.awaitCapacity();
+				latencyFlusher.awaitCapacity();
+			}
+
+			// Write any results not yet flushed to the Cassandra database.
+			resultFlusher.close();
+			latencyFlusher.close();
+			eventFlusher.close();
+			DbFunctions.finishRun(testResultsKeyspace, runsTable, runId, System.currentTimeMillis());
+			if (recordingWriter != null) {
+				recordingWriter.close();
+			}
 
-			// Every 30 seconds mention that we're waiting on cassandra-stress.
-			Miscellaneous.reportWaitTime(startTime, "cassandra-stress");
+			// Keep the latency histograms of the whole run, so they can be merged with other runs later.
+			histogramSampler.logSummary();
+			DbFunctions.writeHistograms(testResultsKeyspace, histogramTable, latencySeries.getNode(), histogramSampler);
 
-			Thread.sleep(querySleepInterval);
+			// Report whether the sustained behavior stayed within the threshold rules.
+			rulesPassed = JmxListener.getStatistics().close();
+
+			if (ResultFlusher.isRetainingSamples()) {
+				// Validate the JMX results.
+				validatedMetricSeries = Miscellaneous.validateMetricSeries(readMetricSeries);
+
+				// Create the charts
+				Chart.createChartHTML(validatedMetricSeries, "TestScreen", eventFlusher.getEvents(nodeIp));
+				Chart.createChartHTML(latencySeries, "TestScreen_latency", eventFlusher.getEvents(nodeIp));
+			} else {
+				logger.info("Samples were not retained in memory (retainSamples=false), skipping the validation and chart.");
+			}
+
+			// Close the connection to the JMX Listener.
+			JmxListener.close();
 		}
 
+		samplingScheduler.close();
+
 		String result = future.get();
 		logger.info(result);
 		RunExternalCassandraStress.close();
 
-		// Validate the JMX results.
-		validatedMetricHash = (TreeMap<String, String>) Miscellaneous.convertMetricHash(readMetricHash);
-
-		// Create the chart
-		Chart.createChartHTML(validatedMetricHash);
-
-		// Write the results as read from JMX to the Cassandra database.
-		DbFunctions.writeResults(testResultsKeyspace, testResultsTable, readMetricHash);
+		stressFlusher.close();
+		if (ResultFlusher.isRetainingSamples()) {
+			Chart.createChartHTML(stressSeries, "TestScreen_stress");
+		}
 
-		// Close the connection to the JMX Listener.
-		JmxListener.close();
+		MetricsEndpoint.close();
 
 		// Close the connection to the database.
 		DbFunctions.close();
@@ -101,8 +215,131 @@ public class TestScreen {
 		// Shutdown the cassandra-stress process thread.
 		executorService.shutdown();
 
+		// Show what the screen itself cost, so it can be told apart from the node under test.
+		Instrumentation.report();
+
 		logger.info("Done...");
+
+		// Fail the run, so whatever started the screen, such as a CI job, sees the sustained breach.
+		if (!rulesPassed) {
+			throw new IllegalStateException("The screen failed one or more threshold rules, see the rule results above.");
+		}
 	}
 
 
-}
\ No newline at end of file
+	/**
+	 * Poll every node of the cluster in parallel while cassandra-stress is running, writing each node's samples
+	 * to the runResultsTable and charting each node separately. The threshold rules are evaluated per node.
+	 *
+	 * @param future The running cassandra-stress.
+	 * @param samplingScheduler The scheduler of the polls.
+	 * @param runId The ID the samples are written under.
+	 * @param startTime The time the run started in epoch milliseconds.
+	 * @param testResultsKeyspace The keyspace of the results table.
+	 * @param runsTable The table the run is registered in.
+	 * @param latencyResultsTable The table of the latency percentiles of each interval.
+	 * @param histogramTable The table of the latency histograms of the whole run.
+	 * @param eventFlusher The flusher of the events the nodes report.
+	 * @param jmxNodes The comma separated hosts to poll, or discover to find them in system.peers.
+	 * @return boolean Did every node pass every threshold rule?
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private static boolean runClusterScreen(Future<String> future, SamplingScheduler samplingScheduler, UUID runId, long startTime,
+			String testResultsKeyspace, String runsTable, String latencyResultsTable, String histogramTable, EventFlusher eventFlusher, String jmxNodes)
+			throws InterruptedException, IOException {
+		String runResultsTable = LoadPropertiesFile.getProperty("runResultsTable");
+
+		List<String> hosts;
+		if ("discover".equalsIgnoreCase(jmxNodes)) {
+			hosts = DbFunctions.getClusterNodes();
+		} else {
+			hosts = new ArrayList<>();
+			for (String host : jmxNodes.split(",")) {
+				if (!host.trim().isEmpty()) {
+					hosts.add(host.trim());
+				}
+			}
+		}
+
+		ClusterCollector clusterCollector = new ClusterCollector(hosts, "keyspace1");
+		DbFunctions.startRun(testResultsKeyspace, runsTable, runResultsTable, runId, hosts, startTime, "TestScreen of " + hosts);
+
+		// One flusher per node, all writing to the run results table.
+		List<ResultFlusher> resultFlushers = new ArrayList<>();
+		for (MetricSeries series : clusterCollector.getSeries()) {
+			ResultWriter resultWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, runResultsTable, series.getColumns(), runId, series.getNode());
+			ResultFlusher resultFlusher = new ResultFlusher(resultWriter, series);
+			resultFlusher.start();
+			resultFlushers.add(resultFlusher);
+			MetricsEndpoint.register(series, "jmx");
+		}
+		DbFunctions.addRunTable(testResultsKeyspace, runsTable, runId, "latency", latencyResultsTable);
+		for (NodeConnection node : clusterCollector.getNodes()) {
+			MetricSeries latencySeries = node.getHistograms().getSeries();
+			ResultWriter latencyWriter = DbFunctions.createRunResultWriter(testResultsKeyspace, latencyResultsTable, latencySeries.getColumns(), runId,
+					node.getHost());
+			ResultFlusher latencyFlusher = new ResultFlusher(latencyWriter, latencySeries);
+			latencyFlusher.start();
+			resultFlushers.add(latencyFlusher);
+			MetricsEndpoint.register(latencySeries, "latency");
+		}
+
+		// One recording per node.
+		List<RecordingWriter> recordingWriters = new ArrayList<>();
+		for (MetricSeries series : clusterCollector.getSeries()) {
+			RecordingWriter recordingWriter = RecordingWriter.create(series, "TestScreen");
+			if (recordingWriter != null) {
+				recordingWriters.add(recordingWriter);
+			}
+		}
+
+		while (!future.isDone()) {
+			clusterCollector.poll(samplingScheduler.awaitNextTick());
+			for (int i = 0; i < recordingWriters.size(); i++) {
+				recordingWriters.get(i).record(clusterCollector.getSeries().get(i));
+			}
+			for (ResultFlusher resultFlusher : resultFlushers) {
+				resultFlusher.awaitCapacity();
+			}
+		}
+
+		// Stop polling before the last flush, so no node appends behind the flushers.
+		clusterCollector.close();
+
+		for (int i = 0; i < recordingWriters.size(); i++) {
+			recordingWriters.get(i).record(clusterCollector.getSeries().get(i));
+			recordingWriters.get(i).close();
+		}
+
+		boolean rulesPassed = true;
+		for (NodeConnection node : clusterCollector.getNodes()) {
+			rulesPassed &= node.getStatistics().close();
+		}
+
+		for (ResultFlusher resultFlusher : resultFlushers) {
+			resultFlusher.close();
+		}
+		eventFlusher.close();
+		DbFunctions.finishRun(testResultsKeyspace, runsTable, runId, System.currentTimeMillis());
+
+		for (NodeConnection node : clusterCollector.getNodes()) {
+			node.getHistograms().logSummary();
+			DbFunctions.writeHistograms(testResultsKeyspace, histogramTable, node.getHost(), node.getHistograms());
+		}
+
+		if (ResultFlusher.isRetainingSamples()) {
+			for (MetricSeries series : clusterCollector.getSeries()) {
+				Chart.createChartHTML(Miscellaneous.validateMetricSeries(series), "TestScreen", eventFlusher.getEvents(series.getNode()));
+			}
+			for (NodeConnection node : clusterCollector.getNodes()) {
+				Chart.createChartHTML(node.getHistograms().getSeries(), "TestScreen_latency", eventFlusher.getEvents(node.getHost()));
+			}
+		} else {
+			logger.info("Samples were not retained in memory (retainSamples=false), skipping the validation and charts.");
+		}
+
+		return rulesPassed;
+	}
+
+}